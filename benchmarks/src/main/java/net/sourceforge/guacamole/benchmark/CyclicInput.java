@@ -0,0 +1,129 @@
+
+package net.sourceforge.guacamole.benchmark;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Endless input which repeats the same data forever, allowing a single
+ * GuacamoleReader to be measured across any number of benchmark operations
+ * without being recreated.
+ *
+ * @author Michael Jumper
+ */
+final class CyclicInput {
+
+    private CyclicInput() {}
+
+    /**
+     * An InputStream which repeats the given bytes forever.
+     */
+    static class Bytes extends InputStream {
+
+        private final byte[] data;
+        private int position = 0;
+
+        Bytes(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int value = data[position] & 0xFF;
+            position = (position + 1) % data.length;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+
+            // Never read past end of data, wrapping on next read
+            int count = Math.min(length, data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+
+            position = (position + count) % data.length;
+            return count;
+
+        }
+
+        @Override
+        public int available() {
+            return data.length - position;
+        }
+
+    }
+
+    /**
+     * A Reader which repeats the given characters forever.
+     */
+    static class Chars extends Reader {
+
+        private final char[] data;
+        private int position = 0;
+
+        Chars(String data) {
+            this.data = data.toCharArray();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+
+            // Never read past end of data, wrapping on next read
+            int count = Math.min(length, data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+
+            position = (position + count) % data.length;
+            return count;
+
+        }
+
+        @Override
+        public boolean ready() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+
+package net.sourceforge.guacamole.benchmark;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+
+/**
+ * Representative streams of Guacamole instructions, each exercising a
+ * different part of the parser and encoder. Every stream is generated from a
+ * fixed seed, such that runs are comparable.
+ *
+ * @author Michael Jumper
+ */
+public enum InstructionMix {
+
+    /**
+     * Many tiny drawing and input instructions, as sent while the mouse
+     * moves or the screen is updated in small increments.
+     */
+    TINY {
+
+        @Override
+        protected void generate(List<GuacamoleInstruction> instructions, Random random) {
+            for (int i=0; i<4096; i++) {
+                switch (i % 4) {
+                    case 0: instructions.add(new GuacamoleInstruction(Operation.CLIENT_MOUSE,
+                                Integer.toString(random.nextInt(1024)),
+                                Integer.toString(random.nextInt(768)), "0"));
+                            break;
+                    case 1: instructions.add(new GuacamoleInstruction(Operation.SERVER_RECT, "0",
+                                Integer.toString(random.nextInt(1024)),
+                                Integer.toString(random.nextInt(768)), "16", "16"));
+                            break;
+                    case 2: instructions.add(new GuacamoleInstruction(Operation.SERVER_CFILL, "14", "0",
+                                Integer.toString(random.nextInt(256)),
+                                Integer.toString(random.nextInt(256)),
+                                Integer.toString(random.nextInt(256)), "255"));
+                            break;
+                    default: instructions.add(new GuacamoleInstruction(Operation.SYNC,
+                                Long.toString(1000000L + i)));
+                }
+            }
+        }
+
+    },
+
+    /**
+     * A few huge png instructions, as sent when large regions of the screen
+     * change at once.
+     */
+    PNG {
+
+        /**
+         * The characters of base64-encoded data.
+         */
+        private static final String BASE64 =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+        @Override
+        protected void generate(List<GuacamoleInstruction> instructions, Random random) {
+            for (int i=0; i<4; i++) {
+
+                // Roughly 256 KB of image data each
+                char[] data = new char[262144];
+                for (int j=0; j<data.length; j++)
+                    data[j] = BASE64.charAt(random.nextInt(64));
+
+                instructions.add(new GuacamoleInstruction(Operation.SERVER_PNG,
+                        "14", "0", "0", Integer.toString(i * 256), new String(data)));
+                instructions.add(new GuacamoleInstruction(Operation.SYNC,
+                        Long.toString(1000000L + i)));
+
+            }
+        }
+
+    },
+
+    /**
+     * Instructions containing text outside ASCII, which is encoded as
+     * multibyte UTF-8 and which must be counted in characters.
+     */
+    UTF8 {
+
+        /**
+         * Text in several scripts, including characters outside the Basic
+         * Multilingual Plane.
+         */
+        private static final String TEXT =
+                "Grüße, Ελληνικά, Русский, 日本語のテキスト, 한국어, 😀👍";
+
+        @Override
+        protected void generate(List<GuacamoleInstruction> instructions, Random random) {
+            for (int i=0; i<1024; i++) {
+                int start = random.nextInt(TEXT.length() / 2);
+                instructions.add(new GuacamoleInstruction(Operation.SERVER_NAME,
+                        TEXT.substring(start) + i));
+                instructions.add(new GuacamoleInstruction(Operation.SYNC,
+                        Long.toString(1000000L + i)));
+            }
+        }
+
+    };
+
+    /**
+     * Adds the instructions of this mix to the given list.
+     *
+     * @param instructions The list to add instructions to.
+     * @param random The source of all random values, having a fixed seed.
+     */
+    protected abstract void generate(List<GuacamoleInstruction> instructions,
+            Random random);
+
+    /**
+     * Returns the instructions of this mix.
+     *
+     * @return A new array containing the instructions of this mix.
+     */
+    public GuacamoleInstruction[] getInstructions() {
+        List<GuacamoleInstruction> instructions = new ArrayList<GuacamoleInstruction>();
+        generate(instructions, new Random(0x6775616361L));
+        return instructions.toArray(new GuacamoleInstruction[instructions.size()]);
+    }
+
+    /**
+     * Returns the instructions of this mix, encoded as a single stream.
+     *
+     * @return The encoded instructions of this mix.
+     */
+    public String getStream() {
+
+        StringBuilder stream = new StringBuilder();
+        for (GuacamoleInstruction instruction : getInstructions())
+            stream.append(instruction.toString());
+
+        return stream.toString();
+
+    }
+
+    /**
+     * Returns the instructions of this mix, encoded as a single stream of
+     * UTF-8.
+     *
+     * @return The encoded instructions of this mix, as UTF-8.
+     */
+    public byte[] getUTF8Stream() {
+        try {
+            return getStream().getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported.", e);
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+
+package net.sourceforge.guacamole.benchmark;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.ReaderGuacamoleReader;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of each way of reading instructions, over each
+ * InstructionMix, from both character-based and UTF-8 byte-based sources.
+ * Each operation reads the entire mix once, from a reader which is created
+ * once per trial and which reads the same mix repeatedly, such that the
+ * allocation reported per operation is that of parsing alone.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+
+    /**
+     * The instructions read.
+     */
+    @Param({"TINY", "PNG", "UTF8"})
+    public InstructionMix mix;
+
+    /**
+     * The kind of source read from: "chars" for a ReaderGuacamoleReader, or
+     * "bytes" for an InputStreamGuacamoleReader reading UTF-8.
+     */
+    @Param({"chars", "bytes"})
+    public String source;
+
+    private ViewGuacamoleReader reader;
+    private MutableGuacamoleInstruction mutable;
+
+    /**
+     * The number of instructions within the mix.
+     */
+    private int instructionCount;
+
+    /**
+     * The length of the mix, in characters.
+     */
+    private int charLength;
+
+    /**
+     * The length of the mix in the units of the source, characters or
+     * bytes.
+     */
+    private int sourceLength;
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        String stream = mix.getStream();
+        byte[] utf8 = mix.getUTF8Stream();
+
+        instructionCount = mix.getInstructions().length;
+        charLength = stream.length();
+        mutable = new MutableGuacamoleInstruction();
+
+        if (source.equals("chars")) {
+            reader = new ReaderGuacamoleReader(new CyclicInput.Chars(stream));
+            sourceLength = stream.length();
+        }
+        else {
+            reader = new InputStreamGuacamoleReader(new CyclicInput.Bytes(utf8));
+            sourceLength = utf8.length;
+        }
+
+    }
+
+    /**
+     * Reads the mix as copied blocks of complete instructions.
+     */
+    @Benchmark
+    public void read(Blackhole blackhole) throws GuacamoleException {
+
+        int read = 0;
+        while (read < charLength) {
+            char[] chunk = reader.read();
+            read += chunk.length;
+            blackhole.consume(chunk);
+        }
+
+    }
+
+    /**
+     * Reads the mix as fully-parsed instructions.
+     */
+    @Benchmark
+    public void readInstruction(Blackhole blackhole) throws GuacamoleException {
+
+        for (int i=0; i<instructionCount; i++) {
+            GuacamoleInstruction instruction = reader.readInstruction();
+            blackhole.consume(instruction);
+        }
+
+    }
+
+    /**
+     * Reads the mix as instructions parsed in place, decoding the opcode
+     * only.
+     */
+    @Benchmark
+    public void readInstructionInPlace(Blackhole blackhole) throws GuacamoleException {
+
+        for (int i=0; i<instructionCount; i++) {
+            reader.readInstruction(mutable);
+            blackhole.consume(mutable.getOperation());
+        }
+
+    }
+
+    /**
+     * Reads the mix as views of all buffered instructions, as the tunnel
+     * servlet does.
+     */
+    @Benchmark
+    public void readBatch(Blackhole blackhole) throws GuacamoleException {
+
+        int read = 0;
+        while (read < sourceLength) {
+            InstructionView view = reader.readBatch();
+            read += view.getLength();
+            blackhole.consume(view);
+        }
+
+    }
+
+}
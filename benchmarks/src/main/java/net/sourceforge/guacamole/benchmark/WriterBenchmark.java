@@ -0,0 +1,156 @@
+
+package net.sourceforge.guacamole.benchmark;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import net.sourceforge.guacamole.io.ViewGuacamoleWriter;
+import net.sourceforge.guacamole.io.WriterGuacamoleWriter;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of encoding and writing instructions, over each
+ * InstructionMix, to both character-based and UTF-8 byte-based
+ * destinations which discard all data. Each operation writes the entire mix
+ * once.
+ *
+ * @author Michael Jumper
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriterBenchmark {
+
+    /**
+     * The instructions written.
+     */
+    @Param({"TINY", "PNG", "UTF8"})
+    public InstructionMix mix;
+
+    /**
+     * The kind of destination written to: "chars" for a
+     * WriterGuacamoleWriter, or "bytes" for an OutputStreamGuacamoleWriter
+     * writing UTF-8.
+     */
+    @Param({"chars", "bytes"})
+    public String destination;
+
+    private GuacamoleInstruction[] instructions;
+    private ViewGuacamoleWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        instructions = mix.getInstructions();
+
+        if (destination.equals("chars"))
+            writer = new WriterGuacamoleWriter(new Writer() {
+
+                @Override
+                public void write(char[] buffer, int offset, int length) {}
+
+                @Override
+                public void flush() {}
+
+                @Override
+                public void close() {}
+
+            });
+
+        else
+            writer = new OutputStreamGuacamoleWriter(new OutputStream() {
+
+                @Override
+                public void write(int value) {}
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) {}
+
+            });
+
+    }
+
+    /**
+     * Writes each instruction of the mix individually.
+     */
+    @Benchmark
+    public void writeInstruction() throws GuacamoleException {
+        for (GuacamoleInstruction instruction : instructions)
+            writer.writeInstruction(instruction);
+    }
+
+    /**
+     * Writes all instructions of the mix together.
+     */
+    @Benchmark
+    public void writeInstructions() throws GuacamoleException {
+        writer.writeInstructions(instructions);
+    }
+
+    /**
+     * Encodes each instruction of the mix as a String, for comparison with
+     * the encoding performed by the writers.
+     */
+    @Benchmark
+    public void encodeToString(Blackhole blackhole) {
+        for (GuacamoleInstruction instruction : instructions)
+            blackhole.consume(instruction.toString());
+    }
+
+}
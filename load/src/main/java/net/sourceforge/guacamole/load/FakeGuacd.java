@@ -0,0 +1,314 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.io.ViewGuacamoleWriter;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+
+/**
+ * An in-process stand-in for the Guacamole proxy, listening on the loopback
+ * interface. Each connection completes the usual select/args/connect
+ * handshake, after which the frames of a TrafficScript are streamed to the
+ * connection at a fixed rate, and all instructions received are discarded.
+ * As with the real proxy, each connection is serviced by its own threads.
+ *
+ * @author Michael Jumper
+ */
+public class FakeGuacd {
+
+    /**
+     * The arguments requested of each connection during the handshake.
+     */
+    private static final String[] ARGS = { "hostname", "port", "password" };
+
+    private ServerSocket server;
+    private TrafficScript script;
+    private int frameRate;
+
+    private volatile boolean running = true;
+
+    /**
+     * All currently-connected sockets.
+     */
+    private Set<Socket> connections =
+            ConcurrentHashMap.<Socket>newKeySet();
+
+    private AtomicLong bytesSent = new AtomicLong();
+    private AtomicLong instructionsReceived = new AtomicLong();
+
+    /**
+     * Creates a new FakeGuacd which will stream the given TrafficScript to
+     * each connection at the given rate, listening on an arbitrary free port
+     * of the loopback interface. No connections are accepted until start()
+     * is called.
+     *
+     * @param script The TrafficScript to stream to each connection.
+     * @param frameRate The number of frames to send to each connection per
+     *                  second, or zero to send frames as quickly as the
+     *                  connection accepts them.
+     * @throws IOException If the server socket cannot be created.
+     */
+    public FakeGuacd(TrafficScript script, int frameRate) throws IOException {
+        this.script = script;
+        this.frameRate = frameRate;
+        this.server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Returns the port this FakeGuacd is listening on.
+     *
+     * @return The port this FakeGuacd is listening on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Returns the total number of bytes of instruction data sent to all
+     * connections.
+     *
+     * @return The total number of bytes sent.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the total number of instructions received from all connections
+     * after their handshakes.
+     *
+     * @return The total number of instructions received.
+     */
+    public long getInstructionsReceived() {
+        return instructionsReceived.get();
+    }
+
+    /**
+     * Begins accepting connections.
+     */
+    public void start() {
+
+        Thread acceptor = new Thread("fake-guacd") {
+
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        Socket socket = server.accept();
+                        connections.add(socket);
+                        serveAsync(socket);
+                    }
+                    catch (IOException e) {
+                        // Stop accepting once closed
+                    }
+                }
+            }
+
+        };
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+    }
+
+    /**
+     * Stops accepting connections, and closes all open connections.
+     */
+    public void stop() {
+
+        running = false;
+
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            // Ignore failure to close
+        }
+
+        for (Socket socket : connections)
+            close(socket);
+
+    }
+
+    /**
+     * Services the given connection on a new thread.
+     */
+    private void serveAsync(final Socket socket) {
+
+        Thread thread = new Thread("fake-guacd-" + socket.getPort()) {
+
+            @Override
+            public void run() {
+                try {
+                    serve(socket);
+                }
+                catch (IOException e) {
+                    // Connection closed by client
+                }
+                catch (GuacamoleException e) {
+                    System.err.println("Fake guacd: " + e.getMessage());
+                }
+                finally {
+                    close(socket);
+                }
+            }
+
+        };
+
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    /**
+     * Performs the handshake with the given connection, and then streams
+     * frames to the connection until it is closed.
+     */
+    private void serve(Socket socket) throws IOException, GuacamoleException {
+
+        final ViewGuacamoleReader reader =
+                new InputStreamGuacamoleReader(socket.getInputStream());
+        ViewGuacamoleWriter writer =
+                new OutputStreamGuacamoleWriter(socket.getOutputStream());
+
+        // Wait for protocol
+        GuacamoleInstruction select = reader.readInstruction();
+        if (select == null || select.getOperation() != Operation.CLIENT_SELECT)
+            throw new GuacamoleException("Expected \"select\" during handshake.");
+
+        // Request arguments
+        writer.writeInstruction(new GuacamoleInstruction(Operation.SERVER_ARGS, ARGS));
+        writer.flush();
+
+        // Wait for argument values
+        GuacamoleInstruction connect = reader.readInstruction();
+        if (connect == null || connect.getOperation() != Operation.CLIENT_CONNECT)
+            throw new GuacamoleException("Expected \"connect\" during handshake.");
+
+        // Discard all input on a separate thread, as the proxy would
+        Thread drain = new Thread("fake-guacd-input-" + socket.getPort()) {
+
+            @Override
+            public void run() {
+                try {
+                    InstructionView view;
+                    while ((view = reader.readBatch()) != null)
+                        instructionsReceived.addAndGet(view.getInstructionCount());
+                }
+                catch (GuacamoleException e) {
+                    // Connection closed
+                }
+            }
+
+        };
+
+        drain.setDaemon(true);
+        drain.start();
+
+        // Stream frames at the requested rate
+        OutputStream out = socket.getOutputStream();
+        long interval = frameRate > 0 ? 1000000000L / frameRate : 0;
+        long next = System.nanoTime();
+
+        for (int frame = 0; running; frame = (frame + 1) % script.getFrameCount()) {
+
+            byte[] data = script.getFrame(frame);
+            out.write(data);
+            out.flush();
+            bytesSent.addAndGet(data.length);
+
+            // Wait until next frame is due, without drifting
+            if (interval > 0) {
+
+                next += interval;
+                long delay = next - System.nanoTime();
+
+                // If behind by more than a frame, skip ahead rather than
+                // sending a burst of frames
+                if (delay < -interval)
+                    next = System.nanoTime();
+
+                else if (delay > 0) {
+                    try {
+                        Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Closes the given connection, ignoring any errors.
+     */
+    private void close(Socket socket) {
+
+        connections.remove(socket);
+
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Ignore failure to close
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import javax.servlet.http.HttpServletRequest;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.net.ChannelGuacamoleSocket;
+import net.sourceforge.guacamole.net.GuacamoleSocket;
+import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.net.InetGuacamoleSocket;
+import net.sourceforge.guacamole.protocol.ConfiguredGuacamoleSocket;
+import net.sourceforge.guacamole.protocol.GuacamoleConfiguration;
+import net.sourceforge.guacamole.servlet.GuacamoleHTTPTunnelServlet;
+
+/**
+ * The tunnel servlet placed under load, connecting each tunnel to the fake
+ * Guacamole proxy whose port is given by the "guacd-port" init parameter.
+ * If the "socket" init parameter is "channel", tunnels use the non-blocking
+ * ChannelGuacamoleSocket, otherwise the blocking InetGuacamoleSocket.
+ *
+ * @author Michael Jumper
+ */
+public class HarnessTunnelServlet extends GuacamoleHTTPTunnelServlet {
+
+    @Override
+    protected GuacamoleTunnel doConnect(HttpServletRequest request)
+            throws GuacamoleException {
+
+        int port = Integer.parseInt(getInitParameter("guacd-port"));
+
+        // Connect using the requested socket implementation
+        GuacamoleSocket socket;
+        if ("channel".equals(getInitParameter("socket")))
+            socket = new ChannelGuacamoleSocket("localhost", port);
+        else
+            socket = new InetGuacamoleSocket("localhost", port);
+
+        GuacamoleConfiguration config = new GuacamoleConfiguration();
+        config.setProtocol("vnc");
+        config.setParameter("hostname", "localhost");
+        config.setParameter("port", "5900");
+
+        return new GuacamoleTunnel(new ConfiguredGuacamoleSocket(socket, config));
+
+    }
+
+}
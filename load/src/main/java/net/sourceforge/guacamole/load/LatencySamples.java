@@ -0,0 +1,110 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.Arrays;
+
+/**
+ * A thread-safe collection of latency samples, retained in full such that
+ * exact percentiles can be reported once a run completes.
+ *
+ * @author Michael Jumper
+ */
+public class LatencySamples {
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    /**
+     * Adds the given latency to this collection of samples.
+     *
+     * @param nanos The latency to add, in nanoseconds.
+     */
+    public synchronized void add(long nanos) {
+
+        // Grow as necessary
+        if (count == samples.length)
+            samples = Arrays.copyOf(samples, count * 2);
+
+        samples[count++] = nanos;
+
+    }
+
+    /**
+     * Returns the number of samples collected.
+     *
+     * @return The number of samples collected.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentiles of the samples collected, in
+     * nanoseconds, or zero for each if no samples have been collected.
+     *
+     * @param percentiles The percentiles to return, each between 0 and 100
+     *                    inclusive.
+     * @return The value of each given percentile, in nanoseconds.
+     */
+    public long[] getPercentiles(double... percentiles) {
+
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+
+        Arrays.sort(sorted);
+
+        long[] values = new long[percentiles.length];
+        if (sorted.length == 0)
+            return values;
+
+        // Nearest-rank percentile of each
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(percentiles[i] / 100.0 * sorted.length);
+            values[i] = sorted[Math.max(rank - 1, 0)];
+        }
+
+        return values;
+
+    }
+
+}
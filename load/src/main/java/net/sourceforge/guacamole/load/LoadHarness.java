@@ -0,0 +1,385 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.metrics.TunnelMetrics;
+import net.sourceforge.guacamole.servlet.GuacamoleMetricsServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Reproduces production load locally, by driving GuacamoleHTTPTunnelServlet
+ * within an embedded Jetty with many concurrent simulated browsers, each
+ * connected through its own tunnel to an in-process fake Guacamole proxy.
+ * Once the run completes, throughput, request latency percentiles, thread
+ * counts and heap usage per tunnel are reported.
+ *
+ * All options are given as "--name value":
+ *
+ * --browsers       The number of simulated browsers (default 50).
+ * --duration       The length of the run, in seconds (default 30).
+ * --frame-rate     Frames sent per second to each tunnel, or 0 for as fast
+ *                  as possible (default 30).
+ * --frame-size     The approximate size of each synthetic frame, in bytes
+ *                  (default 4096).
+ * --script         A file containing a raw instruction stream to send
+ *                  instead of synthetic frames, split into frames at each
+ *                  "sync".
+ * --input-rate     Write requests sent per second by each browser, or 0 for
+ *                  none (default 10).
+ * --socket         "inet" for InetGuacamoleSocket or "channel" for
+ *                  ChannelGuacamoleSocket (default inet).
+ * --read           "async" for Servlet 3.1 asynchronous reads or "sync" for
+ *                  blocking reads (default async).
+ * --max-threads    The maximum size of Jetty's thread pool (default 500).
+ * --metrics        "true" to enable guacamole-common metrics, published at
+ *                  /metrics during the run and summarized at the end
+ *                  (default false).
+ *
+ * @author Michael Jumper
+ */
+public class LoadHarness {
+
+    private int browsers = 50;
+    private int duration = 30;
+    private int frameRate = 30;
+    private int frameSize = 4096;
+    private File script = null;
+    private int inputRate = 10;
+    private String socket = "inet";
+    private boolean async = true;
+    private int maxThreads = 500;
+    private boolean metrics = false;
+
+    /**
+     * The interval between progress reports, in seconds.
+     */
+    private static final int PROGRESS_INTERVAL = 5;
+
+    private LoadHarness() {}
+
+    /**
+     * Runs the load harness with the given options.
+     *
+     * @param args The options of the run, as described above.
+     * @throws Exception If the run cannot be performed.
+     */
+    public static void main(String[] args) throws Exception {
+
+        LoadHarness harness = new LoadHarness();
+
+        // Parse options
+        for (int i = 0; i < args.length; i += 2) {
+
+            String name = args[i];
+            if (i + 1 >= args.length)
+                usage("Missing value for " + name);
+
+            String value = args[i + 1];
+
+            if (name.equals("--browsers"))
+                harness.browsers = Integer.parseInt(value);
+            else if (name.equals("--duration"))
+                harness.duration = Integer.parseInt(value);
+            else if (name.equals("--frame-rate"))
+                harness.frameRate = Integer.parseInt(value);
+            else if (name.equals("--frame-size"))
+                harness.frameSize = Integer.parseInt(value);
+            else if (name.equals("--script"))
+                harness.script = new File(value);
+            else if (name.equals("--input-rate"))
+                harness.inputRate = Integer.parseInt(value);
+            else if (name.equals("--socket"))
+                harness.socket = value;
+            else if (name.equals("--read"))
+                harness.async = !value.equals("sync");
+            else if (name.equals("--max-threads"))
+                harness.maxThreads = Integer.parseInt(value);
+            else if (name.equals("--metrics"))
+                harness.metrics = Boolean.parseBoolean(value);
+            else
+                usage("Unknown option: " + name);
+
+        }
+
+        harness.run();
+        System.exit(0);
+
+    }
+
+    /**
+     * Prints the given error and usage information, and exits.
+     */
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: java -jar load.jar [--browsers N] [--duration SECONDS]"
+                + " [--frame-rate FPS] [--frame-size BYTES] [--script FILE]"
+                + " [--input-rate PER_SECOND] [--socket inet|channel]"
+                + " [--read async|sync] [--max-threads N] [--metrics true|false]");
+        System.exit(1);
+    }
+
+    /**
+     * Performs a single run, printing progress and the final report.
+     */
+    private void run() throws Exception {
+
+        // Each browser may hold two reads and one write open at once
+        System.setProperty("http.maxConnections", Integer.toString(browsers * 3));
+
+        GuacamoleMetrics.setEnabled(metrics);
+
+        TrafficScript traffic = script != null
+                ? TrafficScript.recorded(script)
+                : TrafficScript.synthetic(frameSize);
+
+        // Start fake proxy
+        FakeGuacd guacd = new FakeGuacd(traffic, frameRate);
+        guacd.start();
+
+        // Start servlet container
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads);
+        pool.setName("jetty");
+
+        Server server = new Server(pool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setAcceptQueueSize(1024);
+        server.addConnector(connector);
+
+        ServletContextHandler context =
+                new ServletContextHandler(ServletContextHandler.SESSIONS);
+
+        ServletHolder tunnel = context.addServlet(HarnessTunnelServlet.class, "/tunnel");
+        tunnel.setAsyncSupported(async);
+        tunnel.setInitParameter("guacd-port", Integer.toString(guacd.getPort()));
+        tunnel.setInitParameter("socket", socket);
+
+        if (metrics)
+            context.addServlet(GuacamoleMetricsServlet.class, "/metrics");
+
+        server.setHandler(context);
+        server.start();
+
+        String baseURL = "http://127.0.0.1:" + connector.getLocalPort();
+
+        System.out.printf("Tunnel servlet at %s/tunnel (%s reads, %s sockets)%n",
+                baseURL, async ? "async" : "sync", socket);
+        System.out.printf("Fake guacd on port %d: %d frames of %d bytes avg, %s%n",
+                guacd.getPort(), traffic.getFrameCount(),
+                traffic.getAverageFrameSize(),
+                frameRate > 0 ? frameRate + " fps per tunnel" : "unthrottled");
+
+        // Baseline before any tunnels exist
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+        int baseThreads = threadBean.getThreadCount();
+        long baseHeap = usedHeap(memoryBean);
+        threadBean.resetPeakThreadCount();
+
+        // Connect all browsers
+        LoadStatistics statistics = new LoadStatistics();
+        ExecutorService readExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "browser-read-" + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        List<SimulatedBrowser> clients = new ArrayList<SimulatedBrowser>(browsers);
+        for (int i = 0; i < browsers; i++) {
+            SimulatedBrowser browser = new SimulatedBrowser(baseURL + "/tunnel",
+                    readExecutor, inputRate, statistics);
+            browser.connect();
+            clients.add(browser);
+        }
+
+        System.out.printf("Connected %d browsers.%n", browsers);
+
+        // Run for requested duration, reporting progress periodically
+        long start = System.nanoTime();
+        for (SimulatedBrowser browser : clients)
+            browser.start();
+
+        long lastBytes = 0;
+        long elapsed = 0;
+        while (elapsed < duration) {
+
+            int interval = Math.min(PROGRESS_INTERVAL, duration - (int) elapsed);
+            Thread.sleep(interval * 1000L);
+            elapsed += interval;
+
+            long bytes = statistics.getBytesRead();
+            System.out.printf("  %3ds: %8.2f MB/s, %d container threads busy, %d errors%n",
+                    elapsed, (bytes - lastBytes) / (interval * 1048576.0),
+                    pool.getBusyThreads(), statistics.getErrors());
+            lastBytes = bytes;
+
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Sample threads and heap while all tunnels are still open
+        int threads = threadBean.getThreadCount();
+        int peakThreads = threadBean.getPeakThreadCount();
+        int containerThreads = pool.getThreads();
+        long heap = usedHeap(memoryBean);
+
+        // Print metrics summary before tunnels close
+        String summary = metrics ? metricsSummary() : null;
+
+        // Stop everything
+        for (SimulatedBrowser browser : clients)
+            browser.stop();
+
+        server.stop();
+        guacd.stop();
+        readExecutor.shutdownNow();
+        readExecutor.awaitTermination(5, TimeUnit.SECONDS);
+
+        // Report
+        long[] connect = statistics.getConnectLatency().getPercentiles(50, 99, 100);
+        long[] read = statistics.getReadLatency().getPercentiles(50, 90, 99, 99.9, 100);
+        long[] write = statistics.getWriteLatency().getPercentiles(50, 90, 99, 99.9, 100);
+
+        System.out.println();
+        System.out.printf("Browsers:            %d over %.1f s%n", browsers, seconds);
+        System.out.printf("Throughput:          %.2f MB/s, %.0f instructions/s"
+                + " (guacd sent %.2f MB/s)%n",
+                statistics.getBytesRead() / seconds / 1048576.0,
+                statistics.getInstructionsRead() / seconds,
+                guacd.getBytesSent() / seconds / 1048576.0);
+        System.out.printf("Input:               %.0f writes/s, %d instructions"
+                + " received by guacd%n",
+                statistics.getWriteRequests() / seconds,
+                guacd.getInstructionsReceived());
+        System.out.printf("Connect latency:     p50 %s  p99 %s  max %s%n",
+                millis(connect[0]), millis(connect[1]), millis(connect[2]));
+        System.out.printf("Read first byte:     p50 %s  p90 %s  p99 %s  p99.9 %s"
+                + "  max %s (%d reads)%n",
+                millis(read[0]), millis(read[1]), millis(read[2]),
+                millis(read[3]), millis(read[4]), statistics.getReadRequests());
+        System.out.printf("Write latency:       p50 %s  p90 %s  p99 %s  p99.9 %s"
+                + "  max %s (%d writes)%n",
+                millis(write[0]), millis(write[1]), millis(write[2]),
+                millis(write[3]), millis(write[4]), statistics.getWriteRequests());
+        System.out.printf("Threads:             %d live (%d before connecting),"
+                + " %d peak, %d in container pool%n",
+                threads, baseThreads, peakThreads, containerThreads);
+        System.out.printf("Heap per tunnel:     %.1f KB (includes simulated browser"
+                + " and fake guacd state)%n",
+                (heap - baseHeap) / 1024.0 / browsers);
+        System.out.printf("Errors:              %d%n", statistics.getErrors());
+
+        if (summary != null) {
+            System.out.println();
+            System.out.print(summary);
+        }
+
+    }
+
+    /**
+     * Returns a summary of the server-side latencies recorded by
+     * guacamole-common metrics.
+     */
+    private static String metricsSummary() {
+
+        TunnelMetrics global = GuacamoleMetrics.getGlobalMetrics();
+
+        // Histogram percentiles are bucket upper bounds
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Server reader wait:  p50 %s  p99 %s%n",
+                millis(global.getReaderWaitHistogram().getPercentile(50)),
+                millis(global.getReaderWaitHistogram().getPercentile(99))));
+        summary.append(String.format("Server guacd read:   p50 %s  p99 %s%n",
+                millis(global.getGuacdReadHistogram().getPercentile(50)),
+                millis(global.getGuacdReadHistogram().getPercentile(99))));
+        summary.append(String.format("Server flush:        p50 %s  p99 %s%n",
+                millis(global.getFlushHistogram().getPercentile(50)),
+                millis(global.getFlushHistogram().getPercentile(99))));
+
+        return summary.toString();
+
+    }
+
+    /**
+     * Returns the heap currently in use, after requesting garbage collection
+     * such that only live objects are counted.
+     */
+    private static long usedHeap(MemoryMXBean memoryBean) throws InterruptedException {
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return memoryBean.getHeapMemoryUsage().getUsed();
+
+    }
+
+    /**
+     * Formats the given duration in nanoseconds as milliseconds.
+     */
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1e6);
+    }
+
+}
@@ -0,0 +1,183 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics gathered by all simulated browsers during a run of the load
+ * harness.
+ *
+ * @author Michael Jumper
+ */
+public class LoadStatistics {
+
+    private AtomicLong bytesRead = new AtomicLong();
+    private AtomicLong instructionsRead = new AtomicLong();
+    private AtomicLong readRequests = new AtomicLong();
+    private AtomicLong writeRequests = new AtomicLong();
+    private AtomicLong errors = new AtomicLong();
+
+    private LatencySamples connectLatency = new LatencySamples();
+    private LatencySamples readLatency = new LatencySamples();
+    private LatencySamples writeLatency = new LatencySamples();
+
+    /**
+     * Records the given amount of instruction data received by a browser.
+     *
+     * @param bytes The number of bytes received.
+     * @param instructions The number of complete instructions received.
+     */
+    public void recordData(long bytes, long instructions) {
+        bytesRead.addAndGet(bytes);
+        instructionsRead.addAndGet(instructions);
+    }
+
+    /**
+     * Records the completion of a connect request.
+     *
+     * @param nanos The time taken by the request, in nanoseconds.
+     */
+    public void recordConnect(long nanos) {
+        connectLatency.add(nanos);
+    }
+
+    /**
+     * Records the completion of a read request, measured as the time until
+     * its first data was received.
+     *
+     * @param nanos The time until the first data of the request was received,
+     *              in nanoseconds.
+     */
+    public void recordRead(long nanos) {
+        readRequests.incrementAndGet();
+        readLatency.add(nanos);
+    }
+
+    /**
+     * Records the completion of a write request.
+     *
+     * @param nanos The time taken by the request, in nanoseconds.
+     */
+    public void recordWrite(long nanos) {
+        writeRequests.incrementAndGet();
+        writeLatency.add(nanos);
+    }
+
+    /**
+     * Records a failed request.
+     */
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Returns the total number of bytes of instruction data received.
+     *
+     * @return The total number of bytes received.
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Returns the total number of instructions received.
+     *
+     * @return The total number of instructions received.
+     */
+    public long getInstructionsRead() {
+        return instructionsRead.get();
+    }
+
+    /**
+     * Returns the total number of read requests which received data.
+     *
+     * @return The total number of read requests.
+     */
+    public long getReadRequests() {
+        return readRequests.get();
+    }
+
+    /**
+     * Returns the total number of successful write requests.
+     *
+     * @return The total number of write requests.
+     */
+    public long getWriteRequests() {
+        return writeRequests.get();
+    }
+
+    /**
+     * Returns the total number of failed requests.
+     *
+     * @return The total number of failed requests.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Returns the latency of each connect request.
+     *
+     * @return The latency of each connect request.
+     */
+    public LatencySamples getConnectLatency() {
+        return connectLatency;
+    }
+
+    /**
+     * Returns the time until first data of each read request.
+     *
+     * @return The time until first data of each read request.
+     */
+    public LatencySamples getReadLatency() {
+        return readLatency;
+    }
+
+    /**
+     * Returns the latency of each write request.
+     *
+     * @return The latency of each write request.
+     */
+    public LatencySamples getWriteLatency() {
+        return writeLatency;
+    }
+
+}
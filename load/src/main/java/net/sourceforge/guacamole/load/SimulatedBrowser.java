@@ -0,0 +1,443 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simulated browser, using a single tunnel in the same way as the
+ * JavaScript Guacamole client. Instruction data is read with long-polling
+ * read requests, each of which begins as soon as the previous request
+ * receives its first data, and input is sent with write requests at a fixed
+ * rate. The time taken by each request is recorded within a shared
+ * LoadStatistics.
+ *
+ * @author Michael Jumper
+ */
+public class SimulatedBrowser {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String tunnelURL;
+    private ExecutorService readExecutor;
+    private int inputRate;
+    private LoadStatistics statistics;
+
+    private String uuid;
+    private String cookie;
+
+    /**
+     * The number of the next read request, which makes each read URL unique,
+     * as the JavaScript client does to defeat caching.
+     */
+    private AtomicInteger requestNumber = new AtomicInteger();
+
+    private volatile boolean running = false;
+    private Thread inputThread;
+
+    /**
+     * Creates a new SimulatedBrowser which will use the tunnel servlet at the
+     * given URL.
+     *
+     * @param tunnelURL The URL of the tunnel servlet.
+     * @param readExecutor The ExecutorService to run read requests with.
+     * @param inputRate The number of write requests to send per second, or
+     *                  zero to send no input.
+     * @param statistics The LoadStatistics to record all requests within.
+     */
+    public SimulatedBrowser(String tunnelURL, ExecutorService readExecutor,
+            int inputRate, LoadStatistics statistics) {
+        this.tunnelURL = tunnelURL;
+        this.readExecutor = readExecutor;
+        this.inputRate = inputRate;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Connects a new tunnel, retaining its UUID and the session cookie
+     * required to use it.
+     *
+     * @throws IOException If the tunnel cannot be connected.
+     */
+    public void connect() throws IOException {
+
+        long start = System.nanoTime();
+
+        HttpURLConnection connection = open("connect");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.getOutputStream().close();
+
+        checkStatus(connection);
+
+        // Session cookie, without attributes
+        cookie = connection.getHeaderField("Set-Cookie");
+        if (cookie != null && cookie.indexOf(';') != -1)
+            cookie = cookie.substring(0, cookie.indexOf(';'));
+
+        uuid = new String(readFully(connection.getInputStream()), UTF8).trim();
+        statistics.recordConnect(System.nanoTime() - start);
+
+    }
+
+    /**
+     * Begins reading from the connected tunnel, and sending input.
+     */
+    public void start() {
+
+        running = true;
+        startRead();
+
+        if (inputRate > 0) {
+
+            inputThread = new Thread("browser-input-" + uuid) {
+
+                @Override
+                public void run() {
+                    sendInput();
+                }
+
+            };
+
+            inputThread.setDaemon(true);
+            inputThread.start();
+
+        }
+
+    }
+
+    /**
+     * Stops starting new requests. Requests already in progress complete
+     * once the tunnel closes.
+     */
+    public void stop() {
+
+        running = false;
+
+        if (inputThread != null)
+            inputThread.interrupt();
+
+    }
+
+    /**
+     * Starts the next read request on the read executor.
+     */
+    private void startRead() {
+
+        if (!running)
+            return;
+
+        readExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                read();
+            }
+
+        });
+
+    }
+
+    /**
+     * Performs a single read request, starting the next read request once
+     * this request receives data, and recording all data received.
+     */
+    private void read() {
+
+        long start = System.nanoTime();
+        boolean started = false;
+
+        HttpURLConnection connection = null;
+        try {
+
+            connection = open("read:" + uuid + ":" + requestNumber.getAndIncrement());
+            checkStatus(connection);
+
+            InputStream in = connection.getInputStream();
+            InstructionCounter counter = new InstructionCounter();
+
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+
+                // Begin next read once this read has data
+                if (!started) {
+                    statistics.recordRead(System.nanoTime() - start);
+                    started = true;
+                    startRead();
+                }
+
+                statistics.recordData(length, counter.count(buffer, 0, length));
+
+            }
+
+            in.close();
+
+        }
+        catch (IOException e) {
+
+            // Errors after the run has stopped are expected
+            if (running) {
+                statistics.recordError();
+                running = false;
+            }
+
+            if (connection != null)
+                connection.disconnect();
+
+            return;
+
+        }
+
+        // An empty response still permits the next read
+        if (!started)
+            startRead();
+
+    }
+
+    /**
+     * Sends mouse movement as write requests at the input rate until stopped.
+     */
+    private void sendInput() {
+
+        long interval = 1000000000L / inputRate;
+        long next = System.nanoTime();
+
+        for (int i = 0; running; i++) {
+
+            String x = Integer.toString(i % 1024);
+            String y = Integer.toString(i % 768);
+            String instruction = "5.mouse," + x.length() + "." + x
+                    + "," + y.length() + "." + y + ",1.0;";
+
+            long start = System.nanoTime();
+            try {
+                write(instruction);
+                statistics.recordWrite(System.nanoTime() - start);
+            }
+            catch (IOException e) {
+                if (running) {
+                    statistics.recordError();
+                    running = false;
+                }
+                return;
+            }
+
+            // Wait until next input is due
+            next += interval;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Sends the given instruction data within a single write request.
+     */
+    private void write(String instructions) throws IOException {
+
+        HttpURLConnection connection = open("write:" + uuid);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+        OutputStream out = connection.getOutputStream();
+        out.write(instructions.getBytes(UTF8));
+        out.close();
+
+        checkStatus(connection);
+        readFully(connection.getInputStream());
+
+    }
+
+    /**
+     * Opens a connection to the tunnel servlet with the given query string,
+     * sending the session cookie if known.
+     */
+    private HttpURLConnection open(String query) throws IOException {
+
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(tunnelURL + "?" + query).openConnection();
+
+        if (cookie != null)
+            connection.setRequestProperty("Cookie", cookie);
+
+        return connection;
+
+    }
+
+    /**
+     * Throws an IOException if the given connection did not succeed.
+     */
+    private static void checkStatus(HttpURLConnection connection)
+            throws IOException {
+
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK)
+            throw new IOException("HTTP " + status);
+
+    }
+
+    /**
+     * Reads the given stream in its entirety, closing it once read.
+     */
+    private static byte[] readFully(InputStream in) throws IOException {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) != -1)
+            data.write(buffer, 0, length);
+
+        in.close();
+        return data.toByteArray();
+
+    }
+
+    /**
+     * Counts the complete instructions within a stream of raw UTF-8
+     * instruction data received in arbitrary portions, excluding the
+     * end-of-instructions marker which ends each read response. Element
+     * lengths are in characters, thus the UTF-8 is decoded only as far as
+     * necessary to count characters.
+     */
+    private static class InstructionCounter {
+
+        private static final int LENGTH = 0;
+        private static final int VALUE = 1;
+        private static final int TERMINATOR = 2;
+
+        private int state = LENGTH;
+        private int elementLength = 0;
+        private int remaining = 0;
+
+        private boolean opcode = true;
+        private boolean emptyOpcode = false;
+
+        /**
+         * Counts the instructions completed by the given data.
+         */
+        public int count(byte[] data, int offset, int length) {
+
+            int count = 0;
+
+            for (int i = offset; i < offset + length; i++) {
+
+                byte b = data[i];
+
+                switch (state) {
+
+                    // Element length, up to the period
+                    case LENGTH:
+
+                        if (b == '.') {
+
+                            remaining = elementLength;
+                            elementLength = 0;
+
+                            if (opcode)
+                                emptyOpcode = remaining == 0;
+
+                            state = remaining > 0 ? VALUE : TERMINATOR;
+
+                        }
+                        else
+                            elementLength = elementLength * 10 + (b - '0');
+
+                        break;
+
+                    // Element value, counting characters (supplementary
+                    // characters count as two, as in Java)
+                    case VALUE:
+
+                        if ((b & 0xC0) != 0x80)
+                            remaining -= (b & 0xF8) == 0xF0 ? 2 : 1;
+
+                        if (remaining <= 0)
+                            state = TERMINATOR;
+
+                        break;
+
+                    // Continuation bytes of the final character, then the
+                    // element terminator
+                    case TERMINATOR:
+
+                        if ((b & 0xC0) == 0x80)
+                            break;
+
+                        if (b == ';') {
+                            if (!emptyOpcode)
+                                count++;
+                            opcode = true;
+                        }
+                        else
+                            opcode = false;
+
+                        state = LENGTH;
+                        break;
+
+                }
+
+            }
+
+            return count;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,316 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+
+/**
+ * The instruction traffic streamed by the fake Guacamole proxy to each
+ * connection, as a sequence of frames. Each frame is the raw UTF-8 data of
+ * one or more complete instructions, ending with a "sync" instruction where
+ * the source of the traffic contains one. Frames are sent in order and
+ * repeated indefinitely.
+ *
+ * @author Michael Jumper
+ */
+public class TrafficScript {
+
+    /**
+     * The number of distinct frames generated for synthetic traffic.
+     */
+    private static final int SYNTHETIC_FRAMES = 64;
+
+    /**
+     * The raw opcode element of the "sync" instruction.
+     */
+    private static final byte[] SYNC = { '4', '.', 's', 'y', 'n', 'c' };
+
+    /**
+     * The characters used within generated image data.
+     */
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[][] frames;
+    private int[] instructions;
+
+    /**
+     * Creates a new TrafficScript consisting of the given frames.
+     *
+     * @param frames The raw data of each frame.
+     * @param instructions The number of instructions within each frame.
+     */
+    private TrafficScript(byte[][] frames, int[] instructions) {
+        this.frames = frames;
+        this.instructions = instructions;
+    }
+
+    /**
+     * Returns a TrafficScript of generated frames resembling the output of
+     * the Guacamole proxy for a busy remote desktop: several small drawing
+     * instructions followed by image data, for a total of roughly the given
+     * number of bytes per frame, ending with a "sync".
+     *
+     * @param frameSize The approximate size of each frame, in bytes.
+     * @return A TrafficScript of generated frames.
+     */
+    public static TrafficScript synthetic(int frameSize) {
+
+        Random random = new Random(0);
+
+        byte[][] frames = new byte[SYNTHETIC_FRAMES][];
+        int[] instructions = new int[SYNTHETIC_FRAMES];
+
+        for (int i = 0; i < SYNTHETIC_FRAMES; i++) {
+
+            StringBuilder frame = new StringBuilder(frameSize + 64);
+            int count = 0;
+
+            // Cursor and copy instructions, as from typical screen updates
+            frame.append(instruction("cursor", "0", "0", "-1", "0", "0", "16", "16"));
+            frame.append(instruction("copy", "0", "0", "0", "64", "64", "14", "0",
+                    Integer.toString(random.nextInt(1024)),
+                    Integer.toString(random.nextInt(768))));
+            count += 2;
+
+            // Image data, in chunks no larger than those sent by guacd
+            while (frame.length() < frameSize) {
+
+                int length = Math.min(4096, frameSize - frame.length());
+                char[] data = new char[Math.max(length, 4)];
+                for (int j = 0; j < data.length; j++)
+                    data[j] = BASE64[random.nextInt(64)];
+
+                frame.append(instruction("png", "14", "0",
+                        Integer.toString(random.nextInt(1024)),
+                        Integer.toString(random.nextInt(768)),
+                        new String(data)));
+                count++;
+
+            }
+
+            frame.append(instruction("sync", Integer.toString(i)));
+            count++;
+
+            frames[i] = frame.toString().getBytes(UTF8);
+            instructions[i] = count;
+
+        }
+
+        return new TrafficScript(frames, instructions);
+
+    }
+
+    /**
+     * Returns a TrafficScript of the frames within the given file, which
+     * must contain a raw Guacamole instruction stream, such as one recorded
+     * from a real connection. The stream is split into frames after each
+     * "sync" instruction.
+     *
+     * @param file The file containing the instruction stream.
+     * @return A TrafficScript of the frames within the given file.
+     * @throws IOException If the file cannot be read.
+     * @throws GuacamoleException If the file does not contain a valid
+     *                            instruction stream, or contains no
+     *                            instructions.
+     */
+    public static TrafficScript recorded(File file)
+            throws IOException, GuacamoleException {
+
+        InputStream in = new FileInputStream(file);
+        try {
+            return recorded(in);
+        }
+        finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Returns a TrafficScript of the frames within the given raw Guacamole
+     * instruction stream, split after each "sync" instruction.
+     *
+     * @param in The stream to read instructions from.
+     * @return A TrafficScript of the frames within the given stream.
+     * @throws GuacamoleException If the stream does not contain a valid
+     *                            instruction stream, or contains no
+     *                            instructions.
+     */
+    public static TrafficScript recorded(InputStream in)
+            throws GuacamoleException {
+
+        InputStreamGuacamoleReader reader = new InputStreamGuacamoleReader(in);
+
+        List<byte[]> frames = new ArrayList<byte[]>();
+        List<Integer> instructions = new ArrayList<Integer>();
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int count = 0;
+
+        InstructionView view;
+        while ((view = reader.readView()) != null) {
+
+            frame.write(view.getBytes(), view.getOffset(), view.getLength());
+            count++;
+
+            // End frame after each sync
+            if (isSync(view.getBytes(), view.getOffset(), view.getLength())) {
+                frames.add(frame.toByteArray());
+                instructions.add(count);
+                frame.reset();
+                count = 0;
+            }
+
+        }
+
+        // Any trailing instructions form a final frame
+        if (count > 0) {
+            frames.add(frame.toByteArray());
+            instructions.add(count);
+        }
+
+        if (frames.isEmpty())
+            throw new GuacamoleException("No instructions in traffic script.");
+
+        int[] counts = new int[instructions.size()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = instructions.get(i);
+
+        return new TrafficScript(frames.toArray(new byte[frames.size()][]), counts);
+
+    }
+
+    /**
+     * Returns the number of frames in this TrafficScript.
+     *
+     * @return The number of frames in this TrafficScript.
+     */
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * Returns the raw data of the given frame.
+     *
+     * @param index The index of the frame to return.
+     * @return The raw UTF-8 data of the given frame.
+     */
+    public byte[] getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * Returns the number of instructions within the given frame.
+     *
+     * @param index The index of the frame.
+     * @return The number of instructions within the given frame.
+     */
+    public int getInstructionCount(int index) {
+        return instructions[index];
+    }
+
+    /**
+     * Returns the average size of the frames in this TrafficScript, in bytes.
+     *
+     * @return The average size of each frame, in bytes.
+     */
+    public int getAverageFrameSize() {
+
+        long total = 0;
+        for (byte[] frame : frames)
+            total += frame.length;
+
+        return (int) (total / frames.length);
+
+    }
+
+    /**
+     * Returns whether the instruction at the given offset within the given
+     * data is a "sync" instruction.
+     */
+    private static boolean isSync(byte[] data, int offset, int length) {
+
+        if (length < SYNC.length + 1)
+            return false;
+
+        for (int i = 0; i < SYNC.length; i++) {
+            if (data[offset + i] != SYNC[i])
+                return false;
+        }
+
+        // Opcode must end where "sync" ends
+        byte terminator = data[offset + SYNC.length];
+        return terminator == ',' || terminator == ';';
+
+    }
+
+    /**
+     * Returns the Guacamole protocol representation of the instruction having
+     * the given opcode and arguments. Only characters within the Basic
+     * Multilingual Plane are expected.
+     */
+    private static String instruction(String opcode, String... args) {
+
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(opcode.length()).append('.').append(opcode);
+
+        for (String arg : args)
+            buffer.append(',').append(arg.length()).append('.').append(arg);
+
+        return buffer.append(';').toString();
+
+    }
+
+}
@@ -0,0 +1,371 @@
+
+package net.sourceforge.guacamole.load;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpointConfig;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.net.ChannelGuacamoleSocket;
+import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.protocol.ConfiguredGuacamoleSocket;
+import net.sourceforge.guacamole.protocol.GuacamoleConfiguration;
+import net.sourceforge.guacamole.websocket.GuacamoleWebSocketTunnelEndpoint;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the HTTP and WebSocket tunnels end to end, between real clients and
+ * an embedded servlet container connected to a FakeGuacd.
+ *
+ * @author Michael Jumper
+ */
+public class TunnelRoundTripTest {
+
+    /**
+     * The length of time to wait for instructions to reach FakeGuacd, in
+     * milliseconds.
+     */
+    private static final long DELIVERY_TIMEOUT = 5000;
+
+    private static FakeGuacd guacd;
+    private static Server server;
+    private static String baseURL;
+
+    /**
+     * WebSocket endpoint connecting each session to the running FakeGuacd.
+     */
+    public static class TestEndpoint extends GuacamoleWebSocketTunnelEndpoint {
+
+        @Override
+        protected GuacamoleTunnel createTunnel(Session session,
+                EndpointConfig config) throws GuacamoleException {
+
+            GuacamoleConfiguration guacConfig = new GuacamoleConfiguration();
+            guacConfig.setProtocol("vnc");
+
+            return new GuacamoleTunnel(new ConfiguredGuacamoleSocket(
+                    new ChannelGuacamoleSocket("localhost", guacd.getPort()),
+                    guacConfig));
+
+        }
+
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+
+        guacd = new FakeGuacd(TrafficScript.synthetic(16384), 50);
+        guacd.start();
+
+        ServletContextHandler context =
+                new ServletContextHandler(ServletContextHandler.SESSIONS);
+
+        // HTTP tunnel
+        ServletHolder tunnel = new ServletHolder(HarnessTunnelServlet.class);
+        tunnel.setInitParameter("guacd-port", Integer.toString(guacd.getPort()));
+        tunnel.setInitParameter("socket", "channel");
+        tunnel.setAsyncSupported(true);
+        context.addServlet(tunnel, "/tunnel");
+
+        // WebSocket tunnel
+        ServerContainer container =
+                WebSocketServerContainerInitializer.configureContext(context);
+        container.addEndpoint(ServerEndpointConfig.Builder
+                .create(TestEndpoint.class, "/websocket-tunnel")
+                .subprotocols(Arrays.asList("guacamole"))
+                .build());
+
+        server = new Server(0);
+        server.setHandler(context);
+        server.start();
+
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        baseURL = "localhost:" + port;
+
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.stop();
+        guacd.stop();
+    }
+
+    /**
+     * Sends a request to the HTTP tunnel with the given query string,
+     * posting the given body, if any.
+     */
+    private static HttpURLConnection request(String query, String cookie,
+            String body) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://" + baseURL + "/tunnel?" + query).openConnection();
+
+        if (cookie != null)
+            connection.setRequestProperty("Cookie", cookie);
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            OutputStream out = connection.getOutputStream();
+            out.write(body.getBytes("UTF-8"));
+            out.close();
+        }
+
+        return connection;
+
+    }
+
+    /**
+     * Reads the given stream in its entirety, closing it once read.
+     */
+    private static String readFully(InputStream in) throws IOException {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1)
+            data.write(buffer, 0, length);
+
+        in.close();
+        return data.toString("UTF-8");
+
+    }
+
+    /**
+     * Returns the number of instructions within the given data, failing if
+     * the data does not consist entirely of complete instructions.
+     */
+    private static int countInstructions(String data) {
+
+        int count = 0;
+        int i = 0;
+        while (i < data.length()) {
+
+            // Skip element, verifying its length
+            int dot = data.indexOf('.', i);
+            assertTrue("Element has no length", dot > i);
+            i = dot + 1 + Integer.parseInt(data.substring(i, dot));
+            assertTrue("Element truncated", i < data.length());
+
+            // Each element is followed by a terminator or separator
+            char terminator = data.charAt(i++);
+            if (terminator == ';')
+                count++;
+            else
+                assertEquals(',', terminator);
+
+        }
+
+        return count;
+
+    }
+
+    /**
+     * Waits until FakeGuacd has received at least the given number of
+     * instructions, returning the number actually received.
+     */
+    private static long awaitInstructions(long expected)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT;
+        while (guacd.getInstructionsReceived() < expected
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        return guacd.getInstructionsReceived();
+
+    }
+
+    @Test
+    public void testHTTPRoundTrip() throws Exception {
+
+        // Connect, retrieving session cookie and tunnel UUID
+        HttpURLConnection connect = request("connect", null, "");
+        assertEquals(HttpURLConnection.HTTP_OK, connect.getResponseCode());
+        String cookie = connect.getHeaderField("Set-Cookie").split(";")[0];
+        String uuid = readFully(connect.getInputStream()).trim();
+
+        // Complete instructions are forwarded
+        long received = guacd.getInstructionsReceived();
+        HttpURLConnection write = request("write:" + uuid, cookie,
+                "4.sync,1.1;3.key,2.65,1.1;");
+        assertEquals(HttpURLConnection.HTTP_OK, write.getResponseCode());
+        assertEquals(received + 2, awaitInstructions(received + 2));
+
+        // Bodies spanning many buffers are forwarded whole
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            body.append("5.mouse,1.1,1.2,1.0;");
+
+        received = guacd.getInstructionsReceived();
+        write = request("write:" + uuid, cookie, body.toString());
+        assertEquals(HttpURLConnection.HTTP_OK, write.getResponseCode());
+        assertEquals(received + 20000, awaitInstructions(received + 20000));
+
+        // A trailing partial instruction is refused, while the complete
+        // instructions before it are still forwarded
+        received = guacd.getInstructionsReceived();
+        write = request("write:" + uuid, cookie, "4.sync,1.1;4.syn");
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, write.getResponseCode());
+        assertEquals(received + 1, awaitInstructions(received + 1));
+
+        // Malformed instructions are refused
+        write = request("write:" + uuid, cookie, "x.sync;");
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, write.getResponseCode());
+
+        // Begin streaming
+        HttpURLConnection read = request("read:" + uuid + ":0", cookie, null);
+        assertEquals(HttpURLConnection.HTTP_OK, read.getResponseCode());
+
+        // A read ends only once the next read is waiting to take over
+        final HttpURLConnection next = request("read:" + uuid + ":1", cookie, null);
+        FutureTask<Integer> nextStatus = new FutureTask<Integer>(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws IOException {
+                return next.getResponseCode();
+            }
+
+        });
+
+        new Thread(nextStatus).start();
+
+        // Reads contain only complete instructions, followed by the
+        // end-of-instructions marker
+        String data = readFully(read.getInputStream());
+        assertTrue(data.endsWith(";0.;"));
+        assertTrue(countInstructions(data) > 1);
+
+        assertEquals(HttpURLConnection.HTTP_OK, (int) nextStatus.get());
+        next.disconnect();
+
+    }
+
+    @Test
+    public void testWebSocketRoundTrip() throws Exception {
+
+        final List<String> messages = new CopyOnWriteArrayList<String>();
+
+        WebSocketContainer client = ContainerProvider.getWebSocketContainer();
+        client.setDefaultMaxTextMessageBufferSize(1 << 20);
+
+        Session session = client.connectToServer(new Endpoint() {
+
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+
+                    @Override
+                    public void onMessage(String message) {
+                        messages.add(message);
+                    }
+
+                });
+            }
+
+        },
+        ClientEndpointConfig.Builder.create()
+                .preferredSubprotocols(Arrays.asList("guacamole"))
+                .build(),
+        new URI("ws://" + baseURL + "/websocket-tunnel"));
+
+        try {
+
+            // Complete instructions are forwarded
+            long received = guacd.getInstructionsReceived();
+            session.getBasicRemote().sendText("4.sync,1.1;3.key,2.65,1.1;");
+            assertEquals(received + 2, awaitInstructions(received + 2));
+
+            // Instructions split across messages are forwarded once whole
+            received = guacd.getInstructionsReceived();
+            session.getBasicRemote().sendText("4.sync,1.2;5.mouse,1.1,");
+            session.getBasicRemote().sendText("1.2,1.0;");
+            assertEquals(received + 2, awaitInstructions(received + 2));
+
+            // Wait for frames from FakeGuacd
+            long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT;
+            while (messages.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            // Each message contains only complete instructions
+            assertTrue(session.isOpen());
+            assertTrue(!messages.isEmpty());
+            for (String message : messages)
+                assertTrue(countInstructions(message) > 0);
+
+        }
+        finally {
+            session.close();
+        }
+
+    }
+
+}
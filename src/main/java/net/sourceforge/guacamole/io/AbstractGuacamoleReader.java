@@ -0,0 +1,649 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+
+/**
+ * Base class of the ViewGuacamoleReaders which parse a buffered Guacamole
+ * instruction stream in place. The parse state machine, buffer management
+ * and instruction reads are shared, while subclasses provide the buffer
+ * itself, whether of bytes or of characters, along with the reads which
+ * fill it and the handling of the characters within each element.
+ *
+ * @author Michael Jumper
+ */
+abstract class AbstractGuacamoleReader implements ViewGuacamoleReader {
+
+    /**
+     * Parse state denoting that the length of an element is being read.
+     */
+    private static final int STATE_LENGTH = 0;
+
+    /**
+     * Parse state denoting that the content of an element is being read.
+     */
+    private static final int STATE_ELEMENT = 1;
+
+    /**
+     * Parse state denoting that the terminator of an element is expected.
+     */
+    private static final int STATE_TERMINATOR = 2;
+
+    /**
+     * The sizing limits of the buffer.
+     */
+    private final BufferConfiguration config;
+
+    /**
+     * The use of the buffer, deciding when a buffer grown beyond the shrink
+     * size has gone unused long enough to be shrunk.
+     */
+    private final BufferUsage bufferUsage;
+
+    /**
+     * The location of the first unit of the next instruction within the
+     * buffer.
+     */
+    private int instructionStart = 0;
+
+    /**
+     * The location within the buffer of the next unit to be parsed.
+     */
+    private int parseStart = 0;
+
+    /**
+     * The number of units at the beginning of the buffer which contain data,
+     * including data already returned as part of an instruction. Units
+     * between instructionStart and usedLength have been read but not yet
+     * returned as part of any instruction.
+     */
+    private int usedLength = 0;
+
+    /**
+     * The current parse state, one of STATE_LENGTH, STATE_ELEMENT, or
+     * STATE_TERMINATOR.
+     */
+    private int state = STATE_LENGTH;
+
+    /**
+     * The length of the element being parsed, while in STATE_LENGTH, or the
+     * number of characters of the element remaining, while in STATE_ELEMENT.
+     * Updated by skipElement() as element content is skipped.
+     */
+    int elementLength = 0;
+
+    /**
+     * The offset of the start of each element of the instruction being
+     * parsed, relative to the start of the instruction.
+     */
+    private int[] elementOffsets = new int[64];
+
+    /**
+     * The length of each element of the instruction being parsed, in units
+     * of the buffer.
+     */
+    private int[] elementLengths = new int[64];
+
+    /**
+     * The number of elements of the instruction being parsed whose offsets
+     * have been recorded.
+     */
+    private int elementCount = 0;
+
+    /**
+     * Whether part of the current instruction has already been returned by
+     * readFragment().
+     */
+    private boolean partial = false;
+
+    /**
+     * Reusable view of the most recently read instruction.
+     */
+    private final InstructionView view = new InstructionView();
+
+    /**
+     * Reusable instruction for the sake of readInstruction().
+     */
+    private final MutableGuacamoleInstruction parsed = new MutableGuacamoleInstruction();
+
+    /**
+     * Creates a new AbstractGuacamoleReader whose buffer is sized according
+     * to the given BufferConfiguration. The subclass must allocate a buffer
+     * of the initial size given by that configuration.
+     *
+     * @param config The sizing limits of the buffer.
+     */
+    AbstractGuacamoleReader(BufferConfiguration config) {
+        this.config = config;
+        this.bufferUsage = new BufferUsage(config.getInitialSize(), config.getShrinkSize());
+    }
+
+    /**
+     * Returns the current size of the buffer, in units.
+     *
+     * @return The current size of the buffer.
+     */
+    abstract int capacity();
+
+    /**
+     * Replaces the buffer with a new, empty buffer of the given size.
+     *
+     * @param capacity The size of the new buffer, in units.
+     */
+    abstract void reallocate(int capacity);
+
+    /**
+     * Moves the given range of the buffer to the beginning of a buffer of
+     * the given size, allocating a new buffer only if that size differs from
+     * the current size.
+     *
+     * @param capacity The size of the buffer, in units.
+     * @param offset The offset of the first unit to move.
+     * @param length The number of units to move.
+     */
+    abstract void relocate(int capacity, int offset, int length);
+
+    /**
+     * Reads data from the wrapped input into the given range of the buffer,
+     * blocking until at least one unit is available.
+     *
+     * @param offset The offset within the buffer at which to store data.
+     * @param length The maximum number of units to read.
+     * @return The number of units read, or -1 if the end of the input has
+     *         been reached.
+     * @throws IOException If an error occurs while reading.
+     */
+    abstract int fill(int offset, int length) throws IOException;
+
+    /**
+     * Returns whether the wrapped input can be read without blocking.
+     *
+     * @return true if the wrapped input can be read without blocking, false
+     *         otherwise.
+     * @throws IOException If an error occurs while checking the input.
+     */
+    abstract boolean inputAvailable() throws IOException;
+
+    /**
+     * Returns the unit of the buffer at the given index.
+     *
+     * @param index The index of the unit within the buffer.
+     * @return The unit at the given index.
+     */
+    abstract int unitAt(int index);
+
+    /**
+     * Skips the content of the element being parsed, starting at the given
+     * offset, until either the end of the element or the given end of the
+     * parseable data is reached, decreasing elementLength by the number of
+     * characters skipped. A character is only skipped once all of its units
+     * are buffered.
+     *
+     * @param offset The offset of the first unit to skip.
+     * @param end The offset just past the last unit which may be skipped.
+     * @return The offset of the first unit not skipped.
+     * @throws GuacamoleException If the element length does not fall on a
+     *                            character boundary.
+     */
+    abstract int skipElement(int offset, int end) throws GuacamoleException;
+
+    /**
+     * Returns the end of the longest prefix of the given range which can be
+     * returned as a fragment, such that no character is split between
+     * fragments in a way that could not be encoded. By default, the entire
+     * range may be returned.
+     *
+     * @param start The offset of the start of the range.
+     * @param end The offset just past the end of the range.
+     * @return The offset just past the end of the fragment.
+     */
+    int fragmentEnd(int start, int end) {
+        return end;
+    }
+
+    /**
+     * Points the given view at the given range of the buffer.
+     *
+     * @param view The view to update.
+     * @param offset The offset of the first unit of the range.
+     * @param length The number of units in the range.
+     * @param instructionCount The number of complete instructions within the
+     *                         range.
+     * @param complete Whether the range ends at the end of an instruction.
+     */
+    abstract void setView(InstructionView view, int offset, int length,
+            int instructionCount, boolean complete);
+
+    /**
+     * Resets the given instruction such that its elements are located
+     * within the buffer.
+     *
+     * @param instruction The instruction to reset.
+     */
+    abstract void resetInstruction(MutableGuacamoleInstruction instruction);
+
+    /**
+     * Returns whether the character beginning at the given offset is
+     * entirely buffered, such that it can be parsed without further input.
+     * By default, every unit is a complete character.
+     *
+     * @param offset The offset of the first unit of the character.
+     * @param end The offset just past the last buffered unit.
+     * @return true if the character is entirely buffered, false otherwise.
+     */
+    boolean characterAvailable(int offset, int end) {
+        return true;
+    }
+
+    @Override
+    public boolean available() throws GuacamoleException {
+
+        try {
+
+            // Data not yet buffered can always be read
+            if (inputAvailable())
+                return true;
+
+            // Data already parsed can be returned as a fragment
+            if (fragmentEnd(instructionStart, parseStart) != instructionStart)
+                return true;
+
+            // Otherwise, only buffered data which can be parsed without
+            // further input is available. The beginning of an incomplete
+            // character is not, as reading it would block.
+            if (parseStart == usedLength)
+                return false;
+
+            return state != STATE_ELEMENT || elementLength == 0
+                || characterAvailable(parseStart, usedLength);
+
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+    }
+
+    @Override
+    public char[] read() throws GuacamoleException {
+
+        // Copy next instruction out of buffer, if any
+        InstructionView instruction = readView();
+        if (instruction == null)
+            return null;
+
+        return instruction.toCharArray();
+
+    }
+
+    /**
+     * Records the start of a new element of the current instruction.
+     *
+     * @param offset The offset of the start of the element, relative to the
+     *               start of the instruction.
+     */
+    private void startElement(int offset) {
+
+        // Expand storage if necessary
+        if (elementCount == elementOffsets.length) {
+
+            int[] biggerOffsets = new int[elementOffsets.length*2];
+            System.arraycopy(elementOffsets, 0, biggerOffsets, 0, elementCount);
+            elementOffsets = biggerOffsets;
+
+            int[] biggerLengths = new int[elementLengths.length*2];
+            System.arraycopy(elementLengths, 0, biggerLengths, 0, elementCount);
+            elementLengths = biggerLengths;
+
+        }
+
+        elementOffsets[elementCount] = offset;
+
+    }
+
+    /**
+     * Parses as much of the buffer as possible, stopping at the end of the
+     * first complete instruction, if any.
+     *
+     * @return true if a complete instruction has been parsed, false if more
+     *         data is needed.
+     * @throws GuacamoleException If the instruction stream is malformed.
+     */
+    private boolean parse() throws GuacamoleException {
+
+        // Resume where we left off
+        int i = parseStart;
+
+        try {
+
+            while (i < usedLength) {
+
+                switch (state) {
+
+                    // Read element length
+                    case STATE_LENGTH: {
+
+                        int readUnit = unitAt(i++);
+
+                        // If digit, update length, refusing any length
+                        // which could never fit within the buffer
+                        if (readUnit >= '0' && readUnit <= '9') {
+
+                            int digit = readUnit - '0';
+                            if (elementLength > (config.getMaximumSize() - digit) / 10)
+                                throw new GuacamoleServerException("Element length exceeds maximum buffer size of "
+                                        + config.getMaximumSize() + ".");
+
+                            elementLength = elementLength * 10 + digit;
+
+                        }
+
+                        // If end of length, element follows
+                        else if (readUnit == '.') {
+                            startElement(i - instructionStart);
+                            state = STATE_ELEMENT;
+                        }
+
+                        // Otherwise, parse error
+                        else
+                            throw new GuacamoleServerException("Non-numeric character in element length.");
+
+                        break;
+
+                    }
+
+                    // Skip element content
+                    case STATE_ELEMENT: {
+
+                        i = skipElement(i, usedLength);
+
+                        // If element fully read, terminator follows
+                        if (elementLength == 0) {
+                            elementLengths[elementCount] = i - instructionStart - elementOffsets[elementCount];
+                            elementCount++;
+                            state = STATE_TERMINATOR;
+                            break;
+                        }
+
+                        // Otherwise, more data is needed
+                        return false;
+
+                    }
+
+                    // Read element terminator
+                    case STATE_TERMINATOR: {
+
+                        int terminator = unitAt(i++);
+                        state = STATE_LENGTH;
+
+                        // If terminator is semicolon, we have a full
+                        // instruction.
+                        if (terminator == ';')
+                            return true;
+
+                        // Handle invalid terminator characters
+                        else if (terminator != ',')
+                            throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
+
+                        break;
+
+                    }
+
+                }
+
+            }
+
+            return false;
+
+        }
+
+        // Continue here if necessary
+        finally {
+            parseStart = i;
+        }
+
+    }
+
+    /**
+     * Ensures there is space at the end of the buffer for more data, moving
+     * the partial instruction at the end of the buffer to the beginning of
+     * the buffer, growing the buffer, or shrinking the buffer if it has been
+     * mostly unused for some time, as necessary.
+     *
+     * @throws GuacamoleException If the partial instruction already fills a
+     *                            buffer of the maximum size.
+     */
+    private void makeRoom() throws GuacamoleException {
+
+        int capacity = capacity();
+        int partialLength = usedLength - instructionStart;
+
+        // Determine new buffer size, if any. Grow if past threshold, and
+        // shrink only if the buffer has been mostly unused for some time,
+        // such that the buffer does not immediately grow again.
+        int newLength;
+        if (partialLength > capacity/2)
+            newLength = Math.min(capacity*2, config.getMaximumSize());
+        else
+            newLength = bufferUsage.shrink(capacity, partialLength);
+
+        // Fail if the buffer is full and cannot grow
+        if (partialLength >= newLength)
+            throw new GuacamoleServerException("Instruction exceeds maximum buffer size of "
+                    + config.getMaximumSize() + ".");
+
+        // Move the partial instruction to the beginning of the buffer if
+        // resizing or out of space. This happens at most once per
+        // buffer-full of data, not once per instruction.
+        if (newLength != capacity
+                || (usedLength == capacity && instructionStart != 0))
+            relocate(newLength, instructionStart, partialLength);
+
+        // Otherwise, leave buffer untouched
+        else
+            return;
+
+        usedLength = partialLength;
+        parseStart -= instructionStart;
+        instructionStart = 0;
+
+    }
+
+    /**
+     * Reads the next complete instruction, or, if fragments are allowed, the
+     * next portion of an instruction that is either too large to fit within
+     * the buffer or not yet fully received. If batching, all complete
+     * instructions currently buffered are returned together.
+     *
+     * @param fragments Whether partial instructions may be returned.
+     * @param batch Whether all buffered complete instructions should be
+     *              returned, rather than only the first.
+     * @return A view of the next complete instruction(s) or fragment, or null
+     *         if no more instructions are available for reading.
+     * @throws GuacamoleException If an error occurs while reading from the
+     *                            stream, or the stream is malformed.
+     */
+    private InstructionView next(boolean fragments, boolean batch)
+            throws GuacamoleException {
+
+        // Complete instructions cannot be read after only part of an
+        // instruction has been returned
+        if (partial && !fragments)
+            throw new GuacamoleServerException("Cannot read a complete instruction after a partial instruction.");
+
+        try {
+
+            // If all buffered data has been returned, reuse the entire buffer,
+            // shrinking the buffer if it has grown large but has been mostly
+            // unused for some time
+            if (instructionStart == usedLength) {
+
+                int capacity = bufferUsage.shrink(capacity(), usedLength);
+                if (capacity != capacity())
+                    reallocate(capacity);
+
+                instructionStart = 0;
+                parseStart = 0;
+                usedLength = 0;
+
+            }
+
+            // Start new instruction
+            if (!partial)
+                elementCount = 0;
+
+            // While we're blocking, or input is available
+            for (;;) {
+
+                // If we have a full instruction, point view at instruction
+                // data, leaving the buffer untouched until the next read
+                if (parse()) {
+
+                    int end = parseStart;
+                    int count = 1;
+
+                    // If batching, include all other complete instructions
+                    if (batch) {
+
+                        elementCount = 0;
+                        while (parse()) {
+                            end = parseStart;
+                            count++;
+                            elementCount = 0;
+                        }
+
+                        // Resume parsing at the start of the incomplete
+                        // instruction next time
+                        parseStart = end;
+                        state = STATE_LENGTH;
+                        elementLength = 0;
+
+                    }
+
+                    setView(view, instructionStart, end - instructionStart, count, true);
+                    instructionStart = end;
+                    partial = false;
+                    return view;
+
+                }
+
+                // If streaming, return everything parsed so far if we would
+                // otherwise need to block or grow the buffer
+                int fragmentEnd = fragmentEnd(instructionStart, parseStart);
+                if (fragments && fragmentEnd != instructionStart
+                        && (usedLength - instructionStart > capacity()/2 || !inputAvailable())) {
+                    setView(view, instructionStart, fragmentEnd - instructionStart, 0, false);
+                    instructionStart = fragmentEnd;
+                    partial = true;
+                    return view;
+                }
+
+                // Make room for more data
+                makeRoom();
+
+                // Attempt to fill buffer
+                int numRead = fill(usedLength, capacity() - usedLength);
+                if (numRead == -1)
+                    return null;
+
+                // Update used length
+                usedLength += numRead;
+
+            } // End read loop
+
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+    }
+
+    @Override
+    public InstructionView readView() throws GuacamoleException {
+        return next(false, false);
+    }
+
+    @Override
+    public InstructionView readFragment() throws GuacamoleException {
+        return next(true, false);
+    }
+
+    @Override
+    public InstructionView readBatch() throws GuacamoleException {
+        return next(true, true);
+    }
+
+    @Override
+    public boolean readInstruction(MutableGuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        // Get instruction, return false if EOF
+        InstructionView view = readView();
+        if (view == null)
+            return false;
+
+        // Store locations of all elements
+        int start = view.getOffset();
+        resetInstruction(instruction);
+        for (int i=0; i<elementCount; i++)
+            instruction.addElement(start + elementOffsets[i], elementLengths[i]);
+
+        return true;
+
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        // If EOF, return EOF
+        if (!readInstruction(parsed))
+            return null;
+
+        // Return fully decoded instruction
+        return parsed.toInstruction();
+
+    }
+
+}
@@ -0,0 +1,167 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.io.Reader;
+import net.sourceforge.guacamole.GuacamoleException;
+
+/**
+ * A ViewGuacamoleReader which reads from any other GuacamoleReader, parsing
+ * the instructions returned by the read() function of that GuacamoleReader
+ * such that they can be returned as views. GuacamoleReaders which are
+ * already ViewGuacamoleReaders need not be adapted, and are returned as-is
+ * by adapt(). As the wrapped GuacamoleReader may report data as available
+ * before an entire instruction has been received, available() is only as
+ * precise as the available() function of the wrapped GuacamoleReader.
+ *
+ * @author Michael Jumper
+ */
+public class AdaptedGuacamoleReader extends ReaderGuacamoleReader {
+
+    /**
+     * Reader which provides the characters of all instructions returned by
+     * the read() function of a GuacamoleReader.
+     */
+    private static class InstructionReader extends Reader {
+
+        private final GuacamoleReader reader;
+
+        /**
+         * The instructions most recently returned by read(), or null if no
+         * instructions have yet been read.
+         */
+        private char[] chunk;
+
+        /**
+         * The location within the current chunk of the next character to
+         * be read.
+         */
+        private int offset = 0;
+
+        /**
+         * Creates a new InstructionReader which reads from the given
+         * GuacamoleReader.
+         *
+         * @param reader The GuacamoleReader to read from.
+         */
+        public InstructionReader(GuacamoleReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+
+            // Read more instructions only once the current chunk is used up
+            if (chunk == null || offset == chunk.length) {
+
+                try {
+                    chunk = reader.read();
+                }
+                catch (GuacamoleException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+
+                offset = 0;
+                if (chunk == null)
+                    return -1;
+
+            }
+
+            int length = Math.min(len, chunk.length - offset);
+            System.arraycopy(chunk, offset, buffer, off, length);
+            offset += length;
+
+            return length;
+
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+
+            if (chunk != null && offset != chunk.length)
+                return true;
+
+            try {
+                return reader.available();
+            }
+            catch (GuacamoleException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+
+        }
+
+        @Override
+        public void close() {
+            // The wrapped GuacamoleReader is owned by its socket
+        }
+
+    }
+
+    /**
+     * Creates a new AdaptedGuacamoleReader which reads from the given
+     * GuacamoleReader.
+     *
+     * @param reader The GuacamoleReader to read from.
+     */
+    public AdaptedGuacamoleReader(GuacamoleReader reader) {
+        super(new InstructionReader(reader));
+    }
+
+    /**
+     * Returns a ViewGuacamoleReader which reads from the given
+     * GuacamoleReader. If the given GuacamoleReader is already a
+     * ViewGuacamoleReader, it is returned as-is. Otherwise, a new
+     * AdaptedGuacamoleReader is returned.
+     *
+     * @param reader The GuacamoleReader to read from.
+     * @return A ViewGuacamoleReader which reads from the given
+     *         GuacamoleReader.
+     */
+    public static ViewGuacamoleReader adapt(GuacamoleReader reader) {
+
+        if (reader instanceof ViewGuacamoleReader)
+            return (ViewGuacamoleReader) reader;
+
+        return new AdaptedGuacamoleReader(reader);
+
+    }
+
+}
@@ -0,0 +1,142 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * A ViewGuacamoleWriter which writes to any other GuacamoleWriter. Raw UTF-8
+ * data is decoded before being written as characters, and several
+ * instructions are written one at a time. As GuacamoleWriters which are not
+ * ViewGuacamoleWriters do not coalesce writes, flush() does nothing.
+ * GuacamoleWriters which are already ViewGuacamoleWriters need not be
+ * adapted, and are returned as-is by adapt().
+ *
+ * @author Michael Jumper
+ */
+public class AdaptedGuacamoleWriter implements ViewGuacamoleWriter {
+
+    private GuacamoleWriter writer;
+
+    /**
+     * Buffer for decoding UTF-8 data before it is written.
+     */
+    private char[] decoded = new char[0];
+
+    /**
+     * The usage of the decoding buffer, allowing that buffer to shrink after
+     * a burst of large writes.
+     */
+    private final BufferUsage decodedUsage = new BufferUsage();
+
+    /**
+     * Creates a new AdaptedGuacamoleWriter which writes to the given
+     * GuacamoleWriter.
+     *
+     * @param writer The GuacamoleWriter to write to.
+     */
+    public AdaptedGuacamoleWriter(GuacamoleWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Returns a ViewGuacamoleWriter which writes to the given
+     * GuacamoleWriter. If the given GuacamoleWriter is already a
+     * ViewGuacamoleWriter, it is returned as-is. Otherwise, a new
+     * AdaptedGuacamoleWriter is returned.
+     *
+     * @param writer The GuacamoleWriter to write to.
+     * @return A ViewGuacamoleWriter which writes to the given
+     *         GuacamoleWriter.
+     */
+    public static ViewGuacamoleWriter adapt(GuacamoleWriter writer) {
+
+        if (writer instanceof ViewGuacamoleWriter)
+            return (ViewGuacamoleWriter) writer;
+
+        return new AdaptedGuacamoleWriter(writer);
+
+    }
+
+    @Override
+    public void write(char[] chunk, int off, int len) throws GuacamoleException {
+        writer.write(chunk, off, len);
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        writer.write(chunk);
+    }
+
+    @Override
+    public synchronized void write(byte[] chunk, int off, int len)
+            throws GuacamoleException {
+
+        // A UTF-8 sequence never decodes to more characters than bytes
+        int capacity = decodedUsage.resize(decoded.length, len);
+        if (capacity != decoded.length)
+            decoded = new char[capacity];
+
+        writer.write(decoded, 0, UTF8.decode(chunk, off, len, decoded, 0));
+
+    }
+
+    @Override
+    public void writeInstruction(GuacamoleInstruction instruction)
+            throws GuacamoleException {
+        writer.writeInstruction(instruction);
+    }
+
+    @Override
+    public void writeInstructions(GuacamoleInstruction... instructions)
+            throws GuacamoleException {
+
+        for (GuacamoleInstruction instruction : instructions)
+            writer.writeInstruction(instruction);
+
+    }
+
+    @Override
+    public void flush() {
+        // Data is written immediately
+    }
+
+}
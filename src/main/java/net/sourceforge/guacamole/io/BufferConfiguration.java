@@ -0,0 +1,138 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+/**
+ * Sizing limits for the internal buffer of a GuacamoleReader. A reader starts
+ * with a buffer of the initial size, grows that buffer as needed to hold
+ * large instructions up to the maximum size, and returns gradually to the
+ * initial size once a buffer larger than the shrink size has gone mostly
+ * unused for some time. Sizes are in
+ * units of the buffer, which is characters or bytes depending on the
+ * GuacamoleReader.
+ *
+ * @author Michael Jumper
+ */
+public class BufferConfiguration {
+
+    /**
+     * The default initial buffer size.
+     */
+    public static final int DEFAULT_INITIAL_SIZE = 20480;
+
+    /**
+     * The default maximum buffer size.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 8388608;
+
+    /**
+     * The default size above which a buffer is returned towards its initial
+     * size once no longer needed.
+     */
+    public static final int DEFAULT_SHRINK_SIZE = 81920;
+
+    private int initialSize = DEFAULT_INITIAL_SIZE;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private int shrinkSize  = DEFAULT_SHRINK_SIZE;
+
+    /**
+     * Returns the size of the buffer allocated when a reader is created, and
+     * returned to after the buffer has been grown beyond the shrink size.
+     *
+     * @return The initial buffer size.
+     */
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    /**
+     * Sets the size of the buffer allocated when a reader is created, and
+     * returned to after the buffer has been grown beyond the shrink size.
+     *
+     * @param initialSize The initial buffer size.
+     */
+    public void setInitialSize(int initialSize) {
+        this.initialSize = initialSize;
+    }
+
+    /**
+     * Returns the size beyond which the buffer will never grow. Any
+     * instruction which cannot fit within a buffer of this size will cause
+     * the read to fail.
+     *
+     * @return The maximum buffer size.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the size beyond which the buffer will never grow. Any instruction
+     * which cannot fit within a buffer of this size will cause the read to
+     * fail.
+     *
+     * @param maximumSize The maximum buffer size.
+     */
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns the size above which a grown buffer will be replaced with a
+     * smaller buffer, no smaller than the initial size, once it has gone
+     * mostly unused for some time.
+     *
+     * @return The shrink size.
+     */
+    public int getShrinkSize() {
+        return shrinkSize;
+    }
+
+    /**
+     * Sets the size above which a grown buffer will be replaced with a
+     * smaller buffer, no smaller than the initial size, once it has gone
+     * mostly unused for some time.
+     *
+     * @param shrinkSize The shrink size.
+     */
+    public void setShrinkSize(int shrinkSize) {
+        this.shrinkSize = shrinkSize;
+    }
+
+}
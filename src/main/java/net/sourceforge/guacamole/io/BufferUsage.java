@@ -0,0 +1,156 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+/**
+ * Tracks the use of a reusable buffer, deciding when a buffer grown beyond
+ * its shrink size should be replaced with a smaller buffer. A buffer is
+ * shrunk only once at most a quarter of it has been used on a number of
+ * consecutive occasions, and is then only halved, returning to its minimum
+ * size once no larger than the shrink size. As the data which fits
+ * within a quarter of the old buffer fits within half of the new buffer, a
+ * buffer which has just shrunk does not immediately grow again, and a buffer
+ * which is regularly needed at its current size is never shrunk.
+ *
+ * @author Michael Jumper
+ */
+public class BufferUsage {
+
+    /**
+     * The number of consecutive occasions a buffer must be mostly unused
+     * before it is shrunk.
+     */
+    private static final int IDLE_LIMIT = 16;
+
+    /**
+     * The size below which a buffer is never shrunk.
+     */
+    private final int minimumSize;
+
+    /**
+     * The size above which a buffer may be shrunk.
+     */
+    private final int shrinkSize;
+
+    /**
+     * The number of consecutive occasions the buffer has been mostly unused.
+     */
+    private int idle = 0;
+
+    /**
+     * Creates a new BufferUsage which shrinks buffers larger than the default
+     * shrink size of BufferConfiguration, never below that size.
+     */
+    public BufferUsage() {
+        this(BufferConfiguration.DEFAULT_SHRINK_SIZE,
+                BufferConfiguration.DEFAULT_SHRINK_SIZE);
+    }
+
+    /**
+     * Creates a new BufferUsage which shrinks buffers larger than the given
+     * shrink size, never below the given minimum size.
+     *
+     * @param minimumSize The size below which a buffer is never shrunk.
+     * @param shrinkSize The size above which a buffer may be shrunk.
+     */
+    public BufferUsage(int minimumSize, int shrinkSize) {
+        this.minimumSize = minimumSize;
+        this.shrinkSize = shrinkSize;
+    }
+
+    /**
+     * Records that the given amount of a buffer having the given capacity has
+     * been used, returning the capacity the buffer should now have. The
+     * returned capacity is never larger than the given capacity, and is
+     * always at least twice the amount used.
+     *
+     * @param capacity The current capacity of the buffer.
+     * @param used The amount of the buffer currently used.
+     * @return The capacity the buffer should have, which is the current
+     *         capacity unless the buffer should be shrunk.
+     */
+    public int shrink(int capacity, int used) {
+
+        // Buffers which are not large, or which are well used, stay as is
+        if (capacity <= shrinkSize || used > capacity / 4) {
+            idle = 0;
+            return capacity;
+        }
+
+        // Halve buffer only after being mostly unused for some time
+        if (++idle < IDLE_LIMIT)
+            return capacity;
+
+        idle = 0;
+
+        // Return to the minimum size once no longer large, so long as the
+        // data used still fits comfortably
+        int halved = capacity / 2;
+        if (halved <= shrinkSize)
+            return Math.max(minimumSize, used * 2);
+
+        return halved;
+
+    }
+
+    /**
+     * Records that the given amount of a buffer having the given capacity is
+     * required, returning the capacity the buffer should now have. If more
+     * space is required than available, the required amount is returned.
+     * Otherwise, the buffer is shrunk as by shrink().
+     *
+     * @param capacity The current capacity of the buffer.
+     * @param required The amount of the buffer required.
+     * @return The capacity the buffer should have, which is the current
+     *         capacity unless the buffer should grow or shrink.
+     */
+    public int resize(int capacity, int required) {
+
+        if (required > capacity) {
+            idle = 0;
+            return required;
+        }
+
+        return shrink(capacity, required);
+
+    }
+
+}
@@ -0,0 +1,158 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sourceforge.guacamole.GuacamoleException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared scheduler used by coalescing GuacamoleWriters to flush buffered data
+ * after a delay, such that data is never held indefinitely if no explicit
+ * flush occurs.
+ *
+ * Delayed flushes are performed by a fixed pool of daemon threads, one per
+ * available processor, which also time the delays. A flush may block for as
+ * long as the Guacamole proxy refuses data, occupying its thread meanwhile,
+ * but as a delayed flush is not scheduled while another is pending for the
+ * same writer, each stalled writer occupies at most one thread, and the
+ * number of threads never grows with the number of stalled connections.
+ *
+ * These threads are stopped by shutdown(), which web applications should
+ * call when undeployed, such as through GuacamoleShutdownContextListener.
+ *
+ * @author Michael Jumper
+ */
+public final class FlushScheduler {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(FlushScheduler.class);
+
+    /**
+     * The number of seconds a thread of the flush pool may remain idle
+     * before it is stopped.
+     */
+    private static final long IDLE_TIMEOUT = 60;
+
+    /**
+     * Pool of daemon threads which time all flush delays and perform the
+     * flushes once due.
+     */
+    private static final ScheduledThreadPoolExecutor flushers;
+
+    static {
+
+        flushers = new ScheduledThreadPoolExecutor(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+            /**
+             * The number of threads created so far.
+             */
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "guacamole-flush-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+        // Stop threads while no flushes are pending
+        flushers.setKeepAliveTime(IDLE_TIMEOUT, TimeUnit.SECONDS);
+        flushers.allowCoreThreadTimeOut(true);
+
+    }
+
+    /**
+     * This class is a utility class and may not be instantiated.
+     */
+    private FlushScheduler() {}
+
+    /**
+     * Schedules the given GuacamoleWriter to be flushed after the given delay.
+     *
+     * @param writer The GuacamoleWriter to flush.
+     * @param delay The number of milliseconds to wait before flushing.
+     */
+    static void schedule(final ViewGuacamoleWriter writer, long delay) {
+
+        Runnable flush = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    writer.flush();
+                }
+                catch (GuacamoleException e) {
+                    logger.debug("Delayed flush failed.", e);
+                }
+            }
+
+        };
+
+        // Flush immediately once shut down, as no flush would occur later
+        try {
+            flushers.schedule(flush, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            flush.run();
+        }
+
+    }
+
+    /**
+     * Stops all threads of the flush pool once all pending delayed flushes
+     * have been performed. Any flushes which would otherwise be delayed are
+     * then performed immediately.
+     */
+    public static void shutdown() {
+        flushers.shutdown();
+    }
+
+}
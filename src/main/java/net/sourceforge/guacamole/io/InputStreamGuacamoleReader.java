@@ -0,0 +1,179 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+import java.io.IOException;
+import java.io.InputStream;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+
+/**
+ * A GuacamoleReader which wraps a standard Java InputStream, using that
+ * InputStream as a UTF-8 Guacamole instruction stream. Instructions are
+ * located within the raw bytes of the stream, without decoding, and are
+ * returned as byte-backed InstructionViews which can be written to another
+ * OutputStream without being decoded and re-encoded. Element lengths are
+ * still counted in characters, as required by the Guacamole protocol.
+ *
+ * @author Michael Jumper
+ */
+public class InputStreamGuacamoleReader extends AbstractGuacamoleReader {
+
+    /**
+     * Wrapped InputStream to be used for all input.
+     */
+    private InputStream input;
+
+    /**
+     * Buffer of bytes read from the wrapped InputStream.
+     */
+    private byte[] buffer;
+
+    /**
+     * Creates a new InputStreamGuacamoleReader which will use the given
+     * InputStream as the Guacamole instruction stream, with the default
+     * buffer sizing limits.
+     *
+     * @param input The InputStream to use as the Guacamole instruction stream.
+     */
+    public InputStreamGuacamoleReader(InputStream input) {
+        this(input, new BufferConfiguration());
+    }
+
+    /**
+     * Creates a new InputStreamGuacamoleReader which will use the given
+     * InputStream as the Guacamole instruction stream, sizing its buffer, in
+     * bytes, according to the given BufferConfiguration.
+     *
+     * @param input The InputStream to use as the Guacamole instruction stream.
+     * @param config The sizing limits of the buffer.
+     */
+    public InputStreamGuacamoleReader(InputStream input, BufferConfiguration config) {
+        super(config);
+        this.input  = input;
+        this.buffer = new byte[config.getInitialSize()];
+    }
+
+    @Override
+    int capacity() {
+        return buffer.length;
+    }
+
+    @Override
+    void reallocate(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    @Override
+    void relocate(int capacity, int offset, int length) {
+
+        // Allocate new buffer only if resizing
+        byte[] newBuffer = buffer;
+        if (capacity != buffer.length)
+            newBuffer = new byte[capacity];
+
+        System.arraycopy(buffer, offset, newBuffer, 0, length);
+        buffer = newBuffer;
+
+    }
+
+    @Override
+    int fill(int offset, int length) throws IOException {
+        return input.read(buffer, offset, length);
+    }
+
+    @Override
+    boolean inputAvailable() throws IOException {
+        return input.available() > 0;
+    }
+
+    @Override
+    int unitAt(int index) {
+        return buffer[index];
+    }
+
+    @Override
+    int skipElement(int offset, int end) throws GuacamoleException {
+
+        int i = offset;
+        while (elementLength > 0 && i < end) {
+
+            // Skip ASCII quickly
+            if (buffer[i] >= 0) {
+                elementLength--;
+                i++;
+                continue;
+            }
+
+            // Skip multibyte character only if complete
+            byte lead = buffer[i];
+            int sequenceLength = UTF8.sequenceLength(lead);
+            if (i + sequenceLength > end)
+                break;
+
+            elementLength -= UTF8.charLength(lead);
+            if (elementLength < 0)
+                throw new GuacamoleServerException("Element length of instruction splits a character.");
+
+            i += sequenceLength;
+
+        }
+
+        return i;
+
+    }
+
+    @Override
+    boolean characterAvailable(int offset, int end) {
+        return offset + UTF8.sequenceLength(buffer[offset]) <= end;
+    }
+
+    @Override
+    void setView(InstructionView view, int offset, int length,
+            int instructionCount, boolean complete) {
+        view.set(buffer, offset, length, instructionCount, complete);
+    }
+
+    @Override
+    void resetInstruction(MutableGuacamoleInstruction instruction) {
+        instruction.reset(buffer);
+    }
+
+}
@@ -0,0 +1,160 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * Static utility functions for encoding GuacamoleInstructions directly into
+ * character arrays, without building intermediate Strings. Element lengths
+ * are counted in Java characters, consistent with the lengths parsed by
+ * ReaderGuacamoleReader and InputStreamGuacamoleReader.
+ *
+ * @author Michael Jumper
+ */
+final class InstructionEncoder {
+
+    private InstructionEncoder() {}
+
+    /**
+     * Returns the number of decimal digits required to represent the given
+     * non-negative value.
+     *
+     * @param value The value to measure.
+     * @return The number of decimal digits in the given value.
+     */
+    private static int digits(int value) {
+
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+
+        return count;
+
+    }
+
+    /**
+     * Returns the number of characters required to encode the given element,
+     * including its length prefix, but excluding any separator or terminator.
+     *
+     * @param value The value of the element.
+     * @return The number of characters required to encode the element.
+     */
+    private static int elementLength(String value) {
+        int length = value.length();
+        return digits(length) + 1 + length;
+    }
+
+    /**
+     * Encodes the given element, including its length prefix, storing the
+     * result in the given array.
+     *
+     * @param value The value of the element.
+     * @param dst The array to store the encoded element within.
+     * @param off The offset within the array to begin storing characters.
+     * @return The offset immediately following the encoded element.
+     */
+    private static int encodeElement(String value, char[] dst, int off) {
+
+        int length = value.length();
+
+        // Write length digits, least significant first
+        int end = off + digits(length);
+        int i = end;
+        do {
+            dst[--i] = (char) ('0' + length % 10);
+            length /= 10;
+        } while (length != 0);
+
+        dst[end] = '.';
+
+        // Copy value as-is
+        value.getChars(0, value.length(), dst, end + 1);
+        return end + 1 + value.length();
+
+    }
+
+    /**
+     * Returns the exact number of characters required to encode the given
+     * instruction.
+     *
+     * @param instruction The instruction to measure.
+     * @return The number of characters required to encode the instruction.
+     */
+    static int length(GuacamoleInstruction instruction) {
+
+        // Opcode and terminator
+        int length = elementLength(instruction.getOperation().getOpcode()) + 1;
+
+        // Each argument and its preceding separator
+        for (String arg : instruction.getArgs())
+            length += elementLength(arg) + 1;
+
+        return length;
+
+    }
+
+    /**
+     * Encodes the given instruction, storing the result in the given array,
+     * which must have at least length(instruction) characters available at
+     * the given offset.
+     *
+     * @param instruction The instruction to encode.
+     * @param dst The array to store the encoded instruction within.
+     * @param off The offset within the array to begin storing characters.
+     * @return The number of characters stored.
+     */
+    static int encode(GuacamoleInstruction instruction, char[] dst, int off) {
+
+        int i = encodeElement(instruction.getOperation().getOpcode(), dst, off);
+
+        for (String arg : instruction.getArgs()) {
+            dst[i++] = ',';
+            i = encodeElement(arg, dst, i);
+        }
+
+        dst[i++] = ';';
+        return i - off;
+
+    }
+
+}
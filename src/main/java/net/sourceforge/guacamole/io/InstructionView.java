@@ -0,0 +1,311 @@
+
+package net.sourceforge.guacamole.io;
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A reusable view of a portion of the internal buffer of a GuacamoleReader,
+ * containing a complete Guacamole instruction, several consecutive complete
+ * instructions if returned by readBatch(), or part of an instruction if
+ * returned by readFragment() or readBatch(). Depending on the
+ * GuacamoleReader, the buffer is either an array of characters or an array of
+ * UTF-8 bytes. The contents of an InstructionView are only valid until the
+ * next read from the GuacamoleReader that returned it, at which point the
+ * view and the buffer it refers to may be reused.
+ *
+ * @author Michael Jumper
+ */
+public class InstructionView {
+
+    /**
+     * The character buffer containing the instruction data, or null if the
+     * instruction data is stored as bytes.
+     */
+    private char[] chars;
+
+    /**
+     * The byte buffer containing the instruction data as UTF-8, or null if
+     * the instruction data is stored as characters.
+     */
+    private byte[] bytes;
+
+    /**
+     * The offset of the first character or byte of the instruction within
+     * the buffer.
+     */
+    private int offset;
+
+    /**
+     * The length of the instruction, in characters or bytes, depending on
+     * the type of buffer.
+     */
+    private int length;
+
+    /**
+     * Whether the data within this view ends at the end of an instruction.
+     */
+    private boolean complete;
+
+    /**
+     * The number of instructions which end within this view.
+     */
+    private int instructionCount;
+
+    /**
+     * Scratch space for decoding byte instruction data into characters.
+     */
+    private char[] charScratch = new char[0];
+
+    /**
+     * The use of the character scratch space, such that it does not remain
+     * at the size of the largest instruction ever decoded.
+     */
+    private final BufferUsage charScratchUsage = new BufferUsage();
+
+    /**
+     * Scratch space for encoding character instruction data as UTF-8.
+     */
+    private byte[] byteScratch = new byte[0];
+
+    /**
+     * The use of the byte scratch space, such that it does not remain at the
+     * size of the largest instruction ever encoded.
+     */
+    private final BufferUsage byteScratchUsage = new BufferUsage();
+
+    /**
+     * Points this InstructionView at the given portion of the given character
+     * buffer.
+     *
+     * @param chars The buffer containing the instruction data.
+     * @param offset The offset of the first character of the instruction.
+     * @param length The length of the instruction, in characters.
+     * @param instructionCount The number of instructions which end within
+     *                         the data.
+     * @param complete Whether the data ends at the end of an instruction.
+     */
+    void set(char[] chars, int offset, int length, int instructionCount,
+            boolean complete) {
+        this.chars            = chars;
+        this.bytes            = null;
+        this.offset           = offset;
+        this.length           = length;
+        this.instructionCount = instructionCount;
+        this.complete         = complete;
+    }
+
+    /**
+     * Points this InstructionView at the given portion of the given byte
+     * buffer, which must contain UTF-8.
+     *
+     * @param bytes The buffer containing the instruction data.
+     * @param offset The offset of the first byte of the instruction.
+     * @param length The length of the instruction, in bytes.
+     * @param instructionCount The number of instructions which end within
+     *                         the data.
+     * @param complete Whether the data ends at the end of an instruction.
+     */
+    void set(byte[] bytes, int offset, int length, int instructionCount,
+            boolean complete) {
+        this.chars            = null;
+        this.bytes            = bytes;
+        this.offset           = offset;
+        this.length           = length;
+        this.instructionCount = instructionCount;
+        this.complete         = complete;
+    }
+
+    /**
+     * Returns the character buffer containing the instruction data, if the
+     * data is stored as characters. Only the portion of this buffer described
+     * by getOffset() and getLength() is part of the instruction.
+     *
+     * @return The buffer containing the instruction data, or null if the
+     *         instruction data is stored as bytes.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Returns the byte buffer containing the instruction data as UTF-8, if
+     * the data is stored as bytes. Only the portion of this buffer described
+     * by getOffset() and getLength() is part of the instruction.
+     *
+     * @return The buffer containing the instruction data, or null if the
+     *         instruction data is stored as characters.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the offset of the first character or byte of the instruction
+     * within the buffer returned by getChars() or getBytes().
+     *
+     * @return The offset of the first character or byte of the instruction.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the length of the instruction, in characters if the data is
+     * stored as characters, or in bytes if the data is stored as bytes.
+     *
+     * @return The length of the instruction, in characters or bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns whether the data within this view ends at the end of an
+     * instruction. Views returned by readView() are always complete, while
+     * views returned by readFragment() are incomplete if more of the current
+     * instruction remains to be read.
+     *
+     * @return true if the data within this view ends at the end of an
+     *         instruction, false otherwise.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the number of instructions which end within this view. This
+     * is 1 for views returned by readView(), 0 or 1 for views returned by
+     * readFragment(), and possibly more for views returned by readBatch().
+     *
+     * @return The number of instructions which end within this view.
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Returns a newly-allocated copy of the instruction data within this
+     * view, as characters.
+     *
+     * @return A copy of the instruction data within this view.
+     */
+    public char[] toCharArray() {
+
+        // Copy characters directly
+        if (chars != null) {
+            char[] copy = new char[length];
+            System.arraycopy(chars, offset, copy, 0, length);
+            return copy;
+        }
+
+        // Otherwise, decode
+        char[] decoded = decode();
+        int decodedLength = UTF8.decode(bytes, offset, length, decoded, 0);
+
+        char[] copy = new char[decodedLength];
+        System.arraycopy(decoded, 0, copy, 0, decodedLength);
+        return copy;
+
+    }
+
+    /**
+     * Returns scratch space large enough to hold the decoded contents of the
+     * byte buffer.
+     *
+     * @return A character array at least as long as this view.
+     */
+    private char[] decode() {
+
+        int capacity = charScratchUsage.resize(charScratch.length, length);
+        if (capacity != charScratch.length)
+            charScratch = new char[capacity];
+
+        return charScratch;
+
+    }
+
+    /**
+     * Writes the instruction data within this view to the given Writer,
+     * decoding from UTF-8 if necessary.
+     *
+     * @param output The Writer to write the instruction data to.
+     * @throws IOException If an error occurs while writing.
+     */
+    public void writeTo(Writer output) throws IOException {
+
+        // Write characters directly
+        if (chars != null) {
+            output.write(chars, offset, length);
+            return;
+        }
+
+        // Otherwise, decode
+        char[] decoded = decode();
+        output.write(decoded, 0, UTF8.decode(bytes, offset, length, decoded, 0));
+
+    }
+
+    /**
+     * Writes the instruction data within this view to the given
+     * OutputStream as UTF-8, encoding characters if necessary.
+     *
+     * @param output The OutputStream to write the instruction data to.
+     * @throws IOException If an error occurs while writing.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+
+        // Write bytes directly
+        if (bytes != null) {
+            output.write(bytes, offset, length);
+            return;
+        }
+
+        // Otherwise, encode
+        int maxLength = UTF8.maxEncodedLength(length);
+        int capacity = byteScratchUsage.resize(byteScratch.length, maxLength);
+        if (capacity != byteScratch.length)
+            byteScratch = new byte[capacity];
+
+        output.write(byteScratch, 0, UTF8.encode(chars, offset, length, byteScratch, 0));
+
+    }
+
+}
@@ -0,0 +1,153 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.metrics.TunnelMetrics;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+
+/**
+ * GuacamoleReader which wraps another GuacamoleReader, recording the amount
+ * of data and number of instructions read, and the time spent within each
+ * read, within the given TunnelMetrics. Data read through read() is counted
+ * without instructions, and instructions read through readInstruction() are
+ * counted without data, as neither is known without further parsing.
+ *
+ * @author Michael Jumper
+ */
+public class MeteredGuacamoleReader implements ViewGuacamoleReader {
+
+    private ViewGuacamoleReader reader;
+    private TunnelMetrics metrics;
+
+    /**
+     * Creates a new MeteredGuacamoleReader which reads from the given
+     * GuacamoleReader, recording all reads within the given TunnelMetrics.
+     *
+     * @param reader The GuacamoleReader to read from.
+     * @param metrics The TunnelMetrics to record all reads within.
+     */
+    public MeteredGuacamoleReader(GuacamoleReader reader, TunnelMetrics metrics) {
+        this.reader = AdaptedGuacamoleReader.adapt(reader);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records the given view as read, having been read beginning at the
+     * given time, returning the view.
+     */
+    private InstructionView record(InstructionView view, long start) {
+
+        metrics.recordGuacdRead(System.nanoTime() - start);
+        if (view != null)
+            metrics.recordRead(view.getLength(), view.getInstructionCount());
+
+        return view;
+
+    }
+
+    @Override
+    public boolean available() throws GuacamoleException {
+        return reader.available();
+    }
+
+    @Override
+    public char[] read() throws GuacamoleException {
+
+        long start = System.nanoTime();
+        char[] chunk = reader.read();
+
+        metrics.recordGuacdRead(System.nanoTime() - start);
+        if (chunk != null)
+            metrics.recordRead(chunk.length, 0);
+
+        return chunk;
+
+    }
+
+    @Override
+    public InstructionView readView() throws GuacamoleException {
+        long start = System.nanoTime();
+        return record(reader.readView(), start);
+    }
+
+    @Override
+    public InstructionView readFragment() throws GuacamoleException {
+        long start = System.nanoTime();
+        return record(reader.readFragment(), start);
+    }
+
+    @Override
+    public InstructionView readBatch() throws GuacamoleException {
+        long start = System.nanoTime();
+        return record(reader.readBatch(), start);
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        long start = System.nanoTime();
+        GuacamoleInstruction instruction = reader.readInstruction();
+
+        metrics.recordGuacdRead(System.nanoTime() - start);
+        if (instruction != null)
+            metrics.recordRead(0, 1);
+
+        return instruction;
+
+    }
+
+    @Override
+    public boolean readInstruction(MutableGuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        long start = System.nanoTime();
+        boolean read = reader.readInstruction(instruction);
+
+        metrics.recordGuacdRead(System.nanoTime() - start);
+        if (read)
+            metrics.recordRead(0, 1);
+
+        return read;
+
+    }
+
+}
@@ -0,0 +1,295 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+
+/**
+ * A GuacamoleWriter which wraps a standard Java OutputStream, using that
+ * OutputStream as a UTF-8 Guacamole instruction stream. UTF-8 data is written
+ * to the OutputStream as-is, while characters are encoded as UTF-8. By
+ * default, data is written and flushed immediately. If a flush threshold is
+ * given, writes are instead coalesced within an internal buffer, and are only
+ * sent once the threshold is reached, when flush() is called, or after the
+ * given flush delay.
+ *
+ * @author Michael Jumper
+ */
+public class OutputStreamGuacamoleWriter implements ViewGuacamoleWriter {
+
+    /**
+     * Wrapped OutputStream to be used for all output.
+     */
+    private OutputStream output;
+
+    /**
+     * Buffer of bytes encoded from characters passed to
+     * write(char[], int, int).
+     */
+    private byte[] encodeBuffer = new byte[0];
+
+    /**
+     * The use of the encode buffer, such that it does not remain at the size
+     * of the largest write ever encoded.
+     */
+    private final BufferUsage encodeBufferUsage = new BufferUsage();
+
+    /**
+     * The number of bytes which may be written before they are sent, or zero
+     * if writes are not coalesced.
+     */
+    private final int flushThreshold;
+
+    /**
+     * Buffer of bytes written but not yet sent along the OutputStream. As
+     * pending data is sent once the flush threshold is reached, and any
+     * write of at least the flush threshold is sent directly, this buffer
+     * need only be twice the flush threshold. If writes are not coalesced,
+     * this buffer is empty.
+     */
+    private final byte[] pending;
+
+    /**
+     * The number of bytes stored within the pending buffer.
+     */
+    private int pendingLength = 0;
+
+    /**
+     * The number of milliseconds after which written data is flushed
+     * automatically if no other flush occurs. If zero, written data is only
+     * flushed once the flush threshold is reached or flush() is called.
+     */
+    private final int flushDelay;
+
+    /**
+     * Whether a delayed flush is currently scheduled.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * Creates a new OutputStreamGuacamoleWriter which will use the given
+     * OutputStream as the Guacamole instruction stream, flushing the
+     * OutputStream after every write.
+     *
+     * @param output The OutputStream to use as the Guacamole instruction
+     *               stream.
+     */
+    public OutputStreamGuacamoleWriter(OutputStream output) {
+        this(output, 0, 0);
+    }
+
+    /**
+     * Creates a new OutputStreamGuacamoleWriter which will use the given
+     * OutputStream as the Guacamole instruction stream, coalescing writes
+     * until the given threshold is reached, flush() is called, or the given
+     * delay elapses.
+     *
+     * @param output The OutputStream to use as the Guacamole instruction
+     *               stream.
+     * @param flushThreshold The number of bytes which may be written before
+     *                       they are sent automatically, or zero to send
+     *                       after every write.
+     * @param flushDelay The number of milliseconds after which written data
+     *                   is flushed automatically, or zero to flush only when
+     *                   the threshold is reached or flush() is called.
+     */
+    public OutputStreamGuacamoleWriter(OutputStream output, int flushThreshold,
+            int flushDelay) {
+        this.output = output;
+        this.flushThreshold = flushThreshold;
+        this.pending = new byte[flushThreshold * 2];
+        this.flushDelay = flushDelay;
+    }
+
+    @Override
+    public synchronized void write(byte[] chunk, int off, int len) throws GuacamoleException {
+
+        try {
+
+            // Send chunks too large to buffer directly, following anything
+            // pending
+            if (len >= flushThreshold) {
+
+                if (pendingLength != 0) {
+                    output.write(pending, 0, pendingLength);
+                    pendingLength = 0;
+                }
+
+                output.write(chunk, off, len);
+                output.flush();
+                flushScheduled = false;
+                return;
+
+            }
+
+            // Otherwise, coalesce with other pending data. As pending data
+            // is always below the threshold, the chunk will fit.
+            System.arraycopy(chunk, off, pending, pendingLength, len);
+            pendingLength += len;
+
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+        coalesced();
+
+    }
+
+    /**
+     * Flushes pending data if the flush threshold has been reached, or
+     * schedules a delayed flush otherwise. This function must be called
+     * after data is added to the pending buffer.
+     *
+     * @throws GuacamoleException If an error occurs while flushing.
+     */
+    private void coalesced() throws GuacamoleException {
+
+        // Flush at this instruction boundary if threshold reached
+        if (pendingLength >= flushThreshold)
+            flush();
+
+        // Otherwise, ensure data is eventually flushed
+        else if (flushDelay > 0 && !flushScheduled) {
+            flushScheduled = true;
+            FlushScheduler.schedule(this, flushDelay);
+        }
+
+    }
+
+    @Override
+    public synchronized void flush() throws GuacamoleException {
+
+        flushScheduled = false;
+
+        // Do not flush if nothing written
+        if (pendingLength == 0)
+            return;
+
+        try {
+            output.write(pending, 0, pendingLength);
+            output.flush();
+            pendingLength = 0;
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+    }
+
+    @Override
+    public synchronized void write(char[] chunk, int off, int len) throws GuacamoleException {
+
+        // Encode directly into pending buffer if there is room
+        int maxLength = UTF8.maxEncodedLength(len);
+        if (pending.length - pendingLength >= maxLength) {
+            pendingLength += UTF8.encode(chunk, off, len, pending, pendingLength);
+            coalesced();
+            return;
+        }
+
+        // Otherwise, ensure enough space for encoded bytes
+        int capacity = encodeBufferUsage.resize(encodeBuffer.length, maxLength);
+        if (capacity != encodeBuffer.length)
+            encodeBuffer = new byte[capacity];
+
+        write(encodeBuffer, 0, UTF8.encode(chunk, off, len, encodeBuffer, 0));
+
+    }
+
+    @Override
+    public void write(char[] chunk) throws GuacamoleException {
+        write(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Buffer of characters encoded from instructions passed to
+     * writeInstruction() or writeInstructions(), prior to their encoding as
+     * UTF-8.
+     */
+    private char[] instructionBuffer = new char[0];
+
+    /**
+     * The use of the instruction buffer, such that it does not remain at the
+     * size of the largest instructions ever written.
+     */
+    private final BufferUsage instructionBufferUsage = new BufferUsage();
+
+    @Override
+    public synchronized void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
+
+        // Ensure enough space for encoded instruction
+        int length = InstructionEncoder.length(instruction);
+        int capacity = instructionBufferUsage.resize(instructionBuffer.length, length);
+        if (capacity != instructionBuffer.length)
+            instructionBuffer = new char[capacity];
+
+        write(instructionBuffer, 0, InstructionEncoder.encode(instruction, instructionBuffer, 0));
+
+    }
+
+    @Override
+    public synchronized void writeInstructions(GuacamoleInstruction... instructions)
+            throws GuacamoleException {
+
+        // Ensure enough space for all encoded instructions
+        int length = 0;
+        for (GuacamoleInstruction instruction : instructions)
+            length += InstructionEncoder.length(instruction);
+
+        int capacity = instructionBufferUsage.resize(instructionBuffer.length, length);
+        if (capacity != instructionBuffer.length)
+            instructionBuffer = new char[capacity];
+
+        // Encode all instructions into a single chunk
+        int offset = 0;
+        for (GuacamoleInstruction instruction : instructions)
+            offset += InstructionEncoder.encode(instruction, instructionBuffer, offset);
+
+        // Write and send as one
+        write(instructionBuffer, 0, offset);
+        flush();
+
+    }
+
+}
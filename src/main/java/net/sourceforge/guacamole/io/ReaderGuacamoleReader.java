@@ -39,11 +39,7 @@ package net.sourceforge.guacamole.io;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.LinkedList;
-import net.sourceforge.guacamole.GuacamoleException;
-import net.sourceforge.guacamole.GuacamoleServerException;
-import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
-import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
 
 /**
  * A GuacamoleReader which wraps a standard Java Reader, using that Reader as
@@ -51,213 +47,112 @@ import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
  *
  * @author Michael Jumper
  */
-public class ReaderGuacamoleReader implements GuacamoleReader {
+public class ReaderGuacamoleReader extends AbstractGuacamoleReader {
 
     /**
      * Wrapped Reader to be used for all input.
      */
     private Reader input;
 
+    /**
+     * Buffer of characters read from the wrapped Reader.
+     */
+    private char[] buffer;
+
     /**
      * Creates a new ReaderGuacamoleReader which will use the given Reader as
-     * the Guacamole instruction stream.
+     * the Guacamole instruction stream, with the default buffer sizing
+     * limits.
      *
      * @param input The Reader to use as the Guacamole instruction stream.
      */
     public ReaderGuacamoleReader(Reader input) {
-        this.input = input;
+        this(input, new BufferConfiguration());
     }
 
-    private int parseStart;
-
-    private char[] buffer = new char[20480];
-    private int usedLength = 0;
+    /**
+     * Creates a new ReaderGuacamoleReader which will use the given Reader as
+     * the Guacamole instruction stream, sizing its buffer, in characters,
+     * according to the given BufferConfiguration.
+     *
+     * @param input The Reader to use as the Guacamole instruction stream.
+     * @param config The sizing limits of the buffer.
+     */
+    public ReaderGuacamoleReader(Reader input, BufferConfiguration config) {
+        super(config);
+        this.input  = input;
+        this.buffer = new char[config.getInitialSize()];
+    }
 
     @Override
-    public boolean available() throws GuacamoleException {
-        try {
-            return input.ready() || usedLength != 0;
-        }
-        catch (IOException e) {
-            throw new GuacamoleServerException(e);
-        }
+    int capacity() {
+        return buffer.length;
     }
 
     @Override
-    public char[] read() throws GuacamoleException {
-
-        try {
-
-            // While we're blocking, or input is available
-            for (;;) {
-
-                // Length of element
-                int elementLength = 0;
-
-                // Resume where we left off
-                int i = parseStart;
-
-                // Parse instruction in buffer
-                while (i < usedLength) {
-
-                    // Read character
-                    char readChar = buffer[i++];
-
-                    // If digit, update length
-                    if (readChar >= '0' && readChar <= '9')
-                        elementLength = elementLength * 10 + readChar - '0';
-
-                    // If not digit, check for end-of-length character
-                    else if (readChar == '.') {
-
-                        // Check if element present in buffer
-                        if (i + elementLength < usedLength) {
-
-                            // Get terminator
-                            char terminator = buffer[i + elementLength];
-
-                            // Move to character after terminator
-                            i += elementLength + 1;
-
-                            // Reset length
-                            elementLength = 0;
-
-                            // Continue here if necessary
-                            parseStart = i;
-
-                            // If terminator is semicolon, we have a full
-                            // instruction.
-                            if (terminator == ';') {
-
-                                // Copy instruction data
-                                char[] instruction = new char[i];
-                                System.arraycopy(buffer, 0, instruction, 0, i);
-
-                                // Update buffer
-                                usedLength -= i;
-                                parseStart = 0;
-                                System.arraycopy(buffer, i, buffer, 0, usedLength);
-
-                                return instruction;
-
-                            }
-
-                            // Handle invalid terminator characters
-                            else if (terminator != ',')
-                                throw new GuacamoleServerException("Element terminator of instruction was not ';' nor ','");
-
-                        }
-
-                        // Otherwise, read more data
-                        else
-                            break;
-
-                    }
-
-                    // Otherwise, parse error
-                    else
-                        throw new GuacamoleServerException("Non-numeric character in element length.");
-
-                }
-
-                // If past threshold, resize buffer before reading
-                if (usedLength > buffer.length/2) {
-                    char[] biggerBuffer = new char[buffer.length*2];
-                    System.arraycopy(buffer, 0, biggerBuffer, 0, usedLength);
-                    buffer = biggerBuffer;
-                }
-
-                // Attempt to fill buffer
-                int numRead = input.read(buffer, usedLength, buffer.length - usedLength);
-                if (numRead == -1)
-                    return null;
-
-                // Update used length
-                usedLength += numRead;
-
-            } // End read loop
-
-        }
-        catch (IOException e) {
-            throw new GuacamoleServerException(e);
-        }
-
+    void reallocate(int capacity) {
+        buffer = new char[capacity];
     }
 
     @Override
-    public GuacamoleInstruction readInstruction() throws GuacamoleException {
-
-        // Get instruction
-        char[] instructionBuffer = read();
-
-        // If EOF, return EOF
-        if (instructionBuffer == null)
-            return null;
+    void relocate(int capacity, int offset, int length) {
 
-        // Start of element
-        int elementStart = 0;
+        // Allocate new buffer only if resizing
+        char[] newBuffer = buffer;
+        if (capacity != buffer.length)
+            newBuffer = new char[capacity];
 
-        // Build list of elements
-        LinkedList<String> elements = new LinkedList<String>();
-        while (elementStart < instructionBuffer.length) {
+        System.arraycopy(buffer, offset, newBuffer, 0, length);
+        buffer = newBuffer;
 
-            // Find end of length
-            int lengthEnd = -1;
-            for (int i=elementStart; i<instructionBuffer.length; i++) {
-                if (instructionBuffer[i] == '.') {
-                    lengthEnd = i;
-                    break;
-                }
-            }
+    }
 
-            // read() is required to return a complete instruction. If it does
-            // not, this is a severe internal error.
-            if (lengthEnd == -1)
-                throw new GuacamoleServerException("Read returned incomplete instruction.");
+    @Override
+    int fill(int offset, int length) throws IOException {
+        return input.read(buffer, offset, length);
+    }
 
-            // Parse length
-            int length = Integer.parseInt(new String(
-                    instructionBuffer,
-                    elementStart,
-                    lengthEnd - elementStart
-            ));
+    @Override
+    boolean inputAvailable() throws IOException {
+        return input.ready();
+    }
 
-            // Parse element from just after period
-            elementStart = lengthEnd + 1;
-            String element = new String(
-                    instructionBuffer,
-                    elementStart,
-                    length
-            );
+    @Override
+    int unitAt(int index) {
+        return buffer[index];
+    }
 
-            // Append element to list of elements
-            elements.addLast(element);
+    @Override
+    int skipElement(int offset, int end) {
 
-            // Read terminator after element
-            elementStart += length;
-            char terminator = instructionBuffer[elementStart];
+        // Each character is a single unit
+        int skip = Math.min(elementLength, end - offset);
+        elementLength -= skip;
+        return offset + skip;
 
-            // Continue reading instructions after terminator
-            elementStart++;
+    }
 
-            // If we've reached the end of the instruction
-            if (terminator == ';')
-                break;
+    @Override
+    int fragmentEnd(int start, int end) {
 
-        }
+        // A fragment never ends between the two halves of a surrogate pair,
+        // as neither half could then be encoded alone
+        if (end != start && Character.isHighSurrogate(buffer[end - 1]))
+            return end - 1;
 
-        // Pull opcode off elements list
-        String opcode = elements.removeFirst();
+        return end;
 
-        // Create instruction
-        GuacamoleInstruction instruction = new GuacamoleInstruction(
-                Operation.fromOpcode(opcode),
-                elements.toArray(new String[elements.size()])
-        );
+    }
 
-        // Return parsed instruction
-        return instruction;
+    @Override
+    void setView(InstructionView view, int offset, int length,
+            int instructionCount, boolean complete) {
+        view.set(buffer, offset, length, instructionCount, complete);
+    }
 
+    @Override
+    void resetInstruction(MutableGuacamoleInstruction instruction) {
+        instruction.reset(buffer);
     }
 
 }
@@ -0,0 +1,209 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+import net.sourceforge.guacamole.recording.GuacamoleRecording;
+
+/**
+ * GuacamoleReader which wraps another GuacamoleReader, appending all data
+ * read to a GuacamoleRecording along with the time it was read. Data read
+ * as bytes is appended directly from the buffer of the wrapped reader,
+ * while data read as characters is first encoded as UTF-8.
+ *
+ * @author Michael Jumper
+ */
+public class RecordingGuacamoleReader implements ViewGuacamoleReader {
+
+    private ViewGuacamoleReader reader;
+    private GuacamoleRecording recording;
+
+    /**
+     * Buffer for encoding character data as UTF-8 before it is recorded.
+     */
+    private byte[] encoded = new byte[0];
+
+    /**
+     * The usage of the encoded buffer, allowing that buffer to shrink after
+     * a burst of large data.
+     */
+    private final BufferUsage encodedUsage = new BufferUsage();
+
+    /**
+     * Buffer for encoding instructions read through readInstruction().
+     */
+    private char[] instructionBuffer = new char[0];
+
+    /**
+     * The usage of the instruction buffer, allowing that buffer to shrink
+     * after a burst of large instructions.
+     */
+    private final BufferUsage instructionBufferUsage = new BufferUsage();
+
+    /**
+     * Creates a new RecordingGuacamoleReader which reads from the given
+     * GuacamoleReader, appending all data read to the given
+     * GuacamoleRecording.
+     *
+     * @param reader The GuacamoleReader to read from.
+     * @param recording The GuacamoleRecording to append all data read to.
+     */
+    public RecordingGuacamoleReader(GuacamoleReader reader,
+            GuacamoleRecording recording) {
+        this.reader = AdaptedGuacamoleReader.adapt(reader);
+        this.recording = recording;
+    }
+
+    /**
+     * Appends the given characters to the recording as UTF-8.
+     */
+    private void record(char[] chars, int offset, int length) {
+
+        int capacity = encodedUsage.resize(encoded.length, UTF8.maxEncodedLength(length));
+        if (capacity != encoded.length)
+            encoded = new byte[capacity];
+
+        int encodedLength = UTF8.encode(chars, offset, length, encoded, 0);
+        recording.append(System.currentTimeMillis(), encoded, 0, encodedLength);
+
+    }
+
+    /**
+     * Appends the contents of the given view to the recording, returning
+     * the view.
+     */
+    private InstructionView record(InstructionView view) {
+
+        if (view == null)
+            return null;
+
+        if (view.getBytes() != null)
+            recording.append(System.currentTimeMillis(), view.getBytes(),
+                    view.getOffset(), view.getLength());
+        else
+            record(view.getChars(), view.getOffset(), view.getLength());
+
+        return view;
+
+    }
+
+    @Override
+    public boolean available() throws GuacamoleException {
+        return reader.available();
+    }
+
+    @Override
+    public char[] read() throws GuacamoleException {
+
+        char[] chunk = reader.read();
+        if (chunk != null)
+            record(chunk, 0, chunk.length);
+
+        return chunk;
+
+    }
+
+    @Override
+    public InstructionView readView() throws GuacamoleException {
+        return record(reader.readView());
+    }
+
+    @Override
+    public InstructionView readFragment() throws GuacamoleException {
+        return record(reader.readFragment());
+    }
+
+    @Override
+    public InstructionView readBatch() throws GuacamoleException {
+        return record(reader.readBatch());
+    }
+
+    @Override
+    public GuacamoleInstruction readInstruction() throws GuacamoleException {
+
+        GuacamoleInstruction instruction = reader.readInstruction();
+        if (instruction != null) {
+
+            int length = InstructionEncoder.length(instruction);
+            int capacity = instructionBufferUsage.resize(instructionBuffer.length, length);
+            if (capacity != instructionBuffer.length)
+                instructionBuffer = new char[capacity];
+
+            InstructionEncoder.encode(instruction, instructionBuffer, 0);
+            record(instructionBuffer, 0, length);
+
+        }
+
+        return instruction;
+
+    }
+
+    @Override
+    public boolean readInstruction(MutableGuacamoleInstruction instruction)
+            throws GuacamoleException {
+
+        if (!reader.readInstruction(instruction))
+            return false;
+
+        // The instruction begins with the length prefix of its opcode, and
+        // as opcodes are ASCII, that prefix is the same in bytes and
+        // characters
+        int opcodeLength = instruction.getElementLength(0);
+        int start = instruction.getElementOffset(0) - 1
+                - Integer.toString(opcodeLength).length();
+
+        // The instruction ends with the terminator after its last element
+        int last = instruction.getElementCount() - 1;
+        int end = instruction.getElementOffset(last)
+                + instruction.getElementLength(last) + 1;
+
+        if (instruction.getBytes() != null)
+            recording.append(System.currentTimeMillis(), instruction.getBytes(),
+                    start, end - start);
+        else
+            record(instruction.getChars(), start, end - start);
+
+        return true;
+
+    }
+
+}
@@ -0,0 +1,256 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+/**
+ * Static utility functions for encoding and decoding UTF-8 without
+ * allocating intermediate objects. Lengths are counted in Java characters
+ * (UTF-16 code units), consistent with the lengths used by the Guacamole
+ * instruction format.
+ *
+ * @author Michael Jumper
+ */
+final class UTF8 {
+
+    /**
+     * The character used in place of any malformed UTF-8 sequence.
+     */
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private UTF8() {}
+
+    /**
+     * Returns the length, in bytes, of the UTF-8 sequence beginning with the
+     * given byte. Bytes which cannot begin a valid sequence are treated as
+     * sequences of length 1.
+     *
+     * @param lead The first byte of a UTF-8 sequence.
+     * @return The length of the sequence, in bytes.
+     */
+    static int sequenceLength(byte lead) {
+
+        if (lead >= 0)             return 1;
+        if ((lead & 0xE0) == 0xC0) return 2;
+        if ((lead & 0xF0) == 0xE0) return 3;
+        if ((lead & 0xF8) == 0xF0) return 4;
+
+        return 1;
+
+    }
+
+    /**
+     * Returns the number of Java characters represented by the UTF-8 sequence
+     * beginning with the given byte. Four-byte sequences encode characters
+     * outside the Basic Multilingual Plane, which require a surrogate pair.
+     *
+     * @param lead The first byte of a UTF-8 sequence.
+     * @return The number of Java characters represented by the sequence.
+     */
+    static int charLength(byte lead) {
+        return sequenceLength(lead) == 4 ? 2 : 1;
+    }
+
+    /**
+     * Returns the length of the longest prefix of the given portion of an
+     * array which contains only complete UTF-8 sequences.
+     *
+     * @param src The array containing UTF-8 data.
+     * @param off The offset of the data within the array.
+     * @param len The number of bytes of data.
+     * @return The number of bytes, starting at the given offset, which
+     *         contain only complete UTF-8 sequences.
+     */
+    static int completeLength(byte[] src, int off, int len) {
+
+        // Only the final three bytes can be part of an incomplete sequence
+        int end = off + len;
+        for (int i = end - 1; i >= off && i >= end - 3; i--) {
+
+            // Find start of last sequence
+            byte b = src[i];
+            if ((b & 0xC0) != 0x80) {
+                if (i + sequenceLength(b) > end)
+                    return i - off;
+                break;
+            }
+
+        }
+
+        return len;
+
+    }
+
+    /**
+     * Returns the maximum number of bytes required to encode the given
+     * number of Java characters as UTF-8.
+     *
+     * @param length The number of Java characters to be encoded.
+     * @return The maximum number of bytes required to encode those characters.
+     */
+    static int maxEncodedLength(int length) {
+        return length * 3;
+    }
+
+    /**
+     * Encodes the given characters as UTF-8, storing the result in the given
+     * byte array, which must have at least maxEncodedLength(len) bytes
+     * available at the given offset. Unpaired surrogates are encoded as '?'.
+     *
+     * @param src The characters to encode.
+     * @param off The offset of the first character to encode.
+     * @param len The number of characters to encode.
+     * @param dst The array to store encoded bytes within.
+     * @param dstOff The offset within dst to begin storing encoded bytes.
+     * @return The number of bytes stored.
+     */
+    static int encode(char[] src, int off, int len, byte[] dst, int dstOff) {
+
+        int end = off + len;
+        int j = dstOff;
+
+        for (int i = off; i < end; i++) {
+
+            char c = src[i];
+
+            // Single byte
+            if (c < 0x80)
+                dst[j++] = (byte) c;
+
+            // Two bytes
+            else if (c < 0x800) {
+                dst[j++] = (byte) (0xC0 | (c >> 6));
+                dst[j++] = (byte) (0x80 | (c & 0x3F));
+            }
+
+            // Surrogate pair (four bytes)
+            else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(src[i+1])) {
+                int codepoint = Character.toCodePoint(c, src[++i]);
+                dst[j++] = (byte) (0xF0 | (codepoint >> 18));
+                dst[j++] = (byte) (0x80 | ((codepoint >> 12) & 0x3F));
+                dst[j++] = (byte) (0x80 | ((codepoint >> 6) & 0x3F));
+                dst[j++] = (byte) (0x80 | (codepoint & 0x3F));
+            }
+
+            // Unpaired surrogate
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+                dst[j++] = '?';
+
+            // Three bytes
+            else {
+                dst[j++] = (byte) (0xE0 | (c >> 12));
+                dst[j++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[j++] = (byte) (0x80 | (c & 0x3F));
+            }
+
+        }
+
+        return j - dstOff;
+
+    }
+
+    /**
+     * Decodes the given UTF-8 data, storing the resulting characters in the
+     * given char array, which must have at least len characters available at
+     * the given offset. Malformed or truncated sequences are decoded as the
+     * Unicode replacement character.
+     *
+     * @param src The UTF-8 data to decode.
+     * @param off The offset of the first byte to decode.
+     * @param len The number of bytes to decode.
+     * @param dst The array to store decoded characters within.
+     * @param dstOff The offset within dst to begin storing characters.
+     * @return The number of characters stored.
+     */
+    static int decode(byte[] src, int off, int len, char[] dst, int dstOff) {
+
+        int end = off + len;
+        int j = dstOff;
+
+        int i = off;
+        while (i < end) {
+
+            byte lead = src[i];
+
+            // Single byte
+            if (lead >= 0) {
+                dst[j++] = (char) lead;
+                i++;
+                continue;
+            }
+
+            // Verify sequence is complete and well-formed
+            int length = sequenceLength(lead);
+            if (length == 1 || i + length > end) {
+                dst[j++] = REPLACEMENT;
+                i++;
+                continue;
+            }
+
+            int codepoint = lead & (0xFF >> (length + 1));
+            int k;
+            for (k = 1; k < length; k++) {
+                byte b = src[i+k];
+                if ((b & 0xC0) != 0x80)
+                    break;
+                codepoint = (codepoint << 6) | (b & 0x3F);
+            }
+
+            // Replace malformed sequences
+            if (k != length || codepoint > Character.MAX_CODE_POINT) {
+                dst[j++] = REPLACEMENT;
+                i++;
+                continue;
+            }
+
+            // Store as surrogate pair if outside BMP
+            if (codepoint >= 0x10000)
+                j += Character.toChars(codepoint, dst, j);
+            else
+                dst[j++] = (char) codepoint;
+
+            i += length;
+
+        }
+
+        return j - dstOff;
+
+    }
+
+}
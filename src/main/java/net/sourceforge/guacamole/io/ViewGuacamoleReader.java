@@ -0,0 +1,144 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+
+/**
+ * A GuacamoleReader which can also return instructions as views within its
+ * own buffer, without copying. Views allow instructions to be forwarded as
+ * they arrive, several at a time or in fragments, and to be parsed without
+ * allocation. Any GuacamoleReader can be given these operations with
+ * AdaptedGuacamoleReader.
+ *
+ * @author Michael Jumper
+ */
+public interface ViewGuacamoleReader extends GuacamoleReader {
+
+    /**
+     * Returns whether instruction data can be read without blocking. Unlike
+     * the available() function of other GuacamoleReaders, this function
+     * returns true only if readFragment() and readBatch() would not block.
+     * Buffered data which cannot yet be returned, such as the leading bytes
+     * of an incomplete UTF-8 sequence, is not considered available. A call
+     * to readView() may still block until an entire instruction has been
+     * received.
+     *
+     * @return true if readFragment() and readBatch() can return without
+     *         blocking, false otherwise.
+     * @throws GuacamoleException If an error occurs while checking for
+     *                            available data.
+     */
+    public boolean available() throws GuacamoleException;
+
+    /**
+     * Reads exactly one complete Guacamole instruction, returning a view of
+     * that instruction within the internal buffer of this
+     * ViewGuacamoleReader. Unlike read(), no copy of the instruction is made.
+     * The returned view, and the buffer it refers to, are only valid until the
+     * next read from this ViewGuacamoleReader. This function will block until
+     * a complete instruction is available.
+     *
+     * @return A view of the next complete Guacamole instruction, or null if
+     *         no more instructions are available for reading.
+     * @throws GuacamoleException If an error occurs while reading from the
+     *                            stream.
+     */
+    public InstructionView readView() throws GuacamoleException;
+
+    /**
+     * Reads the next portion of the Guacamole instruction stream, returning
+     * a view of that portion within the internal buffer of this
+     * ViewGuacamoleReader. The portion returned is either the remainder of
+     * one complete instruction, or, if that instruction is too large for the
+     * buffer or has not yet been fully received, as much of that instruction
+     * as is currently available. This allows large instructions to be
+     * forwarded as they arrive, without first being buffered in full. A
+     * returned view never contains data from more than one instruction, and
+     * isComplete() indicates whether it ends that instruction. Once a partial
+     * instruction has been returned, readFragment() must be called until the
+     * instruction is complete before any other read. This function will
+     * block until new instruction data is available.
+     *
+     * @return A view of the next portion of the instruction stream, or null
+     *         if no more instructions are available for reading.
+     * @throws GuacamoleException If an error occurs while reading from the
+     *                            stream.
+     */
+    public InstructionView readFragment() throws GuacamoleException;
+
+    /**
+     * Reads every complete Guacamole instruction currently buffered, returning
+     * a single view of all of those instructions within the internal buffer
+     * of this ViewGuacamoleReader, such that they can be written elsewhere in
+     * a single call. The number of instructions within the view is given by
+     * getInstructionCount(). If no complete instruction is buffered, this
+     * function behaves as readFragment(), returning part of an instruction
+     * where appropriate, and the same restrictions on mixing reads apply.
+     * This function will block until new instruction data is available.
+     *
+     * @return A view of all complete instructions currently buffered, or of
+     *         the next portion of an incomplete instruction, or null if no
+     *         more instructions are available for reading.
+     * @throws GuacamoleException If an error occurs while reading from the
+     *                            stream.
+     */
+    public InstructionView readBatch() throws GuacamoleException;
+
+    /**
+     * Reads exactly one complete Guacamole instruction, storing the location
+     * of each of its elements within the given MutableGuacamoleInstruction.
+     * No element is decoded until requested. The given instruction, like the
+     * views returned by readView(), is only valid until the next read from
+     * this ViewGuacamoleReader.
+     *
+     * @param instruction The MutableGuacamoleInstruction to store the next
+     *                    complete instruction within.
+     * @return true if an instruction was read, or false if no more
+     *         instructions are available for reading.
+     * @throws GuacamoleException If an error occurs while reading from the
+     *                            stream, or if the instruction cannot be
+     *                            parsed.
+     */
+    public boolean readInstruction(MutableGuacamoleInstruction instruction)
+            throws GuacamoleException;
+
+}
@@ -45,36 +45,172 @@ import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
 
 /**
  * A GuacamoleWriter which wraps a standard Java Writer, using that Writer as
- * the Guacamole instruction stream.
+ * the Guacamole instruction stream. By default, the Writer is flushed after
+ * every write. If a flush threshold is given, writes are instead coalesced,
+ * and the Writer is only flushed once the threshold is reached, when flush()
+ * is called, or after the given flush delay.
  *
  * @author Michael Jumper
  */
-public class WriterGuacamoleWriter implements GuacamoleWriter {
+public class WriterGuacamoleWriter implements ViewGuacamoleWriter {
 
     /**
      * Wrapped Writer to be used for all output.
      */
     private Writer output;
 
+    /**
+     * The number of characters which may be written before the Writer is
+     * flushed automatically. If zero, the Writer is flushed after every write.
+     */
+    private final int flushThreshold;
+
+    /**
+     * The number of milliseconds after which written data is flushed
+     * automatically if no other flush occurs. If zero, written data is only
+     * flushed once the flush threshold is reached or flush() is called.
+     */
+    private final int flushDelay;
+
+    /**
+     * The number of characters written since the Writer was last flushed.
+     */
+    private int pendingLength = 0;
+
+    /**
+     * Whether a delayed flush is currently scheduled.
+     */
+    private boolean flushScheduled = false;
+
     /**
      * Creates a new WriterGuacamoleWriter which will use the given Writer as
-     * the Guacamole instruction stream.
+     * the Guacamole instruction stream, flushing the Writer after every write.
      *
      * @param output The Writer to use as the Guacamole instruction stream.
      */
     public WriterGuacamoleWriter(Writer output) {
+        this(output, 0, 0);
+    }
+
+    /**
+     * Creates a new WriterGuacamoleWriter which will use the given Writer as
+     * the Guacamole instruction stream, coalescing writes until the given
+     * threshold is reached, flush() is called, or the given delay elapses.
+     *
+     * @param output The Writer to use as the Guacamole instruction stream.
+     * @param flushThreshold The number of characters which may be written
+     *                       before the Writer is flushed automatically, or
+     *                       zero to flush after every write.
+     * @param flushDelay The number of milliseconds after which written data
+     *                   is flushed automatically, or zero to flush only when
+     *                   the threshold is reached or flush() is called.
+     */
+    public WriterGuacamoleWriter(Writer output, int flushThreshold,
+            int flushDelay) {
         this.output = output;
+        this.flushThreshold = flushThreshold;
+        this.flushDelay = flushDelay;
     }
 
     @Override
-    public void write(char[] chunk, int off, int len) throws GuacamoleException {
+    public synchronized void write(char[] chunk, int off, int len) throws GuacamoleException {
         try {
             output.write(chunk, off, len);
+            pendingLength += len;
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+        // Flush at this instruction boundary if threshold reached
+        if (pendingLength >= flushThreshold)
+            flush();
+
+        // Otherwise, ensure data is eventually flushed
+        else if (flushDelay > 0 && !flushScheduled) {
+            flushScheduled = true;
+            FlushScheduler.schedule(this, flushDelay);
+        }
+
+    }
+
+    @Override
+    public synchronized void flush() throws GuacamoleException {
+
+        flushScheduled = false;
+
+        // Do not flush if nothing written
+        if (pendingLength == 0)
+            return;
+
+        try {
             output.flush();
+            pendingLength = 0;
         }
         catch (IOException e) {
             throw new GuacamoleServerException(e);
         }
+
+    }
+
+    /**
+     * Buffer of characters decoded from UTF-8 data passed to
+     * write(byte[], int, int).
+     */
+    private char[] decodeBuffer = new char[0];
+
+    /**
+     * The use of the decode buffer, such that it does not remain at the size
+     * of the largest write ever decoded.
+     */
+    private final BufferUsage decodeBufferUsage = new BufferUsage();
+
+    /**
+     * Any trailing bytes of an incomplete UTF-8 sequence from the previous
+     * call to write(byte[], int, int).
+     */
+    private final byte[] partial = new byte[4];
+
+    /**
+     * The number of bytes stored within the partial sequence buffer.
+     */
+    private int partialLength = 0;
+
+    @Override
+    public synchronized void write(byte[] chunk, int off, int len) throws GuacamoleException {
+
+        // Ensure enough space for decoded characters, including any partial
+        // sequence from the previous write
+        int capacity = decodeBufferUsage.resize(decodeBuffer.length, len + partialLength);
+        if (capacity != decodeBuffer.length)
+            decodeBuffer = new char[capacity];
+
+        int decoded = 0;
+
+        // Complete any partial sequence from the previous write
+        while (partialLength != 0 && len != 0) {
+
+            partial[partialLength++] = chunk[off++];
+            len--;
+
+            if (partialLength == UTF8.sequenceLength(partial[0])) {
+                decoded = UTF8.decode(partial, 0, partialLength, decodeBuffer, 0);
+                partialLength = 0;
+            }
+
+        }
+
+        // Decode all complete sequences, saving the remainder for later
+        if (partialLength == 0) {
+            int complete = UTF8.completeLength(chunk, off, len);
+            decoded += UTF8.decode(chunk, off, complete, decodeBuffer, decoded);
+
+            partialLength = len - complete;
+            System.arraycopy(chunk, off + complete, partial, 0, partialLength);
+        }
+
+        write(decodeBuffer, 0, decoded);
+
     }
 
     @Override
@@ -82,9 +218,53 @@ public class WriterGuacamoleWriter implements GuacamoleWriter {
         write(chunk, 0, chunk.length);
     }
 
+    /**
+     * Buffer of characters encoded from instructions passed to
+     * writeInstruction() or writeInstructions().
+     */
+    private char[] encodeBuffer = new char[0];
+
+    /**
+     * The use of the encode buffer, such that it does not remain at the size
+     * of the largest instructions ever written.
+     */
+    private final BufferUsage encodeBufferUsage = new BufferUsage();
+
     @Override
-    public void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
-        write(instruction.toString().toCharArray());
+    public synchronized void writeInstruction(GuacamoleInstruction instruction) throws GuacamoleException {
+
+        // Ensure enough space for encoded instruction
+        int length = InstructionEncoder.length(instruction);
+        int capacity = encodeBufferUsage.resize(encodeBuffer.length, length);
+        if (capacity != encodeBuffer.length)
+            encodeBuffer = new char[capacity];
+
+        write(encodeBuffer, 0, InstructionEncoder.encode(instruction, encodeBuffer, 0));
+
+    }
+
+    @Override
+    public synchronized void writeInstructions(GuacamoleInstruction... instructions)
+            throws GuacamoleException {
+
+        // Ensure enough space for all encoded instructions
+        int length = 0;
+        for (GuacamoleInstruction instruction : instructions)
+            length += InstructionEncoder.length(instruction);
+
+        int capacity = encodeBufferUsage.resize(encodeBuffer.length, length);
+        if (capacity != encodeBuffer.length)
+            encodeBuffer = new char[capacity];
+
+        // Encode all instructions into a single chunk
+        int offset = 0;
+        for (GuacamoleInstruction instruction : instructions)
+            offset += InstructionEncoder.encode(instruction, encodeBuffer, offset);
+
+        // Write and send as one
+        write(encodeBuffer, 0, offset);
+        flush();
+
     }
 
 }
@@ -0,0 +1,304 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.UUID;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.properties.GuacamoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simple utility class providing the metrics of all tunnels, and controlling
+ * whether metrics are collected. Metrics are collected only if enabled, by
+ * the "enable-metrics" property of guacamole.properties or by
+ * setEnabled(), and only for tunnels created while enabled. Tunnels created
+ * while disabled perform no additional work.
+ *
+ * While enabled, the global metrics of all tunnels are registered as the
+ * MBean "net.sourceforge.guacamole:type=Tunnels", and the metrics of each
+ * tunnel as "net.sourceforge.guacamole:type=Tunnel,name=UUID", where UUID
+ * is the UUID of the tunnel. The platform MBeanServer outlives the web
+ * application, so these MBeans must be unregistered with shutdown() when
+ * the web application is undeployed, as GuacamoleMetricsContextListener
+ * does; otherwise they keep the web application's classes loaded.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleMetrics {
+
+    private GuacamoleMetrics() {}
+
+    private static final Logger logger = LoggerFactory.getLogger(GuacamoleMetrics.class);
+
+    /**
+     * The JMX domain of all MBeans.
+     */
+    private static final String DOMAIN = "net.sourceforge.guacamole";
+
+    /**
+     * The metrics of all tunnels.
+     */
+    private static final TunnelMetrics global = new TunnelMetrics(null, StripedCounter.DEFAULT_STRIPES);
+
+    /**
+     * The time taken by each initial protocol handshake.
+     */
+    private static final LatencyHistogram handshake = new LatencyHistogram();
+
+    /**
+     * The number of tunnels created while metrics were enabled.
+     */
+    private static final StripedCounter tunnelsOpened = new StripedCounter();
+
+    /**
+     * The number of tunnels counted by tunnelsOpened which have since been
+     * closed.
+     */
+    private static final StripedCounter tunnelsClosed = new StripedCounter();
+
+    /**
+     * The metrics of all requests made to tunnel servlets.
+     */
+    private static final RequestMetrics requests = new RequestMetrics();
+
+    /**
+     * Whether metrics are collected for new tunnels.
+     */
+    private static volatile boolean enabled = false;
+
+    /**
+     * Whether the global metrics have been registered with JMX. Guarded by
+     * the GuacamoleMetrics class.
+     */
+    private static boolean registered = false;
+
+    static {
+
+        try {
+            Boolean enable = GuacamoleProperties.getProperty(GuacamoleProperties.ENABLE_METRICS);
+            if (enable != null && enable)
+                setEnabled(true);
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Metrics not configured.", e);
+        }
+
+    }
+
+    /**
+     * Returns whether metrics are collected for new tunnels.
+     *
+     * @return true if metrics are collected, false otherwise.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether metrics are collected for new tunnels. Tunnels which
+     * already exist are unaffected.
+     *
+     * @param enabled true if metrics should be collected, false otherwise.
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+
+        // Register global metrics when first enabled
+        if (enabled && !registered) {
+            register(DOMAIN + ":type=Tunnels", global);
+            registered = true;
+        }
+
+        GuacamoleMetrics.enabled = enabled;
+
+    }
+
+    /**
+     * Disables metrics and unregisters every MBean registered by this class,
+     * including the metrics of tunnels which are still open. Metrics may be
+     * enabled again later with setEnabled().
+     */
+    public static synchronized void shutdown() {
+
+        enabled = false;
+        registered = false;
+
+        try {
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Set<ObjectName> names = server.queryNames(new ObjectName(DOMAIN + ":*"), null);
+
+            // Attempt to unregister each MBean, ignoring any already gone
+            for (ObjectName name : names) {
+                try {
+                    server.unregisterMBean(name);
+                }
+                catch (JMException e) {
+                    logger.debug("Unable to unregister \"" + name + "\".", e);
+                }
+            }
+
+        }
+        catch (JMException e) {
+            logger.warn("Unable to unregister metrics.", e);
+        }
+
+    }
+
+    /**
+     * Returns the metrics of all tunnels.
+     *
+     * @return The global TunnelMetrics.
+     */
+    public static TunnelMetrics getGlobalMetrics() {
+        return global;
+    }
+
+    /**
+     * Returns the histogram of time taken by initial protocol handshakes
+     * made while metrics were enabled.
+     *
+     * @return The histogram of handshake times.
+     */
+    public static LatencyHistogram getHandshakeHistogram() {
+        return handshake;
+    }
+
+    /**
+     * Returns the metrics of all requests made to tunnel servlets while
+     * metrics were enabled.
+     *
+     * @return The global RequestMetrics.
+     */
+    public static RequestMetrics getRequestMetrics() {
+        return requests;
+    }
+
+    /**
+     * Returns the number of tunnels created while metrics were enabled.
+     *
+     * @return The number of tunnels opened.
+     */
+    public static long getTunnelsOpened() {
+        return tunnelsOpened.sum();
+    }
+
+    /**
+     * Returns the number of tunnels created while metrics were enabled which
+     * have since been closed.
+     *
+     * @return The number of tunnels closed.
+     */
+    public static long getTunnelsClosed() {
+        return tunnelsClosed.sum();
+    }
+
+    /**
+     * Creates the metrics of the tunnel having the given UUID, registering
+     * those metrics with JMX.
+     *
+     * @param uuid The UUID of the tunnel.
+     * @return The new TunnelMetrics, or null if metrics are disabled.
+     */
+    public static TunnelMetrics createTunnelMetrics(UUID uuid) {
+
+        if (!enabled)
+            return null;
+
+        TunnelMetrics metrics = new TunnelMetrics(global, 1);
+        register(getTunnelName(uuid), metrics);
+        tunnelsOpened.increment();
+        return metrics;
+
+    }
+
+    /**
+     * Unregisters the metrics of the tunnel having the given UUID from JMX.
+     * Updates to the global metrics made through that tunnel's metrics are
+     * retained.
+     *
+     * @param uuid The UUID of the tunnel.
+     */
+    public static void releaseTunnelMetrics(UUID uuid) {
+
+        tunnelsClosed.increment();
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(getTunnelName(uuid));
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        }
+        catch (JMException e) {
+            logger.debug("Unable to unregister tunnel metrics.", e);
+        }
+
+    }
+
+    /**
+     * Returns the JMX object name of the metrics of the tunnel having the
+     * given UUID.
+     */
+    private static String getTunnelName(UUID uuid) {
+        return DOMAIN + ":type=Tunnel,name=" + uuid;
+    }
+
+    /**
+     * Registers the given metrics with the platform MBeanServer under the
+     * given name, logging any failure.
+     */
+    private static void register(String name, TunnelMetrics metrics) {
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    metrics, new ObjectName(name));
+        }
+        catch (JMException e) {
+            logger.warn("Unable to register metrics as \"" + name + "\".", e);
+        }
+
+    }
+
+}
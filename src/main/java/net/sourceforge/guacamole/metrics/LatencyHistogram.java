@@ -0,0 +1,241 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, in nanoseconds, counted within buckets whose
+ * bounds are successive powers of two. Each duration is recorded in constant
+ * time, without allocation, and like StripedCounter, buckets may be striped
+ * such that concurrent updates rarely contend.
+ *
+ * @author Michael Jumper
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets. Bucket N counts durations less than 2^N
+     * nanoseconds and not counted by an earlier bucket, with the last bucket
+     * counting all remaining durations.
+     */
+    public static final int BUCKETS = 40;
+
+    /**
+     * The buckets of all stripes, each stripe having BUCKETS buckets.
+     */
+    private final AtomicLongArray buckets;
+
+    /**
+     * The bit mask selecting a stripe from a thread hash.
+     */
+    private final int mask;
+
+    /**
+     * The sum of all recorded durations, in nanoseconds.
+     */
+    private final StripedCounter total;
+
+    /**
+     * Creates a new LatencyHistogram having the default number of stripes,
+     * suitable for recording durations from any number of threads.
+     */
+    public LatencyHistogram() {
+        this(StripedCounter.DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new LatencyHistogram having the given number of stripes.
+     *
+     * @param stripes The number of stripes, rounded up to a power of two.
+     */
+    public LatencyHistogram(int stripes) {
+        stripes = StripedCounter.stripesFor(stripes);
+        mask = stripes - 1;
+        buckets = new AtomicLongArray(stripes * BUCKETS);
+        total = new StripedCounter(stripes);
+    }
+
+    /**
+     * Returns the bucket counting the given duration.
+     */
+    private static int bucketOf(long nanos) {
+
+        if (nanos <= 0)
+            return 0;
+
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+
+    }
+
+    /**
+     * Records the given duration.
+     *
+     * @param nanos The duration to record, in nanoseconds.
+     */
+    public void record(long nanos) {
+        int stripe = StripedCounter.threadHash() & mask;
+        buckets.getAndIncrement(stripe * BUCKETS + bucketOf(nanos));
+        total.add(nanos);
+    }
+
+    /**
+     * Returns the number of durations recorded within each bucket.
+     *
+     * @return A new array containing the count of each bucket.
+     */
+    public long[] getBucketCounts() {
+
+        long[] counts = new long[BUCKETS];
+        for (int i=0; i<buckets.length(); i++)
+            counts[i % BUCKETS] += buckets.get(i);
+
+        return counts;
+
+    }
+
+    /**
+     * Returns the exclusive upper bound of the given bucket, in nanoseconds.
+     * The last bucket has no upper bound, and Long.MAX_VALUE is returned.
+     *
+     * @param bucket The index of the bucket.
+     * @return The upper bound of the bucket, in nanoseconds.
+     */
+    public static long getUpperBound(int bucket) {
+
+        if (bucket >= BUCKETS - 1)
+            return Long.MAX_VALUE;
+
+        return 1L << bucket;
+
+    }
+
+    /**
+     * Returns the largest duration counted by the given bucket, in
+     * nanoseconds. As durations are whole nanoseconds, this is one less than
+     * the exclusive upper bound of the bucket, and is the inclusive bound
+     * expected by formats such as that of Prometheus. The last bucket has no
+     * upper bound, and Long.MAX_VALUE is returned.
+     *
+     * @param bucket The index of the bucket.
+     * @return The largest duration counted by the bucket, in nanoseconds.
+     */
+    public static long getMaximum(int bucket) {
+
+        if (bucket >= BUCKETS - 1)
+            return Long.MAX_VALUE;
+
+        return (1L << bucket) - 1;
+
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+
+        long count = 0;
+        for (int i=0; i<buckets.length(); i++)
+            count += buckets.get(i);
+
+        return count;
+
+    }
+
+    /**
+     * Returns the sum of all durations recorded, in nanoseconds.
+     *
+     * @return The sum of all durations recorded, in nanoseconds.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean of all durations recorded, in nanoseconds.
+     *
+     * @return The mean duration, in nanoseconds, or zero if no durations
+     *         have been recorded.
+     */
+    public long getMean() {
+
+        long count = getCount();
+        if (count == 0)
+            return 0;
+
+        return getTotal() / count;
+
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of all durations
+     * recorded, accurate to within a factor of two.
+     *
+     * @param percentile The percentile to return, between 0 and 100.
+     * @return The upper bound of the bucket containing the given percentile,
+     *         in nanoseconds, or zero if no durations have been recorded.
+     */
+    public long getPercentile(double percentile) {
+
+        long[] counts = getBucketCounts();
+
+        long count = 0;
+        for (long bucketCount : counts)
+            count += bucketCount;
+
+        if (count == 0)
+            return 0;
+
+        // Find first bucket reaching the requested rank
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i=0; i<BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return getUpperBound(i);
+        }
+
+        return getUpperBound(BUCKETS - 1);
+
+    }
+
+}
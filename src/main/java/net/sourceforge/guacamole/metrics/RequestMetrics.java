@@ -0,0 +1,186 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+/**
+ * Counts of the HTTP requests made to tunnel servlets, and of the errors
+ * returned in response, along with the sizes of read responses. As with all
+ * metrics, requests are counted only while metrics are enabled.
+ *
+ * @author Michael Jumper
+ */
+public class RequestMetrics {
+
+    private final StripedCounter connectRequests = new StripedCounter();
+    private final StripedCounter readRequests    = new StripedCounter();
+    private final StripedCounter writeRequests   = new StripedCounter();
+
+    private final StripedCounter clientErrors   = new StripedCounter();
+    private final StripedCounter securityErrors = new StripedCounter();
+    private final StripedCounter notFoundErrors = new StripedCounter();
+    private final StripedCounter serverErrors   = new StripedCounter();
+
+    /**
+     * The sizes of read responses, in bytes. The buckets of a
+     * LatencyHistogram apply equally to sizes.
+     */
+    private final LatencyHistogram readResponseSize = new LatencyHistogram();
+
+    /**
+     * Records a connect request.
+     */
+    public void recordConnect() {
+        connectRequests.increment();
+    }
+
+    /**
+     * Records a read request.
+     */
+    public void recordRead() {
+        readRequests.increment();
+    }
+
+    /**
+     * Records a write request.
+     */
+    public void recordWrite() {
+        writeRequests.increment();
+    }
+
+    /**
+     * Records the total size of a completed read response.
+     *
+     * @param bytes The number of bytes sent in the response.
+     */
+    public void recordReadResponse(long bytes) {
+        readResponseSize.record(bytes);
+    }
+
+    /**
+     * Records an error response having the given HTTP status code. Codes
+     * other than 400, 403 and 404 are counted as server errors.
+     *
+     * @param code The HTTP status code of the error.
+     */
+    public void recordError(int code) {
+        switch (code) {
+            case 400: clientErrors.increment();   break;
+            case 403: securityErrors.increment(); break;
+            case 404: notFoundErrors.increment(); break;
+            default:  serverErrors.increment();
+        }
+    }
+
+    /**
+     * Returns the number of connect requests.
+     *
+     * @return The number of connect requests.
+     */
+    public long getConnectRequests() {
+        return connectRequests.sum();
+    }
+
+    /**
+     * Returns the number of read requests.
+     *
+     * @return The number of read requests.
+     */
+    public long getReadRequests() {
+        return readRequests.sum();
+    }
+
+    /**
+     * Returns the number of write requests.
+     *
+     * @return The number of write requests.
+     */
+    public long getWriteRequests() {
+        return writeRequests.sum();
+    }
+
+    /**
+     * Returns the number of requests refused as invalid, with status 400.
+     *
+     * @return The number of invalid requests.
+     */
+    public long getClientErrors() {
+        return clientErrors.sum();
+    }
+
+    /**
+     * Returns the number of requests refused as unauthorized, with status
+     * 403.
+     *
+     * @return The number of unauthorized requests.
+     */
+    public long getSecurityErrors() {
+        return securityErrors.sum();
+    }
+
+    /**
+     * Returns the number of requests for tunnels which do not exist or are
+     * closed, refused with status 404.
+     *
+     * @return The number of requests for missing tunnels.
+     */
+    public long getNotFoundErrors() {
+        return notFoundErrors.sum();
+    }
+
+    /**
+     * Returns the number of requests which failed due to an error within
+     * the server, with status 500.
+     *
+     * @return The number of requests failed by server errors.
+     */
+    public long getServerErrors() {
+        return serverErrors.sum();
+    }
+
+    /**
+     * Returns the histogram of read response sizes, in bytes.
+     *
+     * @return The histogram of read response sizes.
+     */
+    public LatencyHistogram getReadResponseSizeHistogram() {
+        return readResponseSize;
+    }
+
+}
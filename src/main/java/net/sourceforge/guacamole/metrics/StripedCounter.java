@@ -0,0 +1,156 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which spreads updates across several independently-updated
+ * stripes, such that threads updating the counter concurrently rarely
+ * contend. The value of the counter is the sum of all stripes. Each thread
+ * always updates the same stripe, and stripes are spaced such that no two
+ * share a cache line.
+ *
+ * @author Michael Jumper
+ */
+public class StripedCounter {
+
+    /**
+     * The number of array elements between the start of each stripe, such
+     * that each stripe occupies its own 64-byte cache line.
+     */
+    private static final int SPACING = 8;
+
+    /**
+     * The default number of stripes, the smallest power of two no less than
+     * twice the number of processors.
+     */
+    static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * The stripes of this counter.
+     */
+    private final AtomicLongArray cells;
+
+    /**
+     * The bit mask selecting a stripe from a thread hash.
+     */
+    private final int mask;
+
+    /**
+     * The distance between stripes, in array elements.
+     */
+    private final int spacing;
+
+    /**
+     * Creates a new StripedCounter having the default number of stripes,
+     * suitable for counting updates from any number of threads.
+     */
+    public StripedCounter() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new StripedCounter having the given number of stripes. A
+     * counter having a single stripe behaves as an AtomicLong, and is
+     * suitable for counting updates from few threads at a time.
+     *
+     * @param stripes The number of stripes, rounded up to a power of two.
+     */
+    public StripedCounter(int stripes) {
+        stripes = stripesFor(stripes);
+        spacing = stripes == 1 ? 1 : SPACING;
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * spacing);
+    }
+
+    /**
+     * Returns the smallest power of two no less than the given number of
+     * stripes.
+     */
+    static int stripesFor(int stripes) {
+        int power = 1;
+        while (power < stripes)
+            power <<= 1;
+        return power;
+    }
+
+    /**
+     * Returns the stripe updated by the current thread.
+     */
+    static int threadHash() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Adds the given value to this counter.
+     *
+     * @param value The value to add.
+     */
+    public void add(long value) {
+        cells.getAndAdd((threadHash() & mask) * spacing, value);
+    }
+
+    /**
+     * Adds one to this counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Returns the current value of this counter. Updates made concurrently
+     * with this call may or may not be included.
+     *
+     * @return The sum of all stripes of this counter.
+     */
+    public long sum() {
+
+        long sum = 0;
+        for (int i=0; i<cells.length(); i += spacing)
+            sum += cells.get(i);
+
+        return sum;
+
+    }
+
+}
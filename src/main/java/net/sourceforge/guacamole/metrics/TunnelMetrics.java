@@ -0,0 +1,268 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+/**
+ * Throughput and latency metrics of a single tunnel, or of all tunnels
+ * together. Every update to the metrics of a single tunnel is also applied
+ * to the global metrics of all tunnels.
+ *
+ * @author Michael Jumper
+ */
+public class TunnelMetrics implements TunnelMetricsMBean {
+
+    /**
+     * The number of nanoseconds in each microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000;
+
+    /**
+     * The metrics to which all updates are also applied, or null if these
+     * are the global metrics.
+     */
+    private final TunnelMetrics parent;
+
+    private final StripedCounter bytesRead;
+    private final StripedCounter instructionsRead;
+    private final StripedCounter bytesWritten;
+    private final StripedCounter instructionsWritten;
+
+    private final LatencyHistogram readerWait;
+    private final LatencyHistogram guacdRead;
+    private final LatencyHistogram flush;
+
+    /**
+     * Creates a new TunnelMetrics which applies all updates also to the
+     * given metrics.
+     *
+     * @param parent The metrics to which all updates are also applied, or
+     *               null if these metrics have no parent.
+     * @param stripes The number of stripes of each counter and histogram.
+     *                Metrics of a single tunnel, which are rarely updated
+     *                concurrently, need only a single stripe.
+     */
+    public TunnelMetrics(TunnelMetrics parent, int stripes) {
+
+        this.parent = parent;
+
+        bytesRead           = new StripedCounter(stripes);
+        instructionsRead    = new StripedCounter(stripes);
+        bytesWritten        = new StripedCounter(stripes);
+        instructionsWritten = new StripedCounter(stripes);
+
+        readerWait = new LatencyHistogram(stripes);
+        guacdRead  = new LatencyHistogram(stripes);
+        flush      = new LatencyHistogram(stripes);
+
+    }
+
+    /**
+     * Records instruction data read from the Guacamole proxy.
+     *
+     * @param length The amount of data read.
+     * @param instructions The number of instructions completed by the data.
+     */
+    public void recordRead(long length, int instructions) {
+
+        if (length != 0)
+            bytesRead.add(length);
+        if (instructions != 0)
+            instructionsRead.add(instructions);
+
+        if (parent != null)
+            parent.recordRead(length, instructions);
+
+    }
+
+    /**
+     * Records instruction data written to the Guacamole proxy.
+     *
+     * @param length The amount of data written.
+     * @param instructions The number of instructions completed by the data.
+     */
+    public void recordWrite(long length, int instructions) {
+
+        if (length != 0)
+            bytesWritten.add(length);
+        if (instructions != 0)
+            instructionsWritten.add(instructions);
+
+        if (parent != null)
+            parent.recordWrite(length, instructions);
+
+    }
+
+    /**
+     * Records the time a read spent waiting for read access.
+     *
+     * @param nanos The time spent waiting, in nanoseconds.
+     */
+    public void recordReaderWait(long nanos) {
+
+        readerWait.record(nanos);
+
+        if (parent != null)
+            parent.recordReaderWait(nanos);
+
+    }
+
+    /**
+     * Records the time spent within a single read from the Guacamole proxy.
+     *
+     * @param nanos The time spent reading, in nanoseconds.
+     */
+    public void recordGuacdRead(long nanos) {
+
+        guacdRead.record(nanos);
+
+        if (parent != null)
+            parent.recordGuacdRead(nanos);
+
+    }
+
+    /**
+     * Records the time spent flushing data read from the tunnel to the
+     * client.
+     *
+     * @param nanos The time spent flushing, in nanoseconds.
+     */
+    public void recordFlush(long nanos) {
+
+        flush.record(nanos);
+
+        if (parent != null)
+            parent.recordFlush(nanos);
+
+    }
+
+    /**
+     * Returns the histogram of time spent waiting for read access.
+     *
+     * @return The histogram of read access waits.
+     */
+    public LatencyHistogram getReaderWaitHistogram() {
+        return readerWait;
+    }
+
+    /**
+     * Returns the histogram of time spent within reads from the Guacamole
+     * proxy.
+     *
+     * @return The histogram of reads from the Guacamole proxy.
+     */
+    public LatencyHistogram getGuacdReadHistogram() {
+        return guacdRead;
+    }
+
+    /**
+     * Returns the histogram of time spent flushing data to the client.
+     *
+     * @return The histogram of flushes.
+     */
+    public LatencyHistogram getFlushHistogram() {
+        return flush;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getInstructionsRead() {
+        return instructionsRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getInstructionsWritten() {
+        return instructionsWritten.sum();
+    }
+
+    @Override
+    public long getReaderWaitCount() {
+        return readerWait.getCount();
+    }
+
+    @Override
+    public long getReaderWaitMean() {
+        return readerWait.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getReaderWait99thPercentile() {
+        return readerWait.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getGuacdReadCount() {
+        return guacdRead.getCount();
+    }
+
+    @Override
+    public long getGuacdReadMean() {
+        return guacdRead.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getGuacdRead99thPercentile() {
+        return guacdRead.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flush.getCount();
+    }
+
+    @Override
+    public long getFlushMean() {
+        return flush.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getFlush99thPercentile() {
+        return flush.getPercentile(99) / NANOS_PER_MICRO;
+    }
+
+}
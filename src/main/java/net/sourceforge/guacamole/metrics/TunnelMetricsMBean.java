@@ -0,0 +1,150 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+/**
+ * The JMX management interface of TunnelMetrics. Lengths are in bytes, or in
+ * characters for tunnels whose streams are character-based, and durations
+ * are in microseconds.
+ *
+ * @author Michael Jumper
+ */
+public interface TunnelMetricsMBean {
+
+    /**
+     * Returns the amount of instruction data read from the Guacamole proxy.
+     *
+     * @return The number of bytes read.
+     */
+    public long getBytesRead();
+
+    /**
+     * Returns the number of complete instructions read from the Guacamole
+     * proxy.
+     *
+     * @return The number of instructions read.
+     */
+    public long getInstructionsRead();
+
+    /**
+     * Returns the amount of instruction data written to the Guacamole proxy.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten();
+
+    /**
+     * Returns the number of complete instructions written to the Guacamole
+     * proxy.
+     *
+     * @return The number of instructions written.
+     */
+    public long getInstructionsWritten();
+
+    /**
+     * Returns the number of requests for read access to the tunnel.
+     *
+     * @return The number of requests for read access.
+     */
+    public long getReaderWaitCount();
+
+    /**
+     * Returns the mean time spent waiting for read access to the tunnel.
+     *
+     * @return The mean wait, in microseconds.
+     */
+    public long getReaderWaitMean();
+
+    /**
+     * Returns an upper bound of the 99th percentile of time spent waiting
+     * for read access to the tunnel.
+     *
+     * @return The 99th percentile wait, in microseconds.
+     */
+    public long getReaderWait99thPercentile();
+
+    /**
+     * Returns the number of reads made from the Guacamole proxy.
+     *
+     * @return The number of reads made.
+     */
+    public long getGuacdReadCount();
+
+    /**
+     * Returns the mean time spent within each read from the Guacamole proxy,
+     * including time spent waiting for data.
+     *
+     * @return The mean read time, in microseconds.
+     */
+    public long getGuacdReadMean();
+
+    /**
+     * Returns an upper bound of the 99th percentile of time spent within
+     * each read from the Guacamole proxy.
+     *
+     * @return The 99th percentile read time, in microseconds.
+     */
+    public long getGuacdRead99thPercentile();
+
+    /**
+     * Returns the number of times data read from the tunnel was flushed to
+     * the client.
+     *
+     * @return The number of flushes.
+     */
+    public long getFlushCount();
+
+    /**
+     * Returns the mean time spent flushing data read from the tunnel to the
+     * client.
+     *
+     * @return The mean flush time, in microseconds.
+     */
+    public long getFlushMean();
+
+    /**
+     * Returns an upper bound of the 99th percentile of time spent flushing
+     * data read from the tunnel to the client.
+     *
+     * @return The 99th percentile flush time, in microseconds.
+     */
+    public long getFlush99thPercentile();
+
+}
@@ -0,0 +1,7 @@
+
+/**
+ * Classes for collecting throughput and latency metrics of tunnels, and for
+ * exposing those metrics over JMX.
+ */
+package net.sourceforge.guacamole.metrics;
+
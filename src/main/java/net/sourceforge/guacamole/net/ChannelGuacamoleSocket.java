@@ -0,0 +1,581 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides abstract socket-like access to a Guacamole connection over a given
+ * hostname and port, using a non-blocking SocketChannel. Rather than
+ * dedicating a thread to each connection, all reads from the Guacamole proxy
+ * are performed by the threads of a GuacamoleEventLoop, with received data
+ * buffered within this socket until read.
+ *
+ * @author Michael Jumper
+ */
+public class ChannelGuacamoleSocket implements NotifyingGuacamoleSocket {
+
+    private Logger logger = LoggerFactory.getLogger(ChannelGuacamoleSocket.class);
+
+    private GuacamoleReader reader;
+    private GuacamoleWriter writer;
+
+    private static final int SOCKET_TIMEOUT = 15000;
+
+    /**
+     * The number of milliseconds to wait when connecting, or for a blocked
+     * read or write to make progress, before giving up.
+     */
+    private final int timeout;
+
+    private GuacamoleEventLoop loop;
+    private SocketChannel channel;
+    private SelectionKey key;
+
+    private ChannelInputStream input;
+    private ChannelOutputStream output;
+
+    /**
+     * InputStream which reads data buffered by the event loop. Once the
+     * buffer is full, the channel is no longer read until at least half the
+     * buffer has been consumed.
+     */
+    private class ChannelInputStream extends InputStream {
+
+        /**
+         * Circular buffer of received data.
+         */
+        private final byte[] buffer;
+
+        /**
+         * ByteBuffer wrapping the circular buffer, used for channel reads.
+         */
+        private final ByteBuffer channelBuffer;
+
+        /**
+         * The offset of the first unread byte within the buffer.
+         */
+        private int start = 0;
+
+        /**
+         * The number of unread bytes within the buffer.
+         */
+        private int length = 0;
+
+        /**
+         * Whether the end of stream has been reached.
+         */
+        private boolean endOfStream = false;
+
+        /**
+         * The error which occurred while reading from the channel, if any.
+         */
+        private IOException error;
+
+        /**
+         * Whether reading from the channel has been paused because the
+         * buffer is full.
+         */
+        private boolean paused = false;
+
+        /**
+         * The listener to notify once data is available, if any.
+         */
+        private GuacamoleReadListener listener;
+
+        /**
+         * Buffer for single-byte reads.
+         */
+        private final byte[] single = new byte[1];
+
+        /**
+         * Creates a new ChannelInputStream with the given buffer size.
+         *
+         * @param size The size of the buffer, in bytes.
+         */
+        public ChannelInputStream(int size) {
+            buffer = new byte[size];
+            channelBuffer = ByteBuffer.wrap(buffer);
+        }
+
+        /**
+         * Reads all data currently available from the channel into the
+         * buffer. This function is called only by the event loop.
+         *
+         * @param key The key of the channel being read.
+         */
+        public void fill(SelectionKey key) {
+
+            GuacamoleReadListener notify;
+            synchronized (this) {
+                receive(key);
+                notify = takeListener();
+            }
+
+            // Notify outside monitor, as listener may read
+            if (notify != null)
+                notify.readable();
+
+        }
+
+        /**
+         * Reads all data currently available from the channel into the
+         * buffer, waking any blocked read.
+         *
+         * @param key The key of the channel being read.
+         */
+        private void receive(SelectionKey key) {
+
+            try {
+
+                // Read into the free space following the unread data
+                int end = start + length;
+                int space;
+                if (end >= buffer.length) {
+                    end -= buffer.length;
+                    space = start - end;
+                }
+                else
+                    space = buffer.length - end;
+
+                channelBuffer.limit(end + space);
+                channelBuffer.position(end);
+
+                int received = channel.read(channelBuffer);
+                if (received == -1)
+                    endOfStream = true;
+                else
+                    length += received;
+
+            }
+            catch (IOException e) {
+                error = e;
+                endOfStream = true;
+            }
+
+            // Stop reading at end of stream, or pause while buffer full
+            if (endOfStream || length == buffer.length) {
+                paused = !endOfStream;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+
+            notifyAll();
+
+        }
+
+        /**
+         * Removes and returns the listener awaiting data, if data is now
+         * available or the end of stream has been reached.
+         *
+         * @return The listener to notify, or null if no listener should be
+         *         notified.
+         */
+        private GuacamoleReadListener takeListener() {
+
+            if (length == 0 && !endOfStream)
+                return null;
+
+            GuacamoleReadListener notify = listener;
+            listener = null;
+            return notify;
+
+        }
+
+        /**
+         * Notifies the given listener as soon as data is available or the end
+         * of stream is reached.
+         *
+         * @param listener The listener to notify.
+         */
+        public void notifyWhenReadable(GuacamoleReadListener listener) {
+
+            GuacamoleReadListener notify;
+            synchronized (this) {
+                this.listener = listener;
+                notify = takeListener();
+            }
+
+            if (notify != null)
+                notify.readable();
+
+        }
+
+        /**
+         * Signals that the channel has been closed, waking any blocked read.
+         */
+        public void closed() {
+
+            GuacamoleReadListener notify;
+            synchronized (this) {
+                endOfStream = true;
+                notifyAll();
+                notify = takeListener();
+            }
+
+            if (notify != null)
+                notify.readable();
+
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0)
+                return 0;
+
+            // Wait for data
+            long deadline = System.currentTimeMillis() + timeout;
+            while (length == 0) {
+
+                if (error != null)
+                    throw error;
+
+                if (endOfStream)
+                    return -1;
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new SocketTimeoutException("Read timed out.");
+
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading.");
+                }
+
+            }
+
+            // Copy contiguous unread data
+            int count = Math.min(len, Math.min(length, buffer.length - start));
+            System.arraycopy(buffer, start, b, off, count);
+
+            start += count;
+            if (start == buffer.length)
+                start = 0;
+
+            length -= count;
+            if (length == 0)
+                start = 0;
+
+            // Resume reading once half the buffer is free
+            if (paused && length <= buffer.length / 2) {
+                paused = false;
+                loop.addInterest(key, SelectionKey.OP_READ);
+            }
+
+            return count;
+
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            synchronized (this) {
+                if (read(single, 0, 1) == -1)
+                    return -1;
+                return single[0] & 0xFF;
+            }
+
+        }
+
+        @Override
+        public synchronized int available() {
+            return length;
+        }
+
+    }
+
+    /**
+     * OutputStream which writes directly to the channel, waiting for the
+     * event loop to signal that the channel is writable whenever the
+     * channel cannot accept more data.
+     */
+    private class ChannelOutputStream extends OutputStream {
+
+        /**
+         * Whether the channel has become writable since this stream last
+         * waited.
+         */
+        private boolean writable = false;
+
+        /**
+         * Signals that the channel is writable. This function is called only
+         * by the event loop.
+         *
+         * @param key The key of the channel now writable.
+         */
+        public synchronized void writable(SelectionKey key) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            writable = true;
+            notifyAll();
+        }
+
+        /**
+         * Signals that the channel has been closed, waking any blocked write.
+         */
+        public synchronized void closed() {
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+
+            ByteBuffer data = ByteBuffer.wrap(b, off, len);
+            while (data.hasRemaining()) {
+
+                // Write as much as possible
+                if (channel.write(data) != 0)
+                    continue;
+
+                // Wait until channel is writable, ignoring spurious wakeups
+                writable = false;
+                loop.addInterest(key, SelectionKey.OP_WRITE);
+
+                long deadline = System.currentTimeMillis() + timeout;
+                while (!writable) {
+
+                    if (!channel.isOpen())
+                        throw new ClosedChannelException();
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        throw new SocketTimeoutException("Write timed out.");
+
+                    try {
+                        wait(remaining);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing.");
+                    }
+
+                }
+
+            }
+
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+    }
+
+    /**
+     * Creates a new ChannelGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port, using the default
+     * GuacamoleEventLoop.
+     *
+     * @param hostname The hostname of the Guacamole proxy server to connect to.
+     * @param port The port of the Guacamole proxy server to connect to.
+     * @throws GuacamoleException If an error occurs while connecting to the
+     *                            Guacamole proxy server.
+     */
+    public ChannelGuacamoleSocket(String hostname, int port) throws GuacamoleException {
+        this(hostname, port, new BufferConfiguration(), GuacamoleEventLoop.getDefault());
+    }
+
+    /**
+     * Creates a new ChannelGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port, sizing the buffers used for
+     * reading according to the given BufferConfiguration, and performing all
+     * network reads using the given GuacamoleEventLoop.
+     *
+     * @param hostname The hostname of the Guacamole proxy server to connect to.
+     * @param port The port of the Guacamole proxy server to connect to.
+     * @param bufferConfig The sizing limits of the buffers used for reading,
+     *                     in bytes. Data received but not yet read is
+     *                     buffered in a buffer of the initial size.
+     * @param loop The GuacamoleEventLoop which should perform all reads.
+     * @throws GuacamoleException If an error occurs while connecting to the
+     *                            Guacamole proxy server.
+     */
+    public ChannelGuacamoleSocket(String hostname, int port,
+            BufferConfiguration bufferConfig, GuacamoleEventLoop loop)
+            throws GuacamoleException {
+        this(hostname, port, bufferConfig, loop, SOCKET_TIMEOUT);
+    }
+
+    /**
+     * Creates a new ChannelGuacamoleSocket as above, but giving up on
+     * connecting, reading or writing after the given timeout.
+     *
+     * @param hostname The hostname of the Guacamole proxy server to connect to.
+     * @param port The port of the Guacamole proxy server to connect to.
+     * @param bufferConfig The sizing limits of the buffers used for reading,
+     *                     in bytes.
+     * @param loop The GuacamoleEventLoop which should perform all reads.
+     * @param timeout The number of milliseconds to wait for a connection, or
+     *                for a blocked read or write to make progress.
+     * @throws GuacamoleException If an error occurs while connecting to the
+     *                            Guacamole proxy server.
+     */
+    ChannelGuacamoleSocket(String hostname, int port,
+            BufferConfiguration bufferConfig, GuacamoleEventLoop loop,
+            int timeout) throws GuacamoleException {
+
+        this.loop = loop;
+        this.timeout = timeout;
+
+        try {
+
+            logger.debug("Connecting to guacd at {}:{}.", hostname, port);
+
+            // Get address
+            SocketAddress address = new InetSocketAddress(
+                    InetAddress.getByName(hostname),
+                    port
+            );
+
+            // Connect with timeout, then switch to non-blocking I/O
+            channel = SocketChannel.open();
+            channel.socket().connect(address, timeout);
+            channel.configureBlocking(false);
+
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+
+        // Hand reads to the event loop, buffering received data
+        input = new ChannelInputStream(bufferConfig.getInitialSize());
+        output = new ChannelOutputStream();
+
+        // Do not leak the channel if it cannot be registered
+        try {
+            key = loop.register(channel, this);
+        }
+        catch (GuacamoleException e) {
+
+            try {
+                channel.close();
+            }
+            catch (IOException closeError) {
+                logger.debug("Unable to close unregistered channel.", closeError);
+            }
+
+            throw e;
+
+        }
+
+        reader = new InputStreamGuacamoleReader(input, bufferConfig);
+        writer = new OutputStreamGuacamoleWriter(output,
+                WriteFlushConfiguration.getThreshold(),
+                WriteFlushConfiguration.getDelay());
+
+    }
+
+    /**
+     * Handles readiness of the channel of this socket. This function is
+     * called only by the event loop.
+     *
+     * @param key The key of the channel which is ready.
+     */
+    void ready(SelectionKey key) {
+
+        if (key.isValid() && key.isReadable())
+            input.fill(key);
+
+        if (key.isValid() && key.isWritable())
+            output.writable(key);
+
+    }
+
+    @Override
+    public void close() throws GuacamoleException {
+        try {
+            logger.debug("Closing socket to guacd.");
+            channel.close();
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException(e);
+        }
+        finally {
+            input.closed();
+            output.closed();
+        }
+    }
+
+    @Override
+    public boolean notifyWhenReadable(GuacamoleReadListener listener) {
+        input.notifyWhenReadable(listener);
+        return true;
+    }
+
+    @Override
+    public GuacamoleReader getReader() {
+        return reader;
+    }
+
+    @Override
+    public GuacamoleWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+}
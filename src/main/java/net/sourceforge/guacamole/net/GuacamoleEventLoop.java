@@ -0,0 +1,384 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of threads, each servicing a Selector, which together perform
+ * all network reads for any number of ChannelGuacamoleSockets. Data received
+ * is buffered within each socket until read, such that no thread need block
+ * on any particular connection to the Guacamole proxy.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleEventLoop {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GuacamoleEventLoop.class);
+
+    /**
+     * The GuacamoleEventLoop shared by all ChannelGuacamoleSockets not given
+     * an explicit GuacamoleEventLoop, created when first needed.
+     */
+    private static GuacamoleEventLoop defaultLoop;
+
+    /**
+     * All workers within this GuacamoleEventLoop.
+     */
+    private final Worker[] workers;
+
+    /**
+     * The index of the worker to which the next channel will be assigned.
+     */
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    /**
+     * A single thread servicing a single Selector.
+     */
+    private static class Worker extends Thread {
+
+        /**
+         * The Selector serviced by this worker.
+         */
+        private final Selector selector;
+
+        /**
+         * Tasks which must be run on this worker's thread, such as changes
+         * to registration or interest.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        /**
+         * Whether this worker should continue running.
+         */
+        private volatile boolean running = true;
+
+        /**
+         * Creates a new Worker with the given thread name.
+         *
+         * @param name The name of the worker's thread.
+         * @throws IOException If the worker's Selector cannot be opened.
+         */
+        public Worker(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs the given task on this worker's thread as soon as possible.
+         *
+         * @param task The task to run.
+         */
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Stops this worker, closing its Selector.
+         */
+        public void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+
+            while (running) {
+
+                try {
+                    selector.select();
+                }
+                catch (IOException e) {
+                    logger.error("Selector failed.", e);
+                    break;
+                }
+
+                // Run any pending tasks, isolating the failure of any one
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("Event loop task failed.", e);
+                    }
+                }
+
+                // Dispatch ready channels to their sockets
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ChannelGuacamoleSocket socket = (ChannelGuacamoleSocket) key.attachment();
+
+                    // Any failure affects only the socket in question
+                    try {
+                        if (key.isValid())
+                            socket.ready(key);
+                    }
+                    catch (CancelledKeyException e) {
+                        logger.debug("Key cancelled during dispatch.", e);
+                        abort(key, socket);
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("Unable to handle ready channel.", e);
+                        abort(key, socket);
+                    }
+
+                }
+
+            }
+
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                logger.debug("Unable to close selector.", e);
+            }
+
+        }
+
+        /**
+         * Cancels the given key and closes the socket to which it belongs,
+         * following a failure while handling that socket. Any further failure
+         * is logged and otherwise ignored, such that the other sockets
+         * serviced by this worker are not affected.
+         *
+         * @param key The key to cancel.
+         * @param socket The socket to close.
+         */
+        private void abort(SelectionKey key, ChannelGuacamoleSocket socket) {
+
+            key.cancel();
+
+            try {
+                socket.close();
+            }
+            catch (GuacamoleException e) {
+                logger.debug("Unable to close failed socket.", e);
+            }
+            catch (RuntimeException e) {
+                logger.error("Unable to close failed socket.", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Creates a new GuacamoleEventLoop having the given number of threads.
+     *
+     * @param threads The number of threads to service channels with.
+     * @throws GuacamoleException If the Selectors required by the threads
+     *                            cannot be opened.
+     */
+    public GuacamoleEventLoop(int threads) throws GuacamoleException {
+
+        workers = new Worker[threads];
+
+        try {
+            for (int i=0; i<threads; i++) {
+                workers[i] = new Worker("guacamole-event-loop-" + i);
+                workers[i].start();
+            }
+        }
+        catch (IOException e) {
+            shutdown();
+            throw new GuacamoleServerException("Unable to open selector.", e);
+        }
+
+    }
+
+    /**
+     * Returns the GuacamoleEventLoop shared by default between all
+     * ChannelGuacamoleSockets, creating it if necessary. The default
+     * GuacamoleEventLoop has one thread per available processor.
+     *
+     * @return The default GuacamoleEventLoop.
+     * @throws GuacamoleException If the default GuacamoleEventLoop cannot
+     *                            be created.
+     */
+    public static synchronized GuacamoleEventLoop getDefault()
+            throws GuacamoleException {
+
+        if (defaultLoop == null)
+            defaultLoop = new GuacamoleEventLoop(
+                    Runtime.getRuntime().availableProcessors());
+
+        return defaultLoop;
+
+    }
+
+    /**
+     * Returns the worker servicing the given key.
+     *
+     * @param key The key to find the worker of.
+     * @return The worker servicing the given key.
+     */
+    private Worker getWorker(SelectionKey key) {
+
+        Selector selector = key.selector();
+        for (Worker worker : workers) {
+            if (worker.selector == selector)
+                return worker;
+        }
+
+        throw new IllegalArgumentException("Key does not belong to this event loop.");
+
+    }
+
+    /**
+     * Registers the given non-blocking channel with one of the threads of
+     * this GuacamoleEventLoop, such that the given socket is notified
+     * whenever the channel is ready for reading.
+     *
+     * @param channel The channel to register.
+     * @param socket The socket to notify when the channel is ready.
+     * @return The SelectionKey of the registered channel.
+     * @throws GuacamoleException If the channel cannot be registered.
+     */
+    SelectionKey register(final SocketChannel channel,
+            final ChannelGuacamoleSocket socket) throws GuacamoleException {
+
+        // Assign workers round-robin
+        final Worker worker = workers[
+            (nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length
+        ];
+
+        // Register on worker thread, as registration blocks while selecting
+        FutureTask<SelectionKey> task = new FutureTask<SelectionKey>(new Callable<SelectionKey>() {
+
+            @Override
+            public SelectionKey call() throws ClosedChannelException {
+                return channel.register(worker.selector, SelectionKey.OP_READ, socket);
+            }
+
+        });
+
+        worker.execute(task);
+
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuacamoleServerException("Interrupted during registration.", e);
+        }
+        catch (ExecutionException e) {
+            throw new GuacamoleServerException("Unable to register channel.", e.getCause());
+        }
+
+    }
+
+    /**
+     * Adds the given operations to the interest set of the given key. This
+     * function may be called from any thread.
+     *
+     * @param key The key whose interest set should be modified.
+     * @param ops The operations to add to the interest set.
+     */
+    void addInterest(final SelectionKey key, final int ops) {
+
+        getWorker(key).execute(new Runnable() {
+
+            @Override
+            public void run() {
+
+                // The key may be cancelled at any time by closing the socket
+                try {
+                    if (key.isValid())
+                        key.interestOps(key.interestOps() | ops);
+                }
+                catch (CancelledKeyException e) {
+                    logger.debug("Key cancelled before interest could be added.", e);
+                }
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Stops all threads of the default GuacamoleEventLoop, if it has been
+     * created. Sockets using the default GuacamoleEventLoop will receive no
+     * further data.
+     */
+    public static synchronized void shutdownDefault() {
+        if (defaultLoop != null)
+            defaultLoop.shutdown();
+    }
+
+    /**
+     * Stops all threads of this GuacamoleEventLoop. Sockets registered with
+     * this GuacamoleEventLoop will receive no further data.
+     */
+    public void shutdown() {
+        for (Worker worker : workers) {
+            if (worker != null)
+                worker.shutdown();
+        }
+    }
+
+}
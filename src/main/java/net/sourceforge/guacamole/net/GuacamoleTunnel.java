@@ -37,11 +37,26 @@ package net.sourceforge.guacamole.net;
  *
  * ***** END LICENSE BLOCK ***** */
 
+import java.util.LinkedList;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleReader;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleWriter;
+import net.sourceforge.guacamole.io.BufferConfiguration;
 import net.sourceforge.guacamole.io.GuacamoleReader;
 import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.MeteredGuacamoleReader;
+import net.sourceforge.guacamole.io.MeteredGuacamoleWriter;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.io.ViewGuacamoleWriter;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.metrics.TunnelMetrics;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
 
 /**
  * Provides a unique identifier and synchronized access to the GuacamoleReader
@@ -51,12 +66,236 @@ import net.sourceforge.guacamole.io.GuacamoleWriter;
  */
 public class GuacamoleTunnel {
 
+    /**
+     * The generator of the identifiers of all new tunnels.
+     */
+    private static volatile TunnelIdGenerator idGenerator =
+            new SecureRandomTunnelIdGenerator();
+
     private UUID uuid;
     private GuacamoleSocket socket;
 
-    private ReentrantLock readerLock;
+    private GuacamoleReader reader;
+    private GuacamoleWriter writer;
+
+    /**
+     * The metrics of this tunnel, or null if metrics were disabled when this
+     * tunnel was created.
+     */
+    private TunnelMetrics metrics;
+
+    /**
+     * Whether the metrics of this tunnel have been released. Tunnels may be
+     * closed more than once, but metrics must be released only once.
+     */
+    private final AtomicBoolean metricsReleased = new AtomicBoolean(false);
+
     private ReentrantLock writerLock;
 
+    /**
+     * The time data was last read, or read access was last requested or
+     * released, in milliseconds.
+     */
+    private volatile long lastReadTime = System.currentTimeMillis();
+
+    /**
+     * The time data was last written, or write access was last acquired or
+     * released, in milliseconds.
+     */
+    private volatile long lastWriteTime = lastReadTime;
+
+    /**
+     * Monitor guarding ownership of the GuacamoleReader, and upon which
+     * synchronous reads wait for read access.
+     */
+    private final Object readerMonitor = new Object();
+
+    /**
+     * The ticket which will be issued to the next read requesting read
+     * access. Tickets are issued in order, and read access is granted in
+     * ticket order.
+     */
+    private volatile long nextReaderTicket = 0;
+
+    /**
+     * The ticket of the read currently holding read access, or, if no read
+     * holds read access, the ticket of the next read to request it.
+     */
+    private volatile long currentReaderTicket = 0;
+
+    /**
+     * The listener of the read currently holding read access, if that read
+     * was granted access asynchronously.
+     */
+    private ReaderHandoffListener readerOwner;
+
+    /**
+     * All reads waiting for read access, in ticket order.
+     */
+    private final Queue<ReaderWaiter> readerWaiters = new LinkedList<ReaderWaiter>();
+
+    /**
+     * The number of reads which have had to wait for read access.
+     */
+    private long readerWaitCount = 0;
+
+    /**
+     * The total time spent by reads waiting for read access, in nanoseconds.
+     */
+    private long readerWaitTime = 0;
+
+    /**
+     * A read waiting for read access.
+     */
+    private static class ReaderWaiter {
+
+        /**
+         * The listener to notify when read access is granted, or null if
+         * the read is waiting synchronously.
+         */
+        private final ReaderHandoffListener listener;
+
+        /**
+         * The time the read began waiting, as returned by System.nanoTime().
+         */
+        private final long waitStart = System.nanoTime();
+
+        /**
+         * Whether read access has been granted. Guarded by readerMonitor.
+         */
+        private boolean granted = false;
+
+        /**
+         * Creates a new ReaderWaiter for the read having the given listener.
+         *
+         * @param listener The listener to notify when read access is
+         *                 granted, or null if the read is synchronous.
+         */
+        public ReaderWaiter(ReaderHandoffListener listener) {
+            this.listener = listener;
+        }
+
+    }
+
+    /**
+     * GuacamoleReader which records the time of each read returning data as
+     * the time of the last read, such that read access held without data
+     * being transferred does not count as activity.
+     */
+    private class ActivityGuacamoleReader implements ViewGuacamoleReader {
+
+        private final ViewGuacamoleReader reader;
+
+        public ActivityGuacamoleReader(GuacamoleReader reader) {
+            this.reader = AdaptedGuacamoleReader.adapt(reader);
+        }
+
+        /**
+         * Records the current time as the time of the last read if the
+         * given value, returned by a read, is not null.
+         */
+        private <T> T record(T value) {
+            if (value != null)
+                lastReadTime = System.currentTimeMillis();
+            return value;
+        }
+
+        @Override
+        public boolean available() throws GuacamoleException {
+            return reader.available();
+        }
+
+        @Override
+        public char[] read() throws GuacamoleException {
+            return record(reader.read());
+        }
+
+        @Override
+        public InstructionView readView() throws GuacamoleException {
+            return record(reader.readView());
+        }
+
+        @Override
+        public InstructionView readFragment() throws GuacamoleException {
+            return record(reader.readFragment());
+        }
+
+        @Override
+        public InstructionView readBatch() throws GuacamoleException {
+            return record(reader.readBatch());
+        }
+
+        @Override
+        public GuacamoleInstruction readInstruction() throws GuacamoleException {
+            return record(reader.readInstruction());
+        }
+
+        @Override
+        public boolean readInstruction(MutableGuacamoleInstruction instruction)
+                throws GuacamoleException {
+
+            boolean read = reader.readInstruction(instruction);
+            if (read)
+                lastReadTime = System.currentTimeMillis();
+
+            return read;
+
+        }
+
+    }
+
+    /**
+     * GuacamoleWriter which records the time of each write as the time of
+     * the last write, such that write access held without data being
+     * transferred does not count as activity.
+     */
+    private class ActivityGuacamoleWriter implements ViewGuacamoleWriter {
+
+        private final ViewGuacamoleWriter writer;
+
+        public ActivityGuacamoleWriter(GuacamoleWriter writer) {
+            this.writer = AdaptedGuacamoleWriter.adapt(writer);
+        }
+
+        @Override
+        public void write(char[] chunk, int off, int len) throws GuacamoleException {
+            writer.write(chunk, off, len);
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void write(char[] chunk) throws GuacamoleException {
+            writer.write(chunk);
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void write(byte[] chunk, int off, int len) throws GuacamoleException {
+            writer.write(chunk, off, len);
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void writeInstruction(GuacamoleInstruction instruction)
+                throws GuacamoleException {
+            writer.writeInstruction(instruction);
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void writeInstructions(GuacamoleInstruction... instructions)
+                throws GuacamoleException {
+            writer.writeInstructions(instructions);
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void flush() throws GuacamoleException {
+            writer.flush();
+        }
+
+    }
+
     /**
      * Creates a new GuacamoleTunnel which synchronizes access to the
      * Guacamole instruction stream associated with the given GuacamoleSocket.
@@ -66,43 +305,285 @@ public class GuacamoleTunnel {
     public GuacamoleTunnel(GuacamoleSocket socket) {
 
         this.socket = socket;
-        uuid = UUID.randomUUID();
+        uuid = idGenerator.generateId();
 
-        readerLock = new ReentrantLock();
         writerLock = new ReentrantLock();
 
+        // Record all reads and writes only if metrics are enabled
+        metrics = GuacamoleMetrics.createTunnelMetrics(uuid);
+        if (metrics != null) {
+            reader = new MeteredGuacamoleReader(socket.getReader(), metrics);
+            writer = new MeteredGuacamoleWriter(socket.getWriter(), metrics);
+        }
+        else {
+            reader = socket.getReader();
+            writer = socket.getWriter();
+        }
+
+        // Always record the time data was last transferred
+        reader = new ActivityGuacamoleReader(reader);
+        writer = new ActivityGuacamoleWriter(writer);
+
+    }
+
+    /**
+     * Creates a new GuacamoleTunnel which synchronizes access to the
+     * Guacamole instruction stream associated with the given GuacamoleSocket,
+     * continuously reading ahead from that socket into a buffer sized
+     * according to the given BufferConfiguration. Data is thus received from
+     * the Guacamole proxy even while no read is in progress, and is available
+     * immediately to the next read.
+     *
+     * @param socket The GuacamoleSocket to provide synchronized access for.
+     * @param readAheadConfig The sizing limits of the read-ahead buffer, in
+     *                        bytes. Reading ahead pauses while the buffer is
+     *                        at its maximum size and full.
+     */
+    public GuacamoleTunnel(GuacamoleSocket socket,
+            BufferConfiguration readAheadConfig) {
+        this(new ReadAheadGuacamoleSocket(socket, readAheadConfig));
+    }
+
+    /**
+     * Sets the generator used to generate the unique identifiers of all
+     * GuacamoleTunnels created hereafter. By default, identifiers are random
+     * UUIDs generated by a SecureRandomTunnelIdGenerator.
+     *
+     * @param generator The TunnelIdGenerator to use.
+     */
+    public static void setIdGenerator(TunnelIdGenerator generator) {
+        idGenerator = generator;
+    }
+
+    /**
+     * Requests read access for a new read, issuing that read its ticket and
+     * asking the current owner, if any, to hand off read access. The read is
+     * queued if it cannot be granted read access immediately.
+     *
+     * @param listener The listener of the new read, or null if the read is
+     *                 synchronous.
+     * @return The queued read, or null if read access was granted
+     *         immediately.
+     */
+    private ReaderWaiter requestReader(ReaderHandoffListener listener) {
+
+        ReaderWaiter waiter = null;
+        ReaderHandoffListener owner = null;
+
+        lastReadTime = System.currentTimeMillis();
+
+        synchronized (readerMonitor) {
+
+            long ticket = nextReaderTicket++;
+
+            // Queue if not granted immediately, asking any asynchronous
+            // owner to hand off if this is the first read waiting
+            if (ticket != currentReaderTicket) {
+                waiter = new ReaderWaiter(listener);
+                readerWaiters.add(waiter);
+                if (readerWaiters.size() == 1)
+                    owner = readerOwner;
+            }
+
+            else
+                readerOwner = listener;
+
+        }
+
+        // Record reads granted without waiting
+        if (waiter == null && metrics != null)
+            metrics.recordReaderWait(0);
+
+        // Notify outside monitor, as owner may release
+        if (owner != null)
+            owner.readerRequested();
+
+        return waiter;
+
     }
 
     /**
      * Acquires exclusive read access to the Guacamole instruction stream
-     * and returns a GuacamoleReader for reading from that stream.
+     * and returns a GuacamoleReader for reading from that stream. If another
+     * read currently holds read access, this function blocks until that read
+     * releases read access. Reads are granted access in the order requested.
      *
      * @return A GuacamoleReader for reading from the Guacamole instruction
      *         stream.
      */
     public GuacamoleReader acquireReader() {
-        readerLock.lock();
-        return socket.getReader();
+
+        // Return immediately if not queued
+        ReaderWaiter waiter = requestReader(null);
+        if (waiter == null)
+            return reader;
+
+        // Otherwise wait for turn
+        boolean interrupted = false;
+        synchronized (readerMonitor) {
+            while (!waiter.granted) {
+                try {
+                    readerMonitor.wait();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        return reader;
+
+    }
+
+    /**
+     * Requests exclusive read access to the Guacamole instruction stream
+     * without blocking. Once read access is granted, readerAcquired() is
+     * invoked on the given listener, possibly before this function returns.
+     * While read access is held, readerRequested() is invoked on the given
+     * listener if another read begins waiting.
+     *
+     * @param listener The listener to notify of changes in read access.
+     */
+    public void acquireReader(ReaderHandoffListener listener) {
+
+        // Grant immediately if not queued
+        if (requestReader(listener) == null)
+            listener.readerAcquired(reader);
+
     }
 
     /**
      * Relinquishes exclusive read access to the Guacamole instruction
-     * stream. This function should be called whenever a thread finishes using
-     * a GuacamoleTunnel's GuacamoleReader.
+     * stream, granting read access to the next waiting read, if any. This
+     * function should be called whenever a read finishes using a
+     * GuacamoleTunnel's GuacamoleReader. Read access need not be released by
+     * the same thread that acquired it.
      */
     public void releaseReader() {
-        readerLock.unlock();
+
+        lastReadTime = System.currentTimeMillis();
+
+        ReaderHandoffListener next;
+        long wait;
+        synchronized (readerMonitor) {
+
+            currentReaderTicket++;
+
+            // Hand off to next read, if any
+            ReaderWaiter waiter = readerWaiters.poll();
+            if (waiter == null) {
+                readerOwner = null;
+                return;
+            }
+
+            waiter.granted = true;
+            readerWaitCount++;
+            wait = System.nanoTime() - waiter.waitStart;
+            readerWaitTime += wait;
+
+            next = waiter.listener;
+            readerOwner = next;
+
+            // Wake synchronous reads
+            if (next == null)
+                readerMonitor.notifyAll();
+
+        }
+
+        if (metrics != null)
+            metrics.recordReaderWait(wait);
+
+        if (next == null)
+            return;
+
+        // Notify outside monitor, as listener may begin reading
+        next.readerAcquired(reader);
+
     }
 
     /**
-     * Returns whether there are threads waiting for read access to the
-     * Guacamole instruction stream.
+     * Requests that the given listener be notified once data is available
+     * for reading from the underlying GuacamoleSocket, if that socket can
+     * provide such notification. Data already buffered within the
+     * GuacamoleReader is not considered, and should be checked with
+     * available() before requesting notification.
      *
-     * @return true if threads are waiting for read access the Guacamole
+     * @param listener The listener to notify.
+     * @return true if the listener will be notified, or false if the
+     *         underlying GuacamoleSocket cannot provide notification.
+     */
+    public boolean notifyWhenReadable(GuacamoleReadListener listener) {
+
+        if (socket instanceof NotifyingGuacamoleSocket)
+            return ((NotifyingGuacamoleSocket) socket).notifyWhenReadable(listener);
+
+        return false;
+
+    }
+
+    /**
+     * Returns whether there are reads waiting for read access to the
+     * Guacamole instruction stream, whether synchronous or asynchronous.
+     * This check requires no locking, and is intended to be made by the
+     * current owner at each instruction boundary.
+     *
+     * @return true if reads are waiting for read access the Guacamole
      *         instruction stream, false otherwise.
      */
     public boolean hasQueuedReaderThreads() {
-        return readerLock.hasQueuedThreads();
+        return nextReaderTicket - currentReaderTicket > 1;
+    }
+
+    /**
+     * Returns the time data was last read from the Guacamole instruction
+     * stream, or read access was last requested or released, in
+     * milliseconds since the epoch. Merely holding read access does not
+     * count as reading.
+     *
+     * @return The time of the last read activity, in milliseconds.
+     */
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    /**
+     * Returns the time data was last written to the Guacamole instruction
+     * stream, or write access was last acquired or released, in
+     * milliseconds since the epoch. Merely holding write access does not
+     * count as writing.
+     *
+     * @return The time of the last write activity, in milliseconds.
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * Returns the number of reads which have had to wait for read access to
+     * the Guacamole instruction stream, as they were requested while another
+     * read held read access.
+     *
+     * @return The number of reads which have waited for read access.
+     */
+    public long getReaderWaitCount() {
+        synchronized (readerMonitor) {
+            return readerWaitCount;
+        }
+    }
+
+    /**
+     * Returns the total time spent by all reads waiting for read access to
+     * the Guacamole instruction stream, in nanoseconds.
+     *
+     * @return The total time spent waiting for read access, in nanoseconds.
+     */
+    public long getReaderWaitTime() {
+        synchronized (readerMonitor) {
+            return readerWaitTime;
+        }
     }
 
     /**
@@ -114,7 +595,8 @@ public class GuacamoleTunnel {
      */
     public GuacamoleWriter acquireWriter() {
         writerLock.lock();
-        return socket.getWriter();
+        lastWriteTime = System.currentTimeMillis();
+        return writer;
     }
 
     /**
@@ -123,6 +605,7 @@ public class GuacamoleTunnel {
      * a GuacamoleTunnel's GuacamoleWriter.
      */
     public void releaseWriter() {
+        lastWriteTime = System.currentTimeMillis();
         writerLock.unlock();
     }
 
@@ -146,6 +629,17 @@ public class GuacamoleTunnel {
         return uuid;
     }
 
+    /**
+     * Returns the metrics of this GuacamoleTunnel, if metrics were enabled
+     * when this GuacamoleTunnel was created.
+     *
+     * @return The metrics of this GuacamoleTunnel, or null if metrics are not
+     *         collected for this GuacamoleTunnel.
+     */
+    public TunnelMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Returns the GuacamoleSocket used by this GuacamoleTunnel for reading
      * and writing.
@@ -157,13 +651,20 @@ public class GuacamoleTunnel {
     }
 
     /**
-     * Release all resources allocated to this GuacamoleTunnel.
+     * Release all resources allocated to this GuacamoleTunnel, removing this
+     * GuacamoleTunnel from the GuacamoleTunnelRegistry.
      *
      * @throws GuacamoleException if an error occurs while releasing
      *                            resources.
      */
     public void close() throws GuacamoleException {
+
+        GuacamoleTunnelRegistry.getInstance().unregister(this);
+        if (metrics != null && metricsReleased.compareAndSet(false, true))
+            GuacamoleMetrics.releaseTunnelMetrics(uuid);
+
         socket.close();
+
     }
 
     /**
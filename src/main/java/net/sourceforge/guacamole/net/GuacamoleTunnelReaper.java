@@ -0,0 +1,463 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.properties.GuacamoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Closes GuacamoleTunnels which have gone without reads or writes for longer
+ * than the configured timeouts, such as tunnels whose client has gone away.
+ *
+ * Watched tunnels are kept within a hashed timer wheel serviced by a single
+ * daemon thread. Reads and writes merely record their time within the
+ * tunnel, and the wheel checks those times only when a tunnel's earliest
+ * possible expiration arrives, rescheduling the tunnel if it has since been
+ * used. Idle tunnels found within each tick are closed together.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleTunnelReaper {
+
+    private Logger logger = LoggerFactory.getLogger(GuacamoleTunnelReaper.class);
+
+    /**
+     * The duration of each tick of the wheel, in milliseconds.
+     */
+    private static final long TICK_DURATION = 1000;
+
+    /**
+     * The number of slots in the wheel. Must be a power of two.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * The reaper configured by guacamole.properties, if yet created.
+     */
+    private static GuacamoleTunnelReaper instance;
+
+    /**
+     * A watched tunnel, scheduled within a slot of the wheel.
+     */
+    private static class Timeout {
+
+        private final GuacamoleTunnel tunnel;
+        private final TunnelReapListener listener;
+
+        /**
+         * The number of full turns of the wheel remaining before this
+         * timeout is due.
+         */
+        private long rounds;
+
+        /**
+         * The next timeout within the same slot.
+         */
+        private Timeout next;
+
+        public Timeout(GuacamoleTunnel tunnel, TunnelReapListener listener) {
+            this.tunnel = tunnel;
+            this.listener = listener;
+        }
+
+    }
+
+    /**
+     * The maximum time a tunnel may go without being read, in milliseconds,
+     * or zero if unlimited.
+     */
+    private volatile long readTimeout;
+
+    /**
+     * The maximum time a tunnel may go without being written, in
+     * milliseconds, or zero if unlimited.
+     */
+    private volatile long writeTimeout;
+
+    /**
+     * Tunnels which have been watched but not yet added to the wheel.
+     */
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * The first timeout within each slot of the wheel. Accessed only by the
+     * reaper thread.
+     */
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+
+    /**
+     * The number of ticks elapsed. Accessed only by the reaper thread.
+     */
+    private long tick = 0;
+
+    /**
+     * The thread servicing the wheel, started when the first tunnel is
+     * watched. Guarded by this reaper.
+     */
+    private Thread thread;
+
+    /**
+     * Whether this reaper has been shut down.
+     */
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a new GuacamoleTunnelReaper which closes tunnels having gone
+     * without reads or writes for longer than the given timeouts.
+     *
+     * @param readTimeout The maximum time a tunnel may go without being read,
+     *                    in milliseconds, or zero if unlimited.
+     * @param writeTimeout The maximum time a tunnel may go without being
+     *                     written, in milliseconds, or zero if unlimited.
+     */
+    public GuacamoleTunnelReaper(long readTimeout, long writeTimeout) {
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * Returns the GuacamoleTunnelReaper whose timeouts are given by the
+     * "tunnel-read-timeout" and "tunnel-write-timeout" properties of
+     * guacamole.properties, in seconds. If neither property is specified,
+     * the returned reaper closes no tunnels.
+     *
+     * @return The GuacamoleTunnelReaper configured by guacamole.properties.
+     */
+    public static synchronized GuacamoleTunnelReaper getInstance() {
+
+        if (instance == null) {
+
+            long readTimeout = 0;
+            long writeTimeout = 0;
+
+            try {
+
+                Integer read = GuacamoleProperties.getProperty(GuacamoleProperties.TUNNEL_READ_TIMEOUT);
+                if (read != null)
+                    readTimeout = read * 1000L;
+
+                Integer write = GuacamoleProperties.getProperty(GuacamoleProperties.TUNNEL_WRITE_TIMEOUT);
+                if (write != null)
+                    writeTimeout = write * 1000L;
+
+            }
+            catch (GuacamoleException e) {
+                LoggerFactory.getLogger(GuacamoleTunnelReaper.class).debug(
+                        "Tunnel timeouts not configured.", e);
+            }
+
+            instance = new GuacamoleTunnelReaper(readTimeout, writeTimeout);
+
+        }
+
+        return instance;
+
+    }
+
+    /**
+     * Stops the thread of the GuacamoleTunnelReaper configured by
+     * guacamole.properties, if that reaper has been created. Tunnels
+     * watched by that reaper are left open, and no further tunnels will be
+     * watched.
+     */
+    public static synchronized void shutdownInstance() {
+        if (instance != null)
+            instance.shutdown();
+    }
+
+    /**
+     * Returns the maximum time a tunnel may go without being read before it
+     * is closed. A read counts when it requests or releases read access,
+     * and whenever it receives data, thus a read which holds read access
+     * without receiving anything does not keep the tunnel open.
+     *
+     * @return The read timeout, in milliseconds, or zero if unlimited.
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the maximum time a tunnel may go without being read before it is
+     * closed. The new timeout applies to watched tunnels as each is next
+     * checked.
+     *
+     * @param readTimeout The read timeout, in milliseconds, or zero if
+     *                    unlimited.
+     */
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Returns the maximum time a tunnel may go without being written before
+     * it is closed. A write counts when it acquires or releases write
+     * access, and whenever data is written, thus holding write access
+     * without writing does not keep the tunnel open.
+     *
+     * @return The write timeout, in milliseconds, or zero if unlimited.
+     */
+    public long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Sets the maximum time a tunnel may go without being written before it
+     * is closed. The new timeout applies to watched tunnels as each is next
+     * checked.
+     *
+     * @param writeTimeout The write timeout, in milliseconds, or zero if
+     *                     unlimited.
+     */
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * Begins watching the given tunnel, closing it once it has gone without
+     * reads or writes for longer than the configured timeouts. The tunnel
+     * remains watched until closed, whether by this reaper or otherwise. If
+     * neither timeout is set, the tunnel is not watched.
+     *
+     * @param tunnel The tunnel to watch.
+     * @param listener The listener to notify once the tunnel is closed, or
+     *                 null if no notification is needed.
+     */
+    public void watch(GuacamoleTunnel tunnel, TunnelReapListener listener) {
+
+        if (readTimeout <= 0 && writeTimeout <= 0)
+            return;
+
+        added.add(new Timeout(tunnel, listener));
+
+        synchronized (this) {
+            if (thread == null && !shutdown) {
+                thread = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        service();
+                    }
+
+                }, "guacamole-tunnel-reaper");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+    }
+
+    /**
+     * Stops the thread of this reaper. Watched tunnels are left open.
+     */
+    public void shutdown() {
+
+        shutdown = true;
+
+        synchronized (this) {
+            if (thread != null)
+                thread.interrupt();
+        }
+
+    }
+
+    /**
+     * Adds the given timeout to the wheel, such that it is next checked the
+     * given number of milliseconds from now.
+     */
+    private void schedule(Timeout timeout, long delay) {
+
+        // Always wait at least one tick
+        long ticks = (delay + TICK_DURATION - 1) / TICK_DURATION;
+        if (ticks < 1)
+            ticks = 1;
+
+        int slot = (int) ((tick + ticks) & (WHEEL_SIZE - 1));
+        timeout.rounds = (ticks - 1) / WHEEL_SIZE;
+
+        timeout.next = wheel[slot];
+        wheel[slot] = timeout;
+
+    }
+
+    /**
+     * Returns the number of milliseconds until the given tunnel may next be
+     * idle, or a negative value if the tunnel is idle now.
+     */
+    private long remaining(GuacamoleTunnel tunnel, long now) {
+
+        long read = readTimeout;
+        long write = writeTimeout;
+
+        // Check again after a full turn if no timeouts are set
+        long remaining = TICK_DURATION * WHEEL_SIZE;
+
+        // Idle time is measured from the last data transferred, as read or
+        // write access may be held indefinitely by a request whose client
+        // has gone away
+        if (read > 0)
+            remaining = Math.min(remaining, read - (now - tunnel.getLastReadTime()));
+
+        if (write > 0)
+            remaining = Math.min(remaining, write - (now - tunnel.getLastWriteTime()));
+
+        return remaining;
+
+    }
+
+    /**
+     * Services the wheel, one tick at a time, until shut down.
+     */
+    private void service() {
+
+        List<Timeout> expired = new ArrayList<Timeout>();
+        long start = System.currentTimeMillis();
+
+        while (!shutdown) {
+
+            // Wait for next tick
+            long wait = start + (tick + 1) * TICK_DURATION - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                }
+                catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            tick++;
+            long now = System.currentTimeMillis();
+
+            // Add newly watched tunnels
+            Timeout timeout;
+            while ((timeout = added.poll()) != null)
+                schedule(timeout, remaining(timeout.tunnel, now));
+
+            // Check every timeout due within current slot
+            int slot = (int) (tick & (WHEEL_SIZE - 1));
+            timeout = wheel[slot];
+            wheel[slot] = null;
+
+            while (timeout != null) {
+
+                Timeout next = timeout.next;
+
+                // Not yet due
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                    timeout.next = wheel[slot];
+                    wheel[slot] = timeout;
+                }
+
+                // Collect closed and idle tunnels
+                else if (!timeout.tunnel.isOpen())
+                    expired.add(timeout);
+
+                else {
+                    long remaining = remaining(timeout.tunnel, now);
+                    if (remaining <= 0)
+                        expired.add(timeout);
+                    else
+                        schedule(timeout, remaining);
+                }
+
+                timeout = next;
+
+            }
+
+            if (!expired.isEmpty())
+                reap(expired);
+
+        }
+
+    }
+
+    /**
+     * Closes all given tunnels, notifying their listeners.
+     */
+    private void reap(List<Timeout> expired) {
+
+        int closed = 0;
+
+        for (Timeout timeout : expired) {
+
+            GuacamoleTunnel tunnel = timeout.tunnel;
+
+            // Close if not already closed
+            if (tunnel.isOpen()) {
+                try {
+                    tunnel.close();
+                    closed++;
+                }
+                catch (GuacamoleException e) {
+                    logger.debug("Unable to close idle tunnel.", e);
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Error closing idle tunnel.", e);
+                }
+            }
+
+            // Notify listener even if close failed, as tunnel is unusable
+            if (timeout.listener != null) {
+                try {
+                    timeout.listener.tunnelReaped(tunnel);
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Error in tunnel reap listener.", e);
+                }
+            }
+
+        }
+
+        if (closed > 0)
+            logger.info("Closed {} idle tunnels.", closed);
+
+        expired.clear();
+
+    }
+
+}
@@ -0,0 +1,344 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide registry of all open GuacamoleTunnels, keyed by the 128-bit
+ * identifier of each tunnel. Each tunnel is registered together with an
+ * owner, typically the session the tunnel was created within, and lookups
+ * return a tunnel only to its owner.
+ *
+ * Lookups are lock-free and allocate nothing, such that a tunnel can be found
+ * directly from the identifier within a request's query string on every
+ * request. Registration and removal, which occur only as tunnels are
+ * connected and closed, are synchronized.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleTunnelRegistry {
+
+    /**
+     * The registry containing all tunnels of this process.
+     */
+    private static final GuacamoleTunnelRegistry instance = new GuacamoleTunnelRegistry();
+
+    /**
+     * The length of a tunnel identifier in string form, in characters.
+     */
+    public static final int ID_LENGTH = 36;
+
+    /**
+     * The initial number of slots in the table.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * A registered tunnel, along with its owner and identifier.
+     */
+    private static class Entry {
+
+        private final long mostSigBits;
+        private final long leastSigBits;
+        private final GuacamoleTunnel tunnel;
+        private final Object owner;
+
+        private Entry() {
+            this.mostSigBits  = 0;
+            this.leastSigBits = 0;
+            this.tunnel = null;
+            this.owner  = null;
+        }
+
+        public Entry(GuacamoleTunnel tunnel, Object owner) {
+            UUID uuid = tunnel.getUUID();
+            this.mostSigBits  = uuid.getMostSignificantBits();
+            this.leastSigBits = uuid.getLeastSignificantBits();
+            this.tunnel = tunnel;
+            this.owner  = owner;
+        }
+
+    }
+
+    /**
+     * Marker left within a slot whose entry was removed, such that probing
+     * continues past that slot.
+     */
+    private static final Entry REMOVED = new Entry();
+
+    /**
+     * The open-addressed, linearly-probed table of entries. The table is
+     * replaced, never resized in place, such that readers always probe a
+     * consistent table.
+     */
+    private volatile AtomicReferenceArray<Entry> table =
+            new AtomicReferenceArray<Entry>(INITIAL_CAPACITY);
+
+    /**
+     * The number of registered tunnels. Guarded by this registry.
+     */
+    private int size = 0;
+
+    /**
+     * The number of slots in use, including removed slots. Guarded by this
+     * registry.
+     */
+    private int used = 0;
+
+    /**
+     * Returns the registry containing all tunnels of this process.
+     *
+     * @return The process-wide GuacamoleTunnelRegistry.
+     */
+    public static GuacamoleTunnelRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the slot at which probing for the given identifier starts.
+     */
+    private static int hash(long mostSigBits, long leastSigBits, int mask) {
+        long bits = mostSigBits ^ leastSigBits;
+        int hash = (int) (bits ^ (bits >>> 32));
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Stores the given entry within the first free slot of the given table,
+     * which must not be full.
+     */
+    private static void insert(AtomicReferenceArray<Entry> table, Entry entry) {
+
+        int mask = table.length() - 1;
+        int index = hash(entry.mostSigBits, entry.leastSigBits, mask);
+        while (table.get(index) != null)
+            index = (index + 1) & mask;
+
+        table.set(index, entry);
+
+    }
+
+    /**
+     * Registers the given tunnel as belonging to the given owner. Only
+     * lookups made on behalf of that owner will find the tunnel. A tunnel is
+     * unregistered automatically when closed.
+     *
+     * @param tunnel The tunnel to register.
+     * @param owner The owner of the tunnel.
+     */
+    public synchronized void register(GuacamoleTunnel tunnel, Object owner) {
+
+        AtomicReferenceArray<Entry> current = table;
+
+        // Rebuild the table if more than half full, dropping removed entries
+        if ((used + 1) * 2 > current.length()) {
+
+            int capacity = current.length();
+            while ((size + 1) * 4 > capacity)
+                capacity <<= 1;
+
+            AtomicReferenceArray<Entry> rebuilt = new AtomicReferenceArray<Entry>(capacity);
+            for (int i=0; i<current.length(); i++) {
+                Entry entry = current.get(i);
+                if (entry != null && entry != REMOVED)
+                    insert(rebuilt, entry);
+            }
+
+            table = current = rebuilt;
+            used = size;
+
+        }
+
+        insert(current, new Entry(tunnel, owner));
+        size++;
+        used++;
+
+    }
+
+    /**
+     * Removes the given tunnel from this registry, if registered.
+     *
+     * @param tunnel The tunnel to unregister.
+     */
+    public synchronized void unregister(GuacamoleTunnel tunnel) {
+
+        AtomicReferenceArray<Entry> current = table;
+        UUID uuid = tunnel.getUUID();
+        long mostSigBits  = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+
+        int mask = current.length() - 1;
+        int index = hash(mostSigBits, leastSigBits, mask);
+
+        Entry entry;
+        while ((entry = current.get(index)) != null) {
+
+            if (entry.tunnel == tunnel) {
+                current.set(index, REMOVED);
+                size--;
+                return;
+            }
+
+            index = (index + 1) & mask;
+
+        }
+
+    }
+
+    /**
+     * Returns the tunnel having the given identifier, if that tunnel is
+     * registered and belongs to the given owner.
+     *
+     * @param mostSigBits The most significant 64 bits of the identifier.
+     * @param leastSigBits The least significant 64 bits of the identifier.
+     * @param owner The owner on whose behalf the lookup is made.
+     * @return The tunnel having the given identifier, or null if no such
+     *         tunnel is registered to the given owner.
+     */
+    public GuacamoleTunnel getTunnel(long mostSigBits, long leastSigBits,
+            Object owner) {
+
+        AtomicReferenceArray<Entry> current = table;
+        int mask = current.length() - 1;
+        int index = hash(mostSigBits, leastSigBits, mask);
+
+        Entry entry;
+        while ((entry = current.get(index)) != null) {
+
+            if (entry.mostSigBits == mostSigBits
+                    && entry.leastSigBits == leastSigBits) {
+
+                // Deny tunnels of other owners
+                if (entry.owner != owner)
+                    return null;
+
+                return entry.tunnel;
+
+            }
+
+            index = (index + 1) & mask;
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the tunnel whose identifier, in string form, begins at the
+     * given offset within the given string, if that tunnel is registered and
+     * belongs to the given owner. The identifier is parsed in place.
+     *
+     * @param id The string containing the identifier.
+     * @param offset The offset of the identifier within the string.
+     * @param owner The owner on whose behalf the lookup is made.
+     * @return The tunnel having the given identifier, or null if the
+     *         identifier is invalid or no such tunnel is registered to the
+     *         given owner.
+     */
+    public GuacamoleTunnel getTunnel(CharSequence id, int offset, Object owner) {
+
+        if (offset < 0 || id.length() - offset < ID_LENGTH)
+            return null;
+
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+
+        // Parse standard 8-4-4-4-12 form
+        for (int i=0; i<ID_LENGTH; i++) {
+
+            char c = id.charAt(offset + i);
+
+            // Dashes only between groups
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-')
+                    return null;
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit == -1)
+                return null;
+
+            if (i < 18)
+                mostSigBits = (mostSigBits << 4) | digit;
+            else
+                leastSigBits = (leastSigBits << 4) | digit;
+
+        }
+
+        return getTunnel(mostSigBits, leastSigBits, owner);
+
+    }
+
+    /**
+     * Returns the number of registered tunnels.
+     *
+     * @return The number of registered tunnels.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns a snapshot of all registered tunnels.
+     *
+     * @return A new list containing every registered tunnel.
+     */
+    public List<GuacamoleTunnel> getTunnels() {
+
+        AtomicReferenceArray<Entry> current = table;
+        List<GuacamoleTunnel> tunnels = new ArrayList<GuacamoleTunnel>();
+
+        for (int i=0; i<current.length(); i++) {
+            Entry entry = current.get(i);
+            if (entry != null && entry != REMOVED)
+                tunnels.add(entry.tunnel);
+        }
+
+        return tunnels;
+
+    }
+
+}
@@ -37,17 +37,15 @@ package net.sourceforge.guacamole.net;
  *
  * ***** END LICENSE BLOCK ***** */
 
+import net.sourceforge.guacamole.io.BufferConfiguration;
 import net.sourceforge.guacamole.io.GuacamoleReader;
-import net.sourceforge.guacamole.io.ReaderGuacamoleReader;
-import net.sourceforge.guacamole.io.WriterGuacamoleWriter;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
 import net.sourceforge.guacamole.io.GuacamoleWriter;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 
-import java.io.InputStreamReader;
-
-import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import net.sourceforge.guacamole.GuacamoleException;
@@ -82,6 +80,24 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
      *                            Guacamole proxy server.
      */
     public InetGuacamoleSocket(String hostname, int port) throws GuacamoleException {
+        this(hostname, port, new BufferConfiguration());
+    }
+
+    /**
+     * Creates a new InetGuacamoleSocket which reads and writes instructions
+     * to the Guacamole instruction stream of the Guacamole proxy server
+     * running at the given hostname and port, sizing the buffer used for
+     * reading according to the given BufferConfiguration.
+     *
+     * @param hostname The hostname of the Guacamole proxy server to connect to.
+     * @param port The port of the Guacamole proxy server to connect to.
+     * @param bufferConfig The sizing limits of the buffer used for reading,
+     *                     in bytes.
+     * @throws GuacamoleException If an error occurs while connecting to the
+     *                            Guacamole proxy server.
+     */
+    public InetGuacamoleSocket(String hostname, int port,
+            BufferConfiguration bufferConfig) throws GuacamoleException {
 
         try {
 
@@ -100,9 +116,12 @@ public class InetGuacamoleSocket implements GuacamoleSocket {
             // Set read timeout
             sock.setSoTimeout(SOCKET_TIMEOUT);
 
-            // On successful connect, retrieve I/O streams
-            reader = new ReaderGuacamoleReader(new InputStreamReader(sock.getInputStream(),   "UTF-8"));
-            writer = new WriterGuacamoleWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"));
+            // On successful connect, retrieve I/O streams. The instruction
+            // stream is handled as raw UTF-8, without decoding.
+            reader = new InputStreamGuacamoleReader(sock.getInputStream(), bufferConfig);
+            writer = new OutputStreamGuacamoleWriter(sock.getOutputStream(),
+                    WriteFlushConfiguration.getThreshold(),
+                    WriteFlushConfiguration.getDelay());
 
         }
         catch (IOException e) {
@@ -0,0 +1,65 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+/**
+ * A GuacamoleSocket which can notify a listener when data becomes available
+ * for reading, such that no thread need block while waiting for data.
+ *
+ * @author Michael Jumper
+ */
+public interface NotifyingGuacamoleSocket extends GuacamoleSocket {
+
+    /**
+     * Requests that the given listener be notified once, as soon as data is
+     * available for reading from this socket or the end of stream is reached.
+     * If data is already available, the listener may be notified before this
+     * function returns. Data already buffered within the GuacamoleReader of
+     * this socket is not considered, and should be checked with available()
+     * before requesting notification.
+     *
+     * @param listener The listener to notify.
+     * @return true if the listener will be notified, or false if this socket
+     *         cannot provide notification, in which case reads will simply
+     *         block until data is available.
+     */
+    public boolean notifyWhenReadable(GuacamoleReadListener listener);
+
+}
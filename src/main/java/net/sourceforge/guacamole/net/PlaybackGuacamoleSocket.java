@@ -0,0 +1,338 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+import net.sourceforge.guacamole.recording.RecordingInputStream;
+
+/**
+ * A GuacamoleSocket which plays back a GuacamoleRecording in place of a
+ * connection to the Guacamole proxy, such that a recording can be viewed
+ * through any tunnel, including GuacamoleHTTPTunnelServlet. Playback may
+ * proceed at the original speed, at a multiple of the original speed, or
+ * as quickly as the tunnel is read, and may begin at any point in the
+ * recording. Playback may be repositioned at any time with seek(), which
+ * discards any partial instruction already read. All instructions written
+ * to this socket are discarded.
+ *
+ * @author Michael Jumper
+ */
+public class PlaybackGuacamoleSocket implements GuacamoleSocket {
+
+    private RecordingInputStream input;
+    private GuacamoleReader reader = new PlaybackReader();
+    private GuacamoleWriter writer;
+
+    /**
+     * The reader parsing the recording from the current point of playback,
+     * replaced after each seek. Accessed only by the reading thread.
+     */
+    private ViewGuacamoleReader current;
+
+    /**
+     * The number of seeks requested. Guarded by this socket.
+     */
+    private int seeks = 0;
+
+    /**
+     * The number of seeks requested when the current reader was created.
+     * Accessed only by the reading thread.
+     */
+    private int currentSeeks = 0;
+
+    /**
+     * The time most recently sought to, in milliseconds from the start of
+     * the recording. Guarded by this socket.
+     */
+    private long seekTime;
+
+    private volatile boolean open = true;
+
+    /**
+     * OutputStream which discards all data written.
+     */
+    private static class DiscardOutputStream extends OutputStream {
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // Discard
+        }
+
+        @Override
+        public void write(int b) {
+            // Discard
+        }
+
+    }
+
+    /**
+     * GuacamoleReader which reads through the current reader, replacing
+     * that reader if playback has been repositioned. Anything read while a
+     * seek took place may be a partial instruction spliced with data from
+     * the new point of playback, and is discarded, with reading restarting
+     * from the point sought to.
+     */
+    private class PlaybackReader implements ViewGuacamoleReader {
+
+        @Override
+        public boolean available() throws GuacamoleException {
+            return begin().available();
+        }
+
+        @Override
+        public char[] read() throws GuacamoleException {
+            for (;;) {
+                char[] chunk = begin().read();
+                if (!isSeekPending())
+                    return chunk;
+            }
+        }
+
+        @Override
+        public InstructionView readView() throws GuacamoleException {
+            for (;;) {
+                InstructionView view = begin().readView();
+                if (!isSeekPending())
+                    return view;
+            }
+        }
+
+        @Override
+        public InstructionView readFragment() throws GuacamoleException {
+            for (;;) {
+                InstructionView view = begin().readFragment();
+                if (!isSeekPending())
+                    return view;
+            }
+        }
+
+        @Override
+        public InstructionView readBatch() throws GuacamoleException {
+            for (;;) {
+                InstructionView view = begin().readBatch();
+                if (!isSeekPending())
+                    return view;
+            }
+        }
+
+        @Override
+        public GuacamoleInstruction readInstruction() throws GuacamoleException {
+            for (;;) {
+                GuacamoleInstruction instruction = begin().readInstruction();
+                if (!isSeekPending())
+                    return instruction;
+            }
+        }
+
+        @Override
+        public boolean readInstruction(MutableGuacamoleInstruction instruction)
+                throws GuacamoleException {
+            for (;;) {
+                boolean read = begin().readInstruction(instruction);
+                if (!isSeekPending())
+                    return read;
+            }
+        }
+
+    }
+
+    /**
+     * Returns the reader parsing the recording from the current point of
+     * playback, first restarting from the time most recently sought to if
+     * a seek has been requested since the current reader was created.
+     */
+    private synchronized ViewGuacamoleReader begin() throws GuacamoleException {
+
+        if (current == null || currentSeeks != seeks) {
+
+            // Data buffered by the previous reader is not at the new point
+            // of playback, and is discarded with that reader
+            try {
+                input.seek(seekTime);
+            }
+            catch (IOException e) {
+                throw new GuacamoleServerException("Unable to read recording.", e);
+            }
+
+            current = new InputStreamGuacamoleReader(input);
+            currentSeeks = seeks;
+
+        }
+
+        return current;
+
+    }
+
+    /**
+     * Returns whether a seek has been requested since the current reader
+     * was created.
+     */
+    private synchronized boolean isSeekPending() {
+        return currentSeeks != seeks;
+    }
+
+    /**
+     * Creates a new PlaybackGuacamoleSocket which plays back the recording
+     * within the given directory from its start, at its original speed.
+     *
+     * @param directory The directory containing the recording.
+     * @throws GuacamoleException If the recording cannot be read.
+     */
+    public PlaybackGuacamoleSocket(File directory) throws GuacamoleException {
+        this(directory, 1.0, 0);
+    }
+
+    /**
+     * Creates a new PlaybackGuacamoleSocket which plays back the recording
+     * within the given directory at the given speed, beginning at the start
+     * of the last frame at or before the given time.
+     *
+     * @param directory The directory containing the recording.
+     * @param speed The playback speed, as a multiple of the original speed,
+     *              or Double.POSITIVE_INFINITY to play back as quickly as
+     *              the tunnel is read.
+     * @param time The time to begin playback at, in milliseconds from the
+     *             start of the recording.
+     * @throws GuacamoleException If the recording cannot be read.
+     */
+    public PlaybackGuacamoleSocket(File directory, double speed, long time)
+            throws GuacamoleException {
+
+        try {
+            input = new RecordingInputStream(directory);
+            input.setSpeed(speed);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to read recording.", e);
+        }
+
+        // Playback begins at the given time when first read
+        seekTime = time;
+        writer = new OutputStreamGuacamoleWriter(new DiscardOutputStream());
+
+    }
+
+    /**
+     * Continues playback from the start of the last indexed frame at or
+     * before the given time, relative to the start of the recording. The
+     * recording preceding that frame is first replayed from its start
+     * without delay, such that the display is complete at that frame. Any
+     * partial instruction already read is discarded, as is any instruction
+     * being read while the seek takes place.
+     *
+     * @param time The time to seek to, in milliseconds from the start of
+     *             the recording.
+     */
+    public synchronized void seek(long time) {
+
+        seekTime = time;
+        seeks++;
+
+        // End any read in progress, such that the seek takes effect
+        // immediately rather than once the current instruction is read
+        input.interrupt();
+
+    }
+
+    /**
+     * Sets the playback speed, as a multiple of the original speed. A speed
+     * of Double.POSITIVE_INFINITY plays back as quickly as the tunnel is
+     * read.
+     *
+     * @param speed The playback speed. Must be positive.
+     */
+    public void setSpeed(double speed) {
+        input.setSpeed(speed);
+    }
+
+    /**
+     * Returns the playback speed, as a multiple of the original speed.
+     *
+     * @return The playback speed.
+     */
+    public double getSpeed() {
+        return input.getSpeed();
+    }
+
+    /**
+     * Returns the current point of playback, relative to the start of the
+     * recording.
+     *
+     * @return The current point of playback, in milliseconds from the start
+     *         of the recording.
+     */
+    public long getTime() {
+        return input.getTime();
+    }
+
+    @Override
+    public GuacamoleReader getReader() {
+        return reader;
+    }
+
+    @Override
+    public GuacamoleWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public void close() throws GuacamoleException {
+        open = false;
+        input.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+}
@@ -0,0 +1,433 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleReader;
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A GuacamoleSocket which continuously reads ahead from another
+ * GuacamoleSocket, storing all received instructions within a bounded
+ * buffer until read. Data from the Guacamole proxy thus continues to be
+ * received between reads, and is available immediately when next read.
+ *
+ * The read-ahead buffer starts at the initial size of the given
+ * BufferConfiguration and grows as needed up to the maximum size, at which
+ * point reading ahead pauses until data is read. Once drained, a buffer
+ * grown beyond the shrink size returns to the initial size.
+ *
+ * Reading ahead is performed by a dedicated thread. Sockets which already
+ * buffer received data without a thread, such as ChannelGuacamoleSocket,
+ * need not be wrapped.
+ *
+ * @author Michael Jumper
+ */
+public class ReadAheadGuacamoleSocket implements NotifyingGuacamoleSocket {
+
+    private Logger logger = LoggerFactory.getLogger(ReadAheadGuacamoleSocket.class);
+
+    private GuacamoleSocket socket;
+    private BufferConfiguration config;
+    private GuacamoleReader reader;
+
+    /**
+     * Buffer of data read ahead but not yet read.
+     */
+    private byte[] buffer;
+
+    /**
+     * The offset of the first unread byte within the buffer.
+     */
+    private int start = 0;
+
+    /**
+     * The offset immediately following the last unread byte within the
+     * buffer.
+     */
+    private int end = 0;
+
+    /**
+     * Whether the end of stream has been reached.
+     */
+    private boolean endOfStream = false;
+
+    /**
+     * The error which occurred while reading ahead, if any.
+     */
+    private IOException error;
+
+    /**
+     * The listener to notify once data is available, if any.
+     */
+    private GuacamoleReadListener listener;
+
+    /**
+     * InputStream which reads data from the read-ahead buffer.
+     */
+    private class BufferInputStream extends InputStream {
+
+        /**
+         * Buffer for single-byte reads.
+         */
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0)
+                return 0;
+
+            synchronized (ReadAheadGuacamoleSocket.this) {
+
+                // Wait for data
+                while (start == end) {
+
+                    if (error != null)
+                        throw error;
+
+                    if (endOfStream)
+                        return -1;
+
+                    try {
+                        ReadAheadGuacamoleSocket.this.wait();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading.");
+                    }
+
+                }
+
+                // Copy unread data
+                int count = Math.min(len, end - start);
+                System.arraycopy(buffer, start, b, off, count);
+                start += count;
+
+                // Reuse entire buffer once drained, returning to the initial
+                // size if grown large
+                if (start == end) {
+
+                    start = end = 0;
+
+                    if (buffer.length > config.getShrinkSize())
+                        buffer = new byte[config.getInitialSize()];
+
+                }
+
+                // Wake pump if waiting for space
+                ReadAheadGuacamoleSocket.this.notifyAll();
+                return count;
+
+            }
+
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            synchronized (ReadAheadGuacamoleSocket.this) {
+                if (read(single, 0, 1) == -1)
+                    return -1;
+                return single[0] & 0xFF;
+            }
+
+        }
+
+        @Override
+        public int available() {
+            synchronized (ReadAheadGuacamoleSocket.this) {
+                return end - start;
+            }
+        }
+
+    }
+
+    /**
+     * OutputStream which stores data within the read-ahead buffer, blocking
+     * while the buffer is full.
+     */
+    private class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            while (len > 0) {
+
+                GuacamoleReadListener notify;
+                synchronized (ReadAheadGuacamoleSocket.this) {
+
+                    int count = reserve(len);
+                    System.arraycopy(b, off, buffer, end, count);
+                    end += count;
+
+                    off += count;
+                    len -= count;
+
+                    ReadAheadGuacamoleSocket.this.notifyAll();
+                    notify = takeListener();
+
+                }
+
+                // Notify outside monitor, as listener may read
+                if (notify != null)
+                    notify.readable();
+
+            }
+
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+    }
+
+    /**
+     * Makes room within the buffer for up to the given number of bytes,
+     * compacting or growing the buffer as needed, and waiting while the
+     * buffer is full. The monitor of this socket must be held.
+     *
+     * @param len The number of bytes to be stored.
+     * @return The number of bytes which can be stored immediately following
+     *         the unread data, which is at least one and at most len.
+     * @throws IOException If the socket is closed while waiting for room.
+     */
+    private int reserve(int len) throws IOException {
+
+        for (;;) {
+
+            if (!socket.isOpen())
+                throw new IOException("Socket closed.");
+
+            // Use available space at end of buffer
+            int space = buffer.length - end;
+            if (space >= len || (space > 0 && buffer.length >= config.getMaximumSize()))
+                return Math.min(space, len);
+
+            // Compact if there is room at start of buffer
+            if (start != 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                continue;
+            }
+
+            // Grow if allowed
+            if (buffer.length < config.getMaximumSize()) {
+
+                int size = Math.max(buffer.length * 2, end + len);
+                byte[] grown = new byte[Math.min(size, config.getMaximumSize())];
+                System.arraycopy(buffer, 0, grown, 0, end);
+                buffer = grown;
+                continue;
+
+            }
+
+            // Otherwise wait for data to be read
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading ahead.");
+            }
+
+        }
+
+    }
+
+    /**
+     * Removes and returns the listener awaiting data, if data is now
+     * available or the end of stream has been reached. The monitor of this
+     * socket must be held.
+     *
+     * @return The listener to notify, or null if no listener should be
+     *         notified.
+     */
+    private GuacamoleReadListener takeListener() {
+
+        if (start == end && !endOfStream)
+            return null;
+
+        GuacamoleReadListener notify = listener;
+        listener = null;
+        return notify;
+
+    }
+
+    /**
+     * Marks the end of the stream, recording the given error, if any, and
+     * waking or notifying any waiting reader.
+     *
+     * @param error The error which ended the stream, or null if the stream
+     *              ended normally.
+     */
+    private void finish(IOException error) {
+
+        GuacamoleReadListener notify;
+        synchronized (this) {
+            this.error = error;
+            endOfStream = true;
+            notifyAll();
+            notify = takeListener();
+        }
+
+        if (notify != null)
+            notify.readable();
+
+    }
+
+    /**
+     * Creates a new ReadAheadGuacamoleSocket which reads ahead from the given
+     * GuacamoleSocket, sizing the read-ahead buffer according to the given
+     * BufferConfiguration. Reading ahead begins immediately.
+     *
+     * @param socket The GuacamoleSocket to read ahead from.
+     * @param config The sizing limits of the read-ahead buffer, in bytes.
+     *               The same limits are applied to the buffer of the
+     *               GuacamoleReader of this socket.
+     */
+    public ReadAheadGuacamoleSocket(GuacamoleSocket socket,
+            BufferConfiguration config) {
+
+        this.socket = socket;
+        this.config = config;
+
+        buffer = new byte[config.getInitialSize()];
+        reader = new InputStreamGuacamoleReader(new BufferInputStream(), config);
+
+        final ViewGuacamoleReader source =
+                AdaptedGuacamoleReader.adapt(socket.getReader());
+        final OutputStream output = new BufferOutputStream();
+
+        // Continuously copy all instructions into buffer
+        Thread pump = new Thread("guacamole-read-ahead") {
+
+            @Override
+            public void run() {
+
+                try {
+
+                    InstructionView view;
+                    while ((view = source.readBatch()) != null)
+                        view.writeTo(output);
+
+                    finish(null);
+
+                }
+                catch (GuacamoleException e) {
+                    logger.debug("Read-ahead failed.", e);
+                    finish(new IOException("Read-ahead failed.", e));
+                }
+                catch (IOException e) {
+                    logger.debug("Read-ahead stopped.", e);
+                    finish(e);
+                }
+
+            }
+
+        };
+
+        pump.setDaemon(true);
+        pump.start();
+
+    }
+
+    @Override
+    public boolean notifyWhenReadable(GuacamoleReadListener listener) {
+
+        GuacamoleReadListener notify;
+        synchronized (this) {
+            this.listener = listener;
+            notify = takeListener();
+        }
+
+        if (notify != null)
+            notify.readable();
+
+        return true;
+
+    }
+
+    @Override
+    public GuacamoleReader getReader() {
+        return reader;
+    }
+
+    @Override
+    public GuacamoleWriter getWriter() {
+        return socket.getWriter();
+    }
+
+    @Override
+    public void close() throws GuacamoleException {
+
+        try {
+            socket.close();
+        }
+        finally {
+
+            // Wake pump if waiting for room
+            synchronized (this) {
+                notifyAll();
+            }
+
+        }
+
+    }
+
+    @Override
+    public boolean isOpen() {
+        return socket.isOpen();
+    }
+
+}
@@ -0,0 +1,71 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.io.GuacamoleReader;
+
+/**
+ * Receives notification of changes in ownership of the GuacamoleReader of a
+ * GuacamoleTunnel, allowing read access to be acquired and handed off without
+ * blocking.
+ *
+ * @author Michael Jumper
+ */
+public interface ReaderHandoffListener {
+
+    /**
+     * Called once read access has been granted. Read access must later be
+     * released with releaseReader(). This function may be called from any
+     * thread, including the thread requesting read access, and thus should
+     * only arrange for reading to begin.
+     *
+     * @param reader The GuacamoleReader now owned.
+     */
+    public void readerAcquired(GuacamoleReader reader);
+
+    /**
+     * Called while read access is held, once another read is waiting for
+     * read access. Read access should be released at the next instruction
+     * boundary, as soon as at least one message has been sent. This function
+     * may be called from any thread.
+     */
+    public void readerRequested();
+
+}
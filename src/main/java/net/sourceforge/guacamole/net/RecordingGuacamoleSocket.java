@@ -0,0 +1,140 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.RecordingGuacamoleReader;
+import net.sourceforge.guacamole.recording.GuacamoleRecording;
+
+/**
+ * A GuacamoleSocket which records all instruction data received from another
+ * GuacamoleSocket to a GuacamoleRecording, such as for audit or for later
+ * playback. Data is recorded as it is read, without copying it beyond the
+ * copy into the recording itself, and without waiting for the disk. The
+ * recording is closed when this socket is closed.
+ *
+ * To record only the session itself, and not the initial handshake, wrap
+ * the ConfiguredGuacamoleSocket rather than the socket it configures.
+ *
+ * @author Michael Jumper
+ */
+public class RecordingGuacamoleSocket implements NotifyingGuacamoleSocket {
+
+    private GuacamoleSocket socket;
+    private GuacamoleRecording recording;
+    private GuacamoleReader reader;
+
+    /**
+     * Creates a new RecordingGuacamoleSocket which records all instruction
+     * data received from the given GuacamoleSocket to a new recording
+     * within the given directory.
+     *
+     * @param socket The GuacamoleSocket to record.
+     * @param directory The directory to store the recording within.
+     * @throws GuacamoleException If the recording cannot be created.
+     */
+    public RecordingGuacamoleSocket(GuacamoleSocket socket, File directory)
+            throws GuacamoleException {
+        this(socket, new GuacamoleRecording(directory));
+    }
+
+    /**
+     * Creates a new RecordingGuacamoleSocket which records all instruction
+     * data received from the given GuacamoleSocket to the given recording.
+     *
+     * @param socket The GuacamoleSocket to record.
+     * @param recording The GuacamoleRecording to append all data received
+     *                  to.
+     */
+    public RecordingGuacamoleSocket(GuacamoleSocket socket,
+            GuacamoleRecording recording) {
+        this.socket = socket;
+        this.recording = recording;
+        this.reader = new RecordingGuacamoleReader(socket.getReader(), recording);
+    }
+
+    /**
+     * Returns the recording all instruction data received is appended to.
+     *
+     * @return The recording of this socket.
+     */
+    public GuacamoleRecording getRecording() {
+        return recording;
+    }
+
+    @Override
+    public GuacamoleReader getReader() {
+        return reader;
+    }
+
+    @Override
+    public GuacamoleWriter getWriter() {
+        return socket.getWriter();
+    }
+
+    @Override
+    public void close() throws GuacamoleException {
+        try {
+            socket.close();
+        }
+        finally {
+            recording.close();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return socket.isOpen();
+    }
+
+    @Override
+    public boolean notifyWhenReadable(GuacamoleReadListener listener) {
+
+        if (socket instanceof NotifyingGuacamoleSocket)
+            return ((NotifyingGuacamoleSocket) socket).notifyWhenReadable(listener);
+
+        return false;
+
+    }
+
+}
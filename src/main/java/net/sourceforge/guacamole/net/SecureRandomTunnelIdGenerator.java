@@ -0,0 +1,99 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * A TunnelIdGenerator which generates random (version 4) UUIDs, like
+ * UUID.randomUUID(), but using a separate SecureRandom for each thread, such
+ * that concurrent connections do not contend for a single generator.
+ * <p>
+ * Each thread uses its own "SHA1PRNG" instance, which is seeded once from
+ * the system and then generates entirely within that instance. The default
+ * SecureRandom on most Unix platforms, "NativePRNG", cannot be used for this,
+ * as every NativePRNG instance reads from the same static source guarded by
+ * a single lock, and separate instances would therefore still contend with
+ * each other. If SHA1PRNG is unavailable, the default SecureRandom is used.
+ *
+ * @author Michael Jumper
+ */
+public class SecureRandomTunnelIdGenerator implements TunnelIdGenerator {
+
+    /**
+     * The SecureRandom of each thread, seeded when first used.
+     */
+    private final ThreadLocal<SecureRandom> random = new ThreadLocal<SecureRandom>() {
+
+        @Override
+        protected SecureRandom initialValue() {
+
+            // Attempt to use a generator whose state is local to the instance
+            try {
+                return SecureRandom.getInstance("SHA1PRNG");
+            }
+
+            // Fall back to the platform default if unavailable
+            catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+
+        }
+
+    };
+
+    @Override
+    public UUID generateId() {
+
+        SecureRandom generator = random.get();
+        long mostSigBits = generator.nextLong();
+        long leastSigBits = generator.nextLong();
+
+        // Mark as version 4, IETF variant
+        mostSigBits  = (mostSigBits  & ~0xF000L) | 0x4000L;
+        leastSigBits = (leastSigBits & ~(0xC000000000000000L)) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits);
+
+    }
+
+}
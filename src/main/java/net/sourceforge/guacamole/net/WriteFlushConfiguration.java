@@ -0,0 +1,124 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.properties.GuacamoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The coalescing of data written to the Guacamole proxy, as configured
+ * within guacamole.properties. By default, data is not coalesced, and is
+ * sent as soon as it is written.
+ *
+ * @author Michael Jumper
+ */
+final class WriteFlushConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteFlushConfiguration.class);
+
+    /**
+     * The number of bytes which may be written before they are sent, or zero
+     * if writes are not coalesced.
+     */
+    private static final int threshold;
+
+    /**
+     * The number of milliseconds after which coalesced data is sent, or zero
+     * if coalesced data is sent only once the threshold is reached.
+     */
+    private static final int delay;
+
+    static {
+
+        int configuredThreshold = 0;
+        int configuredDelay = 0;
+
+        try {
+
+            Integer value = GuacamoleProperties.getProperty(GuacamoleProperties.WRITE_FLUSH_THRESHOLD);
+            if (value != null)
+                configuredThreshold = Math.max(0, value);
+
+            value = GuacamoleProperties.getProperty(GuacamoleProperties.WRITE_FLUSH_DELAY);
+            if (value != null)
+                configuredDelay = Math.max(0, value);
+
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Write flushing not configured.", e);
+        }
+
+        threshold = configuredThreshold;
+        delay = configuredDelay;
+
+    }
+
+    /**
+     * This class is a utility class and may not be instantiated.
+     */
+    private WriteFlushConfiguration() {}
+
+    /**
+     * Returns the number of bytes which may be written to the Guacamole
+     * proxy before they are sent.
+     *
+     * @return The number of bytes which may be written before they are sent,
+     *         or zero if writes are not coalesced.
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the number of milliseconds after which data coalesced for the
+     * Guacamole proxy is sent.
+     *
+     * @return The number of milliseconds after which coalesced data is sent,
+     *         or zero if coalesced data is sent only once the threshold is
+     *         reached or the data is explicitly flushed.
+     */
+    public static int getDelay() {
+        return delay;
+    }
+
+}
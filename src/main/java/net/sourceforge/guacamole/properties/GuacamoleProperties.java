@@ -74,6 +74,120 @@ public class GuacamoleProperties {
 
     };
 
+    /**
+     * The number of seconds a tunnel may go without being read before it is
+     * considered abandoned and closed. If not specified, tunnels are never
+     * closed for lack of reads.
+     */
+    public static final IntegerGuacamoleProperty TUNNEL_READ_TIMEOUT = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-read-timeout"; }
+
+    };
+
+    /**
+     * The number of seconds a tunnel may go without being written before it
+     * is considered idle and closed. If not specified, tunnels are never
+     * closed for lack of writes.
+     */
+    public static final IntegerGuacamoleProperty TUNNEL_WRITE_TIMEOUT = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "tunnel-write-timeout"; }
+
+    };
+
+    /**
+     * Whether throughput and latency metrics are collected for each tunnel
+     * and exposed over JMX. Metrics are not collected unless "true".
+     */
+    public static final BooleanGuacamoleProperty ENABLE_METRICS = new BooleanGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "enable-metrics"; }
+
+    };
+
+    /**
+     * The number of bytes a tunnel read may send before flushing, even if
+     * the current frame has not yet ended. If not specified, 32768 bytes.
+     */
+    public static final IntegerGuacamoleProperty READ_FLUSH_THRESHOLD = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "read-flush-threshold"; }
+
+    };
+
+    /**
+     * The number of milliseconds a tunnel read may hold data of an
+     * unfinished frame before flushing. If not specified, 10 milliseconds.
+     * Data is held only while reading from a NotifyingGuacamoleSocket; reads
+     * from sockets which can only block, such as InetGuacamoleSocket, flush
+     * whenever no more data is available.
+     */
+    public static final IntegerGuacamoleProperty READ_FLUSH_DELAY = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "read-flush-delay"; }
+
+    };
+
+    /**
+     * The number of bytes which may be written to the Guacamole proxy before
+     * they are sent, allowing small writes to be coalesced. If not specified,
+     * or zero, data is sent as soon as it is written.
+     */
+    public static final IntegerGuacamoleProperty WRITE_FLUSH_THRESHOLD = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "write-flush-threshold"; }
+
+    };
+
+    /**
+     * The number of milliseconds data coalesced for the Guacamole proxy may
+     * be held before it is sent. If not specified, or zero, coalesced data
+     * is held until the write flush threshold is reached or the data is
+     * explicitly flushed.
+     */
+    public static final IntegerGuacamoleProperty WRITE_FLUSH_DELAY = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "write-flush-delay"; }
+
+    };
+
+    /**
+     * The size, in characters, of the buffer each WebSocket tunnel connection
+     * uses to receive messages from the client. Messages are received in
+     * parts, and thus need not fit within this buffer, though some servlet
+     * containers also refuse any message larger than this size. If not
+     * specified, the default of the servlet container is used.
+     */
+    public static final IntegerGuacamoleProperty WEBSOCKET_MESSAGE_BUFFER_SIZE = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-message-buffer-size"; }
+
+    };
+
+    /**
+     * The maximum number of threads used to send instructions to WebSocket
+     * tunnel clients. Once all threads are busy, instructions wait for the
+     * next free thread. A connection whose socket cannot provide
+     * notification of available data occupies a thread for as long as it
+     * remains open, thus this limit must then exceed the number of such
+     * connections. If not specified, or zero, threads are created as needed.
+     */
+    public static final IntegerGuacamoleProperty WEBSOCKET_SEND_THREADS = new IntegerGuacamoleProperty() {
+
+        @Override
+        public String getName() { return "websocket-send-threads"; }
+
+    };
+
     private static final Properties properties;
     private static GuacamoleException exception;
 
@@ -37,11 +37,17 @@ package net.sourceforge.guacamole.protocol;
  *
  * ***** END LICENSE BLOCK ***** */
 
+import net.sourceforge.guacamole.io.AdaptedGuacamoleWriter;
 import net.sourceforge.guacamole.io.GuacamoleReader;
 import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.io.ViewGuacamoleWriter;
 import net.sourceforge.guacamole.GuacamoleException;
 import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.net.GuacamoleReadListener;
 import net.sourceforge.guacamole.net.GuacamoleSocket;
+import net.sourceforge.guacamole.net.NotifyingGuacamoleSocket;
 import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
 
 /**
@@ -54,9 +60,12 @@ import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
  * this GuacamoleSocket from manually controlling the initial protocol
  * handshake.
  *
+ * If the wrapped GuacamoleSocket can provide notification of available data,
+ * that notification is provided through this GuacamoleSocket, as well.
+ *
  * @author Michael Jumper
  */
-public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
+public class ConfiguredGuacamoleSocket implements NotifyingGuacamoleSocket {
 
     private GuacamoleSocket socket;
     private GuacamoleConfiguration config;
@@ -77,29 +86,24 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
 
         this.socket = socket;
 
+        long start = System.nanoTime();
+
         // Get reader and writer
         GuacamoleReader reader = socket.getReader();
-        GuacamoleWriter writer = socket.getWriter();
+        ViewGuacamoleWriter writer = AdaptedGuacamoleWriter.adapt(socket.getWriter());
 
         // Send protocol
         writer.writeInstruction(new GuacamoleInstruction(Operation.CLIENT_SELECT, config.getProtocol()));
+        writer.flush();
 
         // Wait for server args
-        GuacamoleInstruction instruction;
-        do {
-            
-            // Read instruction, fail if end-of-stream
-            instruction = reader.readInstruction();
-            if (instruction == null)
-                throw new GuacamoleServerException("End of stream during initial handshake.");
-            
-        } while (instruction.getOperation() != Operation.SERVER_ARGS);
+        String[] requiredArgs = readArgs(reader);
 
         // Build args list off provided names and config
-        String[] args = new String[instruction.getArgs().length];
-        for (int i=0; i<instruction.getArgs().length; i++) {
+        String[] args = new String[requiredArgs.length];
+        for (int i=0; i<args.length; i++) {
 
-            String requiredArg = instruction.getArgs()[i];
+            String requiredArg = requiredArgs[i];
 
             String value = config.getParameter(requiredArg);
             if (value != null)
@@ -111,6 +115,63 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
 
         // Send args
         writer.writeInstruction(new GuacamoleInstruction(Operation.CLIENT_CONNECT, args));
+        writer.flush();
+
+        if (GuacamoleMetrics.isEnabled())
+            GuacamoleMetrics.getHandshakeHistogram().record(System.nanoTime() - start);
+
+    }
+
+    /**
+     * Reads instructions from the given GuacamoleReader until the "args"
+     * instruction is received, returning the names of the arguments it
+     * requests. If the given GuacamoleReader is a ViewGuacamoleReader, each
+     * instruction is inspected in place, and only the arguments of "args"
+     * are decoded. Otherwise, each instruction is fully parsed.
+     *
+     * @param reader The GuacamoleReader to read instructions from.
+     * @return The names of the arguments requested by the "args"
+     *         instruction.
+     * @throws GuacamoleException If an error occurs while reading, or the
+     *                            stream ends before "args" is received.
+     */
+    private static String[] readArgs(GuacamoleReader reader)
+            throws GuacamoleException {
+
+        // Parse each instruction fully if views are not supported
+        if (!(reader instanceof ViewGuacamoleReader)) {
+
+            GuacamoleInstruction instruction;
+            do {
+
+                // Read instruction, fail if end-of-stream
+                instruction = reader.readInstruction();
+                if (instruction == null)
+                    throw new GuacamoleServerException("End of stream during initial handshake.");
+
+            } while (instruction.getOperation() != Operation.SERVER_ARGS);
+
+            return instruction.getArgs();
+
+        }
+
+        ViewGuacamoleReader viewReader = (ViewGuacamoleReader) reader;
+
+        // Inspect each instruction in place
+        MutableGuacamoleInstruction instruction = new MutableGuacamoleInstruction();
+        do {
+
+            // Read instruction, fail if end-of-stream
+            if (!viewReader.readInstruction(instruction))
+                throw new GuacamoleServerException("End of stream during initial handshake.");
+
+        } while (instruction.getOperation() != Operation.SERVER_ARGS);
+
+        String[] args = new String[instruction.getArgCount()];
+        for (int i=0; i<args.length; i++)
+            args[i] = instruction.getArg(i);
+
+        return args;
 
     }
 
@@ -135,6 +196,17 @@ public class ConfiguredGuacamoleSocket implements GuacamoleSocket {
         return socket.getReader();
     }
 
+    @Override
+    public boolean notifyWhenReadable(GuacamoleReadListener listener) {
+
+        // Notify only if wrapped socket supports notification
+        if (socket instanceof NotifyingGuacamoleSocket)
+            return ((NotifyingGuacamoleSocket) socket).notifyWhenReadable(listener);
+
+        return false;
+
+    }
+
     @Override
     public void close() throws GuacamoleException {
         socket.close();
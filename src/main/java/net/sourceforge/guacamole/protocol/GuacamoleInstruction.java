@@ -66,11 +66,271 @@ public class GuacamoleInstruction {
          */
         CLIENT_CONNECT("connect"),
 
+        /**
+         * Message sent from client to server specifying that a key has been
+         * pressed or released.
+         */
+        CLIENT_KEY("key"),
+
+        /**
+         * Message sent from client to server specifying the current position
+         * of the mouse and the state of its buttons.
+         */
+        CLIENT_MOUSE("mouse"),
+
+        /**
+         * Message sent from client to server requesting that the connection
+         * be closed.
+         */
+        CLIENT_DISCONNECT("disconnect"),
+
         /**
          * Message sent from server to client specifying which arguments
          * are required by the selected protocol.
          */
-        SERVER_ARGS("args");
+        SERVER_ARGS("args"),
+
+        /**
+         * Message sent from server to client specifying the name of the
+         * remote desktop.
+         */
+        SERVER_NAME("name"),
+
+        /**
+         * Message sent from server to client once the connection has been
+         * established, specifying the ID of that connection.
+         */
+        SERVER_READY("ready"),
+
+        /**
+         * Message sent from server to client describing an error which has
+         * terminated the connection.
+         */
+        SERVER_ERROR("error"),
+
+        /**
+         * Message sent from server to client adding an arc to the current
+         * path of a layer.
+         */
+        SERVER_ARC("arc"),
+
+        /**
+         * Message sent from server to client filling the current path of a
+         * layer with a solid color.
+         */
+        SERVER_CFILL("cfill"),
+
+        /**
+         * Message sent from server to client clipping all future drawing
+         * operations of a layer to its current path.
+         */
+        SERVER_CLIP("clip"),
+
+        /**
+         * Message sent from server to client closing the current path of a
+         * layer.
+         */
+        SERVER_CLOSE("close"),
+
+        /**
+         * Message sent from server to client copying a rectangle of image
+         * data from one layer to another.
+         */
+        SERVER_COPY("copy"),
+
+        /**
+         * Message sent from server to client stroking the current path of a
+         * layer with a solid color.
+         */
+        SERVER_CSTROKE("cstroke"),
+
+        /**
+         * Message sent from server to client setting the mouse cursor to a
+         * rectangle of image data from a layer.
+         */
+        SERVER_CURSOR("cursor"),
+
+        /**
+         * Message sent from server to client adding a cubic bezier curve to
+         * the current path of a layer.
+         */
+        SERVER_CURVE("curve"),
+
+        /**
+         * Message sent from server to client removing a layer.
+         */
+        SERVER_DISPOSE("dispose"),
+
+        /**
+         * Message sent from server to client setting the transformation
+         * matrix of a layer relative to its parent.
+         */
+        SERVER_DISTORT("distort"),
+
+        /**
+         * Message sent from server to client resetting the transformation
+         * matrix of a layer to the identity matrix.
+         */
+        SERVER_IDENTITY("identity"),
+
+        /**
+         * Message sent from server to client allocating a stream which will
+         * contain image data to be drawn to a layer.
+         */
+        SERVER_IMG("img"),
+
+        /**
+         * Message sent from server to client filling the current path of a
+         * layer with the contents of another layer.
+         */
+        SERVER_LFILL("lfill"),
+
+        /**
+         * Message sent from server to client adding a line segment to the
+         * current path of a layer.
+         */
+        SERVER_LINE("line"),
+
+        /**
+         * Message sent from server to client stroking the current path of a
+         * layer with the contents of another layer.
+         */
+        SERVER_LSTROKE("lstroke"),
+
+        /**
+         * Message sent from server to client moving a layer relative to its
+         * parent.
+         */
+        SERVER_MOVE("move"),
+
+        /**
+         * Message sent from server to client containing part of an
+         * instruction stream nested within another.
+         */
+        SERVER_NEST("nest"),
+
+        /**
+         * Message sent from server to client drawing base64-encoded PNG
+         * image data to a layer.
+         */
+        SERVER_PNG("png"),
+
+        /**
+         * Message sent from server to client restoring the previously-saved
+         * drawing state of a layer.
+         */
+        SERVER_POP("pop"),
+
+        /**
+         * Message sent from server to client saving the current drawing
+         * state of a layer.
+         */
+        SERVER_PUSH("push"),
+
+        /**
+         * Message sent from server to client adding a rectangle to the
+         * current path of a layer.
+         */
+        SERVER_RECT("rect"),
+
+        /**
+         * Message sent from server to client resetting the drawing state
+         * and clipping region of a layer.
+         */
+        SERVER_RESET("reset"),
+
+        /**
+         * Message sent from server to client setting a property of a layer.
+         */
+        SERVER_SET("set"),
+
+        /**
+         * Message sent from server to client setting the opacity of a layer.
+         */
+        SERVER_SHADE("shade"),
+
+        /**
+         * Message sent from server to client beginning a new subpath of the
+         * current path of a layer.
+         */
+        SERVER_START("start"),
+
+        /**
+         * Message sent from server to client transferring a rectangle of
+         * image data from one layer to another using a binary operation.
+         */
+        SERVER_TRANSFER("transfer"),
+
+        /**
+         * Message sent from server to client applying a transformation
+         * matrix to a layer.
+         */
+        SERVER_TRANSFORM("transform"),
+
+        /**
+         * Message sent from server to client marking the end of a frame, or
+         * from client to server acknowledging that frame.
+         */
+        SYNC("sync"),
+
+        /**
+         * Message sent from server to client setting the size of a layer, or
+         * from client to server specifying the optimal screen size.
+         */
+        SIZE("size"),
+
+        /**
+         * Message sent in either direction containing new clipboard
+         * contents.
+         */
+        CLIPBOARD("clipboard"),
+
+        /**
+         * Message sent from server to client playing audio data, or from
+         * client to server specifying supported audio formats.
+         */
+        AUDIO("audio"),
+
+        /**
+         * Message sent from server to client playing video data, or from
+         * client to server specifying supported video formats.
+         */
+        VIDEO("video"),
+
+        /**
+         * Message sent in either direction allocating a stream which will
+         * contain a file.
+         */
+        FILE("file"),
+
+        /**
+         * Message sent in either direction allocating a stream which will
+         * contain arbitrary named data.
+         */
+        PIPE("pipe"),
+
+        /**
+         * Message sent in either direction containing a block of data for
+         * an open stream.
+         */
+        BLOB("blob"),
+
+        /**
+         * Message sent in either direction closing an open stream.
+         */
+        END("end"),
+
+        /**
+         * Message sent in either direction acknowledging data received
+         * over a stream.
+         */
+        ACK("ack"),
+
+        /**
+         * Message sent in either direction which has no effect, used only
+         * to keep the connection alive.
+         */
+        NOP("nop");
 
         private String opcode;
         private Operation(String opcode) {
@@ -109,6 +369,162 @@ public class GuacamoleInstruction {
             return opcodeToOperation.get(opcode);
         }
 
+        /**
+         * The length of the longest opcode.
+         */
+        private static final int MAX_OPCODE_LENGTH;
+
+        /**
+         * Table of all Operations, indexed by opcode length and the first
+         * character of the opcode, as returned by tableIndex(). Each entry
+         * contains all Operations whose opcodes share that length and first
+         * character, or null if there are none.
+         */
+        private static final Operation[][] opcodeTable;
+        static {
+
+            // Determine table size
+            int maxLength = 0;
+            for (Operation operation : Operation.values())
+                maxLength = Math.max(maxLength, operation.getOpcode().length());
+
+            MAX_OPCODE_LENGTH = maxLength;
+            opcodeTable = new Operation[(maxLength + 1) * 26][];
+
+            // Store each Operation in the table, growing entries as needed
+            for (Operation operation : Operation.values()) {
+
+                String opcode = operation.getOpcode();
+                int index = tableIndex(opcode.length(), opcode.charAt(0));
+
+                Operation[] entry = opcodeTable[index];
+                if (entry == null)
+                    entry = new Operation[] { operation };
+                else {
+                    Operation[] biggerEntry = new Operation[entry.length + 1];
+                    System.arraycopy(entry, 0, biggerEntry, 0, entry.length);
+                    biggerEntry[entry.length] = operation;
+                    entry = biggerEntry;
+                }
+
+                opcodeTable[index] = entry;
+
+            }
+
+        }
+
+        /**
+         * Returns the index within the opcode table of the entry containing
+         * all Operations having opcodes of the given length and starting
+         * with the given character.
+         *
+         * @param length The length of the opcode.
+         * @param first The first character of the opcode.
+         * @return The index of the table entry for such opcodes, or -1 if
+         *         no Operation could have such an opcode.
+         */
+        private static int tableIndex(int length, int first) {
+
+            if (length < 1 || length > MAX_OPCODE_LENGTH
+                    || first < 'a' || first > 'z')
+                return -1;
+
+            return length * 26 + first - 'a';
+
+        }
+
+        /**
+         * Returns the corresponding Operation having the opcode stored within
+         * the given portion of a character array, if any. No String is
+         * created, and no hashing is performed.
+         *
+         * @param opcode A character array containing an opcode.
+         * @param offset The offset of the opcode within the array.
+         * @param length The length of the opcode, in characters.
+         * @return The Operation associated with the given opcode, or null if
+         *         no such Operation is defined.
+         */
+        public static Operation fromOpcode(char[] opcode, int offset, int length) {
+
+            // Find candidates by length and first character
+            if (length < 1)
+                return null;
+
+            int index = tableIndex(length, opcode[offset]);
+            if (index == -1)
+                return null;
+
+            Operation[] candidates = opcodeTable[index];
+            if (candidates == null)
+                return null;
+
+            // Compare remaining characters of each candidate
+            for (Operation candidate : candidates) {
+
+                String expected = candidate.opcode;
+
+                int i;
+                for (i=1; i<length; i++) {
+                    if (opcode[offset + i] != expected.charAt(i))
+                        break;
+                }
+
+                if (i == length)
+                    return candidate;
+
+            }
+
+            return null;
+
+        }
+
+        /**
+         * Returns the corresponding Operation having the opcode stored as
+         * UTF-8 within the given portion of a byte array, if any. No String
+         * is created, and no hashing is performed.
+         *
+         * @param opcode A byte array containing a UTF-8 opcode.
+         * @param offset The offset of the opcode within the array.
+         * @param length The length of the opcode, in bytes.
+         * @return The Operation associated with the given opcode, or null if
+         *         no such Operation is defined.
+         */
+        public static Operation fromOpcode(byte[] opcode, int offset, int length) {
+
+            // Find candidates by length and first character. All opcodes
+            // are ASCII, thus the length in bytes is the length in
+            // characters.
+            if (length < 1)
+                return null;
+
+            int index = tableIndex(length, opcode[offset]);
+            if (index == -1)
+                return null;
+
+            Operation[] candidates = opcodeTable[index];
+            if (candidates == null)
+                return null;
+
+            // Compare remaining characters of each candidate
+            for (Operation candidate : candidates) {
+
+                String expected = candidate.opcode;
+
+                int i;
+                for (i=1; i<length; i++) {
+                    if (opcode[offset + i] != expected.charAt(i))
+                        break;
+                }
+
+                if (i == length)
+                    return candidate;
+
+            }
+
+            return null;
+
+        }
+
     }
 
     private Operation operation;
@@ -164,7 +580,7 @@ public class GuacamoleInstruction {
 
         for (int i=0; i<args.length; i++) {
             buff.append(',');
-            buff.append(args[i].getBytes().length);
+            buff.append(args[i].length());
             buff.append('.');
             buff.append(args[i]);
         }
@@ -0,0 +1,342 @@
+
+package net.sourceforge.guacamole.protocol;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+import java.nio.charset.Charset;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+
+/**
+ * A reusable, lazily-decoded representation of a Guacamole instruction.
+ * Rather than storing each element as a String, a MutableGuacamoleInstruction
+ * stores only the location of each element within a buffer owned by the
+ * GuacamoleReader that filled it. Elements are converted to Strings only when
+ * requested. As with InstructionView, the contents of a
+ * MutableGuacamoleInstruction are only valid until the next read from the
+ * GuacamoleReader that filled it.
+ *
+ * @author Michael Jumper
+ */
+public class MutableGuacamoleInstruction {
+
+    /**
+     * The charset used for byte buffers.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The character buffer containing the instruction, or null if the
+     * instruction is stored as bytes.
+     */
+    private char[] chars;
+
+    /**
+     * The byte buffer containing the instruction as UTF-8, or null if the
+     * instruction is stored as characters.
+     */
+    private byte[] bytes;
+
+    /**
+     * The offset of each element within the buffer. The first element is the
+     * opcode.
+     */
+    private int[] offsets = new int[16];
+
+    /**
+     * The length of each element within the buffer, in characters or bytes,
+     * depending on the type of buffer.
+     */
+    private int[] lengths = new int[16];
+
+    /**
+     * The String value of each element, if already decoded.
+     */
+    private String[] values = new String[16];
+
+    /**
+     * The number of elements in the instruction, including the opcode.
+     */
+    private int elementCount = 0;
+
+    /**
+     * Clears this MutableGuacamoleInstruction, such that it contains no
+     * elements, and associates it with the given character buffer. This
+     * function is intended for use by GuacamoleReader implementations.
+     *
+     * @param chars The character buffer that will contain all elements.
+     */
+    public void reset(char[] chars) {
+        this.chars = chars;
+        this.bytes = null;
+        clear();
+    }
+
+    /**
+     * Clears this MutableGuacamoleInstruction, such that it contains no
+     * elements, and associates it with the given byte buffer, which must
+     * contain UTF-8. This function is intended for use by GuacamoleReader
+     * implementations.
+     *
+     * @param bytes The byte buffer that will contain all elements.
+     */
+    public void reset(byte[] bytes) {
+        this.chars = null;
+        this.bytes = bytes;
+        clear();
+    }
+
+    /**
+     * Removes all elements, discarding any decoded values.
+     */
+    private void clear() {
+
+        for (int i=0; i<elementCount; i++)
+            values[i] = null;
+
+        elementCount = 0;
+
+    }
+
+    /**
+     * Appends an element to this MutableGuacamoleInstruction. The first
+     * element added is the opcode. This function is intended for use by
+     * GuacamoleReader implementations.
+     *
+     * @param offset The offset of the element within the buffer.
+     * @param length The length of the element, in characters or bytes,
+     *               depending on the type of buffer.
+     */
+    public void addElement(int offset, int length) {
+
+        // Expand storage if necessary
+        if (elementCount == offsets.length) {
+
+            int[] biggerOffsets = new int[offsets.length*2];
+            System.arraycopy(offsets, 0, biggerOffsets, 0, elementCount);
+            offsets = biggerOffsets;
+
+            int[] biggerLengths = new int[lengths.length*2];
+            System.arraycopy(lengths, 0, biggerLengths, 0, elementCount);
+            lengths = biggerLengths;
+
+            values = new String[values.length*2];
+
+        }
+
+        offsets[elementCount] = offset;
+        lengths[elementCount] = length;
+        elementCount++;
+
+    }
+
+    /**
+     * Returns the character buffer containing this instruction, if the
+     * instruction is stored as characters.
+     *
+     * @return The character buffer containing this instruction, or null if
+     *         the instruction is stored as bytes.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Returns the byte buffer containing this instruction as UTF-8, if the
+     * instruction is stored as bytes.
+     *
+     * @return The byte buffer containing this instruction, or null if the
+     *         instruction is stored as characters.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of elements in this instruction, including the
+     * opcode.
+     *
+     * @return The number of elements in this instruction.
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Returns the offset of the element having the given index within the
+     * buffer. The opcode is element 0.
+     *
+     * @param index The index of the element.
+     * @return The offset of the element within the buffer.
+     */
+    public int getElementOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Returns the length of the element having the given index, in
+     * characters or bytes, depending on the type of buffer. The opcode is
+     * element 0.
+     *
+     * @param index The index of the element.
+     * @return The length of the element within the buffer.
+     */
+    public int getElementLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Returns the value of the element having the given index, decoding that
+     * element if it has not already been decoded. The opcode is element 0.
+     *
+     * @param index The index of the element.
+     * @return The value of the element.
+     */
+    public String getElement(int index) {
+
+        String value = values[index];
+
+        // Decode if not yet decoded
+        if (value == null) {
+
+            if (chars != null)
+                value = new String(chars, offsets[index], lengths[index]);
+            else
+                value = new String(bytes, offsets[index], lengths[index], UTF_8);
+
+            values[index] = value;
+
+        }
+
+        return value;
+
+    }
+
+    /**
+     * Returns whether the element having the given index is equal to the
+     * given value, without decoding the element. The value given must consist
+     * only of ASCII characters.
+     *
+     * @param index The index of the element.
+     * @param value The ASCII value to compare against.
+     * @return true if the element is equal to the given value, false
+     *         otherwise.
+     */
+    public boolean elementEquals(int index, String value) {
+
+        int offset = offsets[index];
+        int length = lengths[index];
+
+        if (length != value.length())
+            return false;
+
+        for (int i=0; i<length; i++) {
+
+            int c = (chars != null) ? chars[offset + i] : bytes[offset + i];
+            if (c != value.charAt(i))
+                return false;
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the opcode of this instruction.
+     *
+     * @return The opcode of this instruction.
+     */
+    public String getOpcode() {
+        return getElement(0);
+    }
+
+    /**
+     * Returns the Operation associated with the opcode of this instruction,
+     * if any, without decoding the opcode.
+     *
+     * @return The Operation associated with the opcode of this instruction,
+     *         or null if no such Operation is defined.
+     */
+    public Operation getOperation() {
+
+        if (chars != null)
+            return Operation.fromOpcode(chars, offsets[0], lengths[0]);
+
+        return Operation.fromOpcode(bytes, offsets[0], lengths[0]);
+
+    }
+
+    /**
+     * Returns the number of arguments of this instruction, not including the
+     * opcode.
+     *
+     * @return The number of arguments of this instruction.
+     */
+    public int getArgCount() {
+        return elementCount - 1;
+    }
+
+    /**
+     * Returns the value of the argument having the given index, decoding that
+     * argument if it has not already been decoded.
+     *
+     * @param index The index of the argument, where 0 is the first argument
+     *              after the opcode.
+     * @return The value of the argument.
+     */
+    public String getArg(int index) {
+        return getElement(index + 1);
+    }
+
+    /**
+     * Returns a new, independent GuacamoleInstruction containing the same
+     * operation and arguments as this instruction, decoding all arguments.
+     *
+     * @return A new GuacamoleInstruction equivalent to this instruction.
+     */
+    public GuacamoleInstruction toInstruction() {
+
+        String[] args = new String[getArgCount()];
+        for (int i=0; i<args.length; i++)
+            args[i] = getArg(i);
+
+        return new GuacamoleInstruction(getOperation(), args);
+
+    }
+
+}
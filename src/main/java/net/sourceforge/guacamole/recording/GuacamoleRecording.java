@@ -0,0 +1,420 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A recording of a raw Guacamole instruction stream, stored as a sequence
+ * of fixed-size, memory-mapped segment files within a directory. Each
+ * portion of the stream appended is stored as a record along with the time
+ * it was appended.
+ *
+ * Appending copies data directly into the mapped current segment, reserving
+ * space without locking, and never performs disk I/O: the next segment is
+ * created in advance, and full segments are written to disk and closed, by
+ * a single background thread shared by all recordings. As recordings share
+ * no other state, any number of recordings may be appended to concurrently.
+ * If the current segment fills before the background thread has created
+ * the next, data is dropped, rather than waiting for the disk, until the
+ * next segment is ready and an instruction has ended. The amount of data
+ * dropped is available through getDroppedLength().
+ *
+ * Segment files are named by their index, as "00000000.rec",
+ * "00000001.rec", and so on. The format of each segment is described by
+ * RecordingSegment. A RecordingIndex of the "sync" instructions within the
+ * stream is built as data is appended, and is written alongside the segment
+ * files when the recording is closed. As the index follows the stream, data
+ * must be appended by only one thread at a time, in order, as it is when
+ * read from a tunnel.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleRecording {
+
+    private Logger logger = LoggerFactory.getLogger(GuacamoleRecording.class);
+
+    /**
+     * The default size of each segment file, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The smallest permitted segment size, in bytes.
+     */
+    private static final int MINIMUM_SEGMENT_SIZE = 4096;
+
+    /**
+     * The file extension of segment files.
+     */
+    static final String SEGMENT_EXTENSION = ".rec";
+
+    private final File directory;
+    private final int segmentSize;
+
+    /**
+     * The segment currently being appended to. Changed only while
+     * synchronized on this recording.
+     */
+    private volatile RecordingSegment current;
+
+    /**
+     * The index of all "sync" instructions appended, written alongside the
+     * segment files when this recording is closed.
+     */
+    private final RecordingIndex index = new RecordingIndex();
+
+    /**
+     * Scanner locating each "sync" within the data appended.
+     */
+    private final SyncScanner scanner = new SyncScanner(index);
+
+    /**
+     * Whether this recording has been closed, or has failed. Changed only
+     * while synchronized on this recording, but read by appends without
+     * locking.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Whether data is being dropped, as the current segment is full and the
+     * next segment was not ready.
+     */
+    private boolean dropping = false;
+
+    /**
+     * The number of bytes dropped because the next segment was not ready.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates a new recording within the given directory, using segments of
+     * the default size. The directory is created if it does not exist.
+     *
+     * @param directory The directory to store segment files within.
+     * @throws GuacamoleException If the directory or first segment file
+     *                            cannot be created.
+     */
+    public GuacamoleRecording(File directory) throws GuacamoleException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new recording within the given directory, using segments of
+     * the given size. The directory is created if it does not exist. Any
+     * existing recording within the directory is deleted.
+     *
+     * @param directory The directory to store segment files within.
+     * @param segmentSize The size of each segment file, in bytes.
+     * @throws GuacamoleException If the directory or first segment file
+     *                            cannot be created.
+     */
+    public GuacamoleRecording(File directory, int segmentSize)
+            throws GuacamoleException {
+
+        if (segmentSize < MINIMUM_SEGMENT_SIZE)
+            throw new IllegalArgumentException("Segment size must be at least "
+                    + MINIMUM_SEGMENT_SIZE + " bytes.");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new GuacamoleServerException("Unable to create recording directory \""
+                    + directory + "\".");
+
+        // Remove any previous recording within the same directory
+        new File(directory, RecordingIndex.INDEX_FILENAME).delete();
+        int existing = 0;
+        while (getSegmentFile(directory, existing).delete())
+            existing++;
+
+        // Create first segment, and the next in advance. Only this segment
+        // is created by the calling thread.
+        try {
+            RecordingSegment first = createSegment(0);
+            current = first;
+            SegmentManager.getInstance().prepare(this, first);
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to create recording.", e);
+        }
+
+    }
+
+    /**
+     * Returns the directory containing the segment files of this recording.
+     *
+     * @return The directory containing the segment files of this recording.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the file of the segment having the given index within the
+     * given recording directory.
+     *
+     * @param directory The recording directory.
+     * @param index The index of the segment.
+     * @return The file of the segment having the given index.
+     */
+    static File getSegmentFile(File directory, int index) {
+        return new File(directory, String.format("%08d", index) + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Creates and maps the segment having the given index.
+     */
+    private RecordingSegment createSegment(int index) throws IOException {
+        return new RecordingSegment(getSegmentFile(directory, index), index, segmentSize);
+    }
+
+    /**
+     * Returns the number of bytes of the instruction stream which were not
+     * recorded because the background thread had not yet created the next
+     * segment when needed.
+     *
+     * @return The number of bytes dropped.
+     */
+    public long getDroppedLength() {
+        return dropped.get();
+    }
+
+    /**
+     * Appends the given data to this recording as a portion of the
+     * instruction stream received at the given time. If the data does not
+     * fit within a single segment, it is split across several records. Data
+     * appended after this recording is closed, or after it has failed, is
+     * ignored. Data appended while the next segment is not yet ready is
+     * dropped.
+     *
+     * @param timestamp The time the data was received, in milliseconds since
+     *                  the epoch.
+     * @param data The buffer containing the data to append.
+     * @param offset The offset of the data within the buffer.
+     * @param length The length of the data, in bytes.
+     */
+    public void append(long timestamp, byte[] data, int offset, int length) {
+
+        // Ignore data appended once closed
+        if (closed)
+            return;
+
+        int maximum = RecordingSegment.getMaximumRecordLength(segmentSize);
+
+        while (length > 0) {
+
+            // Drop data until the next segment is ready, resuming only at
+            // the end of an instruction
+            if (dropping) {
+
+                RecordingSegment segment = current;
+                if (scanner.isAtBoundary() && segment.getNext() != null) {
+                    if (advance(segment) == null)
+                        return;
+                    dropping = false;
+                }
+
+                else {
+                    int skipped = scanner.skip(data, offset, length);
+                    dropped.addAndGet(skipped);
+                    offset += skipped;
+                    length -= skipped;
+                    continue;
+                }
+
+            }
+
+            int chunk = Math.min(length, maximum);
+
+            // Append to current segment, moving to the next when full
+            RecordingSegment segment = current;
+            int position;
+            while ((position = segment.append(timestamp, data, offset, chunk)) == -1) {
+
+                // The current segment is sealed once closed
+                if (closed)
+                    return;
+
+                // Never wait for the next segment to be created
+                if (segment.getNext() == null) {
+                    logger.warn("Next recording segment not ready. Data will be dropped.");
+                    dropping = true;
+                    break;
+                }
+
+                segment = advance(segment);
+                if (segment == null)
+                    return;
+
+            }
+
+            if (dropping)
+                continue;
+
+            scanner.scan(timestamp, data, offset, chunk, segment.getIndex(), position);
+
+            offset += chunk;
+            length -= chunk;
+
+        }
+
+    }
+
+    /**
+     * Replaces the given full segment with the next segment, which must
+     * already have been created, returning the segment now current. The
+     * full segment is sealed and then closed in the background.
+     *
+     * @param full The segment which could not fit the data being appended.
+     * @return The segment now current, or null if this recording has been
+     *         closed or has failed.
+     */
+    private RecordingSegment advance(RecordingSegment full) {
+
+        // Only one appending thread retires the full segment. Segments
+        // change rarely, thus locking here does not slow appends.
+        synchronized (this) {
+
+            if (closed)
+                return null;
+
+            if (current == full) {
+                RecordingSegment next = full.getNext();
+                current = next;
+                full.seal();
+
+                // Create the following segment before writing the full
+                // segment to disk, as only the former is awaited
+                SegmentManager manager = SegmentManager.getInstance();
+                manager.prepare(this, next);
+                manager.close(full);
+            }
+
+            return current;
+
+        }
+
+    }
+
+    /**
+     * Creates the segment following the given segment, if not already
+     * created and if this recording is still open. The segment is created
+     * without holding the lock of this recording. If the segment cannot be
+     * created, this recording is stopped. This function is invoked only by
+     * the SegmentManager.
+     *
+     * @param segment The segment whose successor should be created.
+     */
+    void prepare(RecordingSegment segment) {
+
+        synchronized (this) {
+            if (closed || segment.getNext() != null)
+                return;
+        }
+
+        RecordingSegment next;
+        try {
+            next = createSegment(segment.getIndex() + 1);
+        }
+        catch (IOException e) {
+            logger.error("Unable to create recording segment. Recording stopped.", e);
+            fail();
+            return;
+        }
+
+        // Discard the new segment if closed while it was being created
+        synchronized (this) {
+            if (!closed && segment.getNext() == null) {
+                segment.setNext(next);
+                return;
+            }
+        }
+
+        next.delete();
+
+    }
+
+    /**
+     * Stops this recording after an unrecoverable error.
+     */
+    private void fail() {
+        close();
+    }
+
+    /**
+     * Closes this recording. All data appended, and the index of that data,
+     * are written to disk in the background, and any segment created in
+     * advance but not used is deleted.
+     */
+    public void close() {
+
+        RecordingSegment last;
+        synchronized (this) {
+
+            if (closed)
+                return;
+
+            closed = true;
+            last = current;
+
+        }
+
+        // Stop further appends, finishing those in progress
+        last.seal();
+
+        SegmentManager manager = SegmentManager.getInstance();
+        manager.close(last);
+        manager.write(index, new File(directory, RecordingIndex.INDEX_FILENAME));
+
+        RecordingSegment unused = last.getNext();
+        if (unused != null)
+            manager.delete(unused);
+
+    }
+
+}
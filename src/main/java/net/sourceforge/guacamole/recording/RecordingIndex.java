@@ -0,0 +1,450 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An index of the "sync" instructions within a GuacamoleRecording, giving
+ * the time and location of the end of each, such that the frame of a
+ * recording at any point in time can be found without reading the recording.
+ * As each "sync" ends a frame, each indexed location is the start of a
+ * frame. At most one "sync" is indexed per INTERVAL.
+ *
+ * The index is stored alongside the segment files of its recording in the
+ * file named by INDEX_FILENAME. It begins with the 32-bit MAGIC and format
+ * VERSION, the 64-bit timestamps of the first and last records, and the
+ * 32-bit number of entries. Each entry consists of the 64-bit timestamp of
+ * the record containing the "sync", the 64-bit offset within the
+ * instruction stream of the data following the "sync", and the 32-bit
+ * segment index, offset of the record within that segment, and offset of
+ * the data following the "sync" within that record. All values are
+ * big-endian.
+ *
+ * @author Michael Jumper
+ */
+public class RecordingIndex {
+
+    /**
+     * The name of the index file within a recording directory.
+     */
+    public static final String INDEX_FILENAME = "index";
+
+    /**
+     * The value identifying an index file, "GIDX" in ASCII.
+     */
+    private static final int MAGIC = 0x47494458;
+
+    /**
+     * The version of the index format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The minimum time between indexed "sync" instructions, in milliseconds.
+     */
+    public static final long INTERVAL = 1000;
+
+    private long startTime = -1;
+    private long endTime = -1;
+
+    private int count = 0;
+    private long[] timestamps = new long[64];
+    private long[] streamOffsets = new long[64];
+    private int[] segments = new int[64];
+    private int[] positions = new int[64];
+    private int[] offsets = new int[64];
+
+    /**
+     * Creates a new, empty RecordingIndex.
+     */
+    RecordingIndex() {
+    }
+
+    /**
+     * Returns the index of the recording within the given directory, reading
+     * the index file if present and valid, and otherwise building the index
+     * by scanning the recording and writing a new index file.
+     *
+     * @param directory The directory containing the recording.
+     * @return The index of the recording within the given directory.
+     * @throws IOException If the recording cannot be read.
+     */
+    public static RecordingIndex load(File directory) throws IOException {
+
+        File file = new File(directory, INDEX_FILENAME);
+        if (file.isFile()) {
+            try {
+                return read(file);
+            }
+            catch (IOException e) {
+                // Rebuild below if unreadable
+            }
+        }
+
+        RecordingIndex index = build(directory);
+
+        // Keep rebuilt index for next time, if possible
+        try {
+            index.write(file);
+        }
+        catch (IOException e) {
+            file.delete();
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Builds the index of the recording within the given directory by
+     * scanning all of its records.
+     *
+     * @param directory The directory containing the recording.
+     * @return The index of the recording within the given directory.
+     * @throws IOException If the recording cannot be read.
+     */
+    public static RecordingIndex build(File directory) throws IOException {
+
+        RecordingIndex index = new RecordingIndex();
+        SyncScanner scanner = new SyncScanner(index);
+
+        byte[] data = new byte[8192];
+
+        for (int segment = 0; ; segment++) {
+
+            File file = GuacamoleRecording.getSegmentFile(directory, segment);
+            if (!file.isFile())
+                break;
+
+            MappedByteBuffer buffer = map(file);
+            if (buffer.capacity() < RecordingSegment.SEGMENT_HEADER_LENGTH
+                    || buffer.getInt(0) != RecordingSegment.MAGIC)
+                throw new IOException("Not a recording segment: " + file);
+
+            // Scan each record, up to the first empty record
+            int position = RecordingSegment.SEGMENT_HEADER_LENGTH;
+            while (position <= buffer.capacity() - RecordingSegment.RECORD_HEADER_LENGTH) {
+
+                long timestamp = buffer.getLong(position);
+                int length = buffer.getInt(position + 8);
+                if (length <= 0)
+                    break;
+
+                if (data.length < length)
+                    data = new byte[length];
+
+                buffer.position(position + RecordingSegment.RECORD_HEADER_LENGTH);
+                buffer.get(data, 0, length);
+
+                scanner.scan(timestamp, data, 0, length, segment, position);
+                position += RecordingSegment.RECORD_HEADER_LENGTH + length;
+
+            }
+
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Maps the given segment file for reading in its entirety. The mapping
+     * cannot be explicitly unmapped, and is released only once the returned
+     * buffer is garbage collected, thus the buffer should not be referenced
+     * for longer than needed.
+     *
+     * @param file The segment file to map.
+     * @return A read-only mapping of the given file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+
+        // Mapping remains valid once the file is closed
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        finally {
+            raf.close();
+        }
+
+    }
+
+    /**
+     * Reads the given index file.
+     */
+    private static RecordingIndex read(File file) throws IOException {
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a recording index: " + file);
+
+            RecordingIndex index = new RecordingIndex();
+            index.startTime = in.readLong();
+            index.endTime = in.readLong();
+
+            int count = in.readInt();
+            if (count < 0)
+                throw new EOFException();
+
+            for (int i = 0; i < count; i++)
+                index.append(in.readLong(), in.readLong(), in.readInt(),
+                        in.readInt(), in.readInt());
+
+            return index;
+
+        }
+        finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Writes this index to the given file, replacing its contents.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file cannot be written.
+     */
+    synchronized void write(File file) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            out.writeInt(count);
+
+            for (int i = 0; i < count; i++) {
+                out.writeLong(timestamps[i]);
+                out.writeLong(streamOffsets[i]);
+                out.writeInt(segments[i]);
+                out.writeInt(positions[i]);
+                out.writeInt(offsets[i]);
+            }
+
+        }
+        finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Notes that the recording contains a record having the given
+     * timestamp.
+     *
+     * @param timestamp The timestamp of the record.
+     */
+    synchronized void extend(long timestamp) {
+
+        if (startTime == -1)
+            startTime = timestamp;
+
+        endTime = timestamp;
+
+    }
+
+    /**
+     * Adds the end of a "sync" instruction to this index, unless a "sync"
+     * less than INTERVAL earlier is already indexed.
+     *
+     * @param timestamp The timestamp of the record containing the "sync".
+     * @param streamOffset The offset within the instruction stream of the
+     *                     data following the "sync".
+     * @param segment The index of the segment containing the record.
+     * @param position The offset of the record within its segment.
+     * @param offset The offset of the data following the "sync" within the
+     *               record data.
+     */
+    synchronized void add(long timestamp, long streamOffset, int segment,
+            int position, int offset) {
+
+        if (count > 0 && timestamp - timestamps[count - 1] < INTERVAL)
+            return;
+
+        append(timestamp, streamOffset, segment, position, offset);
+
+    }
+
+    /**
+     * Appends an entry to this index.
+     */
+    private void append(long timestamp, long streamOffset, int segment,
+            int position, int offset) {
+
+        // Grow as necessary
+        if (count == timestamps.length) {
+            int capacity = count * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            streamOffsets = Arrays.copyOf(streamOffsets, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+
+        timestamps[count] = timestamp;
+        streamOffsets[count] = streamOffset;
+        segments[count] = segment;
+        positions[count] = position;
+        offsets[count] = offset;
+        count++;
+
+    }
+
+    /**
+     * Returns the timestamp of the first record, in milliseconds since the
+     * epoch.
+     *
+     * @return The timestamp of the first record, or -1 if the recording is
+     *         empty.
+     */
+    public synchronized long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the timestamp of the last record, in milliseconds since the
+     * epoch.
+     *
+     * @return The timestamp of the last record, or -1 if the recording is
+     *         empty.
+     */
+    public synchronized long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Returns the length of the recording, in milliseconds.
+     *
+     * @return The time between the first and last records, in milliseconds.
+     */
+    public synchronized long getDuration() {
+        return startTime == -1 ? 0 : endTime - startTime;
+    }
+
+    /**
+     * Returns the number of entries within this index.
+     *
+     * @return The number of entries within this index.
+     */
+    public synchronized int getEntryCount() {
+        return count;
+    }
+
+    /**
+     * Returns the last entry at or before the given time, or -1 if there is
+     * no such entry, in which case playback must begin at the start of the
+     * recording.
+     *
+     * @param timestamp The time to find, in milliseconds since the epoch.
+     * @return The index of the last entry at or before the given time, or
+     *         -1 if none.
+     */
+    synchronized int find(long timestamp) {
+
+        // Entries are at least INTERVAL apart, thus timestamps are unique
+        int index = Arrays.binarySearch(timestamps, 0, count, timestamp);
+        if (index >= 0)
+            return index;
+
+        // Otherwise, the entry preceding the insertion point
+        return -index - 2;
+
+    }
+
+    /**
+     * Returns the timestamp of the given entry.
+     */
+    synchronized long getTimestamp(int entry) {
+        return timestamps[entry];
+    }
+
+    /**
+     * Returns the offset within the instruction stream of the given entry.
+     */
+    synchronized long getStreamOffset(int entry) {
+        return streamOffsets[entry];
+    }
+
+    /**
+     * Returns the segment index of the given entry.
+     */
+    synchronized int getSegment(int entry) {
+        return segments[entry];
+    }
+
+    /**
+     * Returns the offset of the record of the given entry within its
+     * segment.
+     */
+    synchronized int getPosition(int entry) {
+        return positions[entry];
+    }
+
+    /**
+     * Returns the offset of the given entry within its record data.
+     */
+    synchronized int getOffset(int entry) {
+        return offsets[entry];
+    }
+
+}
@@ -0,0 +1,418 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * InputStream which plays back the instruction stream of a
+ * GuacamoleRecording, returning the data of each record no sooner than it
+ * was originally received, scaled by the playback speed. Playback may begin
+ * at any frame located with the RecordingIndex of the recording. As the
+ * state of the display at any frame depends on every instruction before it,
+ * everything preceding that frame is first replayed without delay.
+ *
+ * @author Michael Jumper
+ */
+public class RecordingInputStream extends InputStream {
+
+    private File directory;
+    private RecordingIndex index;
+
+    /**
+     * The playback speed, as a multiple of the original speed.
+     */
+    private double speed = 1.0;
+
+    /**
+     * The currently-mapped segment, or null if the end of the recording has
+     * been reached.
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * The index of the currently-mapped segment.
+     */
+    private int segmentIndex;
+
+    /**
+     * The offset of the next record within the current segment.
+     */
+    private int position;
+
+    /**
+     * The offset of the next unread byte of the current record within the
+     * current segment.
+     */
+    private int recordOffset;
+
+    /**
+     * The number of unread bytes of the current record.
+     */
+    private int recordRemaining = 0;
+
+    /**
+     * The timestamp of the current record.
+     */
+    private long recordTimestamp;
+
+    /**
+     * The timestamp of the recording at which playback began.
+     */
+    private long baseTimestamp;
+
+    /**
+     * The time at which playback began, in milliseconds since the epoch, or
+     * -1 if playback has not yet begun.
+     */
+    private long baseTime = -1;
+
+    /**
+     * Whether this stream has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Whether reads are to end as if at the end of the recording until the
+     * next seek.
+     */
+    private boolean interrupted = false;
+
+    /**
+     * Buffer for single-byte reads.
+     */
+    private final byte[] single = new byte[1];
+
+    /**
+     * Creates a new RecordingInputStream which plays back the recording
+     * within the given directory from its start, at its original speed. If
+     * the recording has no index, the index is built and written.
+     *
+     * @param directory The directory containing the recording.
+     * @throws IOException If the recording cannot be read.
+     */
+    public RecordingInputStream(File directory) throws IOException {
+        this.directory = directory;
+        this.index = RecordingIndex.load(directory);
+        seek(0);
+    }
+
+    /**
+     * Returns the index of the recording being played.
+     *
+     * @return The index of the recording being played.
+     */
+    public RecordingIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets the playback speed, as a multiple of the original speed. A speed
+     * of Double.POSITIVE_INFINITY plays back as quickly as data is read.
+     *
+     * @param speed The playback speed. Must be positive.
+     */
+    public synchronized void setSpeed(double speed) {
+
+        if (!(speed > 0))
+            throw new IllegalArgumentException("Playback speed must be positive.");
+
+        // Continue from the current point in the recording
+        rebase();
+        this.speed = speed;
+        notifyAll();
+
+    }
+
+    /**
+     * Returns the playback speed, as a multiple of the original speed.
+     *
+     * @return The playback speed.
+     */
+    public synchronized double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Continues playback from the start of the last indexed frame at or
+     * before the given time, relative to the start of the recording. If the
+     * time precedes the first indexed frame, playback continues from the
+     * start of the recording. So that the display is complete at that
+     * frame, the recording is read again from its start, and everything
+     * preceding the frame is returned without delay, regardless of the
+     * playback speed, before playback continues at the playback speed. A
+     * seek thus requires the entire recording preceding the frame to be
+     * read and sent, and the client should clear its display beforehand.
+     * Any data already read from this stream, including data returned by a
+     * read in progress during the seek, may end with a partial instruction,
+     * and must be discarded by the caller; playback through a
+     * PlaybackGuacamoleSocket should be repositioned with the seek()
+     * function of that socket, which does so. Seeking ends any interruption
+     * by interrupt().
+     *
+     * @param time The time to seek to, in milliseconds from the start of
+     *             the recording.
+     * @throws IOException If the recording cannot be read.
+     */
+    public synchronized void seek(long time) throws IOException {
+
+        // Any time up to the start of the recording is the start itself
+        int entry = -1;
+        if (time > 0)
+            entry = index.find(index.getStartTime() + time);
+
+        // Replay from start of recording
+        map(0);
+        position = RecordingSegment.SEGMENT_HEADER_LENGTH;
+        recordRemaining = 0;
+        recordTimestamp = index.getStartTime();
+
+        // Records up to the start of the indexed frame are due immediately,
+        // as the playback clock begins at that frame
+        if (entry == -1)
+            baseTimestamp = index.getStartTime();
+        else
+            baseTimestamp = index.getTimestamp(entry);
+
+        baseTime = -1;
+        interrupted = false;
+        notifyAll();
+
+    }
+
+    /**
+     * Returns the current point of playback, relative to the start of the
+     * recording.
+     *
+     * @return The current point of playback, in milliseconds from the start
+     *         of the recording.
+     */
+    public synchronized long getTime() {
+        return getPlaybackTimestamp() - index.getStartTime();
+    }
+
+    /**
+     * Returns the timestamp of the recording corresponding to the current
+     * time, given the speed and point at which playback began.
+     */
+    private long getPlaybackTimestamp() {
+
+        // Unthrottled playback is wherever reading has reached
+        if (Double.isInfinite(speed))
+            return recordTimestamp;
+
+        if (baseTime == -1)
+            return baseTimestamp;
+
+        return baseTimestamp
+                + (long) ((System.currentTimeMillis() - baseTime) * speed);
+
+    }
+
+    /**
+     * Restarts the playback clock at the current point of playback.
+     */
+    private void rebase() {
+        if (baseTime != -1 || Double.isInfinite(speed)) {
+            baseTimestamp = getPlaybackTimestamp();
+            baseTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Maps the segment having the given index, if it exists. If the segment
+     * does not exist, the end of the recording has been reached.
+     */
+    private void map(int index) throws IOException {
+
+        File file = GuacamoleRecording.getSegmentFile(directory, index);
+        if (!file.isFile()) {
+            segment = null;
+            return;
+        }
+
+        segment = RecordingIndex.map(file);
+        segmentIndex = index;
+
+        if (segment.capacity() < RecordingSegment.SEGMENT_HEADER_LENGTH
+                || segment.getInt(0) != RecordingSegment.MAGIC)
+            throw new IOException("Not a recording segment: " + file);
+
+    }
+
+    /**
+     * Advances to the record at the current position, moving to the next
+     * segment as necessary.
+     *
+     * @return true if a record was found, false if the end of the recording
+     *         has been reached.
+     */
+    private boolean nextRecord() throws IOException {
+
+        while (segment != null) {
+
+            // Read record at current position, if any
+            if (position <= segment.capacity() - RecordingSegment.RECORD_HEADER_LENGTH) {
+
+                int length = segment.getInt(position + 8);
+                if (length > 0) {
+                    recordTimestamp = segment.getLong(position);
+                    recordOffset = position + RecordingSegment.RECORD_HEADER_LENGTH;
+                    recordRemaining = length;
+                    position = recordOffset + length;
+                    return true;
+                }
+
+            }
+
+            // Otherwise, continue with next segment
+            map(segmentIndex + 1);
+            position = RecordingSegment.SEGMENT_HEADER_LENGTH;
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the time remaining until the current record is due, in
+     * milliseconds, starting the playback clock if not yet started.
+     */
+    private long getDelay() {
+
+        if (Double.isInfinite(speed))
+            return 0;
+
+        // Playback clock starts with the first data read
+        if (baseTime == -1)
+            baseTime = System.currentTimeMillis();
+
+        long due = baseTime + (long) ((recordTimestamp - baseTimestamp) / speed);
+        return due - System.currentTimeMillis();
+
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0)
+            return 0;
+
+        // Advance to next record, waiting until it is due. Seeking or
+        // changing speed while waiting wakes this read to start over.
+        for (;;) {
+
+            if (closed || interrupted || (recordRemaining == 0 && !nextRecord()))
+                return -1;
+
+            long delay = getDelay();
+            if (delay <= 0)
+                break;
+
+            try {
+                wait(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+        }
+
+        int length = Math.min(len, recordRemaining);
+
+        segment.position(recordOffset);
+        segment.get(b, off, length);
+
+        recordOffset += length;
+        recordRemaining -= length;
+
+        return length;
+
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        int length = read(single, 0, 1);
+        if (length == -1)
+            return -1;
+
+        return single[0] & 0xFF;
+
+    }
+
+    @Override
+    public synchronized int available() {
+
+        // Data of a record is not available until due
+        if (closed || interrupted || recordRemaining == 0 || getDelay() > 0)
+            return 0;
+
+        return recordRemaining;
+
+    }
+
+    /**
+     * Ends any read in progress, and all further reads until the next seek,
+     * as if the end of the recording had been reached, such that data read
+     * before a seek can be discarded without waiting for the next record.
+     */
+    public synchronized void interrupt() {
+        interrupted = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void close() {
+
+        // Wake any read waiting for the next record
+        closed = true;
+        segment = null;
+        notifyAll();
+
+    }
+
+}
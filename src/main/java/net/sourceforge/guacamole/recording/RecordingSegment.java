@@ -0,0 +1,309 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single file of a GuacamoleRecording, mapped into memory in its entirety
+ * when created. Space within the segment is reserved for each record with a
+ * compare-and-set of the append position, and the record is then copied
+ * into the mapping, thus any number of threads may append concurrently
+ * without locking, and without performing disk I/O themselves.
+ *
+ * Each segment begins with a header of SEGMENT_HEADER_LENGTH bytes: the
+ * 32-bit MAGIC, the 32-bit format VERSION, and the 64-bit creation time in
+ * milliseconds since the epoch. Records follow, each consisting of a 64-bit
+ * timestamp in milliseconds since the epoch, the 32-bit length of the
+ * record data in bytes, and the record data itself, which is a portion of
+ * the raw UTF-8 instruction stream. As segment files are created at their
+ * full size and are zero-filled, the records end at the first record having
+ * a length of zero, or at the end of the file. All values are big-endian.
+ *
+ * @author Michael Jumper
+ */
+class RecordingSegment {
+
+    /**
+     * The value identifying a recording segment file, "GREC" in ASCII.
+     */
+    static final int MAGIC = 0x47524543;
+
+    /**
+     * The version of the recording format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The length of the header at the start of each segment, in bytes.
+     */
+    static final int SEGMENT_HEADER_LENGTH = 16;
+
+    /**
+     * The length of the header of each record, in bytes.
+     */
+    static final int RECORD_HEADER_LENGTH = 12;
+
+    /**
+     * The append position of a sealed segment, which no reservation can
+     * satisfy.
+     */
+    private static final int SEALED = Integer.MAX_VALUE;
+
+    private final File file;
+    private final int index;
+    private final int capacity;
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+
+    /**
+     * The offset at which the next record will be written.
+     */
+    private final AtomicInteger position = new AtomicInteger(SEGMENT_HEADER_LENGTH);
+
+    /**
+     * The number of appends currently reserving space or copying data.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * The segment following this segment, once created.
+     */
+    private volatile RecordingSegment next;
+
+    /**
+     * The size of the block of zeroes written when preallocating a segment
+     * file, in bytes.
+     */
+    private static final int PREALLOCATE_BLOCK_SIZE = 65536;
+
+    /**
+     * Creates and maps a new segment file of the given size. The file is
+     * written in full with zeroes before being mapped, and the mapping is
+     * loaded into memory, such that appending never allocates disk blocks or
+     * faults pages in from disk. As this performs disk I/O, segments should
+     * be created only by the SegmentManager.
+     *
+     * @param file The file to create. Any existing file is overwritten.
+     * @param index The index of this segment within its recording.
+     * @param capacity The size of the segment file, in bytes.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    RecordingSegment(File file, int index, int capacity) throws IOException {
+
+        this.file = file;
+        this.index = index;
+        this.capacity = capacity;
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+
+            raf.setLength(0);
+
+            // Allocate every block of the file now, rather than when each
+            // page is first written through the mapping
+            FileChannel channel = raf.getChannel();
+            ByteBuffer zeroes = ByteBuffer.allocate(PREALLOCATE_BLOCK_SIZE);
+            long written = 0;
+            while (written < capacity) {
+                zeroes.clear();
+                zeroes.limit((int) Math.min(PREALLOCATE_BLOCK_SIZE, capacity - written));
+                written += channel.write(zeroes, written);
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.load();
+
+        }
+        catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, System.currentTimeMillis());
+
+    }
+
+    /**
+     * Returns the index of this segment within its recording.
+     *
+     * @return The index of this segment.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the number of record data bytes which fit within an empty
+     * segment of the given size.
+     *
+     * @param capacity The size of the segment, in bytes.
+     * @return The largest record data length possible, in bytes.
+     */
+    static int getMaximumRecordLength(int capacity) {
+        return capacity - SEGMENT_HEADER_LENGTH - RECORD_HEADER_LENGTH;
+    }
+
+    /**
+     * Appends a record containing the given data, if space remains and this
+     * segment is not sealed.
+     *
+     * @param timestamp The timestamp of the record, in milliseconds since
+     *                  the epoch.
+     * @param data The buffer containing the record data.
+     * @param offset The offset of the record data within the buffer.
+     * @param length The length of the record data, in bytes. Must be
+     *               positive.
+     * @return The offset of the record within this segment, or -1 if this
+     *         segment is full or sealed.
+     */
+    int append(long timestamp, byte[] data, int offset, int length) {
+
+        int size = RECORD_HEADER_LENGTH + length;
+
+        pending.incrementAndGet();
+        try {
+
+            // Reserve space
+            int start;
+            do {
+                start = position.get();
+                if (start > capacity - size)
+                    return -1;
+            } while (!position.compareAndSet(start, start + size));
+
+            // Copy data before the header, such that a record never appears
+            // with a nonzero length before its data
+            ByteBuffer target = buffer.duplicate();
+            target.position(start + RECORD_HEADER_LENGTH);
+            target.put(data, offset, length);
+
+            buffer.putLong(start, timestamp);
+            buffer.putInt(start + 8, length);
+
+            return start;
+
+        }
+        finally {
+            pending.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * Prevents any further appends, waiting for appends already in progress
+     * to complete.
+     */
+    void seal() {
+
+        position.set(SEALED);
+
+        // Appends in progress are only copying memory
+        while (pending.get() != 0)
+            Thread.yield();
+
+    }
+
+    /**
+     * Writes all appended data to disk, and closes the segment file. The
+     * segment must be sealed.
+     *
+     * Java provides no means of explicitly unmapping a MappedByteBuffer, and
+     * the mapping of a segment is released only once its buffer is garbage
+     * collected. The buffer is therefore dereferenced here, such that the
+     * mapping can be released even while the segment itself is still
+     * referenced.
+     *
+     * @throws IOException If the data cannot be written or the file cannot
+     *                     be closed.
+     */
+    void close() throws IOException {
+        buffer.force();
+        buffer = null;
+        raf.close();
+    }
+
+    /**
+     * Closes and deletes the segment file, discarding its contents. The
+     * segment must not have been used.
+     */
+    void delete() {
+
+        buffer = null;
+
+        try {
+            raf.close();
+        }
+        catch (IOException e) {
+            // Deleted regardless
+        }
+
+        file.delete();
+
+    }
+
+    /**
+     * Returns the segment following this segment, if created.
+     *
+     * @return The next segment, or null if not yet created.
+     */
+    RecordingSegment getNext() {
+        return next;
+    }
+
+    /**
+     * Sets the segment following this segment.
+     *
+     * @param next The next segment.
+     */
+    void setNext(RecordingSegment next) {
+        this.next = next;
+    }
+
+}
@@ -0,0 +1,207 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs all disk I/O of recordings other than the copying of data into
+ * mapped segments, on a single daemon thread shared by all recordings. The
+ * next segment of each recording is created, preallocated and mapped before
+ * it is needed, and segments no longer in use are written to disk and
+ * closed, such that appending to a recording never waits for the disk.
+ *
+ * @author Michael Jumper
+ */
+class SegmentManager {
+
+    private Logger logger = LoggerFactory.getLogger(SegmentManager.class);
+
+    /**
+     * The manager shared by all recordings.
+     */
+    private static final SegmentManager instance = new SegmentManager();
+
+    /**
+     * Work awaiting the manager thread.
+     */
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+
+    /**
+     * The thread performing all work, started when first needed. Guarded
+     * by this manager.
+     */
+    private Thread thread;
+
+    private SegmentManager() {}
+
+    /**
+     * Returns the manager shared by all recordings.
+     *
+     * @return The manager shared by all recordings.
+     */
+    static SegmentManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Creates the segment following the given segment of the given recording
+     * in the background.
+     *
+     * @param recording The recording the segment belongs to.
+     * @param segment The segment whose successor should be created.
+     */
+    void prepare(final GuacamoleRecording recording, final RecordingSegment segment) {
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                recording.prepare(segment);
+            }
+
+        });
+    }
+
+    /**
+     * Writes the given sealed segment to disk and closes it in the
+     * background.
+     *
+     * @param segment The segment to close.
+     */
+    void close(final RecordingSegment segment) {
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    segment.close();
+                }
+                catch (IOException e) {
+                    logger.error("Unable to write recording segment.", e);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Writes the given index to the given file in the background.
+     *
+     * @param index The index to write.
+     * @param file The file to write the index to.
+     */
+    void write(final RecordingIndex index, final File file) {
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    index.write(file);
+                }
+                catch (IOException e) {
+                    logger.error("Unable to write recording index.", e);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Deletes the given unused segment in the background.
+     *
+     * @param segment The segment to delete.
+     */
+    void delete(final RecordingSegment segment) {
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                segment.delete();
+            }
+
+        });
+    }
+
+    /**
+     * Queues the given task, starting the manager thread if not yet started.
+     */
+    private void submit(Runnable task) {
+
+        tasks.add(task);
+
+        synchronized (this) {
+
+            if (thread != null)
+                return;
+
+            thread = new Thread("guacamole-recording") {
+
+                @Override
+                public void run() {
+                    for (;;) {
+
+                        try {
+                            tasks.take().run();
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                        catch (RuntimeException e) {
+                            logger.error("Unexpected error in recording.", e);
+                        }
+
+                    }
+                }
+
+            };
+
+            thread.setDaemon(true);
+            thread.start();
+
+        }
+
+    }
+
+}
@@ -0,0 +1,288 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans a raw UTF-8 instruction stream, received as the data of consecutive
+ * records, for the end of each "sync" instruction, adding the location of
+ * each to a RecordingIndex. Element lengths are in characters, thus the
+ * UTF-8 is decoded only as far as necessary to count characters.
+ *
+ * @author Michael Jumper
+ */
+class SyncScanner {
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SyncScanner.class);
+
+
+    /**
+     * The opcode of the "sync" instruction.
+     */
+    private static final byte[] SYNC = { 's', 'y', 'n', 'c' };
+
+    private static final int LENGTH = 0;
+    private static final int VALUE = 1;
+    private static final int TERMINATOR = 2;
+
+    /**
+     * State entered once the stream is found to be malformed, after which
+     * nothing further is indexed.
+     */
+    private static final int INVALID = 3;
+
+    /**
+     * The largest element length accepted. Any longer element could not have
+     * been parsed by the reader producing the stream, and is only possible
+     * if the stream is malformed.
+     */
+    private static final int MAX_ELEMENT_LENGTH = BufferConfiguration.DEFAULT_MAXIMUM_SIZE;
+
+    private RecordingIndex index;
+
+    private int state = LENGTH;
+
+    /**
+     * The length of the current element, as parsed so far.
+     */
+    private int elementLength = 0;
+
+    /**
+     * The number of characters of the current element not yet scanned.
+     */
+    private int remaining = 0;
+
+    /**
+     * Whether the current element is the opcode.
+     */
+    private boolean opcode = true;
+
+    /**
+     * The number of bytes of the current opcode matching "sync" so far, or
+     * -1 if the opcode is not "sync".
+     */
+    private int matched = 0;
+
+    /**
+     * The offset of the start of the current record data within the stream.
+     */
+    private long streamOffset = 0;
+
+    /**
+     * The timestamp of the previous record scanned.
+     */
+    private long lastTimestamp = -1;
+
+    /**
+     * Creates a new SyncScanner which adds the end of each "sync" found to
+     * the given RecordingIndex.
+     *
+     * @param index The RecordingIndex to add each "sync" to.
+     */
+    SyncScanner(RecordingIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Scans the data of the given record, which must immediately follow the
+     * data previously scanned within the stream.
+     *
+     * @param timestamp The timestamp of the record.
+     * @param data The buffer containing the record data.
+     * @param offset The offset of the record data within the buffer.
+     * @param length The length of the record data, in bytes.
+     * @param segment The index of the segment containing the record.
+     * @param position The offset of the record within its segment.
+     */
+    void scan(long timestamp, byte[] data, int offset, int length,
+            int segment, int position) {
+
+        // Nothing can be indexed past the point the stream became malformed
+        if (state == INVALID)
+            return;
+
+        if (timestamp != lastTimestamp) {
+            index.extend(timestamp);
+            lastTimestamp = timestamp;
+        }
+
+        parse(timestamp, data, offset, length, segment, position, false);
+        streamOffset += length;
+
+    }
+
+    /**
+     * Scans data which follows the data previously scanned within the
+     * stream, but which is being dropped rather than recorded, stopping
+     * immediately after the first instruction which ends within that data.
+     * Nothing within the data scanned is indexed.
+     *
+     * @param data The buffer containing the data being dropped.
+     * @param offset The offset of the data within the buffer.
+     * @param length The length of the data, in bytes.
+     * @return The number of bytes scanned, which is less than the given
+     *         length only if an instruction ended within the data.
+     */
+    int skip(byte[] data, int offset, int length) {
+
+        // Boundaries cannot be found once the stream is malformed
+        if (state == INVALID)
+            return length;
+
+        return parse(0, data, offset, length, 0, 0, true);
+
+    }
+
+    /**
+     * Returns whether the data scanned so far ends at the end of an
+     * instruction, such that recording may resume after data was dropped.
+     * As instruction boundaries cannot be found within a malformed stream,
+     * this is always true once the stream is found to be malformed.
+     *
+     * @return true if the data scanned so far ends at the end of an
+     *         instruction, false otherwise.
+     */
+    boolean isAtBoundary() {
+        return state == INVALID
+            || (state == LENGTH && opcode && elementLength == 0);
+    }
+
+    /**
+     * Parses the given data, indexing each "sync" found unless skipping, in
+     * which case parsing stops immediately after the first instruction to
+     * end.
+     *
+     * @return The number of bytes parsed.
+     */
+    private int parse(long timestamp, byte[] data, int offset, int length,
+            int segment, int position, boolean skipping) {
+
+        for (int i = offset; i < offset + length; i++) {
+
+            byte b = data[i];
+
+            switch (state) {
+
+                // Element length, up to the period
+                case LENGTH:
+
+                    if (b == '.') {
+
+                        remaining = elementLength;
+                        elementLength = 0;
+
+                        if (opcode)
+                            matched = remaining == SYNC.length ? 0 : -1;
+
+                        state = remaining > 0 ? VALUE : TERMINATOR;
+
+                    }
+
+                    // Stop indexing if the length is not a sane number
+                    else if (b < '0' || b > '9'
+                            || elementLength > (MAX_ELEMENT_LENGTH - (b - '0')) / 10) {
+                        logger.warn("Malformed element length in recording. Remainder of recording will not be indexed.");
+                        state = INVALID;
+                        return length;
+                    }
+
+                    else
+                        elementLength = elementLength * 10 + (b - '0');
+
+                    break;
+
+                // Element value, counting characters (supplementary
+                // characters count as two, as in Java)
+                case VALUE:
+
+                    if (opcode && matched >= 0)
+                        matched = b == SYNC[matched] ? matched + 1 : -1;
+
+                    if ((b & 0xC0) != 0x80)
+                        remaining -= (b & 0xF8) == 0xF0 ? 2 : 1;
+
+                    if (remaining <= 0)
+                        state = TERMINATOR;
+
+                    break;
+
+                // Continuation bytes of the final character, then the
+                // element terminator
+                case TERMINATOR:
+
+                    if ((b & 0xC0) == 0x80)
+                        break;
+
+                    state = LENGTH;
+
+                    if (b == ';') {
+
+                        opcode = true;
+
+                        // Stop at the end of the first instruction skipped
+                        if (skipping)
+                            return i + 1 - offset;
+
+                        // Index position immediately after each sync
+                        if (matched == SYNC.length)
+                            index.add(timestamp, streamOffset + (i + 1 - offset),
+                                    segment, position, i + 1 - offset);
+
+                    }
+                    else
+                        opcode = false;
+
+                    break;
+
+            }
+
+        }
+
+        return length;
+
+    }
+
+}
@@ -0,0 +1,7 @@
+
+/**
+ * Classes for recording the instruction streams of tunnels to segmented,
+ * memory-mapped files.
+ */
+package net.sourceforge.guacamole.recording;
+
@@ -0,0 +1,670 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleResourceNotFoundException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.metrics.TunnelMetrics;
+import net.sourceforge.guacamole.net.GuacamoleReadListener;
+import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.net.ReaderHandoffListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Services a single tunnel read request asynchronously, using the
+ * asynchronous processing and non-blocking output of Servlet 3.1. No thread
+ * is held while waiting for read access, nor while waiting for the client to
+ * accept more data, nor, if the tunnel's socket supports notification, while
+ * waiting for data from the Guacamole proxy. If another read begins waiting
+ * while this read waits for data, read access is handed off immediately. The
+ * response is otherwise identical to that produced by the synchronous read of
+ * GuacamoleHTTPTunnelServlet.
+ *
+ * Reads from a socket which cannot provide notification may block, and are
+ * thus performed without holding the monitor of this AsyncTunnelReader, such
+ * that the threads of other requests signalling this read never wait on the
+ * Guacamole proxy.
+ *
+ * This class must only be loaded within a Servlet 3.1 container.
+ *
+ * @author Michael Jumper
+ */
+class AsyncTunnelReader implements Runnable, WriteListener, AsyncListener,
+        GuacamoleReadListener, ReaderHandoffListener {
+
+    private Logger logger = LoggerFactory.getLogger(AsyncTunnelReader.class);
+
+    private AsyncContext context;
+    private HttpServletResponse response;
+    private ServletOutputStream out;
+
+    private GuacamoleSession session;
+    private GuacamoleTunnel tunnel;
+
+    /**
+     * The reader of the tunnel, available once read access is acquired.
+     */
+    private ViewGuacamoleReader reader;
+
+    /**
+     * Whether any instruction data has been sent.
+     */
+    private boolean sent = false;
+
+    /**
+     * The amount of instruction data sent, in bytes.
+     */
+    private long length = 0;
+
+    /**
+     * Whether the last data sent ended at an instruction boundary.
+     */
+    private boolean atBoundary = true;
+
+    /**
+     * Decides when data written should be flushed.
+     */
+    private final ReadFlushPolicy policy = new ReadFlushPolicy();
+
+    /**
+     * Whether writing will resume to flush data held within an unfinished
+     * frame.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * Whether the read is waiting for notification that data is available.
+     */
+    private volatile boolean waiting = false;
+
+    /**
+     * Whether a read which may block is in progress outside the monitor of
+     * this AsyncTunnelReader. While blocked, no other thread may read, and
+     * releasing read access is left to the blocked thread.
+     */
+    private boolean blocked = false;
+
+    /**
+     * Whether another read has requested read access. This flag is set
+     * without locking, such that a read requesting access never waits on
+     * this read.
+     */
+    private volatile boolean handoffRequested = false;
+
+    /**
+     * Whether the read has been notified that data is available.
+     */
+    private boolean readable = false;
+
+    /**
+     * Whether only the end-of-instructions marker remains to be sent.
+     */
+    private boolean finishing = false;
+
+    /**
+     * Whether the read has completed.
+     */
+    private volatile boolean done = false;
+
+    /**
+     * Creates a new AsyncTunnelReader which reads from the given tunnel.
+     *
+     * @param context The AsyncContext of the read request.
+     * @param response The HttpServletResponse of the read request.
+     * @param session The GuacamoleSession the tunnel is attached to.
+     * @param tunnel The tunnel to read from.
+     */
+    private AsyncTunnelReader(AsyncContext context, HttpServletResponse response,
+            GuacamoleSession session, GuacamoleTunnel tunnel) {
+        this.context = context;
+        this.response = response;
+        this.session = session;
+        this.tunnel = tunnel;
+    }
+
+    /**
+     * Begins reading asynchronously from the given tunnel, returning once
+     * the read has started. The request must support asynchronous
+     * processing.
+     *
+     * @param request The HttpServletRequest of the read request.
+     * @param response The HttpServletResponse of the read request.
+     * @param session The GuacamoleSession the tunnel is attached to.
+     * @param tunnel The tunnel to read from.
+     * @throws GuacamoleException If the read cannot be started.
+     */
+    public static void start(HttpServletRequest request,
+            HttpServletResponse response, GuacamoleSession session,
+            GuacamoleTunnel tunnel) throws GuacamoleException {
+
+        try {
+
+            // Note that although we are sending text, Webkit browsers will
+            // buffer 1024 bytes before starting a normal stream if we use
+            // anything but application/octet-stream.
+            response.setContentType("application/octet-stream");
+
+            // Reads stream for as long as data arrives and no other read
+            // takes over, thus the request itself must never time out
+            AsyncContext context = request.startAsync(request, response);
+            context.setTimeout(0);
+
+            AsyncTunnelReader read = new AsyncTunnelReader(context, response,
+                    session, tunnel);
+            context.addListener(read);
+
+            read.out = response.getOutputStream();
+            read.out.setWriteListener(read);
+
+            // Writing begins once exclusive read access is granted
+            tunnel.acquireReader(read);
+
+        }
+        catch (IOException e) {
+            throw new GuacamoleServerException("Unable to start asynchronous read.", e);
+        }
+
+    }
+
+    /**
+     * Writes as much data as possible without blocking, returning when the
+     * client cannot accept more data, when no more data is available, or
+     * when the read is complete. If the tunnel's socket cannot provide
+     * notification of available data, reads from that socket are performed
+     * outside the monitor of this AsyncTunnelReader, and may block.
+     */
+    private void pump() {
+
+        boolean mustBlock = pumpAvailable();
+        while (mustBlock) {
+
+            // Read outside monitor, as the read may block
+            InstructionView message;
+            try {
+                message = reader.readBatch();
+            }
+            catch (GuacamoleException e) {
+                synchronized (this) {
+                    blocked = false;
+                    if (done)
+                        tunnel.releaseReader();
+                    else
+                        handle(e);
+                }
+                return;
+            }
+
+            mustBlock = pumpReceived(message);
+
+        }
+
+    }
+
+    /**
+     * Writes as much data as possible without blocking, as done by pump(),
+     * stopping early if a read which may block is required.
+     *
+     * @return true if a read which may block must now be performed outside
+     *         the monitor, false otherwise.
+     */
+    private synchronized boolean pumpAvailable() {
+
+        // Do nothing until read access is acquired, nor while another
+        // thread is reading
+        if (done || reader == null || blocked)
+            return false;
+
+        waiting = false;
+
+        try {
+
+            while (out.isReady()) {
+
+                // Send end-of-instructions marker once all data is sent
+                if (finishing) {
+
+                    // Abort rather than terminate a partial instruction with
+                    // the end-of-instructions marker, which would corrupt it
+                    if (!atBoundary)
+                        throw new GuacamoleServerException("Tunnel closed within an instruction.");
+
+                    out.write(GuacamoleHTTPTunnelServlet.END_OF_INSTRUCTIONS);
+
+                    if (GuacamoleMetrics.isEnabled())
+                        GuacamoleMetrics.getRequestMetrics().recordReadResponse(
+                                length + GuacamoleHTTPTunnelServlet.END_OF_INSTRUCTIONS.length);
+
+                    complete();
+                    return false;
+
+                }
+
+                // Stop at closed tunnel
+                if (!tunnel.isOpen()) {
+                    finishing = true;
+                    continue;
+                }
+
+                // If no data, flush and wait for notification. Data within
+                // an unfinished frame is held briefly for the remainder of
+                // the frame, if notification is possible.
+                if (!readable && !reader.available()) {
+
+                    waiting = true;
+
+                    // Hand off immediately if requested while idle at an
+                    // instruction boundary, otherwise hand off once the
+                    // current instruction is sent
+                    if (handoffRequested && sent && atBoundary) {
+                        waiting = false;
+                        finishing = true;
+                        continue;
+                    }
+
+                    boolean notifying = tunnel.notifyWhenReadable(this);
+
+                    long holdTime = policy.getHoldTime();
+                    boolean holding = notifying && holdTime > 0
+                            && scheduleFlush(holdTime);
+
+                    if (!holding && policy.hasUnflushedData()) {
+                        flush();
+                        if (!out.isReady())
+                            return false;
+                    }
+
+                    if (notifying)
+                        return false;
+
+                    // Without notification, the read must block
+                    waiting = false;
+                    blocked = true;
+                    return true;
+
+                }
+
+                readable = false;
+                send(reader.readBatch());
+
+            }
+
+        }
+        catch (GuacamoleException e) {
+            handle(e);
+        }
+        catch (IOException e) {
+            handle(e);
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Sends the given data, received by a read performed outside the monitor,
+     * then continues writing as much data as possible without blocking, as
+     * done by pump().
+     *
+     * @param message The data received, or null if the end of stream was
+     *                reached.
+     * @return true if another read which may block must now be performed
+     *         outside the monitor, false otherwise.
+     */
+    private synchronized boolean pumpReceived(InstructionView message) {
+
+        blocked = false;
+
+        // Release read access left to this thread if completed while reading
+        if (done) {
+            tunnel.releaseReader();
+            return false;
+        }
+
+        // Output remains ready, as nothing has been written since checked
+        try {
+            send(message);
+        }
+        catch (GuacamoleException e) {
+            handle(e);
+            return false;
+        }
+        catch (IOException e) {
+            handle(e);
+            return false;
+        }
+
+        return pumpAvailable();
+
+    }
+
+    /**
+     * Writes the given data read from the tunnel, flushing at the end of
+     * each frame. If the end of stream has been reached, the tunnel is
+     * closed and the read will finish.
+     *
+     * @param message The data read, or null if the end of stream was
+     *                reached.
+     * @throws GuacamoleException If the end of stream was reached before any
+     *                            data was sent, or the tunnel cannot be
+     *                            closed.
+     * @throws IOException If an error occurs while writing.
+     */
+    private void send(InstructionView message)
+            throws GuacamoleException, IOException {
+
+        // Detach tunnel and throw error if EOF before any data
+        if (message == null) {
+
+            if (!sent)
+                throw new GuacamoleResourceNotFoundException("Tunnel reached end of stream.");
+
+            // Close tunnel immediately upon EOF
+            tunnel.close();
+            finishing = true;
+            return;
+
+        }
+
+        // Write messages directly from reader's buffer
+        message.writeTo(out);
+        length += message.getLength();
+        atBoundary = message.isComplete();
+        sent = true;
+
+        // Flush at the end of each frame
+        policy.written(message);
+        if (policy.isFlushDue() && out.isReady())
+            flush();
+
+        // No more messages another stream can take over, but only at the end
+        // of an instruction
+        if (message.isComplete() && tunnel.hasQueuedReaderThreads())
+            finishing = true;
+
+    }
+
+    /**
+     * Fails the read with the HTTP status code corresponding to the given
+     * error.
+     *
+     * @param e The error which occurred while reading.
+     */
+    private void handle(GuacamoleException e) {
+
+        if (e instanceof GuacamoleResourceNotFoundException) {
+            logger.debug("Resource not found.", e);
+            fail(HttpServletResponse.SC_NOT_FOUND);
+        }
+        else {
+            logger.error("Server error in tunnel", e);
+            fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+    }
+
+    /**
+     * Fails the read following an error writing to the client.
+     *
+     * @param e The error which occurred while writing.
+     */
+    private void handle(IOException e) {
+
+        // Log typically frequent I/O error if desired
+        logger.debug("Error writing to servlet output stream", e);
+        fail(0);
+
+    }
+
+    /**
+     * Flushes all data written, recording the time taken.
+     *
+     * @throws IOException If an error occurs while flushing.
+     */
+    private void flush() throws IOException {
+
+        long flushStart = System.nanoTime();
+        out.flush();
+        policy.flushed();
+
+        TunnelMetrics metrics = tunnel.getMetrics();
+        if (metrics != null)
+            metrics.recordFlush(System.nanoTime() - flushStart);
+
+    }
+
+    /**
+     * Resumes writing after the given delay, such that data held within an
+     * unfinished frame is flushed if no more data arrives.
+     *
+     * @param delay The time to wait before resuming, in milliseconds.
+     * @return true if writing will resume, false if resuming cannot be
+     *         scheduled as the web application is being undeployed.
+     */
+    private boolean scheduleFlush(long delay) {
+
+        if (flushScheduled)
+            return true;
+
+        flushScheduled = ReadFlushPolicy.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+
+                synchronized (AsyncTunnelReader.this) {
+                    flushScheduled = false;
+                    if (done || !waiting)
+                        return;
+                }
+
+                resume();
+
+            }
+
+        }, delay);
+
+        return flushScheduled;
+
+    }
+
+    /**
+     * Detaches and closes the tunnel, sending the given error code if
+     * possible, and completes the read.
+     *
+     * @param code The HTTP status code of the error, or zero if no error
+     *             code should be sent.
+     */
+    private void fail(int code) {
+
+        if (code != 0 && GuacamoleMetrics.isEnabled())
+            GuacamoleMetrics.getRequestMetrics().recordError(code);
+
+        // Detach and close
+        session.detachTunnel(tunnel);
+        try {
+            tunnel.close();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to close tunnel.", e);
+        }
+
+        // If response not committed, send error code
+        try {
+            if (code != 0 && !response.isCommitted())
+                response.sendError(code);
+        }
+        catch (IOException e) {
+            logger.debug("Unable to send error.", e);
+        }
+
+        complete();
+
+    }
+
+    /**
+     * Releases read access and completes the asynchronous request, if not
+     * already completed.
+     */
+    private void complete() {
+
+        if (done)
+            return;
+
+        done = true;
+        if (reader != null && !blocked)
+            tunnel.releaseReader();
+
+        context.complete();
+
+    }
+
+    @Override
+    public void onWritePossible() {
+        pump();
+    }
+
+    @Override
+    public void readable() {
+
+        synchronized (this) {
+            if (done)
+                return;
+            readable = true;
+        }
+
+        resume();
+
+    }
+
+    /**
+     * Resumes writing on a container thread.
+     */
+    private void resume() {
+        try {
+            context.start(this);
+        }
+        catch (IllegalStateException e) {
+            logger.debug("Read completed before it could be resumed.", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        pump();
+    }
+
+    @Override
+    public void readerAcquired(GuacamoleReader reader) {
+
+        // Release immediately if completed while waiting
+        synchronized (this) {
+            if (done) {
+                tunnel.releaseReader();
+                return;
+            }
+            this.reader = AdaptedGuacamoleReader.adapt(reader);
+        }
+
+        // Begin writing on a container thread
+        resume();
+
+    }
+
+    @Override
+    public void readerRequested() {
+
+        // Called on the thread of the requesting read, thus only flag the
+        // request without locking. If waiting for data, this read decides
+        // whether to hand off once resumed.
+        handoffRequested = true;
+        if (waiting && !done)
+            resume();
+
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        logger.debug("Error writing to servlet output stream", t);
+        fail(0);
+    }
+
+    @Override
+    public synchronized void onTimeout(AsyncEvent event) {
+        logger.error("Server error in tunnel", new GuacamoleServerException("Read timed out."));
+        fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public synchronized void onComplete(AsyncEvent event) {
+
+        // Ensure read access is released if completed by the container
+        if (!done) {
+            done = true;
+            if (reader != null && !blocked)
+                tunnel.releaseReader();
+        }
+
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // Nothing to do
+    }
+
+}
@@ -37,14 +37,24 @@ package net.sourceforge.guacamole.servlet;
  * ***** END LICENSE BLOCK ***** */
 
 import java.io.*;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import net.sourceforge.guacamole.*;
-import net.sourceforge.guacamole.io.GuacamoleReader;
-import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleReader;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleWriter;
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.io.ViewGuacamoleWriter;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.metrics.RequestMetrics;
+import net.sourceforge.guacamole.metrics.TunnelMetrics;
+import net.sourceforge.guacamole.net.GuacamoleReadListener;
 import net.sourceforge.guacamole.net.GuacamoleTunnel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,10 +90,118 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
     private static final int WRITE_PREFIX_LENGTH = WRITE_PREFIX.length();
 
     /**
-     * The length of every tunnel UUID, in characters.
+     * The length of the tunnel UUID following the read or write prefix, in
+     * characters.
      */
     private static final int UUID_LENGTH = 36;
 
+    /**
+     * Whether the deprecated doRead() taking the tunnel UUID as a String is
+     * overridden, in which case read requests must still be dispatched
+     * through it.
+     */
+    private final boolean legacyRead = isOverridden(getClass(), "doRead");
+
+    /**
+     * Whether the deprecated doWrite() taking the tunnel UUID as a String is
+     * overridden, in which case write requests must still be dispatched
+     * through it.
+     */
+    private final boolean legacyWrite = isOverridden(getClass(), "doWrite");
+
+    /**
+     * The end-of-instructions marker sent at the end of every read response,
+     * as UTF-8.
+     */
+    static final byte[] END_OF_INSTRUCTIONS = { '0', '.', ';' };
+
+    /**
+     * The sizing limits of the buffer used to parse write requests. The
+     * maximum size also limits the size of any one instruction written.
+     */
+    private static final BufferConfiguration WRITE_BUFFER_CONFIG = new BufferConfiguration();
+
+    static {
+        WRITE_BUFFER_CONFIG.setInitialSize(8192);
+    }
+
+    /**
+     * The number of bytes of complete instructions which may be buffered
+     * from a write request before they are written to the tunnel, even
+     * though the request has not yet been fully received.
+     */
+    private static final int WRITE_COMMIT_SIZE = 65536;
+
+    /**
+     * Buffer of UTF-8 instruction data received in a write request, tracking
+     * the length of the complete instructions at its start.
+     */
+    private static class InstructionBuffer extends ByteArrayOutputStream {
+
+        /**
+         * The number of bytes at the start of the buffer which contain only
+         * complete instructions.
+         */
+        private int completeLength = 0;
+
+        /**
+         * The number of complete instructions within the buffer.
+         */
+        private int completeCount = 0;
+
+        /**
+         * Marks all data currently within the buffer as complete
+         * instructions.
+         *
+         * @param instructions The number of instructions completed by the
+         *                     data added since last marked.
+         */
+        public void markComplete(int instructions) {
+            completeLength = count;
+            completeCount += instructions;
+        }
+
+        /**
+         * Returns the number of bytes at the start of the buffer which
+         * contain only complete instructions.
+         *
+         * @return The length of the complete instructions within the buffer.
+         */
+        public int getCompleteLength() {
+            return completeLength;
+        }
+
+        /**
+         * Returns the number of complete instructions within the buffer.
+         *
+         * @return The number of complete instructions within the buffer.
+         */
+        public int getCompleteCount() {
+            return completeCount;
+        }
+
+        /**
+         * Returns the internal array of this buffer, without copying.
+         *
+         * @return The internal array of this buffer.
+         */
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        /**
+         * Removes all complete instructions from the start of the buffer,
+         * retaining any partial instruction which follows.
+         */
+        public void removeComplete() {
+            System.arraycopy(buf, completeLength, buf, 0, count - completeLength);
+            count -= completeLength;
+            completeLength = 0;
+            completeCount = 0;
+        }
+
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException {
         handleTunnelRequest(request, response);
@@ -105,6 +223,9 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      */
     private void sendError(HttpServletResponse response, int code) throws ServletException {
 
+        if (GuacamoleMetrics.isEnabled())
+            GuacamoleMetrics.getRequestMetrics().recordError(code);
+
         try {
 
             // If response not committed, send error code
@@ -124,6 +245,88 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
 
 
+    /**
+     * Returns whether the given read request can be serviced asynchronously.
+     * Asynchronous reads require the non-blocking output of Servlet 3.1, and
+     * must be enabled for this servlet and any filters applied to the
+     * request. Older containers are serviced synchronously.
+     *
+     * @param request The HttpServletRequest associated with the read request.
+     * @return true if the read request can be serviced asynchronously, false
+     *         otherwise.
+     */
+    private boolean isAsyncReadSupported(HttpServletRequest request) {
+
+        // Check container version before using any Servlet 3 API
+        ServletContext context = getServletContext();
+        int major = context.getMajorVersion();
+        int minor = context.getMinorVersion();
+
+        if (major < 3 || (major == 3 && minor < 1))
+            return false;
+
+        return request.isAsyncSupported();
+
+    }
+
+    /**
+     * Returns the tunnel attached to the Guacamole session of the given
+     * request whose UUID begins at the given offset within the given string.
+     * The UUID is parsed in place, without copying.
+     *
+     * @param request The HttpServletRequest whose Guacamole session the
+     *                tunnel must be attached to.
+     * @param id The string containing the UUID of the tunnel.
+     * @param offset The offset of the UUID within the given string.
+     * @return The tunnel having the given UUID.
+     * @throws GuacamoleException If the request has no session, or if no
+     *                            such tunnel is attached to the session.
+     */
+    private GuacamoleTunnel getTunnel(HttpServletRequest request,
+            CharSequence id, int offset) throws GuacamoleException {
+
+        HttpSession httpSession = request.getSession(false);
+        GuacamoleSession session = new GuacamoleSession(httpSession);
+
+        // Get tunnel, ensure tunnel exists
+        GuacamoleTunnel tunnel = session.getTunnel(id, offset);
+        if (tunnel == null)
+            throw new GuacamoleResourceNotFoundException("No such tunnel.");
+
+        return tunnel;
+
+    }
+
+    /**
+     * Returns whether the given subclass of GuacamoleHTTPTunnelServlet, or
+     * any class between it and GuacamoleHTTPTunnelServlet, declares the
+     * function having the given name and taking the tunnel UUID as a String.
+     *
+     * @param servletClass The subclass of GuacamoleHTTPTunnelServlet to check.
+     * @param name The name of the function, either "doRead" or "doWrite".
+     * @return true if the function is overridden, false otherwise.
+     */
+    private static boolean isOverridden(Class<?> servletClass, String name) {
+
+        for (Class<?> current = servletClass;
+                current != GuacamoleHTTPTunnelServlet.class;
+                current = current.getSuperclass()) {
+
+            try {
+                current.getDeclaredMethod(name, HttpServletRequest.class,
+                        HttpServletResponse.class, String.class);
+                return true;
+            }
+            catch (NoSuchMethodException e) {
+                // Not declared by this class, continue with superclass
+            }
+
+        }
+
+        return false;
+
+    }
+
     /**
      * Dispatches every HTTP GET and POST request to the appropriate handler
      * function based on the query string.
@@ -142,10 +345,17 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             if (query == null)
                 throw new GuacamoleClientException("No query string provided.");
 
+            RequestMetrics requestMetrics = null;
+            if (GuacamoleMetrics.isEnabled())
+                requestMetrics = GuacamoleMetrics.getRequestMetrics();
+
             // If connect operation, call doConnect() and return tunnel UUID
             // in response.
             if (query.equals("connect")) {
 
+                if (requestMetrics != null)
+                    requestMetrics.recordConnect();
+
                 GuacamoleTunnel tunnel = doConnect(request);
                 if (tunnel != null) {
 
@@ -176,19 +386,41 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
             }
 
-            // If read operation, call doRead() with tunnel UUID, ignoring any
-            // characters following the tunnel UUID.
-            else if(query.startsWith(READ_PREFIX))
-                doRead(request, response, query.substring(
-                        READ_PREFIX_LENGTH,
-                        READ_PREFIX_LENGTH + UUID_LENGTH));
+            // If read operation, call doRead() with the tunnel having the
+            // given UUID, ignoring any characters following the tunnel UUID.
+            else if(query.startsWith(READ_PREFIX)) {
+
+                if (requestMetrics != null)
+                    requestMetrics.recordRead();
 
-            // If write operation, call doWrite() with tunnel UUID, ignoring any
-            // characters following the tunnel UUID.
-            else if(query.startsWith(WRITE_PREFIX))
-                doWrite(request, response, query.substring(
-                        WRITE_PREFIX_LENGTH,
-                        WRITE_PREFIX_LENGTH + UUID_LENGTH));
+                // Dispatch through deprecated overload only if overridden
+                if (legacyRead)
+                    doRead(request, response, query.substring(
+                            READ_PREFIX_LENGTH, Math.min(query.length(),
+                            READ_PREFIX_LENGTH + UUID_LENGTH)));
+                else
+                    doRead(request, response,
+                            getTunnel(request, query, READ_PREFIX_LENGTH));
+
+            }
+
+            // If write operation, call doWrite() with the tunnel having the
+            // given UUID, ignoring any characters following the tunnel UUID.
+            else if(query.startsWith(WRITE_PREFIX)) {
+
+                if (requestMetrics != null)
+                    requestMetrics.recordWrite();
+
+                // Dispatch through deprecated overload only if overridden
+                if (legacyWrite)
+                    doWrite(request, response, query.substring(
+                            WRITE_PREFIX_LENGTH, Math.min(query.length(),
+                            WRITE_PREFIX_LENGTH + UUID_LENGTH)));
+                else
+                    doWrite(request, response,
+                            getTunnel(request, query, WRITE_PREFIX_LENGTH));
+
+            }
 
             // Otherwise, invalid operation
             else
@@ -237,7 +469,9 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
     /**
      * Called whenever the JavaScript Guacamole client makes a read request.
      * This function should in general not be overridden, as it already
-     * contains a proper implementation of the read operation.
+     * contains a proper implementation of the read operation. Within a
+     * Servlet 3.1 container, if asynchronous processing is enabled, the read
+     * is serviced asynchronously and this function returns immediately.
      *
      * @param request The HttpServletRequest associated with the read request
      *                received.
@@ -250,23 +484,56 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      *                   the Guacamole session.
      * @throws GuacamoleException If an error occurs while handling the read
      *                            request.
+     * @deprecated Override doRead(HttpServletRequest, HttpServletResponse,
+     *             GuacamoleTunnel) instead. Read requests are dispatched
+     *             through this function only if it is overridden, at the
+     *             cost of allocating the UUID of each request as a String.
      */
+    @Deprecated
     protected void doRead(HttpServletRequest request, HttpServletResponse response, String tunnelUUID) throws GuacamoleException {
+        doRead(request, response, getTunnel(request, tunnelUUID, 0));
+    }
+
+    /**
+     * Called whenever the JavaScript Guacamole client makes a read request,
+     * once the tunnel to read from has been found. This function should in
+     * general not be overridden, as it already contains a proper
+     * implementation of the read operation. Within a Servlet 3.1 container,
+     * if asynchronous processing is enabled, the read is serviced
+     * asynchronously and this function returns immediately.
+     *
+     * @param request The HttpServletRequest associated with the read request
+     *                received.
+     * @param response The HttpServletResponse associated with the read request
+     *                 received. Any data to be sent to the client in response
+     *                 to the read request should be written to the response
+     *                 body of this HttpServletResponse.
+     * @param tunnel The tunnel to read from, as specified in the read
+     *               request. This tunnel must be attached to the Guacamole
+     *               session.
+     * @throws GuacamoleException If an error occurs while handling the read
+     *                            request.
+     */
+    protected void doRead(HttpServletRequest request, HttpServletResponse response, GuacamoleTunnel tunnel) throws GuacamoleException {
 
         HttpSession httpSession = request.getSession(false);
         GuacamoleSession session = new GuacamoleSession(httpSession);
 
-        // Get tunnel, ensure tunnel exists
-        GuacamoleTunnel tunnel = session.getTunnel(tunnelUUID);
-        if (tunnel == null)
-            throw new GuacamoleResourceNotFoundException("No such tunnel.");
-
         // Ensure tunnel is open
         if (!tunnel.isOpen())
             throw new GuacamoleResourceNotFoundException("Tunnel is closed.");
 
+        // Read asynchronously if possible, releasing this thread while
+        // waiting for data or for the client
+        if (isAsyncReadSupported(request)) {
+            AsyncTunnelReader.start(request, response, session, tunnel);
+            return;
+        }
+
         // Obtain exclusive read access
-        GuacamoleReader reader = tunnel.acquireReader();
+        ViewGuacamoleReader reader =
+                AdaptedGuacamoleReader.adapt(tunnel.acquireReader());
+        TunnelMetrics metrics = tunnel.getMetrics();
 
         try {
 
@@ -275,41 +542,70 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
             // anything but application/octet-stream.
             response.setContentType("application/octet-stream");
 
-            Writer out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+            // Instructions are written as UTF-8 directly to the response,
+            // without re-encoding if the reader already provides UTF-8
+            OutputStream out = response.getOutputStream();
 
             // Detach tunnel and throw error if EOF (and we haven't sent any
-            // data yet.
-            char[] message = reader.read();
+            // data yet. All buffered instructions are written together, while
+            // large instructions are streamed in fragments as they arrive,
+            // rather than being buffered in full.
+            InstructionView message = reader.readBatch();
             if (message == null)
                 throw new GuacamoleResourceNotFoundException("Tunnel reached end of stream.");
 
             // For all messages, until another stream is ready (we send at least one message)
+            ReadFlushPolicy policy = new ReadFlushPolicy();
+            long length = 0;
+            boolean atBoundary;
             do {
 
-                // Get message output bytes
-                out.write(message, 0, message.length);
+                // Write messages directly from reader's buffer
+                message.writeTo(out);
+                length += message.getLength();
+                atBoundary = message.isComplete();
+                policy.written(message);
 
-                // Flush if we expect to wait
-                if (!reader.available()) {
+                // Flush at the end of each frame, or if we expect to wait
+                // for data other than the remainder of the current frame
+                if (policy.isFlushDue() || (!reader.available()
+                        && !awaitData(tunnel, policy.getHoldTime()))) {
+
+                    long flushStart = System.nanoTime();
                     out.flush();
                     response.flushBuffer();
+                    policy.flushed();
+
+                    if (metrics != null)
+                        metrics.recordFlush(System.nanoTime() - flushStart);
+
                 }
 
-                // No more messages another stream can take over
-                if (tunnel.hasQueuedReaderThreads())
+                // No more messages another stream can take over, but only at
+                // the end of an instruction
+                if (atBoundary && tunnel.hasQueuedReaderThreads())
                     break;
 
-            } while (tunnel.isOpen() && (message = reader.read()) != null);
+            } while (tunnel.isOpen() && (message = reader.readBatch()) != null);
 
             // Close tunnel immediately upon EOF
             if (message == null)
                 tunnel.close();
 
+            // Abort rather than terminate a partial instruction with the
+            // end-of-instructions marker, which would corrupt it
+            if (!atBoundary)
+                throw new GuacamoleServerException("Tunnel closed within an instruction.");
+
             // End-of-instructions marker
-            out.write("0.;");
+            out.write(END_OF_INSTRUCTIONS);
             out.flush();
             response.flushBuffer();
 
+            if (GuacamoleMetrics.isEnabled())
+                GuacamoleMetrics.getRequestMetrics().recordReadResponse(
+                        length + END_OF_INSTRUCTIONS.length);
+
         }
         catch (GuacamoleException e) {
 
@@ -335,10 +631,126 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
 
     }
 
+    /**
+     * GuacamoleReadListener which allows a thread to wait for notification
+     * that data is available, for a limited time.
+     */
+    private static class ReadableLatch implements GuacamoleReadListener {
+
+        private boolean readable = false;
+
+        @Override
+        public synchronized void readable() {
+            readable = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits up to the given time for notification that data is
+         * available.
+         *
+         * @param timeout The maximum time to wait, in milliseconds.
+         * @return true if data is available, false otherwise.
+         */
+        public synchronized boolean await(long timeout) {
+
+            long deadline = System.currentTimeMillis() + timeout;
+
+            try {
+                while (!readable) {
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        break;
+
+                    wait(remaining);
+
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return readable;
+
+        }
+
+    }
+
+    /**
+     * Waits up to the given time for data to become available from the
+     * given tunnel, if its socket can provide notification.
+     *
+     * @param tunnel The tunnel to wait for.
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return true if data is available, false if the time passed without
+     *         data, or if waiting is not possible.
+     */
+    private static boolean awaitData(GuacamoleTunnel tunnel, long timeout) {
+
+        if (timeout <= 0)
+            return false;
+
+        ReadableLatch latch = new ReadableLatch();
+        return tunnel.notifyWhenReadable(latch) && latch.await(timeout);
+
+    }
+
+    /**
+     * Writes all complete instructions within the given buffer to the given
+     * tunnel as a single chunk, flushing the tunnel's GuacamoleWriter. The
+     * writer lock is held only while the buffered instructions are copied.
+     * Committed instructions are removed from the buffer.
+     *
+     * @param session The GuacamoleSession the tunnel is attached to.
+     * @param tunnel The tunnel to write to.
+     * @param pending The buffer of instructions to commit.
+     * @throws GuacamoleException If an error occurs while writing to the
+     *                            tunnel.
+     */
+    private void commit(GuacamoleSession session, GuacamoleTunnel tunnel,
+            InstructionBuffer pending) throws GuacamoleException {
+
+        int length = pending.getCompleteLength();
+        if (length == 0)
+            return;
+
+        if (!tunnel.isOpen())
+            throw new GuacamoleResourceNotFoundException("Tunnel is closed.");
+
+        ViewGuacamoleWriter writer =
+                AdaptedGuacamoleWriter.adapt(tunnel.acquireWriter());
+        try {
+            writer.write(pending.getBuffer(), 0, length);
+            writer.flush();
+        }
+        catch (GuacamoleException e) {
+
+            // Detach and close
+            session.detachTunnel(tunnel);
+            tunnel.close();
+
+            throw e;
+        }
+        finally {
+            tunnel.releaseWriter();
+        }
+
+        // Raw writes are metered without parsing, thus count instructions
+        TunnelMetrics metrics = tunnel.getMetrics();
+        if (metrics != null)
+            metrics.recordWrite(0, pending.getCompleteCount());
+
+        pending.removeComplete();
+
+    }
+
     /**
      * Called whenever the JavaScript Guacamole client makes a write request.
      * This function should in general not be overridden, as it already
-     * contains a proper implementation of the write operation.
+     * contains a proper implementation of the write operation. The request
+     * body is buffered before the tunnel's writer is acquired, and only
+     * complete instructions are ever written to the tunnel.
      *
      * @param request The HttpServletRequest associated with the write request
      *                received. Any data to be written will be specified within
@@ -350,16 +762,40 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
      *                   the Guacamole session.
      * @throws GuacamoleException If an error occurs while handling the write
      *                            request.
+     * @deprecated Override doWrite(HttpServletRequest, HttpServletResponse,
+     *             GuacamoleTunnel) instead. Write requests are dispatched
+     *             through this function only if it is overridden, at the
+     *             cost of allocating the UUID of each request as a String.
      */
+    @Deprecated
     protected void doWrite(HttpServletRequest request, HttpServletResponse response, String tunnelUUID) throws GuacamoleException {
+        doWrite(request, response, getTunnel(request, tunnelUUID, 0));
+    }
+
+    /**
+     * Called whenever the JavaScript Guacamole client makes a write request,
+     * once the tunnel to write to has been found. This function should in
+     * general not be overridden, as it already contains a proper
+     * implementation of the write operation. The request body is buffered
+     * before the tunnel's writer is acquired, and only complete instructions
+     * are ever written to the tunnel.
+     *
+     * @param request The HttpServletRequest associated with the write request
+     *                received. Any data to be written will be specified within
+     *                the body of this request.
+     * @param response The HttpServletResponse associated with the write request
+     *                 received.
+     * @param tunnel The tunnel to write to, as specified in the write
+     *               request. This tunnel must be attached to the Guacamole
+     *               session.
+     * @throws GuacamoleException If an error occurs while handling the write
+     *                            request.
+     */
+    protected void doWrite(HttpServletRequest request, HttpServletResponse response, GuacamoleTunnel tunnel) throws GuacamoleException {
 
         HttpSession httpSession = request.getSession(false);
         GuacamoleSession session = new GuacamoleSession(httpSession);
 
-        GuacamoleTunnel tunnel = session.getTunnel(tunnelUUID);
-        if (tunnel == null)
-            throw new GuacamoleResourceNotFoundException("No such tunnel.");
-
         // We still need to set the content type to avoid the default of
         // text/html, as such a content type would cause some browsers to
         // attempt to parse the result, even though the JavaScript client
@@ -367,32 +803,57 @@ public abstract class GuacamoleHTTPTunnelServlet extends HttpServlet {
         response.setContentType("application/octet-stream");
         response.setContentLength(0);
 
-        // Send data
+        // Assemble instructions from request body without holding the
+        // writer lock, forwarding UTF-8 as-is, without decoding
+        InstructionBuffer pending = new InstructionBuffer();
+        ViewGuacamoleReader input;
         try {
+            input = new InputStreamGuacamoleReader(request.getInputStream(),
+                    WRITE_BUFFER_CONFIG);
+        }
+        catch (IOException e) {
+            throw new GuacamoleClientException("Unable to read write request.", e);
+        }
 
-            GuacamoleWriter writer = tunnel.acquireWriter();
+        for (;;) {
 
-            Reader input = new InputStreamReader(request.getInputStream(), "UTF-8");
-            char[] buffer = new char[8192];
+            // Buffer next portion of body, failing if body is invalid
+            InstructionView view;
+            try {
 
-            int length;
-            while (tunnel.isOpen() &&
-                    (length = input.read(buffer, 0, buffer.length)) != -1)
-                writer.write(buffer, 0, length);
+                view = input.readBatch();
+                if (view == null)
+                    break;
 
-        }
-        catch (IOException e) {
+                view.writeTo(pending);
 
-            // Detach and close
-            session.detachTunnel(tunnel);
-            tunnel.close();
+            }
+            catch (IOException e) {
+                throw new GuacamoleServerException("Unable to buffer write request.", e);
+            }
+            catch (GuacamoleException e) {
+                throw new GuacamoleClientException("Invalid write request.", e);
+            }
+
+            if (view.isComplete())
+                pending.markComplete(view.getInstructionCount());
+
+            // Commit early only if body is large
+            if (pending.getCompleteLength() >= WRITE_COMMIT_SIZE)
+                commit(session, tunnel, pending);
+
+            else if (pending.size() > WRITE_BUFFER_CONFIG.getMaximumSize())
+                throw new GuacamoleClientException("Instruction in write request too large.");
 
-            throw new GuacamoleServerException("I/O Error sending data to server: " + e.getMessage(), e);
-        }
-        finally {
-            tunnel.releaseWriter();
         }
 
+        // Send all complete instructions at once
+        commit(session, tunnel, pending);
+
+        // Refuse any trailing partial instruction
+        if (pending.size() != 0)
+            throw new GuacamoleClientException("Incomplete instruction in write request.");
+
     }
 
 }
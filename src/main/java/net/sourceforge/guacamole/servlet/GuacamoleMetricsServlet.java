@@ -0,0 +1,190 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.metrics.LatencyHistogram;
+import net.sourceforge.guacamole.metrics.RequestMetrics;
+import net.sourceforge.guacamole.metrics.TunnelMetrics;
+
+/**
+ * Servlet which renders the global metrics of all tunnels in the Prometheus
+ * text exposition format, such that they can be scraped without a JMX agent.
+ * Only metrics already aggregated across all tunnels are rendered, thus the
+ * cost of each scrape does not depend on the number of tunnels. Throughput,
+ * such as bytes per second, is derived from the rendered counters by
+ * Prometheus. Metrics must be enabled, as described by GuacamoleMetrics, or
+ * every value will be zero.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleMetricsServlet extends HttpServlet {
+
+    /**
+     * The content type of the Prometheus text exposition format.
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The number of seconds in each nanosecond.
+     */
+    private static final double SECONDS_PER_NANO = 1e-9;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        StringBuilder output = new StringBuilder(16384);
+
+        TunnelMetrics tunnels = GuacamoleMetrics.getGlobalMetrics();
+        RequestMetrics requests = GuacamoleMetrics.getRequestMetrics();
+
+        // Tunnel counts
+        long opened = GuacamoleMetrics.getTunnelsOpened();
+        long closed = GuacamoleMetrics.getTunnelsClosed();
+
+        header(output, "guacamole_tunnels_open", "gauge", "Number of open tunnels.");
+        sample(output, "guacamole_tunnels_open", null, opened - closed);
+
+        header(output, "guacamole_tunnels_opened_total", "counter", "Number of tunnels opened.");
+        sample(output, "guacamole_tunnels_opened_total", null, opened);
+
+        // Throughput
+        header(output, "guacamole_tunnel_bytes_total", "counter", "Instruction data read from and written to guacd, in bytes.");
+        sample(output, "guacamole_tunnel_bytes_total", "direction=\"read\"", tunnels.getBytesRead());
+        sample(output, "guacamole_tunnel_bytes_total", "direction=\"write\"", tunnels.getBytesWritten());
+
+        header(output, "guacamole_tunnel_instructions_total", "counter", "Instructions read from and written to guacd.");
+        sample(output, "guacamole_tunnel_instructions_total", "direction=\"read\"", tunnels.getInstructionsRead());
+        sample(output, "guacamole_tunnel_instructions_total", "direction=\"write\"", tunnels.getInstructionsWritten());
+
+        // Latency
+        histogram(output, "guacamole_handshake_seconds", "Time taken by the initial protocol handshake with guacd.",
+                GuacamoleMetrics.getHandshakeHistogram(), SECONDS_PER_NANO);
+        histogram(output, "guacamole_reader_wait_seconds", "Time spent waiting for read access to a tunnel.",
+                tunnels.getReaderWaitHistogram(), SECONDS_PER_NANO);
+        histogram(output, "guacamole_guacd_read_seconds", "Time spent within each read from guacd.",
+                tunnels.getGuacdReadHistogram(), SECONDS_PER_NANO);
+        histogram(output, "guacamole_flush_seconds", "Time spent flushing read responses to the client.",
+                tunnels.getFlushHistogram(), SECONDS_PER_NANO);
+
+        // Requests
+        header(output, "guacamole_http_requests_total", "counter", "Tunnel requests received, by operation.");
+        sample(output, "guacamole_http_requests_total", "operation=\"connect\"", requests.getConnectRequests());
+        sample(output, "guacamole_http_requests_total", "operation=\"read\"", requests.getReadRequests());
+        sample(output, "guacamole_http_requests_total", "operation=\"write\"", requests.getWriteRequests());
+
+        header(output, "guacamole_http_errors_total", "counter", "Tunnel requests failed, by HTTP status.");
+        sample(output, "guacamole_http_errors_total", "status=\"400\"", requests.getClientErrors());
+        sample(output, "guacamole_http_errors_total", "status=\"403\"", requests.getSecurityErrors());
+        sample(output, "guacamole_http_errors_total", "status=\"404\"", requests.getNotFoundErrors());
+        sample(output, "guacamole_http_errors_total", "status=\"500\"", requests.getServerErrors());
+
+        histogram(output, "guacamole_read_response_bytes", "Size of each read response, in bytes.",
+                requests.getReadResponseSizeHistogram(), 1);
+
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+
+        PrintWriter writer = response.getWriter();
+        writer.append(output);
+        writer.flush();
+
+    }
+
+    /**
+     * Appends the HELP and TYPE lines of the metric having the given name.
+     */
+    private static void header(StringBuilder output, String name, String type,
+            String help) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a single sample of the metric having the given name and
+     * labels.
+     */
+    private static void sample(StringBuilder output, String name,
+            String labels, long value) {
+
+        output.append(name);
+        if (labels != null)
+            output.append('{').append(labels).append('}');
+
+        output.append(' ').append(value).append('\n');
+
+    }
+
+    /**
+     * Appends the given histogram as a Prometheus histogram having the given
+     * name, scaling all bucket bounds and the sum by the given factor.
+     */
+    private static void histogram(StringBuilder output, String name,
+            String help, LatencyHistogram histogram, double scale) {
+
+        header(output, name, "histogram", help);
+
+        long[] counts = histogram.getBucketCounts();
+
+        // Bucket counts are cumulative, and bounds are inclusive
+        long count = 0;
+        for (int i=0; i<counts.length - 1; i++) {
+            count += counts[i];
+            output.append(name).append("_bucket{le=\"")
+                  .append(LatencyHistogram.getMaximum(i) * scale)
+                  .append("\"} ").append(count).append('\n');
+        }
+
+        count += counts[counts.length - 1];
+        output.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+
+        output.append(name).append("_sum ").append(histogram.getTotal() * scale).append('\n');
+        output.append(name).append("_count ").append(count).append('\n');
+
+    }
+
+}
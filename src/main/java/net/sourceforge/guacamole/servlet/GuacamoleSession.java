@@ -40,14 +40,25 @@ package net.sourceforge.guacamole.servlet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
 import net.sourceforge.guacamole.GuacamoleException;
 import net.sourceforge.guacamole.GuacamoleSecurityException;
 import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.net.GuacamoleTunnelReaper;
+import net.sourceforge.guacamole.net.GuacamoleTunnelRegistry;
+import net.sourceforge.guacamole.net.TunnelReapListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Provides abstract access to the tunnels associated with a Guacamole session.
+ * Attached tunnels are also registered within the GuacamoleTunnelRegistry,
+ * owned by the session, such that they can be found by identifier without
+ * locking, and are watched by the GuacamoleTunnelReaper, such that idle
+ * tunnels are closed and detached. Any tunnels still attached when the
+ * HttpSession is invalidated or expires are closed, and thus removed from
+ * the GuacamoleTunnelRegistry.
  *
  * @author Michael Jumper
  */
@@ -55,6 +66,57 @@ public class GuacamoleSession {
 
     private Logger logger = LoggerFactory.getLogger(GuacamoleSession.class);
 
+    /**
+     * The name of the HttpSession attribute containing the tunnels of the
+     * Guacamole session.
+     */
+    private static final String TUNNELS_ATTRIBUTE = "GUAC_TUNNELS";
+
+    private GuacamoleTunnelRegistry registry = GuacamoleTunnelRegistry.getInstance();
+
+    /**
+     * The tunnels of a Guacamole session, stored as an attribute of the
+     * HttpSession. Once unbound from the HttpSession, as happens when the
+     * HttpSession is invalidated or expires, all tunnels are closed. Without
+     * this, tunnels never explicitly closed would remain registered within
+     * the process-wide GuacamoleTunnelRegistry indefinitely.
+     */
+    private static class TunnelStorage
+            extends ConcurrentHashMap<String, GuacamoleTunnel>
+            implements HttpSessionBindingListener {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Logger logger = LoggerFactory.getLogger(TunnelStorage.class);
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event) {
+            // Nothing to do
+        }
+
+        @Override
+        public void valueUnbound(HttpSessionBindingEvent event) {
+
+            // Close all remaining tunnels, each unregistering itself
+            for (GuacamoleTunnel tunnel : values()) {
+
+                try {
+                    tunnel.close();
+                }
+                catch (GuacamoleException e) {
+                    logger.debug("Unable to close tunnel of expired session.", e);
+                }
+
+                logger.debug("Closed tunnel {} of expired session.", tunnel.getUUID());
+
+            }
+
+            clear();
+
+        }
+
+    }
+
     private ConcurrentMap<String, GuacamoleTunnel> tunnels;
 
     /**
@@ -74,12 +136,17 @@ public class GuacamoleSession {
         if (session == null)
             throw new GuacamoleSecurityException("User has no session.");
 
+        // Lock session only if tunnel storage must be created
+        tunnels = (ConcurrentMap<String, GuacamoleTunnel>) session.getAttribute(TUNNELS_ATTRIBUTE);
+        if (tunnels != null)
+            return;
+
         synchronized (session) {
 
-            tunnels = (ConcurrentMap<String, GuacamoleTunnel>) session.getAttribute("GUAC_TUNNELS");
+            tunnels = (ConcurrentMap<String, GuacamoleTunnel>) session.getAttribute(TUNNELS_ATTRIBUTE);
             if (tunnels == null) {
-                tunnels = new ConcurrentHashMap<String, GuacamoleTunnel>();
-                session.setAttribute("GUAC_TUNNELS", tunnels);
+                tunnels = new TunnelStorage();
+                session.setAttribute(TUNNELS_ATTRIBUTE, tunnels);
             }
 
         }
@@ -91,7 +158,24 @@ public class GuacamoleSession {
      * @param tunnel The tunnel to attach to this GucacamoleSession.
      */
     public void attachTunnel(GuacamoleTunnel tunnel) {
-        tunnels.put(tunnel.getUUID().toString(), tunnel);
+
+        final String key = tunnel.getUUID().toString();
+        final ConcurrentMap<String, GuacamoleTunnel> attached = tunnels;
+
+        tunnels.put(key, tunnel);
+        registry.register(tunnel, tunnels);
+
+        // Detach once closed for being idle
+        GuacamoleTunnelReaper.getInstance().watch(tunnel, new TunnelReapListener() {
+
+            @Override
+            public void tunnelReaped(GuacamoleTunnel tunnel) {
+                attached.remove(key, tunnel);
+                logger.debug("Detached closed tunnel {}.", key);
+            }
+
+        });
+
         logger.debug("Attached tunnel {}.", tunnel.getUUID());
     }
 
@@ -101,6 +185,7 @@ public class GuacamoleSession {
      */
     public void detachTunnel(GuacamoleTunnel tunnel) {
         tunnels.remove(tunnel.getUUID().toString());
+        registry.unregister(tunnel);
         logger.debug("Detached tunnel {}.", tunnel.getUUID());
     }
 
@@ -116,4 +201,19 @@ public class GuacamoleSession {
         return tunnels.get(tunnelUUID);
     }
 
+    /**
+     * Returns the tunnel attached to this GuacamoleSession whose UUID, in
+     * string form, begins at the given offset within the given string, if
+     * any. The UUID is parsed in place, and the tunnel is found without
+     * locking.
+     *
+     * @param id The string containing the UUID of an attached tunnel.
+     * @param offset The offset of the UUID within the given string.
+     * @return The tunnel corresponding to the given UUID, if attached, or null
+     *         if the UUID is invalid or no such tunnel is attached.
+     */
+    public GuacamoleTunnel getTunnel(CharSequence id, int offset) {
+        return registry.getTunnel(id, offset, tunnels);
+    }
+
 }
@@ -0,0 +1,313 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.properties.GuacamoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when a tunnel read should flush the data written to its response,
+ * such that each frame is sent as soon as it is complete, but frames are
+ * not split across many small chunks as their instructions arrive.
+ *
+ * Each frame ends with a "sync" instruction, and the JavaScript client
+ * updates its display only at the end of each frame. Data is therefore
+ * flushed as soon as a frame ends, even if more data is available. Within a
+ * frame, data is held while more of the frame is expected, and is flushed
+ * once the configured number of bytes is reached, or once the oldest data
+ * held reaches the configured age.
+ *
+ * Holding data while waiting for more of a frame requires a tunnel whose
+ * socket is a NotifyingGuacamoleSocket, such as ChannelGuacamoleSocket or
+ * ReadAheadGuacamoleSocket, as the read must wait for data with a time
+ * limit. Sockets which only block, such as InetGuacamoleSocket, cannot be
+ * waited on for a limited time, and a read from such a socket flushes all
+ * data held whenever no more data is available, as if the configured delay
+ * were zero. The frame and size limits apply to all sockets. Wrapping a
+ * blocking socket in a ReadAheadGuacamoleSocket allows the delay to apply.
+ *
+ * @author Michael Jumper
+ */
+class ReadFlushPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadFlushPolicy.class);
+
+    /**
+     * The default number of bytes which may be held within a frame.
+     */
+    private static final int DEFAULT_THRESHOLD = 32768;
+
+    /**
+     * The default time data may be held within a frame, in milliseconds.
+     */
+    private static final int DEFAULT_DELAY = 10;
+
+    /**
+     * The number of bytes which may be held within a frame.
+     */
+    private static final int threshold;
+
+    /**
+     * The time data may be held within a frame, in nanoseconds.
+     */
+    private static final long maxDelay;
+
+    /**
+     * Single daemon thread on which asynchronous reads are woken to flush
+     * held data.
+     */
+    private static final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "guacamole-read-flush");
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    });
+
+    static {
+
+        int configuredThreshold = DEFAULT_THRESHOLD;
+        int configuredDelay = DEFAULT_DELAY;
+
+        try {
+
+            Integer value = GuacamoleProperties.getProperty(GuacamoleProperties.READ_FLUSH_THRESHOLD);
+            if (value != null)
+                configuredThreshold = value;
+
+            value = GuacamoleProperties.getProperty(GuacamoleProperties.READ_FLUSH_DELAY);
+            if (value != null)
+                configuredDelay = value;
+
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Read flushing not configured.", e);
+        }
+
+        threshold = configuredThreshold;
+        maxDelay = TimeUnit.MILLISECONDS.toNanos(configuredDelay);
+
+    }
+
+    /**
+     * The number of bytes written since the last flush.
+     */
+    private long unflushed = 0;
+
+    /**
+     * The time the oldest data not yet flushed was written, as returned by
+     * System.nanoTime().
+     */
+    private long heldSince;
+
+    /**
+     * Whether the data last written ended a frame.
+     */
+    private boolean frameEnded = false;
+
+    /**
+     * Notes that the given data has been written to the response.
+     *
+     * @param view The data written.
+     */
+    public void written(InstructionView view) {
+
+        if (unflushed == 0)
+            heldSince = System.nanoTime();
+
+        unflushed += view.getLength();
+        frameEnded = view.isComplete() && endsWithSync(view);
+
+    }
+
+    /**
+     * Notes that all data written has been flushed.
+     */
+    public void flushed() {
+        unflushed = 0;
+        frameEnded = false;
+    }
+
+    /**
+     * Returns whether any data written has not yet been flushed.
+     *
+     * @return true if data is held, false otherwise.
+     */
+    public boolean hasUnflushedData() {
+        return unflushed > 0;
+    }
+
+    /**
+     * Returns whether the data written should be flushed now, even if more
+     * data is available, because a frame has ended or because the data held
+     * has reached the size or age limit.
+     *
+     * @return true if the data written should be flushed, false otherwise.
+     */
+    public boolean isFlushDue() {
+        return unflushed > 0 && (frameEnded || unflushed >= threshold
+                || System.nanoTime() - heldSince >= maxDelay);
+    }
+
+    /**
+     * Returns how much longer the data written may be held while waiting
+     * for more of the current frame, or zero if the data should be flushed
+     * before waiting for more data.
+     *
+     * @return The time the data written may continue to be held, in
+     *         milliseconds, or zero if the data should not be held.
+     */
+    public long getHoldTime() {
+
+        if (unflushed == 0 || isFlushDue())
+            return 0;
+
+        long remaining = maxDelay - (System.nanoTime() - heldSince);
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1);
+
+    }
+
+    /**
+     * Runs the given task once the given time has passed, unless shutdown()
+     * has been called.
+     *
+     * @param task The task to run.
+     * @param delay The time to wait, in milliseconds.
+     * @return true if the task was scheduled, false if the task will never
+     *         run as shutdown() has been called.
+     */
+    public static boolean schedule(Runnable task, long delay) {
+
+        try {
+            executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+
+    }
+
+    /**
+     * Stops the thread on which scheduled tasks are run, once all pending
+     * tasks have run.
+     */
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the character at the given index of the given view, counting
+     * from the start of the view. Bytes are returned as the characters they
+     * encode only if ASCII.
+     */
+    private static int charAt(InstructionView view, int index) {
+
+        int offset = view.getOffset() + index;
+
+        if (view.getBytes() != null)
+            return view.getBytes()[offset];
+
+        return view.getChars()[offset];
+
+    }
+
+    /**
+     * Returns whether the last instruction within the given view, which
+     * must end at an instruction boundary, is a "sync". The view is examined
+     * backwards from its end, without parsing the instructions before.
+     *
+     * @param view The view to examine.
+     * @return true if the view ends with a "sync" instruction, false
+     *         otherwise.
+     */
+    static boolean endsWithSync(InstructionView view) {
+
+        int i = view.getLength() - 1;
+        if (i < 0 || charAt(view, i) != ';')
+            return false;
+
+        i--;
+
+        // Skip timestamp argument, if any, as "LENGTH.DIGITS,"
+        if (i >= 0 && Character.isDigit(charAt(view, i))) {
+
+            while (i >= 0 && Character.isDigit(charAt(view, i)))
+                i--;
+
+            if (i < 0 || charAt(view, i--) != '.')
+                return false;
+
+            if (i < 0 || !Character.isDigit(charAt(view, i)))
+                return false;
+
+            while (i >= 0 && Character.isDigit(charAt(view, i)))
+                i--;
+
+            if (i < 0 || charAt(view, i--) != ',')
+                return false;
+
+        }
+
+        // Opcode
+        String opcode = "4.sync";
+        for (int j = opcode.length() - 1; j >= 0; j--) {
+            if (i < 0 || charAt(view, i--) != opcode.charAt(j))
+                return false;
+        }
+
+        // Must be the start of an instruction
+        return i < 0 || charAt(view, i) == ';';
+
+    }
+
+}
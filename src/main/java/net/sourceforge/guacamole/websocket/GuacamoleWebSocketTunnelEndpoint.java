@@ -0,0 +1,471 @@
+
+package net.sourceforge.guacamole.websocket;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleReader;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleWriter;
+import net.sourceforge.guacamole.io.BufferUsage;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import net.sourceforge.guacamole.io.ViewGuacamoleWriter;
+import net.sourceforge.guacamole.net.GuacamoleReadListener;
+import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.properties.GuacamoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A WebSocket endpoint implementing the WebSocket variant of the JavaScript
+ * Guacamole client's tunnel. Each WebSocket connection is given its own
+ * GuacamoleTunnel, with instructions streamed in both directions over the
+ * same connection. Every WebSocket message contains only complete
+ * instructions, though an instruction too large to buffer is sent as it
+ * arrives, using partial frames of a single message. Messages received are
+ * likewise written to the tunnel as each part arrives, thus no message need
+ * be buffered in its entirety. As some servlet containers nevertheless
+ * refuse messages larger than the receive buffer of the connection, the
+ * size of that buffer can be set with the "websocket-message-buffer-size"
+ * property of guacamole.properties.
+ *
+ * Instructions are read from the tunnel by a shared pool of threads. If the
+ * tunnel can provide notification that data is available, no thread is
+ * occupied while waiting for data; otherwise, each connection occupies a
+ * thread of the pool while its tunnel is open.
+ *
+ * @author Michael Jumper
+ */
+public abstract class GuacamoleWebSocketTunnelEndpoint extends Endpoint {
+
+    private Logger logger = LoggerFactory.getLogger(GuacamoleWebSocketTunnelEndpoint.class);
+
+    /**
+     * The WebSocket subprotocol expected by the JavaScript Guacamole client,
+     * which should be declared within the configuration of this endpoint.
+     */
+    public static final String PROTOCOL = "guacamole";
+
+    /**
+     * The number of seconds a thread of the sending pool may remain idle
+     * before it is stopped.
+     */
+    private static final long IDLE_TIMEOUT = 60;
+
+    /**
+     * Pool of daemon threads on which all instructions read from tunnels are
+     * sent to clients, limited in size by the "websocket-send-threads"
+     * property.
+     */
+    private static final ExecutorService senders;
+
+    /**
+     * The size of the receive buffer of each connection, in characters, or
+     * zero if the default of the servlet container is used.
+     */
+    private static final int messageBufferSize;
+
+    static {
+
+        int configuredSize = 0;
+        int configuredThreads = 0;
+
+        try {
+            Integer value = GuacamoleProperties.getProperty(GuacamoleProperties.WEBSOCKET_MESSAGE_BUFFER_SIZE);
+            if (value != null)
+                configuredSize = Math.max(0, value);
+        }
+        catch (GuacamoleException e) {
+            LoggerFactory.getLogger(GuacamoleWebSocketTunnelEndpoint.class)
+                    .debug("WebSocket message buffer size not configured.", e);
+        }
+
+        try {
+            Integer value = GuacamoleProperties.getProperty(GuacamoleProperties.WEBSOCKET_SEND_THREADS);
+            if (value != null)
+                configuredThreads = Math.max(0, value);
+        }
+        catch (GuacamoleException e) {
+            LoggerFactory.getLogger(GuacamoleWebSocketTunnelEndpoint.class)
+                    .debug("WebSocket send threads not configured.", e);
+        }
+
+        messageBufferSize = configuredSize;
+        senders = createSenders(configuredThreads);
+
+    }
+
+    /**
+     * Creates a pool of daemon threads, which stop once idle, having at most
+     * the given number of threads. If limited, tasks submitted while all
+     * threads are busy wait for the next free thread.
+     *
+     * @param threads The maximum number of threads, or zero if unlimited.
+     * @return A new pool of daemon threads.
+     */
+    private static ExecutorService createSenders(int threads) {
+
+        ThreadFactory factory = new ThreadFactory() {
+
+            /**
+             * The number of threads created so far.
+             */
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "guacamole-websocket-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        };
+
+        // Create threads as needed if unlimited
+        if (threads == 0)
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    IDLE_TIMEOUT, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), factory);
+
+        // Otherwise, queue tasks once all threads are busy
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                IDLE_TIMEOUT, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+
+    }
+
+    /**
+     * The tunnel associated with this connection, if any.
+     */
+    private GuacamoleTunnel tunnel;
+
+    /**
+     * Buffer of characters received from the client, reused for each
+     * message.
+     */
+    private char[] receiveBuffer = new char[0];
+
+    /**
+     * The use of the receive buffer, such that it does not remain at the size
+     * of the largest message ever received.
+     */
+    private final BufferUsage receiveBufferUsage = new BufferUsage();
+
+    /**
+     * The writer of the tunnel, while a message is partially received.
+     */
+    private ViewGuacamoleWriter receiving;
+
+    /**
+     * Whether writing the message currently being received has failed, in
+     * which case the remainder of that message is discarded.
+     */
+    private boolean failed = false;
+
+    /**
+     * The reader of the tunnel, held from when the connection is opened
+     * until no further instructions will be sent.
+     */
+    private ViewGuacamoleReader reader;
+
+    /**
+     * The message currently being sent, if an instruction has been only
+     * partially sent.
+     */
+    private Writer message;
+
+    /**
+     * Task which sends instructions read from the tunnel to the client,
+     * performed using the sending pool.
+     */
+    private Runnable sender;
+
+    /**
+     * Listener which resumes sending once data is available from the tunnel.
+     */
+    private GuacamoleReadListener readable;
+
+    /**
+     * Called whenever the JavaScript Guacamole client opens a new WebSocket
+     * connection. It it up to the implementor of this function to define
+     * what conditions must be met for a tunnel to be configured and returned
+     * (whether some sort of credentials must be specified, for example).
+     *
+     * @param session The WebSocket session of the new connection.
+     * @param config The configuration of this endpoint.
+     * @return A newly constructed GuacamoleTunnel if successful,
+     *         null otherwise.
+     * @throws GuacamoleException If an error occurs while constructing the
+     *                            GuacamoleTunnel, or if the conditions
+     *                            required for connection are not met.
+     */
+    protected abstract GuacamoleTunnel createTunnel(Session session,
+            EndpointConfig config) throws GuacamoleException;
+
+    /**
+     * Closes the given session with the given reason, logging any error.
+     *
+     * @param session The session to close.
+     * @param code The close code to send.
+     * @param reason A description of why the session is being closed.
+     */
+    private void closeSession(Session session, CloseCodes code, String reason) {
+        try {
+            session.close(new CloseReason(code, reason));
+        }
+        catch (IOException e) {
+            logger.debug("Unable to close WebSocket session.", e);
+        }
+    }
+
+    @Override
+    public void onOpen(final Session session, EndpointConfig config) {
+
+        // Get tunnel
+        try {
+            tunnel = createTunnel(session, config);
+        }
+        catch (GuacamoleException e) {
+            logger.error("Creation of WebSocket tunnel to guacd failed.", e);
+            closeSession(session, CloseCodes.UNEXPECTED_CONDITION, "Unable to create tunnel.");
+            return;
+        }
+
+        // Fail if no tunnel
+        if (tunnel == null) {
+            closeSession(session, CloseCodes.VIOLATED_POLICY, "No tunnel created.");
+            return;
+        }
+
+        if (messageBufferSize > 0)
+            session.setMaxTextMessageBufferSize(messageBufferSize);
+
+        // Forward all received instructions to guacd as they arrive
+        session.addMessageHandler(new MessageHandler.Partial<String>() {
+
+            @Override
+            public void onMessage(String partial, boolean last) {
+                receive(session, partial, last);
+            }
+
+        });
+
+        // Forward all instructions from guacd using the sending pool
+        sender = new Runnable() {
+
+            @Override
+            public void run() {
+                send(session);
+            }
+
+        };
+
+        readable = new GuacamoleReadListener() {
+
+            @Override
+            public void readable() {
+                senders.execute(sender);
+            }
+
+        };
+
+        reader = AdaptedGuacamoleReader.adapt(tunnel.acquireReader());
+        senders.execute(sender);
+
+    }
+
+    /**
+     * Writes the given portion of a message to the tunnel. Each message
+     * received from the JavaScript Guacamole client contains only complete
+     * instructions, thus write access to the tunnel is held from the first
+     * portion of each message until the last, and the tunnel is flushed only
+     * once the entire message is written.
+     *
+     * @param session The session the message was received on.
+     * @param partial The portion of the message received.
+     * @param last Whether this is the last portion of the message.
+     */
+    private void receive(Session session, String partial, boolean last) {
+
+        // Drop remainder of any message which could not be written whole,
+        // as it does not begin with a complete instruction
+        if (failed) {
+            failed = !last;
+            return;
+        }
+
+        // Copy portion into reusable buffer
+        int length = partial.length();
+        int capacity = receiveBufferUsage.resize(receiveBuffer.length, length);
+        if (capacity != receiveBuffer.length)
+            receiveBuffer = new char[capacity];
+
+        partial.getChars(0, length, receiveBuffer, 0);
+
+        // Acquire write access at start of message
+        if (receiving == null)
+            receiving = AdaptedGuacamoleWriter.adapt(tunnel.acquireWriter());
+
+        try {
+
+            receiving.write(receiveBuffer, 0, length);
+
+            // Release write access only at end of message
+            if (last) {
+                receiving.flush();
+                receiving = null;
+                tunnel.releaseWriter();
+            }
+
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Tunnel write failed.", e);
+            receiving = null;
+            failed = !last;
+            tunnel.releaseWriter();
+            closeSession(session, CloseCodes.UNEXPECTED_CONDITION, "Tunnel write failed.");
+        }
+
+    }
+
+    /**
+     * Sends all instructions read from the tunnel to the client until the
+     * tunnel or session is closed, or until no data is available. All
+     * buffered instructions are sent together as one message, while an
+     * instruction too large to buffer is sent in partial frames as it
+     * arrives. If no data is available and the tunnel can provide
+     * notification, this function returns, and is invoked again using the
+     * sending pool once data becomes available.
+     *
+     * @param session The session to send instructions along.
+     */
+    private void send(Session session) {
+
+        RemoteEndpoint.Basic remote = session.getBasicRemote();
+
+        boolean waiting = false;
+        try {
+
+            InstructionView view;
+            while (session.isOpen()) {
+
+                // Rather than blocking, wait for notification if possible
+                if (!reader.available() && tunnel.notifyWhenReadable(readable)) {
+                    waiting = true;
+                    return;
+                }
+
+                // Stop at end of stream
+                if ((view = reader.readBatch()) == null)
+                    break;
+
+                // Start new message if none in progress
+                if (message == null)
+                    message = remote.getSendWriter();
+
+                // Write directly from reader's buffer
+                view.writeTo(message);
+
+                // End message only at end of instruction
+                if (view.isComplete()) {
+                    message.close();
+                    message = null;
+                }
+
+            }
+
+            // No more data
+            closeSession(session, CloseCodes.NORMAL_CLOSURE, "Tunnel closed.");
+
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Tunnel read failed.", e);
+            closeSession(session, CloseCodes.UNEXPECTED_CONDITION, "Tunnel read failed.");
+        }
+        catch (IOException e) {
+            logger.debug("Error writing to WebSocket.", e);
+            closeSession(session, CloseCodes.UNEXPECTED_CONDITION, "Unable to send data.");
+        }
+        finally {
+            if (!waiting)
+                tunnel.releaseReader();
+        }
+
+    }
+
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+
+        if (tunnel == null)
+            return;
+
+        try {
+            tunnel.close();
+        }
+        catch (GuacamoleException e) {
+            logger.debug("Unable to close WebSocket tunnel.", e);
+        }
+
+    }
+
+    @Override
+    public void onError(Session session, Throwable t) {
+        logger.debug("WebSocket tunnel error.", t);
+    }
+
+}
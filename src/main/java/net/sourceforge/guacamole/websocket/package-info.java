@@ -0,0 +1,7 @@
+
+/**
+ * Classes which build upon the Java API for WebSocket (JSR 356), providing a
+ * WebSocket-based tunnel.
+ */
+package net.sourceforge.guacamole.websocket;
+
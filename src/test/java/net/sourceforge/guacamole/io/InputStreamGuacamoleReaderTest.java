@@ -0,0 +1,236 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests InputStreamGuacamoleReader against streams delivering instructions
+ * in arbitrarily small pieces.
+ *
+ * @author Michael Jumper
+ */
+public class InputStreamGuacamoleReaderTest {
+
+    /**
+     * InputStream which returns at most the given number of bytes from each
+     * read, splitting instructions at every possible point.
+     */
+    private static class ChunkedInputStream extends FilterInputStream {
+
+        private final int chunkSize;
+
+        public ChunkedInputStream(String data, int chunkSize)
+                throws UnsupportedEncodingException {
+            super(new ByteArrayInputStream(data.getBytes("UTF-8")));
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, chunkSize));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+    }
+
+    /**
+     * Returns a reader of the given data, delivered the given number of
+     * bytes at a time.
+     */
+    private static ViewGuacamoleReader reader(String data, int chunkSize)
+            throws UnsupportedEncodingException {
+        return new InputStreamGuacamoleReader(new ChunkedInputStream(data, chunkSize));
+    }
+
+    /**
+     * Reads the next instruction from the given reader, failing if there is
+     * none.
+     */
+    private static MutableGuacamoleInstruction next(ViewGuacamoleReader reader)
+            throws GuacamoleException {
+        MutableGuacamoleInstruction instruction = new MutableGuacamoleInstruction();
+        assertTrue(reader.readInstruction(instruction));
+        return instruction;
+    }
+
+    @Test
+    public void testLengthSplitAcrossReads() throws Exception {
+
+        ViewGuacamoleReader reader = reader("10.abcdefghij,12.0123456789ab;4.sync,1.5;", 1);
+
+        MutableGuacamoleInstruction instruction = next(reader);
+        assertEquals("abcdefghij", instruction.getOpcode());
+        assertEquals(1, instruction.getArgCount());
+        assertEquals("0123456789ab", instruction.getArg(0));
+
+        instruction = next(reader);
+        assertEquals(GuacamoleInstruction.Operation.SYNC, instruction.getOperation());
+        assertEquals("5", instruction.getArg(0));
+
+        assertFalse(reader.readInstruction(new MutableGuacamoleInstruction()));
+
+    }
+
+    @Test
+    public void testUTF8SplitAcrossReads() throws Exception {
+
+        // Two- and three-byte characters, delivered one byte at a time
+        String value = "é€üx";
+        ViewGuacamoleReader reader = reader("4.name," + value.length() + "." + value + ";", 1);
+
+        MutableGuacamoleInstruction instruction = next(reader);
+        assertEquals(GuacamoleInstruction.Operation.SERVER_NAME, instruction.getOperation());
+        assertEquals(value, instruction.getArg(0));
+
+    }
+
+    @Test
+    public void testSurrogatePairs() throws Exception {
+
+        // Supplementary characters count as two characters, as in Java
+        String value = "a😀b😁";
+        assertEquals(6, value.length());
+
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            ViewGuacamoleReader reader = reader("4.name,6." + value + ";4.sync,1.1;", chunkSize);
+            assertEquals(value, next(reader).getArg(0));
+            assertEquals(GuacamoleInstruction.Operation.SYNC, next(reader).getOperation());
+        }
+
+    }
+
+    @Test
+    public void testBatchRoundTrip() throws Exception {
+
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            data.append("3.png,5.frame,").append(Integer.toString(i).length())
+                .append('.').append(i).append(";4.sync,1.1;");
+
+        ViewGuacamoleReader reader = reader(data.toString(), 7);
+
+        // Batches together contain the entire stream, each instruction
+        // counted once
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int instructions = 0;
+
+        InstructionView view;
+        while ((view = reader.readBatch()) != null) {
+            instructions += view.getInstructionCount();
+            view.writeTo(output);
+        }
+
+        assertEquals(2000, instructions);
+        assertArrayEquals(data.toString().getBytes("UTF-8"), output.toByteArray());
+
+    }
+
+    @Test(expected = GuacamoleServerException.class)
+    public void testLengthOverflow() throws Exception {
+
+        // Would overflow an int if accumulated without checking
+        reader("99999999999.x;", 3).readInstruction();
+
+    }
+
+    @Test(expected = GuacamoleServerException.class)
+    public void testLengthExceedsMaximum() throws Exception {
+
+        BufferConfiguration config = new BufferConfiguration();
+        config.setInitialSize(16);
+        config.setMaximumSize(64);
+
+        InputStream input = new ChunkedInputStream("100.x;", 1);
+        new InputStreamGuacamoleReader(input, config).readInstruction();
+
+    }
+
+    @Test(expected = GuacamoleServerException.class)
+    public void testNonNumericLength() throws Exception {
+        reader("4x.sync;", 1).readInstruction();
+    }
+
+    @Test
+    public void testIncompleteCharacterNotAvailable() throws Exception {
+
+        // The first read ends with the lead byte of a two-byte sequence
+        ViewGuacamoleReader reader = reader("4.name,1.\u00fc;", 10);
+
+        InstructionView view = reader.readBatch();
+        assertEquals("4.name,1.", new String(view.toCharArray()));
+        assertFalse(view.isComplete());
+
+        // The lead byte alone cannot be returned without blocking
+        assertFalse(reader.available());
+
+        view = reader.readBatch();
+        assertEquals("\u00fc;", new String(view.toCharArray()));
+        assertTrue(view.isComplete());
+
+    }
+
+    @Test
+    public void testEndOfStream() throws Exception {
+        assertNull(reader("", 1).readInstruction());
+    }
+
+}
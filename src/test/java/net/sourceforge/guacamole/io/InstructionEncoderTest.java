@@ -0,0 +1,107 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that InstructionEncoder produces exactly the same output as
+ * GuacamoleInstruction.toString().
+ *
+ * @author Michael Jumper
+ */
+public class InstructionEncoderTest {
+
+    /**
+     * Encodes the given instruction at an offset within a larger array,
+     * verifying the encoded length and output against toString().
+     */
+    private static void assertEncoded(GuacamoleInstruction instruction) {
+
+        String expected = instruction.toString();
+
+        int length = InstructionEncoder.length(instruction);
+        assertEquals(expected.length(), length);
+
+        char[] buffer = new char[length + 4];
+        assertEquals(length, InstructionEncoder.encode(instruction, buffer, 2));
+        assertEquals(expected, new String(buffer, 2, length));
+
+    }
+
+    @Test
+    public void testNoArguments() {
+        assertEncoded(new GuacamoleInstruction(Operation.NOP));
+    }
+
+    @Test
+    public void testArguments() {
+        assertEncoded(new GuacamoleInstruction(Operation.SYNC, "1234"));
+        assertEncoded(new GuacamoleInstruction(Operation.SIZE, "0", "1024", "768"));
+        assertEncoded(new GuacamoleInstruction(Operation.CLIENT_SELECT, ""));
+    }
+
+    @Test
+    public void testLengthDigits() {
+
+        // Lengths at each change in the number of digits
+        int[] lengths = { 9, 10, 99, 100, 999, 1000, 10000 };
+        for (int length : lengths) {
+
+            StringBuilder value = new StringBuilder();
+            for (int i = 0; i < length; i++)
+                value.append('x');
+
+            assertEncoded(new GuacamoleInstruction(Operation.CLIPBOARD, value.toString()));
+
+        }
+
+    }
+
+    @Test
+    public void testNonASCII() {
+        assertEncoded(new GuacamoleInstruction(Operation.CLIPBOARD, "é😀,;."));
+    }
+
+}
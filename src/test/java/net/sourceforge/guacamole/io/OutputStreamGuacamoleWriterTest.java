@@ -0,0 +1,237 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the coalescing of writes by OutputStreamGuacamoleWriter.
+ *
+ * @author Michael Jumper
+ */
+public class OutputStreamGuacamoleWriterTest {
+
+    /**
+     * OutputStream which records only the data which has been flushed, along
+     * with the number of writes and flushes performed.
+     */
+    private static class FlushRecordingStream extends ByteArrayOutputStream {
+
+        private String flushed = "";
+        private int writes = 0;
+        private int flushes = 0;
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int length) {
+            super.write(buffer, offset, length);
+            writes++;
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            flushed = toString("UTF-8");
+            flushes++;
+        }
+
+        public synchronized String getFlushed() {
+            return flushed;
+        }
+
+        public synchronized int getWrites() {
+            return writes;
+        }
+
+        public synchronized int getFlushes() {
+            return flushes;
+        }
+
+    }
+
+    @Test
+    public void testUncoalesced() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output);
+
+        // Every write is sent immediately
+        writer.write("4.sync,1.1;".toCharArray());
+        assertEquals("4.sync,1.1;", output.getFlushed());
+
+        writer.write("4.sync,1.2;".getBytes("UTF-8"), 0, 11);
+        assertEquals("4.sync,1.1;4.sync,1.2;", output.getFlushed());
+        assertEquals(2, output.getFlushes());
+
+    }
+
+    @Test
+    public void testCoalescedUntilThreshold() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output, 32, 0);
+
+        // Writes below the threshold are held
+        writer.write("4.sync,1.1;".toCharArray());
+        writer.write("4.sync,1.2;".toCharArray());
+        assertEquals(0, output.getWrites());
+
+        // Reaching the threshold sends everything pending in one write
+        writer.write("4.sync,1.3;".toCharArray());
+        assertEquals("4.sync,1.1;4.sync,1.2;4.sync,1.3;", output.getFlushed());
+        assertEquals(1, output.getWrites());
+        assertEquals(1, output.getFlushes());
+
+    }
+
+    @Test
+    public void testExplicitFlush() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output, 1024, 0);
+
+        writer.write("4.sync,1.1;".toCharArray());
+        assertEquals("", output.getFlushed());
+
+        writer.flush();
+        assertEquals("4.sync,1.1;", output.getFlushed());
+
+        // Flushing with nothing pending does nothing
+        writer.flush();
+        assertEquals(1, output.getFlushes());
+
+    }
+
+    @Test
+    public void testLargeWriteFollowsPending() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output, 16, 0);
+
+        StringBuilder large = new StringBuilder("3.img,100.");
+        for (int i = 0; i < 100; i++)
+            large.append('x');
+        large.append(';');
+
+        // Chunks at least the threshold are sent directly, after any
+        // pending data
+        writer.write("3.nop;".toCharArray());
+        writer.write(large.toString().getBytes("UTF-8"), 0, large.length());
+        assertEquals("3.nop;" + large, output.getFlushed());
+        assertEquals(1, output.getFlushes());
+
+    }
+
+    @Test
+    public void testMultibyteCharacters() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output, 16, 0);
+
+        // Characters encoded directly into the pending buffer
+        writer.write("1.é,".toCharArray());
+        assertEquals(0, output.getWrites());
+
+        // Characters too many to encode into the pending buffer
+        writer.write("3.é😀,4.name;".toCharArray());
+        assertEquals("1.é,3.é😀,4.name;", output.getFlushed());
+
+    }
+
+    @Test
+    public void testFlushAfterDelay() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output, 1024, 20);
+
+        writer.write("4.sync,1.1;".toCharArray());
+
+        // Pending data is eventually sent without an explicit flush
+        long deadline = System.currentTimeMillis() + 5000;
+        while (output.getFlushes() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+
+        assertEquals("4.sync,1.1;", output.getFlushed());
+
+    }
+
+    @Test
+    public void testWriteInstructions() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output);
+
+        // All instructions are sent with a single write and flush
+        writer.writeInstructions(
+            new GuacamoleInstruction(Operation.SYNC, "1"),
+            new GuacamoleInstruction(Operation.NOP),
+            new GuacamoleInstruction(Operation.SIZE, "0", "1024", "768")
+        );
+
+        assertEquals("4.sync,1.1;3.nop;4.size,1.0,4.1024,3.768;", output.getFlushed());
+        assertEquals(1, output.getWrites());
+        assertEquals(1, output.getFlushes());
+
+    }
+
+    @Test
+    public void testWriteInstructionsFlushesPending() throws Exception {
+
+        FlushRecordingStream output = new FlushRecordingStream();
+        OutputStreamGuacamoleWriter writer = new OutputStreamGuacamoleWriter(output, 1024, 0);
+
+        // Instructions follow pending data, and are sent despite the
+        // threshold not being reached
+        writer.write("4.sync,1.1;".toCharArray());
+        writer.writeInstructions(
+            new GuacamoleInstruction(Operation.NOP),
+            new GuacamoleInstruction(Operation.NOP)
+        );
+
+        assertEquals("4.sync,1.1;3.nop;3.nop;", output.getFlushed());
+        assertEquals(1, output.getFlushes());
+
+    }
+
+}
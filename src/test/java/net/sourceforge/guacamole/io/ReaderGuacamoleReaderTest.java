@@ -0,0 +1,185 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.GuacamoleServerException;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.MutableGuacamoleInstruction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests ReaderGuacamoleReader against readers delivering instructions in
+ * arbitrarily small pieces.
+ *
+ * @author Michael Jumper
+ */
+public class ReaderGuacamoleReaderTest {
+
+    /**
+     * Reader which returns at most the given number of characters from each
+     * read, splitting instructions at every possible point.
+     */
+    private static class ChunkedReader extends FilterReader {
+
+        private final int chunkSize;
+
+        public ChunkedReader(String data, int chunkSize) {
+            super(new StringReader(data));
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, chunkSize));
+        }
+
+        @Override
+        public boolean ready() {
+            return false;
+        }
+
+    }
+
+    /**
+     * Reads the next instruction from the given reader, failing if there is
+     * none.
+     */
+    private static MutableGuacamoleInstruction next(ViewGuacamoleReader reader)
+            throws GuacamoleException {
+        MutableGuacamoleInstruction instruction = new MutableGuacamoleInstruction();
+        assertTrue(reader.readInstruction(instruction));
+        return instruction;
+    }
+
+    @Test
+    public void testLengthSplitAcrossReads() throws Exception {
+
+        ViewGuacamoleReader reader = new ReaderGuacamoleReader(
+                new ChunkedReader("10.abcdefghij,12.0123456789ab;4.sync,1.5;", 1));
+
+        MutableGuacamoleInstruction instruction = next(reader);
+        assertEquals("abcdefghij", instruction.getOpcode());
+        assertEquals("0123456789ab", instruction.getArg(0));
+
+        instruction = next(reader);
+        assertEquals(GuacamoleInstruction.Operation.SYNC, instruction.getOperation());
+        assertEquals("5", instruction.getArg(0));
+
+        assertFalse(reader.readInstruction(new MutableGuacamoleInstruction()));
+
+    }
+
+    @Test
+    public void testSurrogatePairs() throws Exception {
+
+        String value = "a😀b😁";
+
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            ViewGuacamoleReader reader = new ReaderGuacamoleReader(
+                    new ChunkedReader("4.name,6." + value + ";", chunkSize));
+            assertEquals(value, next(reader).getArg(0));
+        }
+
+    }
+
+    @Test
+    public void testFragmentsNeverSplitSurrogatePairs() throws Exception {
+
+        // An instruction far larger than the buffer, and thus read in
+        // fragments, with a surrogate pair at every possible fragment
+        // boundary
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+            value.append("a😀");
+
+        String data = "3.img," + value.length() + "." + value + ";";
+
+        BufferConfiguration config = new BufferConfiguration();
+        config.setInitialSize(64);
+
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+
+            ViewGuacamoleReader reader = new ReaderGuacamoleReader(
+                    new ChunkedReader(data, chunkSize), config);
+
+            // Each fragment encodes on its own to exactly the bytes of the
+            // characters it contains
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InstructionView view;
+            while ((view = reader.readFragment()) != null) {
+                char last = view.getChars()[view.getOffset() + view.getLength() - 1];
+                assertFalse(Character.isHighSurrogate(last));
+                view.writeTo(output);
+            }
+
+            assertArrayEquals(data.getBytes("UTF-8"), output.toByteArray());
+
+        }
+
+    }
+
+    @Test(expected = GuacamoleServerException.class)
+    public void testLengthOverflow() throws Exception {
+        new ReaderGuacamoleReader(new ChunkedReader("99999999999.x;", 3)).readInstruction();
+    }
+
+    @Test(expected = GuacamoleServerException.class)
+    public void testLengthExceedsMaximum() throws Exception {
+
+        BufferConfiguration config = new BufferConfiguration();
+        config.setInitialSize(16);
+        config.setMaximumSize(64);
+
+        new ReaderGuacamoleReader(new ChunkedReader("100.x;", 1), config).readInstruction();
+
+    }
+
+}
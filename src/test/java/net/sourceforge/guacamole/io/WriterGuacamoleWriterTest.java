@@ -0,0 +1,98 @@
+
+package net.sourceforge.guacamole.io;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.StringWriter;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the batched writes of WriterGuacamoleWriter.
+ *
+ * @author Michael Jumper
+ */
+public class WriterGuacamoleWriterTest {
+
+    /**
+     * Writer which records only the data which has been flushed, along with
+     * the number of writes and flushes performed.
+     */
+    private static class FlushRecordingWriter extends StringWriter {
+
+        private String flushed = "";
+        private int writes = 0;
+        private int flushes = 0;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            super.write(buffer, offset, length);
+            writes++;
+        }
+
+        @Override
+        public void flush() {
+            flushed = toString();
+            flushes++;
+        }
+
+    }
+
+    @Test
+    public void testWriteInstructions() throws Exception {
+
+        FlushRecordingWriter output = new FlushRecordingWriter();
+        WriterGuacamoleWriter writer = new WriterGuacamoleWriter(output, 1024, 0);
+
+        // All instructions are sent with a single write and flush
+        writer.writeInstructions(
+            new GuacamoleInstruction(Operation.SYNC, "1"),
+            new GuacamoleInstruction(Operation.NOP)
+        );
+
+        assertEquals("4.sync,1.1;3.nop;", output.flushed);
+        assertEquals(1, output.writes);
+        assertEquals(1, output.flushes);
+
+    }
+
+}
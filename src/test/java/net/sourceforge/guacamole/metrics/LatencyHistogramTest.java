@@ -0,0 +1,155 @@
+
+package net.sourceforge.guacamole.metrics;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the bucket bounds and statistics of LatencyHistogram.
+ *
+ * @author Michael Jumper
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Returns the index of the bucket counting the given duration, failing
+     * if the duration is not counted by exactly one bucket.
+     */
+    private static int bucketOf(long nanos) {
+
+        LatencyHistogram histogram = new LatencyHistogram(1);
+        histogram.record(nanos);
+
+        long[] counts = histogram.getBucketCounts();
+        int bucket = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                assertEquals(-1, bucket);
+                assertEquals(1, counts[i]);
+                bucket = i;
+            }
+        }
+
+        return bucket;
+
+    }
+
+    @Test
+    public void testBucketBounds() {
+
+        assertEquals(0, bucketOf(0));
+        assertEquals(0, bucketOf(-5));
+
+        // Each bucket counts up to and including its maximum, with the
+        // following duration counted by the next bucket
+        for (int i = 1; i < LatencyHistogram.BUCKETS - 1; i++) {
+
+            long maximum = LatencyHistogram.getMaximum(i);
+            assertEquals(LatencyHistogram.getUpperBound(i) - 1, maximum);
+
+            assertEquals(i, bucketOf(maximum));
+            assertEquals(i + 1, bucketOf(maximum + 1));
+
+        }
+
+        // The last bucket counts everything else
+        int last = LatencyHistogram.BUCKETS - 1;
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(last));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getMaximum(last));
+        assertEquals(last, bucketOf(Long.MAX_VALUE));
+
+    }
+
+    @Test
+    public void testStatistics() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(50));
+
+        for (int i = 0; i < 90; i++)
+            histogram.record(100);
+        for (int i = 0; i < 10; i++)
+            histogram.record(5000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(90 * 100 + 10 * 5000, histogram.getTotal());
+        assertEquals(590, histogram.getMean());
+
+        // Percentiles are the upper bounds of their buckets
+        assertEquals(128, histogram.getPercentile(50));
+        assertEquals(128, histogram.getPercentile(90));
+        assertEquals(8192, histogram.getPercentile(91));
+        assertEquals(8192, histogram.getPercentile(100));
+
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // Record from many threads at once
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++)
+                        histogram.record(j);
+                }
+
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        // Nothing is lost
+        assertEquals(80000, histogram.getCount());
+        assertEquals(8L * (9999L * 10000L / 2), histogram.getTotal());
+
+    }
+
+}
@@ -0,0 +1,186 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import net.sourceforge.guacamole.GuacamoleException;
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests ChannelGuacamoleSocket against a local server standing in for
+ * guacd.
+ *
+ * @author Michael Jumper
+ */
+public class ChannelGuacamoleSocketTest {
+
+    /**
+     * The timeout to use for all sockets under test, in milliseconds.
+     */
+    private static final int TIMEOUT = 500;
+
+    private GuacamoleEventLoop loop;
+    private ServerSocket server;
+    private Socket guacd;
+    private ChannelGuacamoleSocket socket;
+
+    @Before
+    public void setUp() throws Exception {
+
+        loop = new GuacamoleEventLoop(1);
+
+        // Use a small receive buffer such that writes soon block
+        server = new ServerSocket();
+        server.setReceiveBufferSize(4096);
+        server.bind(new InetSocketAddress("localhost", 0));
+
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        if (socket != null)
+            socket.close();
+
+        if (guacd != null)
+            guacd.close();
+
+        server.close();
+        loop.shutdown();
+
+    }
+
+    /**
+     * Connects a new ChannelGuacamoleSocket with the given buffer size to the
+     * local server, accepting the connection.
+     */
+    private void connect(int bufferSize) throws Exception {
+
+        BufferConfiguration config = new BufferConfiguration();
+        config.setInitialSize(bufferSize);
+
+        socket = new ChannelGuacamoleSocket("localhost", server.getLocalPort(),
+                config, loop, TIMEOUT);
+
+        guacd = server.accept();
+
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+
+        connect(64);
+
+        // Send far more than the buffer can hold
+        OutputStream output = guacd.getOutputStream();
+        for (int i = 0; i < 1000; i++)
+            output.write(new GuacamoleInstruction(Operation.SYNC,
+                    Integer.toString(i)).toString().getBytes("UTF-8"));
+        output.flush();
+
+        // Reading resumes as the buffer is consumed, with nothing lost
+        GuacamoleReader reader = socket.getReader();
+        for (int i = 0; i < 1000; i++) {
+            GuacamoleInstruction instruction = reader.readInstruction();
+            assertEquals(Operation.SYNC, instruction.getOperation());
+            assertEquals(Integer.toString(i), instruction.getArgs()[0]);
+        }
+
+        // End of stream follows the data
+        guacd.close();
+        assertNull(reader.readInstruction());
+
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+
+        connect(64);
+
+        long start = System.currentTimeMillis();
+        try {
+            socket.getReader().readInstruction();
+            fail("Read did not time out.");
+        }
+        catch (GuacamoleException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+
+        assertTrue(System.currentTimeMillis() - start >= TIMEOUT);
+
+    }
+
+    @Test
+    public void testWriteTimeout() throws Exception {
+
+        connect(64);
+
+        // Write until the unread data fills all buffers
+        char[] chunk = new char[65536];
+        for (int i = 0; i < chunk.length; i++)
+            chunk[i] = 'x';
+
+        try {
+            for (int i = 0; i < 1024; i++)
+                socket.getWriter().write(chunk);
+            fail("Write did not time out.");
+        }
+        catch (GuacamoleException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+
+    }
+
+}
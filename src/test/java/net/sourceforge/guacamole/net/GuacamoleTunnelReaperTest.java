@@ -0,0 +1,259 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.io.AdaptedGuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import net.sourceforge.guacamole.io.ViewGuacamoleReader;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that GuacamoleTunnelReaper closes idle tunnels, and only idle
+ * tunnels. As the reaper checks tunnels once per second, each test takes a
+ * few seconds.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleTunnelReaperTest {
+
+    /**
+     * GuacamoleSocket whose reads block until closed, and whose writes are
+     * discarded.
+     */
+    private static class IdleSocket implements GuacamoleSocket {
+
+        private volatile boolean open = true;
+
+        private final GuacamoleReader reader = new InputStreamGuacamoleReader(new InputStream() {
+
+            @Override
+            public synchronized int read() {
+                try {
+                    while (open)
+                        wait(100);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+
+        });
+
+        private final GuacamoleWriter writer =
+                new OutputStreamGuacamoleWriter(new ByteArrayOutputStream());
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+    }
+
+    /**
+     * TunnelReapListener which records when its tunnel is reaped.
+     */
+    private static class ReapLatch implements TunnelReapListener {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void tunnelReaped(GuacamoleTunnel tunnel) {
+            latch.countDown();
+        }
+
+        public boolean await(long milliseconds) throws InterruptedException {
+            return latch.await(milliseconds, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+    private GuacamoleTunnelReaper reaper;
+
+    @After
+    public void shutdown() {
+        if (reaper != null)
+            reaper.shutdown();
+    }
+
+    @Test
+    public void testIdleTunnelReaped() throws Exception {
+
+        reaper = new GuacamoleTunnelReaper(1000, 1000);
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new IdleSocket());
+        ReapLatch reaped = new ReapLatch();
+        reaper.watch(tunnel, reaped);
+
+        assertTrue(reaped.await(5000));
+        assertFalse(tunnel.isOpen());
+
+    }
+
+    @Test
+    public void testActiveTunnelNotReaped() throws Exception {
+
+        reaper = new GuacamoleTunnelReaper(0, 1500);
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new IdleSocket());
+        ReapLatch reaped = new ReapLatch();
+        reaper.watch(tunnel, reaped);
+
+        // Write well within the timeout, for several times the timeout
+        char[] nop = "3.nop;".toCharArray();
+        for (int i = 0; i < 20; i++) {
+
+            GuacamoleWriter writer = tunnel.acquireWriter();
+            try {
+                writer.write(nop);
+            }
+            finally {
+                tunnel.releaseWriter();
+            }
+
+            Thread.sleep(200);
+
+        }
+
+        assertTrue(tunnel.isOpen());
+
+        // Reaped once writes stop
+        assertTrue(reaped.await(5000));
+        assertFalse(tunnel.isOpen());
+
+    }
+
+    @Test
+    public void testHeldReaderDoesNotPreventReaping() throws Exception {
+
+        reaper = new GuacamoleTunnelReaper(1000, 0);
+
+        final GuacamoleTunnel tunnel = new GuacamoleTunnel(new IdleSocket());
+        ReapLatch reaped = new ReapLatch();
+        reaper.watch(tunnel, reaped);
+
+        // Hold read access in a read which receives nothing, as a request
+        // whose client has gone away would
+        Thread read = new Thread() {
+
+            @Override
+            public void run() {
+                ViewGuacamoleReader reader = AdaptedGuacamoleReader.adapt(tunnel.acquireReader());
+                try {
+                    reader.readBatch();
+                }
+                catch (Exception e) {
+                    // Ends once tunnel is closed
+                }
+                finally {
+                    tunnel.releaseReader();
+                }
+            }
+
+        };
+
+        read.setDaemon(true);
+        read.start();
+
+        assertTrue(reaped.await(5000));
+        assertFalse(tunnel.isOpen());
+
+        read.join(5000);
+        assertFalse(read.isAlive());
+
+    }
+
+    @Test
+    public void testFailedCloseDoesNotStopReaper() throws Exception {
+
+        reaper = new GuacamoleTunnelReaper(1000, 1000);
+
+        // Tunnel whose socket fails unexpectedly when closed
+        GuacamoleTunnel failing = new GuacamoleTunnel(new IdleSocket() {
+
+            @Override
+            public void close() {
+                throw new IllegalStateException("Close failed.");
+            }
+
+        });
+
+        ReapLatch failingReaped = new ReapLatch();
+        reaper.watch(failing, failingReaped);
+        assertTrue(failingReaped.await(5000));
+
+        // Tunnels watched afterwards are still reaped
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new IdleSocket());
+        ReapLatch reaped = new ReapLatch();
+        reaper.watch(tunnel, reaped);
+
+        assertTrue(reaped.await(5000));
+        assertFalse(tunnel.isOpen());
+
+    }
+
+}
@@ -0,0 +1,216 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests GuacamoleTunnelRegistry lookups as tunnels are registered and
+ * removed, including across rebuilds of the table.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleTunnelRegistryTest {
+
+    /**
+     * GuacamoleSocket which is connected to nothing.
+     */
+    private static class NullSocket implements GuacamoleSocket {
+
+        private final GuacamoleReader reader =
+                new InputStreamGuacamoleReader(new ByteArrayInputStream(new byte[0]));
+
+        private final GuacamoleWriter writer =
+                new OutputStreamGuacamoleWriter(new ByteArrayOutputStream());
+
+        private volatile boolean open = true;
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+    }
+
+    /**
+     * Looks up the given tunnel by its identifier in string form, embedded
+     * within a query string as it would be by the tunnel servlet.
+     */
+    private static GuacamoleTunnel lookup(GuacamoleTunnelRegistry registry,
+            GuacamoleTunnel tunnel, Object owner) {
+        String query = "read:" + tunnel.getUUID() + ":0";
+        return registry.getTunnel(query, 5, owner);
+    }
+
+    @Test
+    public void testRegisterAndLookup() {
+
+        GuacamoleTunnelRegistry registry = new GuacamoleTunnelRegistry();
+        Object owner = new Object();
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new NullSocket());
+        registry.register(tunnel, owner);
+
+        assertEquals(1, registry.size());
+        assertSame(tunnel, lookup(registry, tunnel, owner));
+
+        // Identifiers are case-insensitive
+        String upper = tunnel.getUUID().toString().toUpperCase();
+        assertSame(tunnel, registry.getTunnel(upper, 0, owner));
+
+        // Tunnels are found only by their owner
+        assertNull(lookup(registry, tunnel, new Object()));
+
+    }
+
+    @Test
+    public void testInvalidIdentifiers() {
+
+        GuacamoleTunnelRegistry registry = new GuacamoleTunnelRegistry();
+        Object owner = new Object();
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new NullSocket());
+        registry.register(tunnel, owner);
+
+        String id = tunnel.getUUID().toString();
+
+        assertNull(registry.getTunnel(id.substring(1), 0, owner));
+        assertNull(registry.getTunnel(id, 1, owner));
+        assertNull(registry.getTunnel(id, -1, owner));
+        assertNull(registry.getTunnel(id.replace('-', 'x'), 0, owner));
+        assertNull(registry.getTunnel("zzzzzzzz" + id.substring(8), 0, owner));
+
+    }
+
+    @Test
+    public void testUnregister() {
+
+        GuacamoleTunnelRegistry registry = new GuacamoleTunnelRegistry();
+        Object owner = new Object();
+
+        GuacamoleTunnel first = new GuacamoleTunnel(new NullSocket());
+        GuacamoleTunnel second = new GuacamoleTunnel(new NullSocket());
+        registry.register(first, owner);
+        registry.register(second, owner);
+
+        registry.unregister(first);
+        assertEquals(1, registry.size());
+        assertNull(lookup(registry, first, owner));
+        assertSame(second, lookup(registry, second, owner));
+
+        // Removing an unregistered tunnel has no effect
+        registry.unregister(first);
+        assertEquals(1, registry.size());
+
+    }
+
+    @Test
+    public void testChurnAcrossRebuilds() {
+
+        GuacamoleTunnelRegistry registry = new GuacamoleTunnelRegistry();
+        Object owner = new Object();
+        Random random = new Random(0);
+
+        List<GuacamoleTunnel> registered = new ArrayList<GuacamoleTunnel>();
+        List<GuacamoleTunnel> removed = new ArrayList<GuacamoleTunnel>();
+
+        // Repeatedly register and remove tunnels, such that removed slots
+        // accumulate and the table is rebuilt many times over
+        for (int round = 0; round < 50; round++) {
+
+            for (int i = 0; i < 100; i++) {
+                GuacamoleTunnel tunnel = new GuacamoleTunnel(new NullSocket());
+                registry.register(tunnel, owner);
+                registered.add(tunnel);
+            }
+
+            for (int i = 0; i < 90; i++) {
+                GuacamoleTunnel tunnel = registered.remove(random.nextInt(registered.size()));
+                registry.unregister(tunnel);
+                removed.add(tunnel);
+            }
+
+            // Every remaining tunnel is still found, despite probing past
+            // removed slots
+            for (GuacamoleTunnel tunnel : registered)
+                assertSame(tunnel, lookup(registry, tunnel, owner));
+
+        }
+
+        for (GuacamoleTunnel tunnel : removed)
+            assertNull(lookup(registry, tunnel, owner));
+
+        assertEquals(registered.size(), registry.size());
+        assertEquals(new HashSet<GuacamoleTunnel>(registered),
+                new HashSet<GuacamoleTunnel>(registry.getTunnels()));
+
+    }
+
+}
@@ -0,0 +1,233 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.ReaderGuacamoleReader;
+import net.sourceforge.guacamole.io.WriterGuacamoleWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the handoff of read access between the reads of a GuacamoleTunnel.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleTunnelTest {
+
+    /**
+     * GuacamoleSocket which is never read or written by these tests.
+     */
+    private static class UnusedSocket implements GuacamoleSocket {
+
+        private final GuacamoleReader reader = new ReaderGuacamoleReader(new StringReader(""));
+        private final GuacamoleWriter writer = new WriterGuacamoleWriter(new StringWriter());
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+    }
+
+    /**
+     * ReaderHandoffListener which records each notification, identified by
+     * the given name, within a shared list of events. Notifications may
+     * arrive on any thread, thus the list must be thread-safe.
+     */
+    private static class RecordingListener implements ReaderHandoffListener {
+
+        private final String name;
+        private final List<String> events;
+
+        public RecordingListener(String name, List<String> events) {
+            this.name = name;
+            this.events = events;
+        }
+
+        @Override
+        public void readerAcquired(GuacamoleReader reader) {
+            assertNotNull(reader);
+            events.add(name + " acquired");
+        }
+
+        @Override
+        public void readerRequested() {
+            events.add(name + " requested");
+        }
+
+    }
+
+    @Test
+    public void testAsynchronousHandoff() {
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new UnusedSocket());
+        List<String> events = new CopyOnWriteArrayList<String>();
+
+        // The first read is granted access immediately
+        tunnel.acquireReader(new RecordingListener("first", events));
+        assertEquals("[first acquired]", events.toString());
+        assertFalse(tunnel.hasQueuedReaderThreads());
+
+        // Only the first read waiting asks the owner to hand off
+        tunnel.acquireReader(new RecordingListener("second", events));
+        tunnel.acquireReader(new RecordingListener("third", events));
+        assertEquals("[first acquired, first requested]", events.toString());
+        assertTrue(tunnel.hasQueuedReaderThreads());
+
+        // Access passes in the order requested
+        tunnel.releaseReader();
+        assertEquals("[first acquired, first requested, second acquired]",
+                events.toString());
+
+        tunnel.releaseReader();
+        assertEquals("[first acquired, first requested, second acquired, third acquired]",
+                events.toString());
+        assertFalse(tunnel.hasQueuedReaderThreads());
+
+        tunnel.releaseReader();
+        assertEquals(2, tunnel.getReaderWaitCount());
+
+    }
+
+    @Test
+    public void testSynchronousHandoff() throws Exception {
+
+        final GuacamoleTunnel tunnel = new GuacamoleTunnel(new UnusedSocket());
+        assertNotNull(tunnel.acquireReader());
+
+        // A second synchronous read waits for the first
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread second = new Thread() {
+
+            @Override
+            public void run() {
+                tunnel.acquireReader();
+                acquired.countDown();
+                tunnel.releaseReader();
+            }
+
+        };
+
+        second.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(tunnel.hasQueuedReaderThreads());
+
+        // Releasing grants access to the waiting read
+        tunnel.releaseReader();
+        assertTrue(acquired.await(5000, TimeUnit.MILLISECONDS));
+        second.join();
+
+        // The time waited is recorded
+        assertEquals(1, tunnel.getReaderWaitCount());
+        assertTrue(tunnel.getReaderWaitTime() >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertFalse(tunnel.hasQueuedReaderThreads());
+
+    }
+
+    @Test
+    public void testMixedHandoff() throws Exception {
+
+        final GuacamoleTunnel tunnel = new GuacamoleTunnel(new UnusedSocket());
+        List<String> events = new CopyOnWriteArrayList<String>();
+
+        // An asynchronous owner is asked to hand off to a synchronous read
+        tunnel.acquireReader(new RecordingListener("first", events));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread second = new Thread() {
+
+            @Override
+            public void run() {
+                tunnel.acquireReader();
+                acquired.countDown();
+            }
+
+        };
+
+        second.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals("[first acquired, first requested]", events.toString());
+
+        // An asynchronous read waits behind the synchronous read
+        tunnel.releaseReader();
+        assertTrue(acquired.await(5000, TimeUnit.MILLISECONDS));
+        second.join();
+
+        tunnel.acquireReader(new RecordingListener("third", events));
+        assertEquals("[first acquired, first requested]", events.toString());
+
+        tunnel.releaseReader();
+        assertEquals("[first acquired, first requested, third acquired]",
+                events.toString());
+
+    }
+
+}
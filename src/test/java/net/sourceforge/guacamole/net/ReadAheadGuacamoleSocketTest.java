@@ -0,0 +1,308 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.ReaderGuacamoleReader;
+import net.sourceforge.guacamole.io.WriterGuacamoleWriter;
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that ReadAheadGuacamoleSocket reads ahead from another socket within
+ * the limits of its buffer, and notifies listeners of data read ahead.
+ *
+ * @author Michael Jumper
+ */
+public class ReadAheadGuacamoleSocketTest {
+
+    /**
+     * Reader returning data as it is sent, blocking while no data has been
+     * sent, and counting the characters read.
+     */
+    private static class QueueReader extends Reader {
+
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+        private String current = "";
+        private boolean ended = false;
+        private volatile int count = 0;
+
+        /**
+         * Makes the given data available for reading. An empty string marks
+         * the end of stream.
+         */
+        public void send(String data) {
+            queue.add(data);
+        }
+
+        /**
+         * Returns the number of characters read so far.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+
+            try {
+                while (current.isEmpty() && !ended) {
+                    current = queue.take();
+                    ended = current.isEmpty();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+
+            if (ended)
+                return -1;
+
+            int read = Math.min(length, current.length());
+            current.getChars(0, read, buffer, offset);
+            current = current.substring(read);
+            count += read;
+            return read;
+
+        }
+
+        @Override
+        public boolean ready() {
+            return !current.isEmpty();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do
+        }
+
+    }
+
+    /**
+     * GuacamoleSocket reading from a QueueReader.
+     */
+    private static class QueueSocket implements GuacamoleSocket {
+
+        private volatile boolean open = true;
+
+        private final GuacamoleReader reader;
+        private final GuacamoleWriter writer = new WriterGuacamoleWriter(new StringWriter());
+
+        public QueueSocket(QueueReader input, BufferConfiguration config) {
+            reader = new ReaderGuacamoleReader(input, config);
+        }
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+    }
+
+    /**
+     * GuacamoleReadListener which can be awaited until notified.
+     */
+    private static class ReadableLatch implements GuacamoleReadListener {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void readable() {
+            latch.countDown();
+        }
+
+        public boolean await(long milliseconds) throws InterruptedException {
+            return latch.await(milliseconds, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+    /**
+     * Returns a BufferConfiguration having the given initial and maximum
+     * sizes.
+     */
+    private static BufferConfiguration config(int initialSize, int maximumSize) {
+        BufferConfiguration config = new BufferConfiguration();
+        config.setInitialSize(initialSize);
+        config.setMaximumSize(maximumSize);
+        config.setShrinkSize(maximumSize);
+        return config;
+    }
+
+    /**
+     * Returns the given number of sync instructions, numbered from zero.
+     */
+    private static String instructions(int count) {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            data.append("4.sync,").append(Integer.toString(i).length())
+                .append('.').append(i).append(';');
+        return data.toString();
+    }
+
+    /**
+     * Waits up to five seconds for the given reader to have read the given
+     * number of characters, returning the number actually read.
+     */
+    private static int awaitCount(QueueReader input, int expected)
+            throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (input.getCount() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        return input.getCount();
+
+    }
+
+    /**
+     * Reads the given number of sync instructions from the given reader,
+     * verifying that they are numbered from zero.
+     */
+    private static void assertInstructions(GuacamoleReader reader, int count)
+            throws Exception {
+
+        for (int i = 0; i < count; i++) {
+            GuacamoleInstruction instruction = reader.readInstruction();
+            assertEquals(GuacamoleInstruction.Operation.SYNC, instruction.getOperation());
+            assertEquals(Integer.toString(i), instruction.getArgs()[0]);
+        }
+
+    }
+
+    @Test
+    public void testReadsAhead() throws Exception {
+
+        QueueReader input = new QueueReader();
+        ReadAheadGuacamoleSocket socket = new ReadAheadGuacamoleSocket(
+                new QueueSocket(input, config(64, 1024)), config(64, 4096));
+
+        // Data is received without any read
+        String data = instructions(100);
+        input.send(data);
+        assertEquals(data.length(), awaitCount(input, data.length()));
+
+        // All data read ahead is read in order, followed by end of stream
+        input.send("");
+        assertInstructions(socket.getReader(), 100);
+        assertNull(socket.getReader().readInstruction());
+
+    }
+
+    @Test
+    public void testPausesWhileFull() throws Exception {
+
+        QueueReader input = new QueueReader();
+        ReadAheadGuacamoleSocket socket = new ReadAheadGuacamoleSocket(
+                new QueueSocket(input, config(64, 128)), config(64, 256));
+
+        // Reading ahead stops once the buffer is full, though the source
+        // itself buffers a little more
+        String data = instructions(1000);
+        input.send(data);
+        input.send("");
+
+        Thread.sleep(200);
+        assertTrue(input.getCount() < 1024);
+
+        // Reading ahead resumes as data is read, with nothing lost
+        assertInstructions(socket.getReader(), 1000);
+        assertNull(socket.getReader().readInstruction());
+        assertEquals(data.length(), input.getCount());
+
+    }
+
+    @Test
+    public void testNotifyWhenReadable() throws Exception {
+
+        QueueReader input = new QueueReader();
+        ReadAheadGuacamoleSocket socket = new ReadAheadGuacamoleSocket(
+                new QueueSocket(input, config(64, 1024)), config(64, 1024));
+
+        // Nothing is available yet
+        ReadableLatch latch = new ReadableLatch();
+        assertTrue(socket.notifyWhenReadable(latch));
+        assertFalse(latch.await(100));
+
+        // Listener is notified once data is read ahead
+        input.send("4.sync,1.0;");
+        assertTrue(latch.await(5000));
+        assertInstructions(socket.getReader(), 1);
+
+        // Listeners are notified immediately at end of stream
+        input.send("");
+        assertNull(socket.getReader().readInstruction());
+
+        latch = new ReadableLatch();
+        socket.notifyWhenReadable(latch);
+        assertTrue(latch.await(0));
+
+    }
+
+}
@@ -0,0 +1,97 @@
+
+package net.sourceforge.guacamole.net;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that SecureRandomTunnelIdGenerator produces well-formed, unique
+ * UUIDs from every thread.
+ *
+ * @author Michael Jumper
+ */
+public class SecureRandomTunnelIdGeneratorTest {
+
+    @Test
+    public void testVersionAndVariant() {
+
+        TunnelIdGenerator generator = new SecureRandomTunnelIdGenerator();
+        for (int i = 0; i < 1000; i++) {
+            UUID id = generator.generateId();
+            assertEquals(4, id.version());
+            assertEquals(2, id.variant());
+        }
+
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+
+        final TunnelIdGenerator generator = new SecureRandomTunnelIdGenerator();
+        final Set<UUID> ids = Collections.synchronizedSet(new HashSet<UUID>());
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        ids.add(generator.generateId());
+                }
+
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(threads.length * 1000, ids.size());
+
+    }
+
+}
@@ -0,0 +1,113 @@
+
+package net.sourceforge.guacamole.protocol;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import net.sourceforge.guacamole.protocol.GuacamoleInstruction.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the opcode lookups of GuacamoleInstruction.Operation.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleInstructionTest {
+
+    /**
+     * Looks up the given opcode using each of the String, char[] and byte[]
+     * lookups, verifying that all three agree, and returning the result.
+     * The opcode is surrounded by other characters within the arrays to
+     * verify that offsets are honored.
+     */
+    private static Operation lookup(String opcode) throws Exception {
+
+        String padded = "9." + opcode + ",x";
+        char[] chars = padded.toCharArray();
+        byte[] bytes = padded.getBytes("UTF-8");
+
+        Operation operation = Operation.fromOpcode(opcode);
+        assertSame(operation, Operation.fromOpcode(chars, 2, opcode.length()));
+        assertSame(operation, Operation.fromOpcode(bytes, 2, bytes.length - 4));
+
+        return operation;
+
+    }
+
+    @Test
+    public void testAllOpcodes() throws Exception {
+        for (Operation operation : Operation.values())
+            assertSame(operation, lookup(operation.getOpcode()));
+    }
+
+    @Test
+    public void testReadyAndNop() throws Exception {
+        assertSame(Operation.SERVER_READY, lookup("ready"));
+        assertSame(Operation.NOP, lookup("nop"));
+    }
+
+    @Test
+    public void testSameLengthAndFirstCharacter() throws Exception {
+        assertSame(Operation.SYNC, lookup("sync"));
+        assertSame(Operation.SIZE, lookup("size"));
+    }
+
+    @Test
+    public void testUnknownOpcodes() throws Exception {
+        assertNull(lookup(""));
+        assertNull(lookup("syn"));
+        assertNull(lookup("syncs"));
+        assertNull(lookup("sina"));
+        assertNull(lookup("SYNC"));
+        assertNull(lookup("thisisnotanopcode"));
+        assertNull(lookup("été"));
+    }
+
+    @Test
+    public void testToString() {
+        assertEquals("4.sync,4.1234;",
+                new GuacamoleInstruction(Operation.SYNC, "1234").toString());
+        assertEquals("3.nop;",
+                new GuacamoleInstruction(Operation.NOP).toString());
+    }
+
+}
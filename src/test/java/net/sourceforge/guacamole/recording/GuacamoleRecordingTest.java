@@ -0,0 +1,146 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static net.sourceforge.guacamole.recording.RecordingFixtures.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the division of a GuacamoleRecording into segments, and that the
+ * data appended is played back unchanged.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleRecordingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSegmentRollover() throws Exception {
+
+        File directory = folder.newFolder();
+        byte[] expected = record(directory, 30);
+
+        // Thirty frames fill two segments and part of a third
+        for (int i = 0; i < 3; i++) {
+            File segment = GuacamoleRecording.getSegmentFile(directory, i);
+            assertTrue(segment.isFile());
+            assertEquals(SEGMENT_SIZE, segment.length());
+        }
+
+        // The segment created in advance of the fourth is deleted on close
+        assertFalse(GuacamoleRecording.getSegmentFile(directory, 3).exists());
+        assertTrue(new File(directory, RecordingIndex.INDEX_FILENAME).isFile());
+
+        assertArrayEquals(expected, play(directory));
+
+    }
+
+    @Test
+    public void testSplitRecord() throws Exception {
+
+        File directory = folder.newFolder();
+        GuacamoleRecording recording = new GuacamoleRecording(directory, SEGMENT_SIZE);
+
+        // An instruction longer than a segment
+        StringBuilder instruction = new StringBuilder("3.img,6000.");
+        for (int i = 0; i < 6000; i++)
+            instruction.append((char) ('a' + i % 26));
+        instruction.append(';');
+
+        byte[] data = instruction.toString().getBytes("UTF-8");
+
+        // Wait for the second segment, needed within a single append
+        awaitManager();
+        recording.append(START, data, 0, data.length);
+        close(recording);
+
+        assertEquals(0, recording.getDroppedLength());
+        assertTrue(GuacamoleRecording.getSegmentFile(directory, 1).isFile());
+        assertArrayEquals(data, play(directory));
+
+    }
+
+    @Test
+    public void testAppendAfterClose() throws Exception {
+
+        File directory = folder.newFolder();
+        GuacamoleRecording recording = new GuacamoleRecording(directory, SEGMENT_SIZE);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        append(recording, expected, 0, 3);
+        close(recording);
+
+        // Data appended once closed is ignored
+        byte[] data = frame(3);
+        recording.append(getTimestamp(3), data, 0, data.length);
+        awaitManager();
+
+        assertEquals(0, recording.getDroppedLength());
+        assertArrayEquals(expected.toByteArray(), play(directory));
+
+    }
+
+    @Test
+    public void testReplaceRecording() throws Exception {
+
+        File directory = folder.newFolder();
+        record(directory, 30);
+
+        // A new recording within the same directory replaces the old
+        byte[] expected = record(directory, 2);
+
+        assertFalse(GuacamoleRecording.getSegmentFile(directory, 1).exists());
+        assertFalse(GuacamoleRecording.getSegmentFile(directory, 2).exists());
+        assertArrayEquals(expected, play(directory));
+
+    }
+
+}
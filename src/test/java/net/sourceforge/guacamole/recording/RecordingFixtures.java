@@ -0,0 +1,223 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds small recordings for testing, waiting for the background work of
+ * the SegmentManager where the tests require it to be complete. Frames are
+ * recorded SPACING milliseconds apart, each beginning with a "sync" followed
+ * by an image, such that roughly a dozen frames fit within each segment.
+ *
+ * @author Michael Jumper
+ */
+final class RecordingFixtures {
+
+    /**
+     * The size of each segment of recordings built for testing, the
+     * smallest permitted.
+     */
+    static final int SEGMENT_SIZE = 4096;
+
+    /**
+     * The timestamp of the first frame.
+     */
+    static final long START = 1300000000000L;
+
+    /**
+     * The time between consecutive frames, in milliseconds.
+     */
+    static final long SPACING = 500;
+
+    /**
+     * The length of the image data of each frame, in characters.
+     */
+    private static final int IMAGE_LENGTH = 300;
+
+    /**
+     * The length of the file written for an empty index, which consists
+     * only of the header.
+     */
+    private static final long EMPTY_INDEX_LENGTH = 28;
+
+    /**
+     * The maximum time to wait for the SegmentManager, in milliseconds.
+     */
+    private static final long TIMEOUT = 5000;
+
+    private RecordingFixtures() {}
+
+    /**
+     * Returns the timestamp of the given frame.
+     */
+    static long getTimestamp(int frame) {
+        return START + frame * SPACING;
+    }
+
+    /**
+     * Returns the instructions of the given frame, as UTF-8.
+     */
+    static byte[] frame(int frame) throws IOException {
+
+        String timestamp = Long.toString(getTimestamp(frame));
+
+        StringBuilder image = new StringBuilder(IMAGE_LENGTH);
+        for (int i = 0; i < IMAGE_LENGTH; i++)
+            image.append((char) ('A' + (frame + i) % 26));
+
+        return ("4.sync," + timestamp.length() + "." + timestamp + ";"
+              + "3.img,1.0," + IMAGE_LENGTH + "." + image + ";").getBytes("UTF-8");
+
+    }
+
+    /**
+     * Appends the given range of frames to the given recording, each at its
+     * own timestamp, copying each to the given stream of expected data.
+     * Each next segment is given time to be created, such that no data is
+     * dropped.
+     */
+    static void append(GuacamoleRecording recording, ByteArrayOutputStream expected,
+            int first, int count) throws Exception {
+
+        for (int i = first; i < first + count; i++) {
+            byte[] data = frame(i);
+            recording.append(getTimestamp(i), data, 0, data.length);
+            expected.write(data);
+            awaitManager();
+        }
+
+        assertEquals(0, recording.getDroppedLength());
+
+    }
+
+    /**
+     * Records the given number of frames within the given directory,
+     * returning the data recorded once the recording and its index have been
+     * written.
+     */
+    static byte[] record(File directory, int frames) throws Exception {
+
+        GuacamoleRecording recording = new GuacamoleRecording(directory, SEGMENT_SIZE);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        append(recording, expected, 0, frames);
+        close(recording);
+
+        return expected.toByteArray();
+
+    }
+
+    /**
+     * Closes the given recording, waiting for its segments and index to be
+     * written.
+     */
+    static void close(GuacamoleRecording recording) throws Exception {
+        recording.close();
+        awaitManager();
+    }
+
+    /**
+     * Waits for all work already queued with the SegmentManager to complete.
+     * As the manager performs work in order, this queues the writing of an
+     * empty index to a temporary file, and waits for that file to be
+     * written.
+     */
+    static void awaitManager() throws Exception {
+
+        File marker = File.createTempFile("guacamole-recording", null);
+        try {
+
+            SegmentManager.getInstance().write(new RecordingIndex(), marker);
+
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (marker.length() != EMPTY_INDEX_LENGTH) {
+                assertTrue("SegmentManager did not complete queued work.",
+                        System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+
+        }
+        finally {
+            marker.delete();
+        }
+
+    }
+
+    /**
+     * Reads the given stream until its end.
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+
+        int length;
+        while ((length = in.read(buffer)) != -1)
+            data.write(buffer, 0, length);
+
+        return data.toByteArray();
+
+    }
+
+    /**
+     * Plays back the recording within the given directory from its start,
+     * as quickly as possible, returning all data played.
+     */
+    static byte[] play(File directory) throws IOException {
+
+        RecordingInputStream in = new RecordingInputStream(directory);
+        try {
+            in.setSpeed(Double.POSITIVE_INFINITY);
+            return readAll(in);
+        }
+        finally {
+            in.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,183 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static net.sourceforge.guacamole.recording.RecordingFixtures.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the entries of RecordingIndex, both as built while recording and as
+ * rebuilt from the segments of a recording.
+ *
+ * @author Michael Jumper
+ */
+public class RecordingIndexTest {
+
+    /**
+     * The number of frames recorded by each test.
+     */
+    private static final int FRAMES = 30;
+
+    /**
+     * The number of frames per indexed frame, as frames are half an
+     * INTERVAL apart.
+     */
+    private static final int FRAMES_PER_ENTRY = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Verifies that every entry of the given index points immediately after
+     * the "sync" of every other frame of the given recording.
+     */
+    private static void assertEntries(File directory, byte[] data,
+            RecordingIndex index) throws Exception {
+
+        int frameLength = frame(0).length;
+        int syncLength = "4.sync,13.;".length() + 13;
+
+        assertEquals(getTimestamp(0), index.getStartTime());
+        assertEquals(getTimestamp(FRAMES - 1), index.getEndTime());
+        assertEquals((FRAMES - 1) * SPACING, index.getDuration());
+        assertEquals(FRAMES / FRAMES_PER_ENTRY, index.getEntryCount());
+
+        for (int entry = 0; entry < index.getEntryCount(); entry++) {
+
+            int frame = entry * FRAMES_PER_ENTRY;
+            long streamOffset = (long) frame * frameLength + syncLength;
+
+            assertEquals(getTimestamp(frame), index.getTimestamp(entry));
+            assertEquals(streamOffset, index.getStreamOffset(entry));
+            assertEquals(syncLength, index.getOffset(entry));
+
+            // The record located holds the entire frame, following the sync
+            MappedByteBuffer segment = RecordingIndex.map(
+                    GuacamoleRecording.getSegmentFile(directory, index.getSegment(entry)));
+
+            int position = index.getPosition(entry);
+            assertEquals(getTimestamp(frame), segment.getLong(position));
+            assertEquals(frameLength, segment.getInt(position + 8));
+
+            int start = position + RecordingSegment.RECORD_HEADER_LENGTH
+                      + index.getOffset(entry);
+            for (int i = 0; i < frameLength - syncLength; i++)
+                assertEquals(data[(int) streamOffset + i], segment.get(start + i));
+
+        }
+
+        // Entries span all three segments
+        assertEquals(0, index.getSegment(0));
+        assertEquals(2, index.getSegment(index.getEntryCount() - 1));
+
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        File directory = folder.newFolder();
+        byte[] data = record(directory, FRAMES);
+        assertEntries(directory, data, RecordingIndex.load(directory));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+
+        File directory = folder.newFolder();
+        byte[] data = record(directory, FRAMES);
+
+        // Scanning the segments gives the index written while recording
+        assertEntries(directory, data, RecordingIndex.build(directory));
+
+        // A missing index is rebuilt and written
+        File file = new File(directory, RecordingIndex.INDEX_FILENAME);
+        assertTrue(file.delete());
+        assertEntries(directory, data, RecordingIndex.load(directory));
+        assertTrue(file.isFile());
+
+    }
+
+    @Test
+    public void testFind() throws Exception {
+
+        File directory = folder.newFolder();
+        record(directory, FRAMES);
+
+        RecordingIndex index = RecordingIndex.load(directory);
+        int last = index.getEntryCount() - 1;
+
+        // Times before the first entry have no entry
+        assertEquals(-1, index.find(START - 1));
+
+        // Otherwise, the last entry at or before the given time
+        assertEquals(0, index.find(START));
+        assertEquals(0, index.find(START + RecordingIndex.INTERVAL - 1));
+        assertEquals(1, index.find(START + RecordingIndex.INTERVAL));
+        assertEquals(1, index.find(START + RecordingIndex.INTERVAL + SPACING));
+        assertEquals(last, index.find(index.getEndTime()));
+        assertEquals(last, index.find(Long.MAX_VALUE));
+
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+
+        File directory = folder.newFolder();
+        record(directory, 0);
+
+        RecordingIndex index = RecordingIndex.load(directory);
+        assertEquals(-1, index.getStartTime());
+        assertEquals(-1, index.getEndTime());
+        assertEquals(0, index.getDuration());
+        assertEquals(0, index.getEntryCount());
+        assertEquals(-1, index.find(START));
+
+        assertFalse(GuacamoleRecording.getSegmentFile(directory, 1).exists());
+
+    }
+
+}
@@ -0,0 +1,197 @@
+
+package net.sourceforge.guacamole.recording;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static net.sourceforge.guacamole.recording.RecordingFixtures.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests seeking within a recording played by RecordingInputStream.
+ *
+ * @author Michael Jumper
+ */
+public class RecordingInputStreamTest {
+
+    /**
+     * The number of frames recorded by each test.
+     */
+    private static final int FRAMES = 10;
+
+    /**
+     * The time to seek to, between the frames at 2000 and 2500
+     * milliseconds.
+     */
+    private static final long SEEK_TIME = 2200;
+
+    /**
+     * The frame indexed at or before SEEK_TIME.
+     */
+    private static final int SEEK_FRAME = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reads exactly the given number of bytes from the given stream.
+     */
+    private static byte[] read(RecordingInputStream in, int length) throws Exception {
+
+        byte[] data = new byte[length];
+
+        int read = 0;
+        while (read < length) {
+            int chunk = in.read(data, read, length - read);
+            assertTrue(chunk != -1);
+            read += chunk;
+        }
+
+        return data;
+
+    }
+
+    @Test
+    public void testSeekTime() throws Exception {
+
+        File directory = folder.newFolder();
+        record(directory, FRAMES);
+
+        RecordingInputStream in = new RecordingInputStream(directory);
+        try {
+
+            assertEquals(0, in.getTime());
+
+            // Seeking lands on the last indexed frame at or before the time
+            in.seek(SEEK_TIME);
+            assertEquals(getTimestamp(SEEK_FRAME) - START, in.getTime());
+
+            in.seek(RecordingIndex.INTERVAL - 1);
+            assertEquals(0, in.getTime());
+
+            // Times outside the recording land on its first or last frame
+            in.seek(-1000);
+            assertEquals(0, in.getTime());
+
+            in.seek(Long.MAX_VALUE / 2);
+            assertEquals(getTimestamp(FRAMES - 2) - START, in.getTime());
+
+        }
+        finally {
+            in.close();
+        }
+
+    }
+
+    @Test
+    public void testSeekReplay() throws Exception {
+
+        File directory = folder.newFolder();
+        byte[] expected = record(directory, FRAMES);
+        int frameLength = frame(0).length;
+
+        RecordingInputStream in = new RecordingInputStream(directory);
+        try {
+
+            // Everything through the indexed frame is replayed from the
+            // start of the recording without delay
+            in.seek(SEEK_TIME);
+            int replayed = (SEEK_FRAME + 1) * frameLength;
+
+            long start = System.currentTimeMillis();
+            byte[] data = read(in, replayed);
+            long replayTime = System.currentTimeMillis() - start;
+
+            assertArrayEquals(Arrays.copyOf(expected, replayed), data);
+            assertTrue("Replay took " + replayTime + "ms.", replayTime < SPACING / 2);
+
+            // The following frame then plays at its original time
+            start = System.currentTimeMillis();
+            data = read(in, frameLength);
+            long frameTime = System.currentTimeMillis() - start;
+
+            assertArrayEquals(frame(SEEK_FRAME + 1), data);
+            assertTrue("Next frame took " + frameTime + "ms.", frameTime >= SPACING / 2);
+
+            // Playback may then complete as quickly as possible
+            in.setSpeed(Double.POSITIVE_INFINITY);
+            assertArrayEquals(Arrays.copyOfRange(expected, replayed + frameLength,
+                    expected.length), readAll(in));
+            assertEquals(getTimestamp(FRAMES - 1) - START, in.getTime());
+
+        }
+        finally {
+            in.close();
+        }
+
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+
+        File directory = folder.newFolder();
+        byte[] expected = record(directory, FRAMES);
+
+        RecordingInputStream in = new RecordingInputStream(directory);
+        try {
+
+            in.setSpeed(Double.POSITIVE_INFINITY);
+
+            // Reads end once interrupted, until the next seek
+            in.interrupt();
+            assertEquals(-1, in.read());
+
+            in.seek(0);
+            assertArrayEquals(expected, readAll(in));
+
+        }
+        finally {
+            in.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,245 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import net.sourceforge.guacamole.io.BufferConfiguration;
+import net.sourceforge.guacamole.net.ChannelGuacamoleSocket;
+import net.sourceforge.guacamole.net.GuacamoleEventLoop;
+import net.sourceforge.guacamole.net.GuacamoleSocket;
+import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.servlet.ServletStubs.StringSocket;
+import net.sourceforge.guacamole.servlet.ServletStubs.StubAsyncContext;
+import net.sourceforge.guacamole.servlet.ServletStubs.StubResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests AsyncTunnelReader using stubbed asynchronous requests, reading both
+ * from sockets which may block and from sockets providing notification of
+ * available data.
+ *
+ * @author Michael Jumper
+ */
+public class AsyncTunnelReaderTest {
+
+    /**
+     * The length of time to wait for each read to complete, in milliseconds.
+     */
+    private static final long TIMEOUT = 5000;
+
+    private HttpSession httpSession;
+    private GuacamoleSession session;
+
+    private GuacamoleEventLoop loop;
+    private ServerSocket server;
+    private Socket guacd;
+
+    @Before
+    public void setUp() throws Exception {
+
+        httpSession = ServletStubs.session();
+        session = new GuacamoleSession(httpSession);
+
+        loop = new GuacamoleEventLoop(1);
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress("localhost", 0));
+
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        if (guacd != null)
+            guacd.close();
+
+        server.close();
+        loop.shutdown();
+
+    }
+
+    /**
+     * A single asynchronous read of a tunnel, along with its stubbed request
+     * and response.
+     */
+    private class Read {
+
+        private final StubAsyncContext context = new StubAsyncContext();
+        private final StubResponse response = new StubResponse();
+
+        public Read(GuacamoleTunnel tunnel) throws Exception {
+            HttpServletRequest request = ServletStubs.request("read:",
+                    httpSession, new byte[0], context.getContext());
+            AsyncTunnelReader.start(request, response.getResponse(), session, tunnel);
+        }
+
+        public boolean await(long milliseconds) throws InterruptedException {
+            return context.await(milliseconds);
+        }
+
+        public String getData() throws Exception {
+            return response.getOutput().getData();
+        }
+
+        public int getError() {
+            return response.getError();
+        }
+
+    }
+
+    /**
+     * Connects a new ChannelGuacamoleSocket, which provides notification of
+     * available data, to the local server, accepting the connection.
+     */
+    private GuacamoleSocket connect() throws Exception {
+
+        GuacamoleSocket socket = new ChannelGuacamoleSocket("localhost",
+                server.getLocalPort(), new BufferConfiguration(), loop);
+
+        guacd = server.accept();
+        return socket;
+
+    }
+
+    @Test
+    public void testReadToEndOfStream() throws Exception {
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(
+                new StringSocket("4.sync,1.1;4.sync,1.2;"));
+
+        // All data is sent, followed by the end-of-instructions marker
+        Read read = new Read(tunnel);
+        assertTrue(read.await(TIMEOUT));
+        assertEquals("4.sync,1.1;4.sync,1.2;0.;", read.getData());
+        assertEquals(0, read.getError());
+
+        // The tunnel is closed upon end of stream
+        assertFalse(tunnel.isOpen());
+
+    }
+
+    @Test
+    public void testEndOfStreamBeforeData() throws Exception {
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(new StringSocket(""));
+
+        Read read = new Read(tunnel);
+        assertTrue(read.await(TIMEOUT));
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, read.getError());
+        assertFalse(tunnel.isOpen());
+
+    }
+
+    @Test
+    public void testDataArrivesLater() throws Exception {
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(connect());
+
+        try {
+
+            // The read waits for data without completing
+            Read read = new Read(tunnel);
+            assertFalse(read.await(100));
+
+            // Data sent later is read once notified, and the read completes
+            // once the stream ends
+            OutputStream output = guacd.getOutputStream();
+            output.write("4.sync,1.1;".getBytes("UTF-8"));
+            output.flush();
+            guacd.close();
+
+            assertTrue(read.await(TIMEOUT));
+            assertEquals("4.sync,1.1;0.;", read.getData());
+
+        }
+        finally {
+            tunnel.close();
+        }
+
+    }
+
+    @Test
+    public void testHandoff() throws Exception {
+
+        GuacamoleTunnel tunnel = new GuacamoleTunnel(connect());
+        OutputStream output = guacd.getOutputStream();
+
+        try {
+
+            // The first read sends what data is available, then waits
+            Read first = new Read(tunnel);
+            output.write("4.sync,1.1;".getBytes("UTF-8"));
+            output.flush();
+            assertFalse(first.await(100));
+
+            // A second read takes over immediately, as the first is idle at
+            // an instruction boundary
+            Read second = new Read(tunnel);
+            assertTrue(first.await(TIMEOUT));
+            assertEquals("4.sync,1.1;0.;", first.getData());
+
+            // Later data goes only to the second read
+            output.write("4.sync,1.2;".getBytes("UTF-8"));
+            output.flush();
+            guacd.close();
+
+            assertTrue(second.await(TIMEOUT));
+            assertEquals("4.sync,1.2;0.;", second.getData());
+            assertEquals(1, tunnel.getReaderWaitCount());
+
+        }
+        finally {
+            tunnel.close();
+        }
+
+    }
+
+}
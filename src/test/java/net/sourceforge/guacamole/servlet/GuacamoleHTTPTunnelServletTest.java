@@ -0,0 +1,246 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import net.sourceforge.guacamole.net.GuacamoleTunnel;
+import net.sourceforge.guacamole.servlet.ServletStubs.StringSocket;
+import net.sourceforge.guacamole.servlet.ServletStubs.StubResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the handling of tunnel requests by GuacamoleHTTPTunnelServlet using
+ * stubbed requests and responses.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleHTTPTunnelServletTest {
+
+    /**
+     * Servlet under test, which never creates tunnels itself.
+     */
+    private final GuacamoleHTTPTunnelServlet servlet = new GuacamoleHTTPTunnelServlet() {
+
+        @Override
+        protected GuacamoleTunnel doConnect(HttpServletRequest request) {
+            return null;
+        }
+
+    };
+
+    private HttpSession httpSession;
+    private StringSocket socket;
+    private GuacamoleTunnel tunnel;
+
+    @Before
+    public void setUp() throws Exception {
+
+        // Read synchronously, as within a Servlet 3.0 container
+        servlet.init(ServletStubs.config(3, 0));
+
+        httpSession = ServletStubs.session();
+        attach("");
+
+    }
+
+    /**
+     * Attaches a new tunnel to the session, replacing any tunnel attached
+     * previously, whose socket reads the given instruction data.
+     */
+    private void attach(String data) throws Exception {
+
+        if (tunnel != null) {
+            new GuacamoleSession(httpSession).detachTunnel(tunnel);
+            tunnel.close();
+        }
+
+        socket = new StringSocket(data);
+        tunnel = new GuacamoleTunnel(socket);
+        new GuacamoleSession(httpSession).attachTunnel(tunnel);
+
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tunnel.close();
+    }
+
+    /**
+     * Sends a write request having the given body to the tunnel, returning
+     * the HTTP status code of any error sent, or zero if no error was sent.
+     */
+    private int write(String body) throws Exception {
+
+        StubResponse response = new StubResponse();
+        servlet.handleTunnelRequest(ServletStubs.request("write:" + tunnel.getUUID(),
+                httpSession, body.getBytes("UTF-8"), null), response.getResponse());
+
+        return response.getError();
+
+    }
+
+    /**
+     * Sends a read request to the tunnel, returning the response.
+     */
+    private StubResponse read() throws Exception {
+
+        StubResponse response = new StubResponse();
+        servlet.handleTunnelRequest(ServletStubs.request("read:" + tunnel.getUUID() + ":0",
+                httpSession, new byte[0], null), response.getResponse());
+
+        return response;
+
+    }
+
+    /**
+     * Returns all data written to the tunnel's socket.
+     */
+    private String getWritten() {
+
+        StringBuilder written = new StringBuilder();
+        for (String chunk : socket.getWritten())
+            written.append(chunk);
+
+        return written.toString();
+
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+
+        // Complete instructions are written with a single write
+        assertEquals(0, write("4.sync,1.1;3.key,2.65,1.1;"));
+        assertEquals("[4.sync,1.1;3.key,2.65,1.1;]", socket.getWritten().toString());
+
+    }
+
+    @Test
+    public void testLargeWrite() throws Exception {
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            body.append("5.mouse,1.1,1.2,1.0;");
+
+        // Large bodies are committed in several writes, each containing only
+        // complete instructions
+        assertEquals(0, write(body.toString()));
+        assertEquals(body.toString(), getWritten());
+
+        List<String> written = socket.getWritten();
+        assertTrue(written.size() > 1);
+        for (String chunk : written)
+            assertTrue(chunk.endsWith(";"));
+
+    }
+
+    @Test
+    public void testPartialTrailingInstruction() throws Exception {
+
+        // The trailing partial instruction is refused, while the complete
+        // instructions before it are still written
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, write("4.sync,1.1;4.syn"));
+        assertEquals("4.sync,1.1;", getWritten());
+
+    }
+
+    @Test
+    public void testMalformedWrite() throws Exception {
+
+        // Nothing is written from a malformed body
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, write("x.sync;"));
+        assertEquals("", getWritten());
+
+    }
+
+    @Test
+    public void testNoSuchTunnel() throws Exception {
+
+        StubResponse response = new StubResponse();
+        servlet.handleTunnelRequest(ServletStubs.request(
+                "write:00000000-0000-0000-0000-000000000000", httpSession,
+                "4.sync,1.1;".getBytes("UTF-8"), null), response.getResponse());
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getError());
+        assertEquals("", getWritten());
+
+    }
+
+    @Test
+    public void testRead() throws Exception {
+
+        attach("4.sync,1.1;4.sync,1.2;");
+
+        // All data is sent, followed by the end-of-instructions marker
+        StubResponse response = read();
+        assertEquals(0, response.getError());
+        assertEquals("4.sync,1.1;4.sync,1.2;0.;", response.getOutput().getData());
+
+    }
+
+    @Test
+    public void testReadClosedWithinInstruction() throws Exception {
+
+        // An instruction large enough to be sent in fragments, cut short
+        StringBuilder data = new StringBuilder("4.sync,1.1;3.img,100000.");
+        for (int i = 0; i < 50000; i++)
+            data.append('x');
+
+        attach(data.toString());
+
+        // The read fails rather than terminating the partial instruction
+        // with the end-of-instructions marker
+        StubResponse response = read();
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, response.getError());
+
+        String sent = response.getOutput().getData();
+        assertTrue(sent.length() > "4.sync,1.1;".length());
+        assertTrue(data.toString().startsWith(sent));
+
+    }
+
+}
@@ -0,0 +1,173 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.sourceforge.guacamole.metrics.GuacamoleMetrics;
+import net.sourceforge.guacamole.metrics.LatencyHistogram;
+import net.sourceforge.guacamole.servlet.ServletStubs.StubResponse;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that GuacamoleMetricsServlet produces valid Prometheus text
+ * exposition format.
+ *
+ * @author Michael Jumper
+ */
+public class GuacamoleMetricsServletTest {
+
+    /**
+     * Pattern matching a single sample, grouping the metric name, the
+     * labels, if any, and the value.
+     */
+    private static final Pattern SAMPLE = Pattern.compile(
+            "([a-zA-Z_:][a-zA-Z0-9_:]*)(?:\\{([a-z_]+=\"[^\"]*\")\\})? (\\S+)");
+
+    /**
+     * Pattern matching the HELP and TYPE lines, grouping the metric name.
+     */
+    private static final Pattern COMMENT = Pattern.compile(
+            "# (?:HELP|TYPE) ([a-zA-Z_:][a-zA-Z0-9_:]*) .+");
+
+    /**
+     * Retrieves the metrics, returning the text of the response.
+     */
+    private static String getMetrics() throws Exception {
+
+        StubResponse response = new StubResponse();
+        new GuacamoleMetricsServlet().doGet(
+                ServletStubs.request(null, null, new byte[0], null),
+                response.getResponse());
+
+        assertTrue(response.getContentType().startsWith("text/plain; version=0.0.4"));
+        return response.getText();
+
+    }
+
+    /**
+     * Returns the value of every sample of the given metric, keyed by the
+     * labels of each sample, or by the empty string if unlabeled.
+     */
+    private static Map<String, String> samples(String metrics, String name) {
+
+        Map<String, String> samples = new HashMap<String, String>();
+        for (String line : metrics.split("\n")) {
+            Matcher matcher = SAMPLE.matcher(line);
+            if (matcher.matches() && matcher.group(1).equals(name))
+                samples.put(matcher.group(2) == null ? "" : matcher.group(2),
+                        matcher.group(3));
+        }
+
+        return samples;
+
+    }
+
+    @Test
+    public void testFormat() throws Exception {
+
+        Set<String> described = new HashSet<String>();
+        String metrics = getMetrics();
+        assertTrue(metrics.endsWith("\n"));
+
+        // Every line is either a comment describing a metric, or a sample
+        // of a metric already described
+        for (String line : metrics.split("\n")) {
+
+            Matcher comment = COMMENT.matcher(line);
+            if (comment.matches()) {
+                described.add(comment.group(1));
+                continue;
+            }
+
+            Matcher sample = SAMPLE.matcher(line);
+            assertTrue(line, sample.matches());
+            Double.parseDouble(sample.group(3).replace("+Inf", "Infinity"));
+
+            String name = sample.group(1).replaceAll("_(bucket|sum|count)$", "");
+            assertTrue(line, described.contains(name) || described.contains(sample.group(1)));
+
+        }
+
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+
+        // Record a duration falling within the bucket of durations up to
+        // 1023 nanoseconds
+        GuacamoleMetrics.getHandshakeHistogram().record(1000);
+
+        String metrics = getMetrics();
+        Map<String, String> buckets = samples(metrics, "guacamole_handshake_seconds_bucket");
+        assertEquals(LatencyHistogram.BUCKETS, buckets.size());
+
+        // Bounds are inclusive maximums, in seconds
+        String below = "le=\"" + LatencyHistogram.getMaximum(9) * 1e-9 + "\"";
+        String within = "le=\"" + LatencyHistogram.getMaximum(10) * 1e-9 + "\"";
+        assertNotNull(buckets.get(below));
+        assertNotNull(buckets.get(within));
+        assertTrue(Long.parseLong(buckets.get(within)) > Long.parseLong(buckets.get(below)));
+
+        // Buckets are cumulative, ending with the total count
+        long previous = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+            long count = Long.parseLong(buckets.get("le=\""
+                    + LatencyHistogram.getMaximum(i) * 1e-9 + "\""));
+            assertTrue(count >= previous);
+            previous = count;
+        }
+
+        String total = buckets.get("le=\"+Inf\"");
+        assertTrue(Long.parseLong(total) >= previous);
+        assertEquals(total, samples(metrics, "guacamole_handshake_seconds_count").get(""));
+        assertNotNull(samples(metrics, "guacamole_handshake_seconds_sum").get(""));
+
+    }
+
+}
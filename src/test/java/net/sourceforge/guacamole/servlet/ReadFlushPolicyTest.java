@@ -0,0 +1,173 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import net.sourceforge.guacamole.io.InputStreamGuacamoleReader;
+import net.sourceforge.guacamole.io.InstructionView;
+import net.sourceforge.guacamole.io.ReaderGuacamoleReader;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the detection of frame boundaries by ReadFlushPolicy, and the
+ * flushing decisions made from them, using the default limits.
+ *
+ * @author Michael Jumper
+ */
+public class ReadFlushPolicyTest {
+
+    /**
+     * Returns a view of the given instructions as read by a reader of
+     * characters.
+     */
+    private static InstructionView chars(String instructions) throws Exception {
+        return new ReaderGuacamoleReader(new StringReader(instructions)).readBatch();
+    }
+
+    /**
+     * Returns a view of the given instructions as read by a reader of bytes.
+     */
+    private static InstructionView bytes(String instructions) throws Exception {
+        return new InputStreamGuacamoleReader(
+                new ByteArrayInputStream(instructions.getBytes("UTF-8"))).readBatch();
+    }
+
+    /**
+     * Asserts that the given instructions are found to end with a "sync"
+     * whether read as characters or bytes.
+     */
+    private static void assertSync(String instructions) throws Exception {
+        assertTrue(ReadFlushPolicy.endsWithSync(chars(instructions)));
+        assertTrue(ReadFlushPolicy.endsWithSync(bytes(instructions)));
+    }
+
+    /**
+     * Asserts that the given instructions are found not to end with a "sync"
+     * whether read as characters or bytes.
+     */
+    private static void assertNotSync(String instructions) throws Exception {
+        assertFalse(ReadFlushPolicy.endsWithSync(chars(instructions)));
+        assertFalse(ReadFlushPolicy.endsWithSync(bytes(instructions)));
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        assertSync("4.sync,13.1234567890123;");
+        assertSync("4.sync;");
+        assertSync("3.png,1.0,1.0,1.0,4.AAAA;4.sync,1.5;");
+        assertSync("4.name,4.sync;4.sync,2.10;");
+    }
+
+    @Test
+    public void testNotSync() throws Exception {
+        assertNotSync("3.png,1.0,1.0,1.0,4.AAAA;");
+        assertNotSync("4.sync,1.1;3.png,1.0,1.0,1.0,4.AAAA;");
+        assertNotSync("5.async,1.1;");
+        assertNotSync("4.name,4.sync;");
+        assertNotSync("4.sync,1.1,1.2;");
+        assertNotSync("4.sync,3.abc;");
+    }
+
+    @Test
+    public void testFlushAtFrameEnd() throws Exception {
+
+        ReadFlushPolicy policy = new ReadFlushPolicy();
+        assertFalse(policy.hasUnflushedData());
+        assertFalse(policy.isFlushDue());
+
+        // Data within an unfinished frame is held briefly
+        policy.written(bytes("3.png,1.0,1.0,1.0,4.AAAA;"));
+        assertTrue(policy.hasUnflushedData());
+        assertFalse(policy.isFlushDue());
+        assertTrue(policy.getHoldTime() > 0);
+
+        // The end of the frame is flushed immediately
+        policy.written(bytes("4.sync,1.5;"));
+        assertTrue(policy.isFlushDue());
+        assertEquals(0, policy.getHoldTime());
+
+        policy.flushed();
+        assertFalse(policy.hasUnflushedData());
+        assertFalse(policy.isFlushDue());
+
+    }
+
+    @Test
+    public void testFlushAtThreshold() throws Exception {
+
+        StringBuilder data = new StringBuilder();
+        while (data.length() < 32768)
+            data.append("3.png,1.0,1.0,1.0,4.AAAA;");
+
+        InputStreamGuacamoleReader reader = new InputStreamGuacamoleReader(
+                new ByteArrayInputStream(data.toString().getBytes("UTF-8")));
+
+        // Large unfinished frames are not held
+        ReadFlushPolicy policy = new ReadFlushPolicy();
+        InstructionView view;
+        while ((view = reader.readBatch()) != null)
+            policy.written(view);
+
+        assertTrue(policy.isFlushDue());
+        assertEquals(0, policy.getHoldTime());
+
+    }
+
+    @Test
+    public void testFlushAfterDelay() throws Exception {
+
+        ReadFlushPolicy policy = new ReadFlushPolicy();
+        policy.written(bytes("3.png,1.0,1.0,1.0,4.AAAA;"));
+        assertFalse(policy.isFlushDue());
+
+        // Data held past the delay is flushed even if the frame has not
+        // ended
+        Thread.sleep(50);
+        assertTrue(policy.isFlushDue());
+
+    }
+
+}
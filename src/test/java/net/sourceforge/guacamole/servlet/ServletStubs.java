@@ -0,0 +1,484 @@
+
+package net.sourceforge.guacamole.servlet;
+
+
+/* ***** BEGIN LICENSE BLOCK *****
+ * Version: MPL 1.1/GPL 2.0/LGPL 2.1
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is guacamole-common.
+ *
+ * The Initial Developer of the Original Code is
+ * Michael Jumper.
+ * Portions created by the Initial Developer are Copyright (C) 2010
+ * the Initial Developer. All Rights Reserved.
+ *
+ * Contributor(s):
+ *
+ * Alternatively, the contents of this file may be used under the terms of
+ * either the GNU General Public License Version 2 or later (the "GPL"), or
+ * the GNU Lesser General Public License Version 2.1 or later (the "LGPL"),
+ * in which case the provisions of the GPL or the LGPL are applicable instead
+ * of those above. If you wish to allow use of your version of this file only
+ * under the terms of either the GPL or the LGPL, and not to allow others to
+ * use your version of this file under the terms of the MPL, indicate your
+ * decision by deleting the provisions above and replace them with the notice
+ * and other provisions required by the GPL or the LGPL. If you do not delete
+ * the provisions above, a recipient may use your version of this file under
+ * the terms of any one of the MPL, the GPL or the LGPL.
+ *
+ * ***** END LICENSE BLOCK ***** */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import net.sourceforge.guacamole.io.GuacamoleReader;
+import net.sourceforge.guacamole.io.GuacamoleWriter;
+import net.sourceforge.guacamole.io.OutputStreamGuacamoleWriter;
+import net.sourceforge.guacamole.io.ReaderGuacamoleReader;
+import net.sourceforge.guacamole.net.GuacamoleSocket;
+
+/**
+ * Minimal implementations of the servlet API objects used by the tunnel
+ * servlet, sufficient for testing without a servlet container. Only the
+ * functions used by the tunnel servlet do anything; all others return
+ * null, zero or false.
+ *
+ * @author Michael Jumper
+ */
+final class ServletStubs {
+
+    private ServletStubs() {}
+
+    /**
+     * Handler of calls to a stubbed interface, dispatching to the
+     * identically-named function of the handler itself, if any.
+     */
+    private static abstract class StubHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+
+            Object result = handle(method.getName(), args);
+            if (result != null)
+                return result;
+
+            // Default to null, zero or false
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) return false;
+            if (type == int.class)     return 0;
+            if (type == long.class)    return 0L;
+            return null;
+
+        }
+
+        /**
+         * Handles a call to the function having the given name, returning
+         * its result, or null if the default value should be returned.
+         */
+        protected abstract Object handle(String name, Object[] args)
+                throws Throwable;
+
+    }
+
+    /**
+     * Returns a new proxy implementing the given interface using the given
+     * handler.
+     */
+    private static <T> T stub(Class<T> type, StubHandler handler) {
+        return type.cast(Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Returns a new ServletConfig whose ServletContext reports the given
+     * servlet API version.
+     */
+    public static ServletConfig config(final int major, final int minor) {
+
+        final ServletContext context = stub(ServletContext.class, new StubHandler() {
+
+            @Override
+            protected Object handle(String name, Object[] args) {
+
+                if (name.equals("getMajorVersion"))
+                    return major;
+
+                if (name.equals("getMinorVersion"))
+                    return minor;
+
+                return null;
+
+            }
+
+        });
+
+        return stub(ServletConfig.class, new StubHandler() {
+
+            @Override
+            protected Object handle(String name, Object[] args) {
+
+                if (name.equals("getServletContext"))
+                    return context;
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns a new HttpSession storing its attributes within a map.
+     */
+    public static HttpSession session() {
+
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        return stub(HttpSession.class, new StubHandler() {
+
+            @Override
+            protected Object handle(String name, Object[] args) {
+
+                if (name.equals("getAttribute"))
+                    return attributes.get((String) args[0]);
+
+                if (name.equals("setAttribute"))
+                    attributes.put((String) args[0], args[1]);
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * Returns a new HttpServletRequest having the given query string,
+     * session and body. If an AsyncContext is given, the request supports
+     * asynchronous processing using that context.
+     */
+    public static HttpServletRequest request(final String query,
+            final HttpSession session, final byte[] body,
+            final AsyncContext context) {
+
+        final ServletInputStream input = new ServletInputStream() {
+
+            private final ByteArrayInputStream data = new ByteArrayInputStream(body);
+
+            @Override
+            public int read() {
+                return data.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                return data.read(buffer, offset, length);
+            }
+
+            @Override
+            public boolean isFinished() {
+                return data.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+
+        return stub(HttpServletRequest.class, new StubHandler() {
+
+            @Override
+            protected Object handle(String name, Object[] args) {
+
+                if (name.equals("getQueryString"))
+                    return query;
+
+                if (name.equals("getSession"))
+                    return session;
+
+                if (name.equals("getInputStream"))
+                    return input;
+
+                if (name.equals("isAsyncSupported"))
+                    return context != null;
+
+                if (name.equals("startAsync"))
+                    return context;
+
+                return null;
+
+            }
+
+        });
+
+    }
+
+    /**
+     * ServletOutputStream which stores all data written, always ready for
+     * more.
+     */
+    public static class StubOutputStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            data.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int length) {
+            data.write(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            // Always ready, thus the listener is never needed
+        }
+
+        /**
+         * Returns all data written, decoded as UTF-8.
+         */
+        public synchronized String getData() throws IOException {
+            return data.toString("UTF-8");
+        }
+
+    }
+
+    /**
+     * HttpServletResponse writing to a StubOutputStream, or to a
+     * StringWriter if text is written, recording the content type and any
+     * error sent.
+     */
+    public static class StubResponse {
+
+        private final StubOutputStream output = new StubOutputStream();
+        private final StringWriter text = new StringWriter();
+        private volatile String contentType;
+        private volatile int error = 0;
+
+        private final HttpServletResponse response =
+                stub(HttpServletResponse.class, new StubHandler() {
+
+            @Override
+            protected Object handle(String name, Object[] args) {
+
+                if (name.equals("getOutputStream"))
+                    return output;
+
+                if (name.equals("getWriter"))
+                    return new PrintWriter(text);
+
+                if (name.equals("setContentType"))
+                    contentType = (String) args[0];
+
+                if (name.equals("sendError"))
+                    error = (Integer) args[0];
+
+                return null;
+
+            }
+
+        });
+
+        /**
+         * Returns the HttpServletResponse itself.
+         */
+        public HttpServletResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * Returns the stream of the response body.
+         */
+        public StubOutputStream getOutput() {
+            return output;
+        }
+
+        /**
+         * Returns all text written.
+         */
+        public String getText() {
+            return text.toString();
+        }
+
+        /**
+         * Returns the content type set, if any.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the HTTP status code of the error sent, or zero if no
+         * error has been sent.
+         */
+        public int getError() {
+            return error;
+        }
+
+    }
+
+    /**
+     * AsyncContext which runs each resumed task on a new thread, and which
+     * can be awaited until complete.
+     */
+    public static class StubAsyncContext {
+
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        private final AsyncContext context = stub(AsyncContext.class, new StubHandler() {
+
+            @Override
+            protected Object handle(String name, Object[] args) {
+
+                if (name.equals("start")) {
+                    if (completed.getCount() == 0)
+                        throw new IllegalStateException("Already complete.");
+                    new Thread((Runnable) args[0]).start();
+                }
+
+                else if (name.equals("complete"))
+                    completed.countDown();
+
+                return null;
+
+            }
+
+        });
+
+        /**
+         * Returns the AsyncContext itself.
+         */
+        public AsyncContext getContext() {
+            return context;
+        }
+
+        /**
+         * Waits up to the given number of milliseconds for the request to
+         * complete, returning whether it has completed.
+         */
+        public boolean await(long milliseconds) throws InterruptedException {
+            return completed.await(milliseconds, TimeUnit.MILLISECONDS);
+        }
+
+    }
+
+    /**
+     * GuacamoleSocket which reads the given instruction data, and records
+     * each chunk of data written.
+     */
+    public static class StringSocket implements GuacamoleSocket {
+
+        private volatile boolean open = true;
+
+        private final GuacamoleReader reader;
+
+        private final List<String> written = new ArrayList<String>();
+
+        private final GuacamoleWriter writer = new OutputStreamGuacamoleWriter(new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                synchronized (written) {
+                    try {
+                        written.add(new String(buffer, offset, length, "UTF-8"));
+                    }
+                    catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+
+        });
+
+        public StringSocket(String data) {
+            reader = new ReaderGuacamoleReader(new StringReader(data));
+        }
+
+        /**
+         * Returns each chunk of data written, in order.
+         */
+        public List<String> getWritten() {
+            synchronized (written) {
+                return new ArrayList<String>(written);
+            }
+        }
+
+        @Override
+        public GuacamoleReader getReader() {
+            return reader;
+        }
+
+        @Override
+        public GuacamoleWriter getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+    }
+
+}